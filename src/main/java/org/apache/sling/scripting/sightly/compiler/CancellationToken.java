@@ -0,0 +1,45 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.compiler;
+
+/**
+ * Allows cancelling a running compilation, from any thread. The compiler checks the token cooperatively, while parsing the script and
+ * between the processing of the commands by the optimisation passes, so the compilation stops shortly after the token is cancelled; its
+ * {@link CompilationResult} then reports an error. A token can be used for several compilations, which are all cancelled together.
+ */
+public final class CancellationToken {
+
+    private volatile boolean cancelled;
+
+    /**
+     * Cancels the compilations using this token.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Tells if this token was cancelled.
+     *
+     * @return {@code true} if the token was cancelled, {@code false} otherwise
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+}
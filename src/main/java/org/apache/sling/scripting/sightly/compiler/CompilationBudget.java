@@ -0,0 +1,154 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.compiler;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * <p>
+ * Bounds the resources a single compilation can use, so that pathological scripts (e.g. generated scripts with deeply nested elements,
+ * huge expressions or thousands of attributes) cannot monopolise a compilation thread. The compilation of a script which exceeds one of
+ * the limits is stopped and reported through an error of its {@link CompilationResult}.
+ * </p>
+ * <p>
+ * Budgets are immutable; the {@code with} methods return a copy of the budget with the changed limit. A limit of {@code 0} means no
+ * limit.
+ * </p>
+ */
+public final class CompilationBudget {
+
+    /**
+     * A budget without any limits.
+     */
+    public static final CompilationBudget UNLIMITED = new CompilationBudget(0, 0, 0, 0);
+
+    private final int maxCommands;
+    private final int maxNestingDepth;
+    private final int maxExpressionSize;
+    private final long timeoutNanos;
+
+    private CompilationBudget(int maxCommands, int maxNestingDepth, int maxExpressionSize, long timeoutNanos) {
+        this.maxCommands = maxCommands;
+        this.maxNestingDepth = maxNestingDepth;
+        this.maxExpressionSize = maxExpressionSize;
+        this.timeoutNanos = timeoutNanos;
+    }
+
+    /**
+     * Returns a copy of this budget which limits the number of commands generated by the front-end of the compiler for a script.
+     *
+     * @param maxCommands the maximum number of commands
+     * @return the budget
+     */
+    public @NotNull CompilationBudget withMaxCommands(int maxCommands) {
+        return new CompilationBudget(checkLimit(maxCommands), maxNestingDepth, maxExpressionSize, timeoutNanos);
+    }
+
+    /**
+     * Returns a copy of this budget which limits the nesting depth of the elements of a script.
+     *
+     * @param maxNestingDepth the maximum number of nested elements
+     * @return the budget
+     */
+    public @NotNull CompilationBudget withMaxNestingDepth(int maxNestingDepth) {
+        return new CompilationBudget(maxCommands, checkLimit(maxNestingDepth), maxExpressionSize, timeoutNanos);
+    }
+
+    /**
+     * Returns a copy of this budget which limits the size of the expressions of a script, as the number of nodes of the parsed
+     * expression, including its options. The size is checked once the whole interpolation containing the expression has been parsed,
+     * so the limit protects the following compilation stages but not the expression parser itself, whose work only grows with the
+     * length of the script.
+     *
+     * @param maxExpressionSize the maximum number of nodes of an expression
+     * @return the budget
+     */
+    public @NotNull CompilationBudget withMaxExpressionSize(int maxExpressionSize) {
+        return new CompilationBudget(maxCommands, maxNestingDepth, checkLimit(maxExpressionSize), timeoutNanos);
+    }
+
+    /**
+     * Returns a copy of this budget which limits the wall-clock time of a compilation.
+     *
+     * @param timeout the maximum duration of a compilation
+     * @param unit    the unit of the {@code timeout}
+     * @return the budget
+     */
+    public @NotNull CompilationBudget withTimeout(long timeout, @NotNull TimeUnit unit) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("The timeout cannot be negative: " + timeout);
+        }
+        return new CompilationBudget(maxCommands, maxNestingDepth, maxExpressionSize, unit.toNanos(timeout));
+    }
+
+    /**
+     * Returns the maximum number of commands generated by the front-end of the compiler for a script.
+     *
+     * @return the maximum number of commands; {@code 0} if not limited
+     */
+    public int getMaxCommands() {
+        return maxCommands;
+    }
+
+    /**
+     * Returns the maximum nesting depth of the elements of a script.
+     *
+     * @return the maximum number of nested elements; {@code 0} if not limited
+     */
+    public int getMaxNestingDepth() {
+        return maxNestingDepth;
+    }
+
+    /**
+     * Returns the maximum number of nodes of an expression.
+     *
+     * @return the maximum number of nodes; {@code 0} if not limited
+     */
+    public int getMaxExpressionSize() {
+        return maxExpressionSize;
+    }
+
+    /**
+     * Returns the maximum duration of a compilation.
+     *
+     * @param unit the unit of the returned duration
+     * @return the maximum duration; {@code 0} if not limited
+     */
+    public long getTimeout(@NotNull TimeUnit unit) {
+        return unit.convert(timeoutNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Tells if this budget limits anything.
+     *
+     * @return {@code true} if no limit is set, {@code false} otherwise
+     */
+    public boolean isUnlimited() {
+        return maxCommands == 0 && maxNestingDepth == 0 && maxExpressionSize == 0 && timeoutNanos == 0;
+    }
+
+    private static int checkLimit(int limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("A limit cannot be negative: " + limit);
+        }
+        return limit;
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.compiler;
+
+import org.apache.sling.scripting.sightly.compiler.expression.MarkupContext;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.RuntimeCall;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.osgi.annotation.versioning.ConsumerType;
+
+/**
+ * <p>
+ *     A {@link CompileTimeEscaper} allows the {@link SightlyCompiler} to escape and filter constant strings during compilation, instead
+ *     of leaving this to the {@link RuntimeCall#XSS} runtime call. Implementations can be registered as OSGi services or passed to
+ *     {@link SightlyCompilerOptions#withCompileTimeEscaper(CompileTimeEscaper)}.
+ * </p>
+ * <p>
+ *     The output of an implementation must be identical to the one of the runtime's XSS escaping for the same input, otherwise scripts
+ *     would render differently depending on how their expressions were optimised.
+ * </p>
+ */
+@ConsumerType
+public interface CompileTimeEscaper {
+
+    /**
+     * Escapes and filters a constant string for the given markup context.
+     *
+     * @param text    the string to escape
+     * @param context the markup context
+     * @param hint    the additional hint passed to the {@link RuntimeCall#XSS} runtime call (e.g. the name of the attribute whose value
+     *                is escaped), if any
+     * @return the escaped string or {@code null} if the string should be escaped at runtime
+     */
+    @Nullable
+    String escape(@NotNull String text, @NotNull MarkupContext context, @Nullable String hint);
+}
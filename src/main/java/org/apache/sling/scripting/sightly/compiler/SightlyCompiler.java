@@ -20,28 +20,46 @@ package org.apache.sling.scripting.sightly.compiler;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.sling.scripting.sightly.compiler.backend.BackendCompiler;
 import org.apache.sling.scripting.sightly.compiler.commands.CommandStream;
+import org.apache.sling.scripting.sightly.compiler.commands.OutText;
+import org.apache.sling.scripting.sightly.compiler.commands.StaticTextPool;
+import org.apache.sling.scripting.sightly.impl.compiler.CompilationMonitor;
 import org.apache.sling.scripting.sightly.impl.compiler.CompilationResultImpl;
 import org.apache.sling.scripting.sightly.impl.compiler.CompilerMessageImpl;
 import org.apache.sling.scripting.sightly.impl.compiler.PushStream;
 import org.apache.sling.scripting.sightly.impl.compiler.Syntax;
+import org.apache.sling.scripting.sightly.impl.compiler.analysis.FlushPoints;
+import org.apache.sling.scripting.sightly.impl.compiler.analysis.Segmentation;
+import org.apache.sling.scripting.sightly.impl.compiler.analysis.SlotResolution;
+import org.apache.sling.scripting.sightly.impl.compiler.analysis.TypeInference;
 import org.apache.sling.scripting.sightly.impl.compiler.debug.SanityChecker;
 import org.apache.sling.scripting.sightly.impl.compiler.frontend.SimpleFrontend;
 import org.apache.sling.scripting.sightly.impl.compiler.optimization.CoalescingWrites;
-import org.apache.sling.scripting.sightly.impl.compiler.optimization.DeadCodeRemoval;
 import org.apache.sling.scripting.sightly.impl.compiler.optimization.SequenceStreamTransformer;
+import org.apache.sling.scripting.sightly.impl.compiler.optimization.StaticTextInterning;
 import org.apache.sling.scripting.sightly.impl.compiler.optimization.StreamTransformer;
 import org.apache.sling.scripting.sightly.impl.compiler.optimization.SyntheticMapRemoval;
 import org.apache.sling.scripting.sightly.impl.compiler.optimization.UnusedVariableRemoval;
-import org.apache.sling.scripting.sightly.impl.compiler.optimization.reduce.ConstantFolding;
+import org.apache.sling.scripting.sightly.impl.compiler.optimization.WhitespaceMinification;
+import org.apache.sling.scripting.sightly.impl.compiler.optimization.reduce.ConditionalConstantPropagation;
+import org.apache.sling.scripting.sightly.impl.compiler.util.SingleFlight;
+import org.apache.sling.scripting.sightly.impl.compiler.util.stream.ParallelProcedures;
+import org.apache.sling.scripting.sightly.impl.compiler.util.stream.Pipeline;
 import org.apache.sling.scripting.sightly.impl.filter.ExpressionContext;
 import org.apache.sling.scripting.sightly.impl.filter.Filter;
 import org.apache.sling.scripting.sightly.impl.filter.FormatFilter;
@@ -64,7 +82,14 @@ import org.apache.sling.scripting.sightly.impl.plugin.TextPlugin;
 import org.apache.sling.scripting.sightly.impl.plugin.UnwrapPlugin;
 import org.apache.sling.scripting.sightly.impl.plugin.UsePlugin;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.osgi.service.component.annotations.ReferencePolicy;
+import org.osgi.service.component.annotations.ReferencePolicyOption;
 
 /**
  * <p>
@@ -76,24 +101,66 @@ import org.osgi.service.component.annotations.Component;
 @Component(service = SightlyCompiler.class)
 public final class SightlyCompiler {
 
+    private static final String DEFAULT_VARIANT = "default";
+
+    private final SingleFlight<CompilationKey, Map<String, CompilationResult>> compilations = new SingleFlight<>();
     private final StreamTransformer optimizer;
+
+    @Reference(
+            cardinality = ReferenceCardinality.OPTIONAL,
+            policy = ReferencePolicy.DYNAMIC,
+            policyOption = ReferencePolicyOption.GREEDY)
+    private volatile CompileTimeEscaper escaper;
+
+    private final CompileTimeEscaper configuredEscaper;
+    private final boolean minifyWhitespace;
+    private final boolean pipelined;
+    private final ExecutorService pipelineExecutor;
+    private final boolean parallelProcedures;
+    private final CompilationBudget budget;
+    private final StaticTextPool textPool;
+
     private final SimpleFrontend frontend;
     private final Set<String> knownExpressionOptions;
     private final List<Plugin> plugins;
     private final List<Filter> filters;
 
     public SightlyCompiler() {
-        this(Collections.emptySet());
+        this(SightlyCompilerOptions.DEFAULT);
     }
 
-    private SightlyCompiler(Set<String> additionalExpresionOptions) {
-        ArrayList<StreamTransformer> transformers = new ArrayList<>(5);
-        transformers.add(ConstantFolding.transformer());
-        transformers.add(DeadCodeRemoval.transformer());
-        transformers.add(SyntheticMapRemoval.TRANSFORMER);
-        transformers.add(UnusedVariableRemoval.TRANSFORMER);
-        transformers.add(CoalescingWrites.TRANSFORMER);
-        optimizer = new SequenceStreamTransformer(transformers);
+    /**
+     * Creates the compiler service, reading its options from the component configuration.
+     *
+     * @param configuration the component configuration
+     */
+    @Activate
+    public SightlyCompiler(Configuration configuration) {
+        this(SightlyCompilerOptions.DEFAULT
+                .withWhitespaceMinification(configuration.whitespaceMinification())
+                .withPipelinedCompilation(configuration.pipelinedCompilation())
+                .withParallelTemplateOptimization(configuration.parallelTemplateOptimization())
+                .withStaticTextPool(
+                        configuration.staticTextPoolCapacity() > 0
+                                ? new StaticTextPool(configuration.staticTextPoolCapacity())
+                                : null)
+                .withCompilationBudget(CompilationBudget.UNLIMITED
+                        .withMaxCommands(configuration.budgetMaxCommands())
+                        .withMaxNestingDepth(configuration.budgetMaxNestingDepth())
+                        .withMaxExpressionSize(configuration.budgetMaxExpressionSize())
+                        .withTimeout(configuration.budgetTimeoutMillis(), TimeUnit.MILLISECONDS)));
+    }
+
+    private SightlyCompiler(SightlyCompilerOptions options) {
+        configuredEscaper = options.getCompileTimeEscaper();
+        minifyWhitespace = options.isWhitespaceMinification();
+        pipelined = options.isPipelinedCompilation();
+        pipelineExecutor = pipelined ? Pipeline.newExecutor() : null;
+        parallelProcedures = options.isParallelTemplateOptimization();
+        budget = options.getCompilationBudget();
+        textPool = options.getStaticTextPool();
+        optimizer = createOptimizer(
+                Collections.<String, Object>emptyMap(), null, false, false, textPool, CompilationMonitor.UNBOUNDED);
 
         // register plugins
         plugins = new ArrayList<>(12);
@@ -120,7 +187,7 @@ public final class SightlyCompiler {
         filters.add(URIManipulationFilter.getInstance());
         filters.add(XSSFilter.getInstance());
         Collections.sort(filters);
-        knownExpressionOptions = new HashSet<>(additionalExpresionOptions);
+        knownExpressionOptions = new HashSet<>(options.getKnownExpressionOptions());
         for (Filter filter : filters) {
             knownExpressionOptions.addAll(filter.getOptions());
         }
@@ -131,6 +198,16 @@ public final class SightlyCompiler {
         frontend = new SimpleFrontend(plugins, filters, knownExpressionOptions);
     }
 
+    /**
+     * Stops the threads running the pipelined compilations, once the running compilations are done.
+     */
+    @Deactivate
+    void deactivate() {
+        if (pipelineExecutor != null) {
+            pipelineExecutor.shutdown();
+        }
+    }
+
     /**
      * <p>
      * Returns an instance of the {@code SightlyCompiler} with the provided {@code options} added to the list of known expression options.
@@ -150,9 +227,31 @@ public final class SightlyCompiler {
      * @return an instance of the compiler
      */
     public static SightlyCompiler withKnownExpressionOptions(@NotNull Set<String> options) {
+        return new SightlyCompiler(SightlyCompilerOptions.DEFAULT.withKnownExpressionOptions(options));
+    }
+
+    /**
+     * Returns an instance of the {@code SightlyCompiler} which uses the provided {@code options}.
+     *
+     * @param options the compiler options
+     * @return an instance of the compiler
+     */
+    public static SightlyCompiler withOptions(@NotNull SightlyCompilerOptions options) {
         return new SightlyCompiler(options);
     }
 
+    /**
+     * Returns the pool of the static texts of the scripts compiled by this compiler (see
+     * {@link SightlyCompilerOptions#withStaticTextPool(StaticTextPool)}). The {@link OutText} commands of the compiled
+     * {@link CommandStream}s are taken from this pool while it has room, so backends can reference the texts by their
+     * {@link OutText#getPoolId() id}.
+     *
+     * @return the static text pool; {@code null} if the compiler doesn't intern the static text
+     */
+    public @Nullable StaticTextPool getStaticTextPool() {
+        return textPool;
+    }
+
     /**
      * Compiles a {@link CompilationUnit}.
      *
@@ -171,40 +270,284 @@ public final class SightlyCompiler {
      * @return the compilation result
      */
     public CompilationResult compile(CompilationUnit compilationUnit, BackendCompiler backendCompiler) {
-        String scriptName = compilationUnit.getScriptName();
-        String scriptSource = null;
-        PushStream stream = new PushStream();
-        SanityChecker.attachChecker(stream);
-        CommandStream optimizedStream = optimizer.transform(stream);
-        CompilationResultImpl compilationResult = new CompilationResultImpl(optimizedStream);
+        return compile(compilationUnit, backendCompiler, Collections.<String, Object>emptyMap());
+    }
+
+    /**
+     * <p>
+     * Compiles a {@link CompilationUnit}, passing the processed {@link CommandStream} to the provided {@link BackendCompiler}.
+     * </p>
+     * <p>
+     * The {@code globalConstants} describe global bindings whose values are known at compilation time (e.g. the WCM mode on a publish
+     * instance). Expressions depending only on these bindings are evaluated by the compiler and the branches which can never be taken
+     * are removed from the generated {@link CommandStream}. The provided bindings must not be re-assigned by other scripts called
+     * from the compiled script.
+     * </p>
+     *
+     * @param compilationUnit a compilation unit
+     * @param backendCompiler the backend compiler; can be {@code null}
+     * @param globalConstants the global bindings known to be constant
+     * @return the compilation result
+     */
+    public CompilationResult compile(
+            CompilationUnit compilationUnit,
+            BackendCompiler backendCompiler,
+            @NotNull Map<String, Object> globalConstants) {
+        return compile(compilationUnit, backendCompiler, globalConstants, null);
+    }
+
+    /**
+     * Compiles a {@link CompilationUnit} (see {@link #compile(CompilationUnit, BackendCompiler, Map)}), stopping when the provided
+     * {@code cancellationToken} is cancelled.
+     *
+     * @param compilationUnit   a compilation unit
+     * @param backendCompiler   the backend compiler; can be {@code null}
+     * @param globalConstants   the global bindings known to be constant
+     * @param cancellationToken the token cancelling the compilation; can be {@code null}
+     * @return the compilation result
+     */
+    public CompilationResult compile(
+            CompilationUnit compilationUnit,
+            BackendCompiler backendCompiler,
+            @NotNull Map<String, Object> globalConstants,
+            @Nullable CancellationToken cancellationToken) {
+        Map<String, BackendCompiler> backendCompilers = backendCompiler == null
+                ? Collections.<String, BackendCompiler>emptyMap()
+                : Collections.singletonMap(DEFAULT_VARIANT, backendCompiler);
+        return compileVariants(
+                        compilationUnit,
+                        Collections.singletonMap(DEFAULT_VARIANT, globalConstants),
+                        backendCompilers,
+                        cancellationToken)
+                .get(DEFAULT_VARIANT);
+    }
+
+    /**
+     * Compiles several variants of a {@link CompilationUnit}, each one specialised for its own set of global constants (see
+     * {@link #compile(CompilationUnit, BackendCompiler, Map)}). The script is parsed only once, the parsed commands being fed to
+     * the optimiser of every variant.
+     *
+     * @param compilationUnit  a compilation unit
+     * @param variants         the global constants of each variant, keyed by the variant name
+     * @param backendCompilers the backend compilers of the variants, keyed by the variant name; variants without a backend compiler
+     *                         are only compiled to a {@link CommandStream}
+     * @return the compilation results, keyed by the variant name
+     */
+    public Map<String, CompilationResult> compileVariants(
+            CompilationUnit compilationUnit,
+            @NotNull Map<String, Map<String, Object>> variants,
+            @NotNull Map<String, BackendCompiler> backendCompilers) {
+        return compileVariants(compilationUnit, variants, backendCompilers, null);
+    }
+
+    /**
+     * Compiles several variants of a {@link CompilationUnit} (see {@link #compileVariants(CompilationUnit, Map, Map)}), stopping when
+     * the provided {@code cancellationToken} is cancelled. A cancellable compilation is never shared with the concurrent compilations
+     * of the same script.
+     *
+     * @param compilationUnit   a compilation unit
+     * @param variants          the global constants of each variant, keyed by the variant name
+     * @param backendCompilers  the backend compilers of the variants, keyed by the variant name
+     * @param cancellationToken the token cancelling the compilation; can be {@code null}
+     * @return the compilation results, keyed by the variant name
+     */
+    public Map<String, CompilationResult> compileVariants(
+            CompilationUnit compilationUnit,
+            @NotNull Map<String, Map<String, Object>> variants,
+            @NotNull Map<String, BackendCompiler> backendCompilers,
+            @Nullable CancellationToken cancellationToken) {
+        final String scriptName = compilationUnit.getScriptName();
+        final String scriptSource;
         try {
             scriptSource = IOUtils.toString(compilationUnit.getScriptReader());
+        } catch (IOException e) {
+            throw new SightlyCompilerException(
+                    "Unable to read source code from CompilationUnit identifying script " + scriptName, e);
+        }
+        if (cancellationToken != null) {
+            return compileSource(
+                    scriptName,
+                    scriptSource,
+                    variants,
+                    backendCompilers,
+                    new CompilationMonitor(budget, cancellationToken));
+        }
+        // concurrent compilations of the same script (e.g. on the first requests after a deployment) share the parsing
+        // and the optimisation; the backend compilers are not part of the shared work, so that a failing or slow
+        // backend compiler of one caller doesn't affect the others
+        final Map<String, Map<String, Object>> variantsCopy = new LinkedHashMap<>(variants);
+        Map<String, CompilationResult> results = compilations
+                .execute(
+                        new CompilationKey(scriptName, scriptSource, variantsCopy),
+                        () -> compileSource(
+                                scriptName,
+                                scriptSource,
+                                variantsCopy,
+                                Collections.<String, BackendCompiler>emptyMap(),
+                                new CompilationMonitor(budget, null)))
+                .getResult();
+        // the closed command streams replay their commands to the backend compilers of each caller
+        for (Map.Entry<String, BackendCompiler> entry : backendCompilers.entrySet()) {
+            CompilationResult compilationResult = results.get(entry.getKey());
+            if (compilationResult != null) {
+                entry.getValue().handle(compilationResult.getCommandStream());
+            }
+        }
+        return results;
+    }
 
+    private Map<String, CompilationResult> compileSource(
+            String scriptName,
+            String scriptSource,
+            Map<String, Map<String, Object>> variants,
+            Map<String, BackendCompiler> backendCompilers,
+            CompilationMonitor monitor) {
+        PushStream stream = new PushStream();
+        if (!monitor.isUnbounded()) {
+            stream.addHandler(monitor);
+        }
+        SanityChecker.attachChecker(stream);
+        CompileTimeEscaper compileTimeEscaper = configuredEscaper != null ? configuredEscaper : escaper;
+        Pipeline pipeline = pipelined ? new Pipeline(pipelineExecutor) : null;
+        Map<String, CompilationResultImpl> compilationResults = new LinkedHashMap<>();
+        for (Map.Entry<String, Map<String, Object>> variant : variants.entrySet()) {
+            StreamTransformer variantOptimizer;
+            if (pipeline != null) {
+                variantOptimizer = pipeline.sequence(createTransformers(
+                        variant.getValue(),
+                        compileTimeEscaper,
+                        minifyWhitespace,
+                        parallelProcedures,
+                        textPool,
+                        monitor));
+            } else if (variant.getValue().isEmpty()
+                    && compileTimeEscaper == null
+                    && !minifyWhitespace
+                    && !parallelProcedures
+                    && monitor.isUnbounded()) {
+                variantOptimizer = optimizer;
+            } else {
+                variantOptimizer = createOptimizer(
+                        variant.getValue(),
+                        compileTimeEscaper,
+                        minifyWhitespace,
+                        parallelProcedures,
+                        textPool,
+                        monitor);
+            }
+            compilationResults.put(variant.getKey(), new CompilationResultImpl(variantOptimizer.transform(stream)));
+        }
+        boolean failed = false;
+        try {
             // optimizedStream.addHandler(LoggingHandler.INSTANCE);
-            if (backendCompiler != null) {
-                backendCompiler.handle(optimizedStream);
+            for (Map.Entry<String, CompilationResultImpl> entry : compilationResults.entrySet()) {
+                BackendCompiler backendCompiler = backendCompilers.get(entry.getKey());
+                if (backendCompiler != null) {
+                    backendCompiler.handle(entry.getValue().getCommandStream());
+                }
             }
-            frontend.compile(stream, scriptSource);
+            if (pipeline != null) {
+                pipeline.start();
+            }
+            frontend.compile(stream, scriptSource, monitor);
             for (PushStream.StreamMessage w : stream.getWarnings()) {
                 ScriptError warning = getScriptError(scriptSource, w.getCode(), 1, 0, w.getMessage());
-                compilationResult
-                        .getWarnings()
-                        .add(new CompilerMessageImpl(
-                                scriptName, warning.errorMessage, warning.lineNumber, warning.column));
+                for (CompilationResultImpl compilationResult : compilationResults.values()) {
+                    compilationResult
+                            .getWarnings()
+                            .add(new CompilerMessageImpl(
+                                    scriptName, warning.errorMessage, warning.lineNumber, warning.column));
+                }
             }
         } catch (SightlyCompilerException e) {
-            ScriptError scriptError =
-                    getScriptError(scriptSource, e.getOffendingInput(), e.getLine(), e.getColumn(), e.getMessage());
+            failed = true;
+            addError(scriptName, scriptSource, e, compilationResults.values());
+            if (!stream.isClosed()) {
+                // terminates the command streams of the results, which keep the commands produced before the failure
+                stream.signalError(e.getMessage());
+            }
+        } finally {
+            if (pipeline != null) {
+                pipeline.abort("The compilation of script " + scriptName + " failed.");
+                try {
+                    pipeline.await();
+                } catch (SightlyCompilerException e) {
+                    // a stage failed (e.g. an optimisation pass exceeded the compilation budget), which is reported
+                    // unless the compilation already failed, since its stages then report the same failure again
+                    if (!failed) {
+                        addError(scriptName, scriptSource, e, compilationResults.values());
+                    }
+                }
+            }
+        }
+        Map<String, CompilationResult> results = new LinkedHashMap<>();
+        for (Map.Entry<String, CompilationResultImpl> entry : compilationResults.entrySet()) {
+            entry.getValue().seal();
+            results.put(entry.getKey(), entry.getValue());
+        }
+        return Collections.unmodifiableMap(results);
+    }
+
+    private void addError(
+            String scriptName,
+            String scriptSource,
+            SightlyCompilerException e,
+            Collection<CompilationResultImpl> compilationResults) {
+        ScriptError scriptError =
+                getScriptError(scriptSource, e.getOffendingInput(), e.getLine(), e.getColumn(), e.getMessage());
+        for (CompilationResultImpl compilationResult : compilationResults) {
             compilationResult
                     .getErrors()
                     .add(new CompilerMessageImpl(
                             scriptName, scriptError.errorMessage, scriptError.lineNumber, scriptError.column));
-        } catch (IOException e) {
-            throw new SightlyCompilerException(
-                    "Unable to read source code from CompilationUnit identifying script " + scriptName, e);
         }
-        compilationResult.seal();
-        return compilationResult;
+    }
+
+    private static StreamTransformer createOptimizer(
+            Map<String, Object> globalConstants,
+            CompileTimeEscaper compileTimeEscaper,
+            boolean minifyWhitespace,
+            boolean parallelProcedures,
+            StaticTextPool textPool,
+            CompilationMonitor monitor) {
+        return new SequenceStreamTransformer(createTransformers(
+                globalConstants, compileTimeEscaper, minifyWhitespace, parallelProcedures, textPool, monitor));
+    }
+
+    private static List<StreamTransformer> createTransformers(
+            Map<String, Object> globalConstants,
+            CompileTimeEscaper compileTimeEscaper,
+            boolean minifyWhitespace,
+            boolean parallelProcedures,
+            StaticTextPool textPool,
+            CompilationMonitor monitor) {
+        ArrayList<StreamTransformer> transformers = new ArrayList<>(10);
+        transformers.add(ConditionalConstantPropagation.transformer(globalConstants, compileTimeEscaper));
+        transformers.add(SyntheticMapRemoval.TRANSFORMER);
+        transformers.add(UnusedVariableRemoval.TRANSFORMER);
+        transformers.add(CoalescingWrites.TRANSFORMER);
+        if (minifyWhitespace) {
+            transformers.add(WhitespaceMinification.TRANSFORMER);
+        }
+        transformers.add(TypeInference.TRANSFORMER);
+        transformers.add(FlushPoints.TRANSFORMER);
+        transformers.add(Segmentation.TRANSFORMER);
+        transformers.add(SlotResolution.TRANSFORMER);
+        if (!monitor.isUnbounded()) {
+            for (int i = 0; i < transformers.size(); i++) {
+                transformers.set(i, monitor.checked(transformers.get(i)));
+            }
+        }
+        if (parallelProcedures) {
+            // the text interning depends on the order of the whole stream
+            StreamTransformer procedureOptimizer = new SequenceStreamTransformer(transformers);
+            transformers = new ArrayList<>(2);
+            transformers.add(ParallelProcedures.transformer(procedureOptimizer, ForkJoinPool.commonPool()));
+        }
+        if (textPool != null) {
+            transformers.add(StaticTextInterning.transformer(textPool));
+        }
+        return transformers;
     }
 
     private ScriptError getScriptError(
@@ -258,6 +601,91 @@ public final class SightlyCompiler {
         return null;
     }
 
+    /**
+     * The component configuration of the compiler service (see {@link SightlyCompilerOptions}).
+     */
+    public @interface Configuration {
+
+        /**
+         * @return {@code true} to collapse the insignificant whitespace of the static markup
+         */
+        boolean whitespaceMinification() default false;
+
+        /**
+         * @return {@code true} to run the stages of a compilation on separate threads
+         */
+        boolean pipelinedCompilation() default false;
+
+        /**
+         * @return {@code true} to optimise the top level templates of a script concurrently
+         */
+        boolean parallelTemplateOptimization() default false;
+
+        /**
+         * @return the maximum number of commands generated for a script; {@code 0} for no limit
+         */
+        int budgetMaxCommands() default 0;
+
+        /**
+         * @return the maximum nesting depth of the elements of a script; {@code 0} for no limit
+         */
+        int budgetMaxNestingDepth() default 0;
+
+        /**
+         * @return the maximum number of nodes of an expression; {@code 0} for no limit
+         */
+        int budgetMaxExpressionSize() default 0;
+
+        /**
+         * @return the maximum duration of a compilation, in milliseconds; {@code 0} for no limit
+         */
+        long budgetTimeoutMillis() default 0;
+
+        /**
+         * @return the maximum number of texts of the static text pool; {@code 0} for not interning the static text
+         */
+        int staticTextPoolCapacity() default 0;
+    }
+
+    /**
+     * Identifies the compilations of the same source of a script, with the same variants.
+     */
+    private static final class CompilationKey {
+
+        private final String scriptName;
+        private final String scriptSource;
+        private final Map<String, Map<String, Object>> variants;
+        private final int hash;
+
+        CompilationKey(String scriptName, String scriptSource, Map<String, Map<String, Object>> variants) {
+            this.scriptName = scriptName;
+            this.scriptSource = scriptSource;
+            this.variants = variants;
+            this.hash = Objects.hash(scriptName, scriptSource, variants);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof CompilationKey)) {
+                return false;
+            }
+            CompilationKey other = (CompilationKey) obj;
+            // the hash of the sources is compared first, since the sources can be large
+            return hash == other.hash
+                    && Objects.equals(scriptName, other.scriptName)
+                    && scriptSource.equals(other.scriptSource)
+                    && variants.equals(other.variants);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
     private static class ScriptError {
 
         private int lineNumber;
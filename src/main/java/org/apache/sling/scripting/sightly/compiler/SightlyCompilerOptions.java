@@ -0,0 +1,266 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.compiler;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.sling.scripting.sightly.compiler.commands.StaticTextPool;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * <p>
+ * The options of a {@link SightlyCompiler} (see {@link SightlyCompiler#withOptions(SightlyCompilerOptions)}). The options can be
+ * combined freely; in an OSGi environment the compiler service reads them from its component configuration.
+ * </p>
+ * <p>
+ * Options are immutable; the {@code with} methods return a copy of the options with the changed value.
+ * </p>
+ */
+public final class SightlyCompilerOptions {
+
+    /**
+     * The default options: no compile-time escaper, whitespace minification, pipelining, parallel template optimisation,
+     * compilation budget or static text pool.
+     */
+    public static final SightlyCompilerOptions DEFAULT = new SightlyCompilerOptions(
+            Collections.<String>emptySet(), null, false, false, false, CompilationBudget.UNLIMITED, null);
+
+    private final Set<String> knownExpressionOptions;
+    private final CompileTimeEscaper compileTimeEscaper;
+    private final boolean whitespaceMinification;
+    private final boolean pipelinedCompilation;
+    private final boolean parallelTemplateOptimization;
+    private final CompilationBudget compilationBudget;
+    private final StaticTextPool staticTextPool;
+
+    private SightlyCompilerOptions(
+            Set<String> knownExpressionOptions,
+            CompileTimeEscaper compileTimeEscaper,
+            boolean whitespaceMinification,
+            boolean pipelinedCompilation,
+            boolean parallelTemplateOptimization,
+            CompilationBudget compilationBudget,
+            StaticTextPool staticTextPool) {
+        this.knownExpressionOptions = knownExpressionOptions;
+        this.compileTimeEscaper = compileTimeEscaper;
+        this.whitespaceMinification = whitespaceMinification;
+        this.pipelinedCompilation = pipelinedCompilation;
+        this.parallelTemplateOptimization = parallelTemplateOptimization;
+        this.compilationBudget = compilationBudget;
+        this.staticTextPool = staticTextPool;
+    }
+
+    /**
+     * Returns a copy of these options which adds the provided {@code options} to the compiler's set of known expression options (see
+     * {@link SightlyCompiler#withKnownExpressionOptions(Set)}).
+     *
+     * @param options the additional expression options
+     * @return the options
+     */
+    public @NotNull SightlyCompilerOptions withKnownExpressionOptions(@NotNull Set<String> options) {
+        return new SightlyCompilerOptions(
+                Collections.unmodifiableSet(new HashSet<>(options)),
+                compileTimeEscaper,
+                whitespaceMinification,
+                pipelinedCompilation,
+                parallelTemplateOptimization,
+                compilationBudget,
+                staticTextPool);
+    }
+
+    /**
+     * Returns a copy of these options which escapes the constant strings at compilation time with the provided {@code escaper}. In an
+     * OSGi environment the compiler uses the {@link CompileTimeEscaper} service, if one is available and no escaper is configured.
+     *
+     * @param escaper the compile-time escaper; {@code null} for no explicit escaper
+     * @return the options
+     */
+    public @NotNull SightlyCompilerOptions withCompileTimeEscaper(@Nullable CompileTimeEscaper escaper) {
+        return new SightlyCompilerOptions(
+                knownExpressionOptions,
+                escaper,
+                whitespaceMinification,
+                pipelinedCompilation,
+                parallelTemplateOptimization,
+                compilationBudget,
+                staticTextPool);
+    }
+
+    /**
+     * Returns a copy of these options which enables or disables the collapsing of the insignificant whitespace from the static markup of
+     * the compiled scripts. The content of the {@code pre}, {@code textarea}, {@code script} and {@code style} elements, the attribute
+     * values and the comments are preserved, as well as the static markup of the templates defined with {@code data-sly-template}.
+     *
+     * @param enabled {@code true} to minify the whitespace
+     * @return the options
+     */
+    public @NotNull SightlyCompilerOptions withWhitespaceMinification(boolean enabled) {
+        return new SightlyCompilerOptions(
+                knownExpressionOptions,
+                compileTimeEscaper,
+                enabled,
+                pipelinedCompilation,
+                parallelTemplateOptimization,
+                compilationBudget,
+                staticTextPool);
+    }
+
+    /**
+     * Returns a copy of these options which enables or disables running the frontend, each optimisation pass and the backend compilers
+     * of a compilation on separate threads, connected by bounded queues of commands. The compilation results are the same as the ones
+     * of the sequential compiler, but the latency of compiling large scripts is reduced on multi-core systems; for small scripts the
+     * cost of the handoffs between the threads outweighs the gain. The threads are pooled by the compiler and reused by the following
+     * compilations. The backend compilers of a cancellable compilation are notified on a thread of the pipeline, while the other ones
+     * process the completed command streams on the thread of their caller.
+     *
+     * @param enabled {@code true} to pipeline the compilations
+     * @return the options
+     */
+    public @NotNull SightlyCompilerOptions withPipelinedCompilation(boolean enabled) {
+        return new SightlyCompilerOptions(
+                knownExpressionOptions,
+                compileTimeEscaper,
+                whitespaceMinification,
+                enabled,
+                parallelTemplateOptimization,
+                compilationBudget,
+                staticTextPool);
+    }
+
+    /**
+     * Returns a copy of these options which enables or disables optimising the templates defined at the top level of the compiled
+     * scripts with {@code data-sly-template} concurrently. The compilation results are the same as the ones of the sequential compiler;
+     * the gain is limited to the scripts defining several large templates, such as template libraries.
+     *
+     * @param enabled {@code true} to optimise the templates concurrently
+     * @return the options
+     */
+    public @NotNull SightlyCompilerOptions withParallelTemplateOptimization(boolean enabled) {
+        return new SightlyCompilerOptions(
+                knownExpressionOptions,
+                compileTimeEscaper,
+                whitespaceMinification,
+                pipelinedCompilation,
+                enabled,
+                compilationBudget,
+                staticTextPool);
+    }
+
+    /**
+     * Returns a copy of these options which stops the compilations exceeding the provided {@code budget}. The compilation of a script
+     * exceeding the budget is reported through an error of its {@link CompilationResult}.
+     *
+     * @param budget the budget of each compilation
+     * @return the options
+     */
+    public @NotNull SightlyCompilerOptions withCompilationBudget(@NotNull CompilationBudget budget) {
+        return new SightlyCompilerOptions(
+                knownExpressionOptions,
+                compileTimeEscaper,
+                whitespaceMinification,
+                pipelinedCompilation,
+                parallelTemplateOptimization,
+                budget,
+                staticTextPool);
+    }
+
+    /**
+     * Returns a copy of these options which interns the static text of the compiled scripts in the provided {@code pool} (see
+     * {@link StaticTextPool}). The pool is owned by the caller, which bounds its capacity and decides which compilers share it.
+     *
+     * @param pool the static text pool; {@code null} for not interning the static text
+     * @return the options
+     */
+    public @NotNull SightlyCompilerOptions withStaticTextPool(@Nullable StaticTextPool pool) {
+        return new SightlyCompilerOptions(
+                knownExpressionOptions,
+                compileTimeEscaper,
+                whitespaceMinification,
+                pipelinedCompilation,
+                parallelTemplateOptimization,
+                compilationBudget,
+                pool);
+    }
+
+    /**
+     * Returns the expression options added to the compiler's set of known expression options.
+     *
+     * @return the additional expression options
+     */
+    public @NotNull Set<String> getKnownExpressionOptions() {
+        return knownExpressionOptions;
+    }
+
+    /**
+     * Returns the compile-time escaper.
+     *
+     * @return the compile-time escaper; {@code null} if none is configured
+     */
+    public @Nullable CompileTimeEscaper getCompileTimeEscaper() {
+        return compileTimeEscaper;
+    }
+
+    /**
+     * Tells if the insignificant whitespace of the static markup is collapsed.
+     *
+     * @return {@code true} if the whitespace is minified, {@code false} otherwise
+     */
+    public boolean isWhitespaceMinification() {
+        return whitespaceMinification;
+    }
+
+    /**
+     * Tells if the stages of a compilation run on separate threads.
+     *
+     * @return {@code true} if the compilations are pipelined, {@code false} otherwise
+     */
+    public boolean isPipelinedCompilation() {
+        return pipelinedCompilation;
+    }
+
+    /**
+     * Tells if the top level templates of a script are optimised concurrently.
+     *
+     * @return {@code true} if the templates are optimised concurrently, {@code false} otherwise
+     */
+    public boolean isParallelTemplateOptimization() {
+        return parallelTemplateOptimization;
+    }
+
+    /**
+     * Returns the budget of each compilation.
+     *
+     * @return the compilation budget
+     */
+    public @NotNull CompilationBudget getCompilationBudget() {
+        return compilationBudget;
+    }
+
+    /**
+     * Returns the pool in which the static text of the compiled scripts is interned.
+     *
+     * @return the static text pool; {@code null} if the static text is not interned
+     */
+    public @Nullable StaticTextPool getStaticTextPool() {
+        return staticTextPool;
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.compiler.backend;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+
+import org.apache.sling.scripting.sightly.impl.compiler.interpreter.Program;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * <p>
+ * A script compiled by an {@link InterpretingBackendCompiler}, which can be rendered directly, without generating code.
+ * </p>
+ * <p>
+ * The commands of the script are linked once into a tree of executable nodes, whose variables are resolved to indexed slots; the
+ * identifiers which are not bound by the script are looked up once per rendering, from the templates defined by the script or from the
+ * provided bindings. A script can be rendered concurrently by several threads.
+ * </p>
+ */
+public final class InterpretedScript {
+
+    private final Program program;
+
+    InterpretedScript(Program program) {
+        this.program = program;
+    }
+
+    /**
+     * Renders the script.
+     *
+     * @param bindings the global bindings of the script
+     * @param writer   the writer to render to
+     * @param runtime  the runtime providing the runtime functions
+     * @throws IOException if the output cannot be written
+     */
+    public void render(
+            @NotNull Map<String, Object> bindings, @NotNull Writer writer, @NotNull InterpreterRuntime runtime)
+            throws IOException {
+        program.render(bindings, writer, runtime);
+    }
+
+    /**
+     * Returns the templates defined by the script, keyed by their name. The template objects can be passed as values of the bindings of
+     * other interpreted scripts, which will then render them directly.
+     *
+     * @return the templates of the script
+     */
+    public @NotNull Map<String, Object> getTemplates() {
+        return program.getTemplates();
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.compiler.backend;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.RuntimeCall;
+import org.apache.sling.scripting.sightly.impl.compiler.interpreter.DefaultObjectModel;
+import org.apache.sling.scripting.sightly.render.RuntimeObjectModel;
+import org.jetbrains.annotations.NotNull;
+import org.osgi.annotation.versioning.ConsumerType;
+
+/**
+ * Provides the runtime services needed by an {@link InterpretedScript}: the {@link RuntimeCall} functions, the object model used for
+ * resolving properties and converting values, and the rendering of templates which were not defined by the script itself.
+ */
+@ConsumerType
+public interface InterpreterRuntime {
+
+    /**
+     * Invokes a runtime function (see {@link RuntimeCall}).
+     *
+     * @param functionName the name of the function
+     * @param arguments    the evaluated arguments of the function
+     * @return the result of the call
+     */
+    Object call(String functionName, Object... arguments);
+
+    /**
+     * Renders a template which was not defined by the interpreted script (e.g. a template provided by {@code data-sly-use}).
+     *
+     * @param template  the template object
+     * @param arguments the template arguments
+     * @param writer    the writer to render to
+     * @throws IOException if the output cannot be written
+     */
+    void callTemplate(Object template, Map<String, Object> arguments, Writer writer) throws IOException;
+
+    /**
+     * Returns the object model through which the interpreted script resolves properties and converts values to strings, booleans,
+     * numbers and collections. Runtimes backed by a {@link org.apache.sling.scripting.sightly.render.RenderContext} should return its
+     * {@link org.apache.sling.scripting.sightly.render.RenderContext#getObjectModel() object model}, so that the interpreted scripts
+     * render the same as the compiled ones; the default implementation provides the default conversions of the HTL runtime.
+     *
+     * @return the object model
+     */
+    default @NotNull RuntimeObjectModel getObjectModel() {
+        return DefaultObjectModel.INSTANCE;
+    }
+}
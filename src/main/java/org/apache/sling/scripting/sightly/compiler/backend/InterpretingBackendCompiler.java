@@ -0,0 +1,84 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.compiler.backend;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.sling.scripting.sightly.compiler.commands.Command;
+import org.apache.sling.scripting.sightly.compiler.commands.CommandHandler;
+import org.apache.sling.scripting.sightly.compiler.commands.CommandStream;
+import org.apache.sling.scripting.sightly.impl.compiler.interpreter.Linker;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * <p>
+ * A {@link BackendCompiler} which directly executes the {@link CommandStream}, without transpiling it: once the stream is done, its
+ * commands are linked into an {@link InterpretedScript}. The local variables are read from the frame slots the
+ * {@link org.apache.sling.scripting.sightly.compiler.SightlyCompiler} annotated the commands with, so the handled stream has to be
+ * the output of a compilation.
+ * </p>
+ * <p>
+ * Since no code has to be generated and compiled, the interpreted script is available much faster than a transpiled one; it can serve
+ * the first renderings of a script while the transpiled version is being built.
+ * </p>
+ */
+public final class InterpretingBackendCompiler implements BackendCompiler {
+
+    private final List<Command> commands = new ArrayList<>();
+    private InterpretedScript script;
+    private String error;
+
+    @Override
+    public void handle(CommandStream stream) {
+        stream.addHandler(new CommandHandler() {
+            @Override
+            public void onEmit(Command command) {
+                commands.add(command);
+            }
+
+            @Override
+            public void onError(String errorMessage) {
+                error = errorMessage;
+            }
+
+            @Override
+            public void onDone() {
+                if (error == null) {
+                    script = new InterpretedScript(Linker.link(commands));
+                }
+                commands.clear();
+            }
+        });
+    }
+
+    /**
+     * Returns the interpreted script.
+     *
+     * @return the interpreted script
+     * @throws IllegalStateException if the stream was not compiled successfully
+     */
+    public @NotNull InterpretedScript getScript() {
+        if (script == null) {
+            throw new IllegalStateException(
+                    error == null ? "The command stream was not compiled" : "The command stream failed: " + error);
+        }
+        return script;
+    }
+}
@@ -19,9 +19,10 @@
 
 /**
  * The {@code org.apache.sling.scripting.sightly.compiler.backend} defines the API that can be used by HTL Backend Compilers, used to
- * compile HTL {@link org.apache.sling.scripting.sightly.compiler.commands.Command}s into executable code for other languages.
+ * compile HTL {@link org.apache.sling.scripting.sightly.compiler.commands.Command}s into executable code for other languages, as well as
+ * an interpreting backend which executes the commands directly.
  */
-@Version("1.0.0")
+@Version("1.1.0")
 package org.apache.sling.scripting.sightly.compiler.backend;
 
 import org.osgi.annotation.versioning.Version;
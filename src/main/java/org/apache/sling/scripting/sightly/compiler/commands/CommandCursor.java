@@ -0,0 +1,116 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.compiler.commands;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * <p>
+ * A pull-based cursor over the {@link Command}s of a {@link CommandStream} (see {@link CommandStream#cursor()}).
+ * </p>
+ * <p>
+ * The cursor addresses the commands by their position in the stream, so it can be moved back to replay the stream, or to a previously
+ * recorded position. A cursor over a stream that is still being written sees the commands written so far. Cursors are not thread-safe,
+ * but any number of cursors can be used concurrently over a completed stream.
+ * </p>
+ */
+public final class CommandCursor implements Iterator<Command> {
+
+    private final List<Command> commands;
+    private int position;
+
+    CommandCursor(List<Command> commands) {
+        this.commands = commands;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return position < commands.size();
+    }
+
+    /**
+     * Returns the command at the current position and advances the cursor.
+     *
+     * @return the command
+     * @throws NoSuchElementException if there are no more commands
+     */
+    @Override
+    public @NotNull Command next() {
+        Command command = peek();
+        position++;
+        return command;
+    }
+
+    /**
+     * Returns the command at the current position without advancing the cursor.
+     *
+     * @return the command
+     * @throws NoSuchElementException if there are no more commands
+     */
+    public @NotNull Command peek() {
+        if (!hasNext()) {
+            throw new NoSuchElementException("No command at position " + position);
+        }
+        return commands.get(position);
+    }
+
+    /**
+     * Returns the position of the cursor, i.e. the number of commands it has already returned since the start of the stream.
+     *
+     * @return the position of the cursor
+     */
+    public int getPosition() {
+        return position;
+    }
+
+    /**
+     * Moves the cursor to the provided position.
+     *
+     * @param position the new position, between {@code 0} and the number of commands in the stream
+     * @throws IndexOutOfBoundsException if the position is outside of the stream
+     */
+    public void seek(int position) {
+        if (position < 0 || position > commands.size()) {
+            throw new IndexOutOfBoundsException("Position " + position + " is outside of the stream");
+        }
+        this.position = position;
+    }
+
+    /**
+     * Moves the cursor back to the start of the stream.
+     */
+    public void reset() {
+        position = 0;
+    }
+
+    /**
+     * Returns a new cursor, independent of this one, positioned at the same position.
+     *
+     * @return the new cursor
+     */
+    public @NotNull CommandCursor copy() {
+        CommandCursor copy = new CommandCursor(commands);
+        copy.position = position;
+        return copy;
+    }
+}
@@ -32,8 +32,12 @@ import org.osgi.annotation.versioning.ProviderType;
  *     <li>if the stream needs to be consumed immediately then a {@link CommandHandler} can be attached to the stream; the stream,
  *     in turn, will notify the handler for every command that has been pushed;</li>
  *     <li>if the stream can be consumed after the actual compilation there's no need to attach a {@link CommandHandler}, as the
- *     {@link Command}s that were written to the stream can be replayed in the exact order in which they have been pushed.</li>
+ *     {@link Command}s that were written to the stream can be replayed in the exact order in which they have been pushed, either by
+ *     pulling them through a {@link CommandCursor} or by attaching a {@link CommandHandler} to the completed stream.</li>
  * </ul>
+ * <p>
+ *     A completed stream can be consumed any number of times, so several backends can share the result of a single compilation.
+ * </p>
  */
 @ProviderType
 public interface CommandStream {
@@ -41,7 +45,8 @@ public interface CommandStream {
     /**
      * Registers a listening {@link CommandHandler} to the stream. The {@link CommandHandler} will be notified for every new {@link
      * Command}
-     * pushed to this stream.
+     * pushed to this stream. If the stream has already been completed, the handler is immediately notified of all the stream's commands
+     * and of its completion.
      *
      * @param handler the handler to attach to this stream
      */
@@ -53,4 +58,14 @@ public interface CommandStream {
      * @return the commands written into this stream
      */
     List<Command> getCommands();
+
+    /**
+     * Returns a new {@link CommandCursor} positioned before the first command of this stream. Cursors are cheap to create and
+     * independent of each other, so a completed stream can be pulled by several consumers, at their own pace.
+     *
+     * @return a cursor over the commands of this stream
+     */
+    default CommandCursor cursor() {
+        return new CommandCursor(getCommands());
+    }
 }
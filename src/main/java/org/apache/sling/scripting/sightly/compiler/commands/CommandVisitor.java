@@ -109,4 +109,39 @@ public interface CommandVisitor {
      * @param procedureCall the command
      */
     void visit(Procedure.Call procedureCall);
+
+    /**
+     * Process an {@link OutputAttribute} command. By default the primitive commands returned by {@link OutputAttribute#lower()} are
+     * processed.
+     *
+     * @param outputAttribute the command
+     */
+    default void visit(OutputAttribute outputAttribute) {
+        for (Command command : outputAttribute.lower()) {
+            command.accept(this);
+        }
+    }
+
+    /**
+     * Process a {@link org.apache.sling.scripting.sightly.compiler.commands.Segment.Start} command. Segments are hints, so they are
+     * ignored by default.
+     *
+     * @param segmentStart the command
+     */
+    default void visit(Segment.Start segmentStart) {}
+
+    /**
+     * Process a {@link org.apache.sling.scripting.sightly.compiler.commands.Segment.End} command. Segments are hints, so they are
+     * ignored by default.
+     *
+     * @param segmentEnd the command
+     */
+    default void visit(Segment.End segmentEnd) {}
+
+    /**
+     * Process a {@link Flush} command. Flushes are hints, so they are ignored by default.
+     *
+     * @param flush the command
+     */
+    default void visit(Flush flush) {}
 }
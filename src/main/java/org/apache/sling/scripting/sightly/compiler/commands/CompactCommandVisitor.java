@@ -0,0 +1,176 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.compiler.commands;
+
+import org.osgi.annotation.versioning.ConsumerType;
+
+/**
+ * <p>
+ * The {@code CompactCommandVisitor} processes the instructions of a {@link CompactCommands} without decoding them into {@link Command}s
+ * (see {@link CompactCommands#accept(CompactCommandVisitor)}). Each method receives the operands of one instruction: the variable names,
+ * texts, expression types, parameter sets and live variable sets are passed as indexes in the pool of constants
+ * ({@link CompactCommands#getConstant(int)}), the expressions as indexes in the pool of expressions
+ * ({@link CompactCommands#getExpression(int)}). Absent values are passed as {@code -1}.
+ * </p>
+ */
+@ConsumerType
+public interface CompactCommandVisitor {
+
+    /**
+     * Processes a {@link Conditional.Start} instruction.
+     *
+     * @param variable           the index of the variable name
+     * @param expectedTruthValue the expected truth value of the variable
+     * @param slot               the slot of the variable
+     */
+    void conditionalStart(int variable, boolean expectedTruthValue, int slot);
+
+    /**
+     * Processes a {@link Conditional.End} instruction.
+     */
+    void conditionalEnd();
+
+    /**
+     * Processes a {@link VariableBinding.Start} instruction.
+     *
+     * @param variable   the index of the variable name
+     * @param expression the index of the expression
+     * @param type       the index of the expression type
+     * @param slot       the slot of the variable
+     */
+    void variableBindingStart(int variable, int expression, int type, int slot);
+
+    /**
+     * Processes a {@link VariableBinding.End} instruction.
+     */
+    void variableBindingEnd();
+
+    /**
+     * Processes a {@link VariableBinding.Global} instruction.
+     *
+     * @param variable   the index of the variable name
+     * @param expression the index of the expression
+     * @param type       the index of the expression type
+     */
+    void variableBindingGlobal(int variable, int expression, int type);
+
+    /**
+     * Processes an {@link OutputVariable} instruction.
+     *
+     * @param variable the index of the variable name
+     * @param slot     the slot of the variable
+     */
+    void outputVariable(int variable, int slot);
+
+    /**
+     * Processes an {@link OutText} instruction.
+     *
+     * @param text   the index of the text
+     * @param poolId the {@link OutText#getPoolId() pool id} of the text
+     */
+    void outText(int text, int poolId);
+
+    /**
+     * Processes a {@link Loop.Start} instruction.
+     *
+     * @param list      the index of the list variable name
+     * @param item      the index of the item variable name
+     * @param index     the index of the index variable name
+     * @param begin     the index of the begin variable name
+     * @param step      the index of the step variable name
+     * @param end       the index of the end variable name
+     * @param listSlot  the slot of the list variable
+     * @param itemSlot  the slot of the item variable
+     * @param indexSlot the slot of the index variable
+     * @param beginSlot the slot of the begin variable
+     * @param stepSlot  the slot of the step variable
+     * @param endSlot   the slot of the end variable
+     */
+    void loopStart(
+            int list,
+            int item,
+            int index,
+            int begin,
+            int step,
+            int end,
+            int listSlot,
+            int itemSlot,
+            int indexSlot,
+            int beginSlot,
+            int stepSlot,
+            int endSlot);
+
+    /**
+     * Processes a {@link Loop.End} instruction.
+     */
+    void loopEnd();
+
+    /**
+     * Processes a {@link Procedure.Start} instruction.
+     *
+     * @param name           the index of the procedure name
+     * @param parameters     the index of the parameter set
+     * @param parameterSlots the index of the parameter slots map
+     */
+    void procedureStart(int name, int parameters, int parameterSlots);
+
+    /**
+     * Processes a {@link Procedure.End} instruction.
+     */
+    void procedureEnd();
+
+    /**
+     * Processes a {@link Procedure.Call} instruction.
+     *
+     * @param template      the index of the template variable name
+     * @param arguments     the index of the arguments variable name
+     * @param templateSlot  the slot of the template variable
+     * @param argumentsSlot the slot of the arguments variable
+     */
+    void procedureCall(int template, int arguments, int templateSlot, int argumentsSlot);
+
+    /**
+     * Processes an {@link OutputAttribute} instruction.
+     *
+     * @param name             the index of the attribute name
+     * @param value            the index of the value variable name
+     * @param escapedValue     the index of the escaped value variable name
+     * @param quoteChar        the quote character
+     * @param valueSlot        the slot of the value variable
+     * @param escapedValueSlot the slot of the escaped value variable
+     */
+    void outputAttribute(int name, int value, int escapedValue, char quoteChar, int valueSlot, int escapedValueSlot);
+
+    /**
+     * Processes a {@link Segment.Start} instruction.
+     *
+     * @param liveVariables the index of the live variable set
+     */
+    void segmentStart(int liveVariables);
+
+    /**
+     * Processes a {@link Segment.End} instruction.
+     */
+    void segmentEnd();
+
+    /**
+     * Processes a {@link Flush} instruction.
+     */
+    void flush();
+}
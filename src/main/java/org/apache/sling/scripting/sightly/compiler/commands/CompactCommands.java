@@ -0,0 +1,562 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.compiler.commands;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.sling.scripting.sightly.compiler.expression.ExpressionNode;
+import org.apache.sling.scripting.sightly.compiler.expression.ExpressionType;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * <p>
+ * A compact representation of a sequence of {@link Command}s: an {@code int} array of instructions, each one made of an opcode followed
+ * by its operands, plus a pool of constants (variable names, texts, parameter sets, parameter slots and expression types) and a pool of
+ * {@link ExpressionNode}s referenced by the operands. Absent values are encoded as the operand {@code -1}.
+ * </p>
+ * <p>
+ * The instructions are addressed by their offset in the code array: the first instruction starts at {@code 0} and the following ones at
+ * {@link #next(int)}. Consumers can either {@code switch} on the {@link #opcode(int)} of each instruction and read its operands
+ * directly, {@link #accept(CompactCommandVisitor) dispatch} the instructions' operands to a {@link CompactCommandVisitor} or
+ * {@link #accept(CommandVisitor) dispatch} the decoded commands to a {@link CommandVisitor}. The conversion to and from
+ * {@link Command}s is lossless, except for the identity of the {@link OutText} commands interned in a {@link StaticTextPool}, whose
+ * {@link OutText#getPoolId() pool ids} are preserved.
+ * </p>
+ */
+public final class CompactCommands {
+
+    /** {@link Conditional.Start}: variable, expected truth value ({@code 0} or {@code 1}), slot. */
+    public static final int CONDITIONAL_START = 0;
+
+    /** {@link Conditional.End}. */
+    public static final int CONDITIONAL_END = 1;
+
+    /** {@link VariableBinding.Start}: variable name, expression, expression type, slot. */
+    public static final int VARIABLE_BINDING_START = 2;
+
+    /** {@link VariableBinding.End}. */
+    public static final int VARIABLE_BINDING_END = 3;
+
+    /** {@link VariableBinding.Global}: variable name, expression, expression type. */
+    public static final int VARIABLE_BINDING_GLOBAL = 4;
+
+    /** {@link OutputVariable}: variable name, slot. */
+    public static final int OUTPUT_VARIABLE = 5;
+
+    /** {@link OutText}: text, pool id. */
+    public static final int OUT_TEXT = 6;
+
+    /** {@link Loop.Start}: list, item, index, begin, step and end variables, followed by their slots in the same order. */
+    public static final int LOOP_START = 7;
+
+    /** {@link Loop.End}. */
+    public static final int LOOP_END = 8;
+
+    /** {@link Procedure.Start}: name, parameters, parameter slots. */
+    public static final int PROCEDURE_START = 9;
+
+    /** {@link Procedure.End}. */
+    public static final int PROCEDURE_END = 10;
+
+    /** {@link Procedure.Call}: template variable, arguments variable, template slot, arguments slot. */
+    public static final int PROCEDURE_CALL = 11;
+
+    /** {@link OutputAttribute}: name, value variable, escaped value variable, quote character, value slot, escaped value slot. */
+    public static final int OUTPUT_ATTRIBUTE = 12;
+
+    /** {@link Segment.Start}: live variables. */
+    public static final int SEGMENT_START = 13;
+
+    /** {@link Segment.End}. */
+    public static final int SEGMENT_END = 14;
+
+    /** {@link Flush}. */
+    public static final int FLUSH = 15;
+
+    private static final int[] OPERANDS = {3, 0, 4, 0, 3, 2, 2, 12, 0, 3, 0, 4, 6, 1, 0, 0};
+
+    private final int[] code;
+    private final Object[] constants;
+    private final ExpressionNode[] expressions;
+
+    private CompactCommands(int[] code, Object[] constants, ExpressionNode[] expressions) {
+        this.code = code;
+        this.constants = constants;
+        this.expressions = expressions;
+    }
+
+    /**
+     * Encodes a sequence of commands.
+     *
+     * @param commands the commands
+     * @return the compact representation of the commands
+     */
+    public static @NotNull CompactCommands encode(@NotNull Iterable<? extends Command> commands) {
+        Encoder encoder = new Encoder();
+        for (Command command : commands) {
+            command.accept(encoder);
+        }
+        return new CompactCommands(
+                Arrays.copyOf(encoder.code, encoder.length),
+                encoder.constants.toArray(),
+                encoder.expressions.toArray(new ExpressionNode[0]));
+    }
+
+    /**
+     * Returns the number of operands of the instructions with the provided opcode.
+     *
+     * @param opcode the opcode
+     * @return the number of operands
+     */
+    public static int operandCount(int opcode) {
+        return OPERANDS[opcode];
+    }
+
+    /**
+     * Returns the length of the code array; the instructions are located at the offsets lower than the length.
+     *
+     * @return the length of the code
+     */
+    public int length() {
+        return code.length;
+    }
+
+    /**
+     * Returns the opcode of the instruction at {@code pc}.
+     *
+     * @param pc the offset of the instruction
+     * @return the opcode
+     */
+    public int opcode(int pc) {
+        return code[pc];
+    }
+
+    /**
+     * Returns an operand of the instruction at {@code pc}.
+     *
+     * @param pc    the offset of the instruction
+     * @param index the index of the operand
+     * @return the operand
+     */
+    public int operand(int pc, int index) {
+        return code[pc + 1 + index];
+    }
+
+    /**
+     * Returns the offset of the instruction following the one at {@code pc}.
+     *
+     * @param pc the offset of the instruction
+     * @return the offset of the next instruction; equal to {@link #length()} after the last instruction
+     */
+    public int next(int pc) {
+        return pc + 1 + OPERANDS[code[pc]];
+    }
+
+    /**
+     * Returns the constant referenced by an operand of the instruction at {@code pc}.
+     *
+     * @param pc    the offset of the instruction
+     * @param index the index of the operand
+     * @return the constant, or {@code null} if the operand references no constant
+     */
+    public Object constant(int pc, int index) {
+        int operand = operand(pc, index);
+        return operand < 0 ? null : constants[operand];
+    }
+
+    /**
+     * Returns the string constant referenced by an operand of the instruction at {@code pc}.
+     *
+     * @param pc    the offset of the instruction
+     * @param index the index of the operand
+     * @return the string, or {@code null} if the operand references no constant
+     */
+    public String string(int pc, int index) {
+        return (String) constant(pc, index);
+    }
+
+    /**
+     * Returns the expression referenced by an operand of the instruction at {@code pc}.
+     *
+     * @param pc    the offset of the instruction
+     * @param index the index of the operand
+     * @return the expression
+     */
+    public ExpressionNode expression(int pc, int index) {
+        return expressions[operand(pc, index)];
+    }
+
+    /**
+     * Returns a constant from the pool of constants.
+     *
+     * @param index the index of the constant
+     * @return the constant, or {@code null} if the index is {@code -1}
+     */
+    public Object getConstant(int index) {
+        return index < 0 ? null : constants[index];
+    }
+
+    /**
+     * Returns an expression from the pool of expressions.
+     *
+     * @param index the index of the expression
+     * @return the expression
+     */
+    public ExpressionNode getExpression(int index) {
+        return expressions[index];
+    }
+
+    /**
+     * Decodes the instruction at {@code pc}.
+     *
+     * @param pc the offset of the instruction
+     * @return the command
+     */
+    @SuppressWarnings("unchecked")
+    public @NotNull Command command(int pc) {
+        switch (opcode(pc)) {
+            case CONDITIONAL_START:
+                return new Conditional.Start(string(pc, 0), operand(pc, 1) != 0, operand(pc, 2));
+            case CONDITIONAL_END:
+                return Conditional.END;
+            case VARIABLE_BINDING_START:
+                return new VariableBinding.Start(
+                        string(pc, 0), expression(pc, 1), (ExpressionType) constant(pc, 2), operand(pc, 3));
+            case VARIABLE_BINDING_END:
+                return VariableBinding.END;
+            case VARIABLE_BINDING_GLOBAL:
+                return new VariableBinding.Global(string(pc, 0), expression(pc, 1), (ExpressionType) constant(pc, 2));
+            case OUTPUT_VARIABLE:
+                return new OutputVariable(string(pc, 0), operand(pc, 1));
+            case OUT_TEXT:
+                return new OutText(string(pc, 0), operand(pc, 1));
+            case LOOP_START:
+                return new Loop.Start(
+                        string(pc, 0),
+                        string(pc, 1),
+                        string(pc, 2),
+                        string(pc, 3),
+                        string(pc, 4),
+                        string(pc, 5),
+                        operand(pc, 6),
+                        operand(pc, 7),
+                        operand(pc, 8),
+                        operand(pc, 9),
+                        operand(pc, 10),
+                        operand(pc, 11));
+            case LOOP_END:
+                return Loop.END;
+            case PROCEDURE_START:
+                return new Procedure.Start(
+                        string(pc, 0), (Set<String>) constant(pc, 1), (Map<String, Integer>) constant(pc, 2));
+            case PROCEDURE_END:
+                return Procedure.END;
+            case PROCEDURE_CALL:
+                return new Procedure.Call(string(pc, 0), string(pc, 1), operand(pc, 2), operand(pc, 3));
+            case OUTPUT_ATTRIBUTE:
+                return new OutputAttribute(
+                        string(pc, 0),
+                        string(pc, 1),
+                        string(pc, 2),
+                        (char) operand(pc, 3),
+                        operand(pc, 4),
+                        operand(pc, 5));
+            case SEGMENT_START:
+                return new Segment.Start((Set<String>) constant(pc, 0));
+            case SEGMENT_END:
+                return Segment.END;
+            case FLUSH:
+                return Flush.INSTANCE;
+            default:
+                throw new IllegalStateException("Unknown opcode " + opcode(pc) + " at " + pc);
+        }
+    }
+
+    /**
+     * Decodes all the instructions.
+     *
+     * @return the commands
+     */
+    public @NotNull List<Command> decode() {
+        List<Command> commands = new ArrayList<>();
+        for (int pc = 0; pc < code.length; pc = next(pc)) {
+            commands.add(command(pc));
+        }
+        return commands;
+    }
+
+    /**
+     * Dispatches the decoded instructions, in order, to a {@link CommandVisitor}.
+     *
+     * @param visitor the visitor
+     */
+    public void accept(@NotNull CommandVisitor visitor) {
+        for (int pc = 0; pc < code.length; pc = next(pc)) {
+            command(pc).accept(visitor);
+        }
+    }
+
+    /**
+     * Dispatches the instructions, in order, to a {@link CompactCommandVisitor}, without decoding them.
+     *
+     * @param visitor the visitor
+     */
+    public void accept(@NotNull CompactCommandVisitor visitor) {
+        int pc = 0;
+        while (pc < code.length) {
+            switch (code[pc]) {
+                case CONDITIONAL_START:
+                    visitor.conditionalStart(code[pc + 1], code[pc + 2] != 0, code[pc + 3]);
+                    break;
+                case CONDITIONAL_END:
+                    visitor.conditionalEnd();
+                    break;
+                case VARIABLE_BINDING_START:
+                    visitor.variableBindingStart(code[pc + 1], code[pc + 2], code[pc + 3], code[pc + 4]);
+                    break;
+                case VARIABLE_BINDING_END:
+                    visitor.variableBindingEnd();
+                    break;
+                case VARIABLE_BINDING_GLOBAL:
+                    visitor.variableBindingGlobal(code[pc + 1], code[pc + 2], code[pc + 3]);
+                    break;
+                case OUTPUT_VARIABLE:
+                    visitor.outputVariable(code[pc + 1], code[pc + 2]);
+                    break;
+                case OUT_TEXT:
+                    visitor.outText(code[pc + 1], code[pc + 2]);
+                    break;
+                case LOOP_START:
+                    visitor.loopStart(
+                            code[pc + 1],
+                            code[pc + 2],
+                            code[pc + 3],
+                            code[pc + 4],
+                            code[pc + 5],
+                            code[pc + 6],
+                            code[pc + 7],
+                            code[pc + 8],
+                            code[pc + 9],
+                            code[pc + 10],
+                            code[pc + 11],
+                            code[pc + 12]);
+                    break;
+                case LOOP_END:
+                    visitor.loopEnd();
+                    break;
+                case PROCEDURE_START:
+                    visitor.procedureStart(code[pc + 1], code[pc + 2], code[pc + 3]);
+                    break;
+                case PROCEDURE_END:
+                    visitor.procedureEnd();
+                    break;
+                case PROCEDURE_CALL:
+                    visitor.procedureCall(code[pc + 1], code[pc + 2], code[pc + 3], code[pc + 4]);
+                    break;
+                case OUTPUT_ATTRIBUTE:
+                    visitor.outputAttribute(
+                            code[pc + 1], code[pc + 2], code[pc + 3], (char) code[pc + 4], code[pc + 5], code[pc + 6]);
+                    break;
+                case SEGMENT_START:
+                    visitor.segmentStart(code[pc + 1]);
+                    break;
+                case SEGMENT_END:
+                    visitor.segmentEnd();
+                    break;
+                case FLUSH:
+                    visitor.flush();
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown opcode " + code[pc] + " at " + pc);
+            }
+            pc += 1 + OPERANDS[code[pc]];
+        }
+    }
+
+    private static final class Encoder implements CommandVisitor {
+
+        private int[] code = new int[64];
+        private int length;
+        private final List<Object> constants = new ArrayList<>();
+        private final Map<Object, Integer> constantIndexes = new HashMap<>();
+        private final List<ExpressionNode> expressions = new ArrayList<>();
+        private final Map<ExpressionNode, Integer> expressionIndexes = new IdentityHashMap<>();
+
+        private void emit(int opcode, int... operands) {
+            int size = 1 + operands.length;
+            if (length + size > code.length) {
+                code = Arrays.copyOf(code, Math.max(code.length * 2, length + size));
+            }
+            code[length++] = opcode;
+            System.arraycopy(operands, 0, code, length, operands.length);
+            length += operands.length;
+        }
+
+        private int constant(Object value) {
+            if (value == null) {
+                return -1;
+            }
+            Integer index = constantIndexes.get(value);
+            if (index == null) {
+                index = constants.size();
+                constants.add(value);
+                constantIndexes.put(value, index);
+            }
+            return index;
+        }
+
+        private int expression(ExpressionNode node) {
+            Integer index = expressionIndexes.get(node);
+            if (index == null) {
+                index = expressions.size();
+                expressions.add(node);
+                expressionIndexes.put(node, index);
+            }
+            return index;
+        }
+
+        @Override
+        public void visit(Conditional.Start conditionalStart) {
+            emit(
+                    CONDITIONAL_START,
+                    constant(conditionalStart.getVariable()),
+                    conditionalStart.getExpectedTruthValue() ? 1 : 0,
+                    conditionalStart.getSlot());
+        }
+
+        @Override
+        public void visit(Conditional.End conditionalEnd) {
+            emit(CONDITIONAL_END);
+        }
+
+        @Override
+        public void visit(VariableBinding.Start variableBindingStart) {
+            emit(
+                    VARIABLE_BINDING_START,
+                    constant(variableBindingStart.getVariableName()),
+                    expression(variableBindingStart.getExpression()),
+                    constant(variableBindingStart.getType()),
+                    variableBindingStart.getSlot());
+        }
+
+        @Override
+        public void visit(VariableBinding.End variableBindingEnd) {
+            emit(VARIABLE_BINDING_END);
+        }
+
+        @Override
+        public void visit(VariableBinding.Global globalAssignment) {
+            emit(
+                    VARIABLE_BINDING_GLOBAL,
+                    constant(globalAssignment.getVariableName()),
+                    expression(globalAssignment.getExpression()),
+                    constant(globalAssignment.getType()));
+        }
+
+        @Override
+        public void visit(OutputVariable outputVariable) {
+            emit(OUTPUT_VARIABLE, constant(outputVariable.getVariableName()), outputVariable.getSlot());
+        }
+
+        @Override
+        public void visit(OutText outText) {
+            emit(OUT_TEXT, constant(outText.getText()), outText.getPoolId());
+        }
+
+        @Override
+        public void visit(Loop.Start loopStart) {
+            emit(
+                    LOOP_START,
+                    constant(loopStart.getListVariable()),
+                    constant(loopStart.getItemVariable()),
+                    constant(loopStart.getIndexVariable()),
+                    constant(loopStart.getBeginVariable()),
+                    constant(loopStart.getStepVariable()),
+                    constant(loopStart.getEndVariable()),
+                    loopStart.getListSlot(),
+                    loopStart.getItemSlot(),
+                    loopStart.getIndexSlot(),
+                    loopStart.getBeginSlot(),
+                    loopStart.getStepSlot(),
+                    loopStart.getEndSlot());
+        }
+
+        @Override
+        public void visit(Loop.End loopEnd) {
+            emit(LOOP_END);
+        }
+
+        @Override
+        public void visit(Procedure.Start startProcedure) {
+            emit(
+                    PROCEDURE_START,
+                    constant(startProcedure.getName()),
+                    constant(startProcedure.getParameters()),
+                    constant(startProcedure.getParameterSlots()));
+        }
+
+        @Override
+        public void visit(Procedure.End endProcedure) {
+            emit(PROCEDURE_END);
+        }
+
+        @Override
+        public void visit(Procedure.Call procedureCall) {
+            emit(
+                    PROCEDURE_CALL,
+                    constant(procedureCall.getTemplateVariable()),
+                    constant(procedureCall.getArgumentsVariable()),
+                    procedureCall.getTemplateSlot(),
+                    procedureCall.getArgumentsSlot());
+        }
+
+        @Override
+        public void visit(OutputAttribute outputAttribute) {
+            emit(
+                    OUTPUT_ATTRIBUTE,
+                    constant(outputAttribute.getName()),
+                    constant(outputAttribute.getValueVariable()),
+                    constant(outputAttribute.getEscapedValueVariable()),
+                    outputAttribute.getQuoteChar(),
+                    outputAttribute.getValueSlot(),
+                    outputAttribute.getEscapedValueSlot());
+        }
+
+        @Override
+        public void visit(Segment.Start segmentStart) {
+            emit(SEGMENT_START, constant(segmentStart.getLiveVariables()));
+        }
+
+        @Override
+        public void visit(Segment.End segmentEnd) {
+            emit(SEGMENT_END);
+        }
+
+        @Override
+        public void visit(Flush flush) {
+            emit(FLUSH);
+        }
+    }
+}
@@ -26,12 +26,25 @@ public final class Conditional {
     public static final class Start implements Command {
         private String variable;
         private boolean expectedTruthValue;
+        private int slot = -1;
 
         public Start(String variable, boolean expectedTruthValue) {
             this.variable = variable;
             this.expectedTruthValue = expectedTruthValue;
         }
 
+        /**
+         * Creates a conditional whose variable is stored in the given frame slot (see {@link VariableBinding.Start#getSlot()}).
+         *
+         * @param variable           the tested variable
+         * @param expectedTruthValue the expected truth value of the variable
+         * @param slot               the slot of the variable
+         */
+        public Start(String variable, boolean expectedTruthValue, int slot) {
+            this(variable, expectedTruthValue);
+            this.slot = slot;
+        }
+
         @Override
         public void accept(CommandVisitor visitor) {
             visitor.visit(this);
@@ -45,6 +58,15 @@ public final class Conditional {
             return expectedTruthValue;
         }
 
+        /**
+         * Returns the frame slot of the tested variable, as resolved by the compiler.
+         *
+         * @return the slot of the variable, or {@code -1} if the variable is not a local variable or was not resolved to a slot
+         */
+        public int getSlot() {
+            return slot;
+        }
+
         @Override
         public String toString() {
             return "Conditional.Start{" + "variable='"
@@ -31,6 +31,12 @@ public final class Loop {
         private String beginVariable;
         private String stepVariable;
         private String endVariable;
+        private int listSlot = -1;
+        private int itemSlot = -1;
+        private int indexSlot = -1;
+        private int beginSlot = -1;
+        private int stepSlot = -1;
+        private int endSlot = -1;
 
         public Start(String listVariable, String itemVariable, String indexVariable) {
             this(listVariable, itemVariable, indexVariable, null, null, null);
@@ -51,6 +57,44 @@ public final class Loop {
             this.endVariable = endVariable;
         }
 
+        /**
+         * Creates a loop whose variables are stored in the given frame slots (see {@link VariableBinding.Start#getSlot()}).
+         *
+         * @param listVariable  the variable holding the iterated collection
+         * @param itemVariable  the item variable
+         * @param indexVariable the index variable
+         * @param beginVariable the variable holding the index of the first iterated item; can be {@code null}
+         * @param stepVariable  the variable holding the iteration step; can be {@code null}
+         * @param endVariable   the variable holding the index of the last iterated item; can be {@code null}
+         * @param listSlot      the slot of the list variable
+         * @param itemSlot      the slot of the item variable
+         * @param indexSlot     the slot of the index variable
+         * @param beginSlot     the slot of the begin variable
+         * @param stepSlot      the slot of the step variable
+         * @param endSlot       the slot of the end variable
+         */
+        public Start(
+                String listVariable,
+                String itemVariable,
+                String indexVariable,
+                String beginVariable,
+                String stepVariable,
+                String endVariable,
+                int listSlot,
+                int itemSlot,
+                int indexSlot,
+                int beginSlot,
+                int stepSlot,
+                int endSlot) {
+            this(listVariable, itemVariable, indexVariable, beginVariable, stepVariable, endVariable);
+            this.listSlot = listSlot;
+            this.itemSlot = itemSlot;
+            this.indexSlot = indexSlot;
+            this.beginSlot = beginSlot;
+            this.stepSlot = stepSlot;
+            this.endSlot = endSlot;
+        }
+
         public String getListVariable() {
             return listVariable;
         }
@@ -75,6 +119,63 @@ public final class Loop {
             return endVariable;
         }
 
+        /**
+         * Returns the frame slot of the list variable, as resolved by the compiler.
+         *
+         * @return the slot of the list variable, or {@code -1} if the variable is not a local variable or was not resolved to a slot
+         */
+        public int getListSlot() {
+            return listSlot;
+        }
+
+        /**
+         * Returns the frame slot of the item variable, as resolved by the compiler.
+         *
+         * @return the slot of the item variable, or {@code -1} if the variable was not resolved to a slot
+         */
+        public int getItemSlot() {
+            return itemSlot;
+        }
+
+        /**
+         * Returns the frame slot of the index variable, as resolved by the compiler.
+         *
+         * @return the slot of the index variable, or {@code -1} if the variable was not resolved to a slot
+         */
+        public int getIndexSlot() {
+            return indexSlot;
+        }
+
+        /**
+         * Returns the frame slot of the begin variable, as resolved by the compiler.
+         *
+         * @return the slot of the begin variable, or {@code -1} if there is no begin variable, if it is not a local variable or if it
+         *         was not resolved to a slot
+         */
+        public int getBeginSlot() {
+            return beginSlot;
+        }
+
+        /**
+         * Returns the frame slot of the step variable, as resolved by the compiler.
+         *
+         * @return the slot of the step variable, or {@code -1} if there is no step variable, if it is not a local variable or if it
+         *         was not resolved to a slot
+         */
+        public int getStepSlot() {
+            return stepSlot;
+        }
+
+        /**
+         * Returns the frame slot of the end variable, as resolved by the compiler.
+         *
+         * @return the slot of the end variable, or {@code -1} if there is no end variable, if it is not a local variable or if it was
+         *         not resolved to a slot
+         */
+        public int getEndSlot() {
+            return endSlot;
+        }
+
         @Override
         public void accept(CommandVisitor visitor) {
             visitor.visit(this);
@@ -18,15 +18,46 @@
  */
 package org.apache.sling.scripting.sightly.compiler.commands;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
 /**
+ * <p>
  * This {@link Command} renders a text fragment.
+ * </p>
+ * <p>
+ * Besides the text, the command provides its {@link #ENCODING}-encoded form, which is computed only once; backends which render to byte
+ * streams can therefore output static markup without encoding it on every rendering (see {@link #writeTo(OutputStream)} and
+ * {@link #getEncodedText()}).
+ * </p>
+ * <p>
+ * A {@link org.apache.sling.scripting.sightly.compiler.SightlyCompiler} interns the commands it produces only if it is configured with
+ * a {@link StaticTextPool} (see {@link org.apache.sling.scripting.sightly.compiler.SightlyCompilerOptions#withStaticTextPool}); the
+ * compiler service uses a pool only if its {@code staticTextPoolCapacity} is positive, which it is not by default. The
+ * {@link #getPoolId()} of an interned command identifies its text in the pool.
+ * </p>
  */
 public final class OutText implements Command {
 
+    /**
+     * The encoding of the text provided by {@link #getEncodedText()} and {@link #writeTo(OutputStream)}.
+     */
+    public static final Charset ENCODING = StandardCharsets.UTF_8;
+
     private String text;
+    private final int poolId;
+    private volatile byte[] encodedText;
 
     public OutText(String text) {
+        this(text, -1);
+    }
+
+    OutText(String text, int poolId) {
         this.text = text;
+        this.poolId = poolId;
     }
 
     @Override
@@ -38,6 +69,45 @@ public final class OutText implements Command {
         return text;
     }
 
+    /**
+     * Returns the identifier of the text in the {@link StaticTextPool} which created this command. Since the compiler doesn't use a
+     * pool by default, and a full pool doesn't intern new texts, the identifier is usually {@code -1}.
+     *
+     * @return the identifier of the text, or {@code -1} if the command was not created by a pool
+     */
+    public int getPoolId() {
+        return poolId;
+    }
+
+    /**
+     * Returns the text encoded with {@link #ENCODING}.
+     *
+     * @return a copy of the encoded text
+     */
+    public byte[] getEncodedText() {
+        byte[] encoded = encode();
+        return Arrays.copyOf(encoded, encoded.length);
+    }
+
+    /**
+     * Writes the text, encoded with {@link #ENCODING}, to an {@link OutputStream}, without encoding it again.
+     *
+     * @param outputStream the stream to write to
+     * @throws IOException if the text cannot be written
+     */
+    public void writeTo(OutputStream outputStream) throws IOException {
+        outputStream.write(encode());
+    }
+
+    private byte[] encode() {
+        byte[] encoded = encodedText;
+        if (encoded == null) {
+            encoded = text.getBytes(ENCODING);
+            encodedText = encoded;
+        }
+        return encoded;
+    }
+
     @Override
     public String toString() {
         return "OutText{" + "text='" + text + '\'' + '}';
@@ -0,0 +1,176 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.compiler.commands;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.BinaryOperation;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.BinaryOperator;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.BooleanConstant;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.Identifier;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.NullLiteral;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.StringConstant;
+
+/**
+ * <p>
+ * This {@link Command} renders an attribute whose value is stored in a variable. The attribute is rendered only if its escaped value
+ * is neither {@code null} nor the empty string and if its raw value is neither the empty string nor {@code false}; if the raw value is
+ * {@code true} only the attribute's name is rendered, otherwise the name is followed by the quoted escaped value.
+ * </p>
+ * <p>
+ * The command is equivalent to the sequence of commands returned by {@link #lower()}, which is what a {@link CommandVisitor} processes
+ * if it doesn't provide a specific implementation for this command.
+ * </p>
+ */
+public final class OutputAttribute implements Command {
+
+    private final String name;
+    private final String valueVariable;
+    private final String escapedValueVariable;
+    private final char quoteChar;
+    private final int valueSlot;
+    private final int escapedValueSlot;
+
+    /**
+     * Creates an {@code OutputAttribute} command.
+     *
+     * @param name                 the attribute's name
+     * @param valueVariable        the variable storing the attribute's raw value
+     * @param escapedValueVariable the variable storing the attribute's escaped value; it can be the same as {@code valueVariable} if
+     *                             the value doesn't need further escaping
+     * @param quoteChar            the character used for quoting the attribute's value
+     */
+    public OutputAttribute(String name, String valueVariable, String escapedValueVariable, char quoteChar) {
+        this(name, valueVariable, escapedValueVariable, quoteChar, -1, -1);
+    }
+
+    /**
+     * Creates an {@code OutputAttribute} command whose variables are stored in the given frame slots (see
+     * {@link VariableBinding.Start#getSlot()}).
+     *
+     * @param name                 the attribute's name
+     * @param valueVariable        the variable storing the attribute's raw value
+     * @param escapedValueVariable the variable storing the attribute's escaped value
+     * @param quoteChar            the character used for quoting the attribute's value
+     * @param valueSlot            the slot of the value variable
+     * @param escapedValueSlot     the slot of the escaped value variable
+     */
+    public OutputAttribute(
+            String name,
+            String valueVariable,
+            String escapedValueVariable,
+            char quoteChar,
+            int valueSlot,
+            int escapedValueSlot) {
+        this.name = name;
+        this.valueVariable = valueVariable;
+        this.escapedValueVariable = escapedValueVariable;
+        this.quoteChar = quoteChar;
+        this.valueSlot = valueSlot;
+        this.escapedValueSlot = escapedValueSlot;
+    }
+
+    @Override
+    public void accept(CommandVisitor visitor) {
+        visitor.visit(this);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getValueVariable() {
+        return valueVariable;
+    }
+
+    public String getEscapedValueVariable() {
+        return escapedValueVariable;
+    }
+
+    public char getQuoteChar() {
+        return quoteChar;
+    }
+
+    /**
+     * Returns the frame slot of the value variable, as resolved by the compiler.
+     *
+     * @return the slot of the variable, or {@code -1} if the variable is not a local variable or was not resolved to a slot
+     */
+    public int getValueSlot() {
+        return valueSlot;
+    }
+
+    /**
+     * Returns the frame slot of the escaped value variable, as resolved by the compiler.
+     *
+     * @return the slot of the variable, or {@code -1} if the variable is not a local variable or was not resolved to a slot
+     */
+    public int getEscapedValueSlot() {
+        return escapedValueSlot;
+    }
+
+    /**
+     * Returns the sequence of primitive commands equivalent to this command. The references to the value variables keep their slots,
+     * while the variables bound by the returned commands are not resolved to slots.
+     *
+     * @return the primitive commands
+     */
+    public List<Command> lower() {
+        String shouldDisplayVariable = valueVariable + "_shouldDisplay";
+        String isTrueVariable = valueVariable + "_isTrue";
+        Identifier value = new Identifier(valueVariable, valueSlot);
+        Identifier escapedValue = new Identifier(escapedValueVariable, escapedValueSlot);
+        List<Command> commands = new ArrayList<>(12);
+        commands.add(new VariableBinding.Start(
+                shouldDisplayVariable,
+                new BinaryOperation(
+                        BinaryOperator.AND,
+                        new BinaryOperation(
+                                BinaryOperator.AND,
+                                new BinaryOperation(BinaryOperator.NEQ, NullLiteral.INSTANCE, escapedValue),
+                                new BinaryOperation(BinaryOperator.NEQ, StringConstant.EMPTY, escapedValue)),
+                        new BinaryOperation(
+                                BinaryOperator.AND,
+                                new BinaryOperation(BinaryOperator.NEQ, StringConstant.EMPTY, value),
+                                new BinaryOperation(BinaryOperator.NEQ, BooleanConstant.FALSE, value)))));
+        commands.add(new Conditional.Start(shouldDisplayVariable, true));
+        commands.add(new OutText(" " + name));
+        commands.add(new VariableBinding.Start(
+                isTrueVariable, new BinaryOperation(BinaryOperator.EQ, BooleanConstant.TRUE, value)));
+        commands.add(new Conditional.Start(isTrueVariable, false));
+        commands.add(new OutText("=" + quoteChar));
+        commands.add(new OutputVariable(escapedValueVariable, escapedValueSlot));
+        commands.add(new OutText(String.valueOf(quoteChar)));
+        commands.add(Conditional.END);
+        commands.add(VariableBinding.END);
+        commands.add(Conditional.END);
+        commands.add(VariableBinding.END);
+        return commands;
+    }
+
+    @Override
+    public String toString() {
+        return "OutputAttribute{" + "name='"
+                + name + '\'' + ", valueVariable='"
+                + valueVariable + '\'' + ", escapedValueVariable='"
+                + escapedValueVariable + '\'' + ", quoteChar="
+                + quoteChar + '}';
+    }
+}
@@ -24,9 +24,22 @@ package org.apache.sling.scripting.sightly.compiler.commands;
 public final class OutputVariable implements Command {
 
     private final String variableName;
+    private final int slot;
 
     public OutputVariable(String variableName) {
+        this(variableName, -1);
+    }
+
+    /**
+     * Creates an {@code OutputVariable} command whose variable is stored in the given frame slot (see
+     * {@link VariableBinding.Start#getSlot()}).
+     *
+     * @param variableName the name of the variable
+     * @param slot         the slot of the variable
+     */
+    public OutputVariable(String variableName, int slot) {
         this.variableName = variableName;
+        this.slot = slot;
     }
 
     @Override
@@ -38,6 +51,15 @@ public final class OutputVariable implements Command {
         return variableName;
     }
 
+    /**
+     * Returns the frame slot of the variable, as resolved by the compiler.
+     *
+     * @return the slot of the variable, or {@code -1} if the variable is not a local variable or was not resolved to a slot
+     */
+    public int getSlot() {
+        return slot;
+    }
+
     @Override
     public String toString() {
         return "OutputVariable{" + "variableName='" + variableName + '\'' + '}';
@@ -19,7 +19,9 @@
 package org.apache.sling.scripting.sightly.compiler.commands;
 
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -31,10 +33,23 @@ public class Procedure {
 
         private String name;
         private Set<String> parameters;
+        private Map<String, Integer> parameterSlots;
 
         public Start(String name, Set<String> parameters) {
+            this(name, parameters, Collections.<String, Integer>emptyMap());
+        }
+
+        /**
+         * Creates a procedure whose parameters are stored in the given frame slots (see {@link VariableBinding.Start#getSlot()}).
+         *
+         * @param name           the name of the procedure
+         * @param parameters     the parameters of the procedure
+         * @param parameterSlots the slots of the parameters, keyed by the parameter names
+         */
+        public Start(String name, Set<String> parameters, Map<String, Integer> parameterSlots) {
             this.name = name;
             this.parameters = new HashSet<String>(parameters);
+            this.parameterSlots = new HashMap<String, Integer>(parameterSlots);
         }
 
         public String getName() {
@@ -45,6 +60,16 @@ public class Procedure {
             return Collections.unmodifiableSet(parameters);
         }
 
+        /**
+         * Returns the frame slots of the parameters, as resolved by the compiler; the procedure's local variables are stored in a frame
+         * of their own.
+         *
+         * @return the slots of the parameters, keyed by the parameter names; empty if the parameters were not resolved to slots
+         */
+        public Map<String, Integer> getParameterSlots() {
+            return Collections.unmodifiableMap(parameterSlots);
+        }
+
         @Override
         public void accept(CommandVisitor visitor) {
             visitor.visit(this);
@@ -67,10 +92,26 @@ public class Procedure {
 
         private final String templateVariable;
         private final String argumentsVariable;
+        private final int templateSlot;
+        private final int argumentsSlot;
 
         public Call(String templateVariable, String argumentsVariable) {
+            this(templateVariable, argumentsVariable, -1, -1);
+        }
+
+        /**
+         * Creates a call whose variables are stored in the given frame slots (see {@link VariableBinding.Start#getSlot()}).
+         *
+         * @param templateVariable  the variable holding the called template
+         * @param argumentsVariable the variable holding the arguments of the call
+         * @param templateSlot      the slot of the template variable
+         * @param argumentsSlot     the slot of the arguments variable
+         */
+        public Call(String templateVariable, String argumentsVariable, int templateSlot, int argumentsSlot) {
             this.templateVariable = templateVariable;
             this.argumentsVariable = argumentsVariable;
+            this.templateSlot = templateSlot;
+            this.argumentsSlot = argumentsSlot;
         }
 
         public String getTemplateVariable() {
@@ -81,6 +122,24 @@ public class Procedure {
             return argumentsVariable;
         }
 
+        /**
+         * Returns the frame slot of the template variable, as resolved by the compiler.
+         *
+         * @return the slot of the variable, or {@code -1} if the variable is not a local variable or was not resolved to a slot
+         */
+        public int getTemplateSlot() {
+            return templateSlot;
+        }
+
+        /**
+         * Returns the frame slot of the arguments variable, as resolved by the compiler.
+         *
+         * @return the slot of the variable, or {@code -1} if the variable is not a local variable or was not resolved to a slot
+         */
+        public int getArgumentsSlot() {
+            return argumentsSlot;
+        }
+
         @Override
         public void accept(CommandVisitor visitor) {
             visitor.visit(this);
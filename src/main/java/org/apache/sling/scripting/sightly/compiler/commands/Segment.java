@@ -0,0 +1,88 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.compiler.commands;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * <p>
+ * The {@code Segment} commands delimit balanced ranges of commands which backends can generate as separate methods, keeping the size of
+ * the generated methods within the limits of the target platform (e.g. the JVM doesn't JIT-compile methods larger than 8000 bytes of
+ * bytecode and doesn't load methods larger than 64KB).
+ * </p>
+ * <p>
+ * Segments are only hints: the commands between a {@link Start} and its {@link End} behave the same way whether they are generated
+ * inline or not, so backends which don't split their generated code can ignore them.
+ * </p>
+ */
+public final class Segment {
+
+    public static final class Start implements Command {
+
+        private final Set<String> liveVariables;
+
+        /**
+         * Creates a {@code Segment.Start} command.
+         *
+         * @param liveVariables the variables bound before the segment which are used by its commands
+         */
+        public Start(Set<String> liveVariables) {
+            this.liveVariables = Collections.unmodifiableSet(new TreeSet<>(liveVariables));
+        }
+
+        /**
+         * Returns the variables bound before the segment which are used by its commands and therefore have to be passed to the
+         * segment's method.
+         *
+         * @return the variables to pass to the segment, sorted by name
+         */
+        public Set<String> getLiveVariables() {
+            return liveVariables;
+        }
+
+        @Override
+        public void accept(CommandVisitor visitor) {
+            visitor.visit(this);
+        }
+
+        @Override
+        public String toString() {
+            return "Segment.Start{" + "liveVariables=" + liveVariables + '}';
+        }
+    }
+
+    public static final End END = new End();
+
+    public static final class End implements Command {
+
+        private End() {}
+
+        @Override
+        public void accept(CommandVisitor visitor) {
+            visitor.visit(this);
+        }
+
+        @Override
+        public String toString() {
+            return "Segment.End{}";
+        }
+    }
+}
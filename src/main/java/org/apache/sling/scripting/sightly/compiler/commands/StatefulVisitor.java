@@ -18,7 +18,8 @@
  */
 package org.apache.sling.scripting.sightly.compiler.commands;
 
-import java.util.Stack;
+import java.util.ArrayDeque;
+import java.util.Deque;
 
 import org.apache.sling.scripting.sightly.impl.compiler.visitor.UniformVisitor;
 
@@ -27,7 +28,7 @@ import org.apache.sling.scripting.sightly.impl.compiler.visitor.UniformVisitor;
  */
 public final class StatefulVisitor implements CommandVisitor {
 
-    private final Stack<CommandVisitor> stack = new Stack<CommandVisitor>();
+    private final Deque<CommandVisitor> stack = new ArrayDeque<>();
     private CommandVisitor visitor;
     private StateControl control = new StateControl();
 
@@ -81,6 +82,26 @@ public final class StatefulVisitor implements CommandVisitor {
         visitor.visit(outText);
     }
 
+    @Override
+    public void visit(OutputAttribute outputAttribute) {
+        visitor.visit(outputAttribute);
+    }
+
+    @Override
+    public void visit(Segment.Start segmentStart) {
+        visitor.visit(segmentStart);
+    }
+
+    @Override
+    public void visit(Segment.End segmentEnd) {
+        visitor.visit(segmentEnd);
+    }
+
+    @Override
+    public void visit(Flush flush) {
+        visitor.visit(flush);
+    }
+
     @Override
     public void visit(Loop.Start loopStart) {
         visitor.visit(loopStart);
@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.compiler.commands;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * <p>
+ * Deduplicates the static text of compiled scripts. Each distinct text is stored once, as an {@link OutText} command identified by a
+ * stable {@link OutText#getPoolId() id}; the ids are assigned in the order in which the texts are first added and never change during the
+ * lifetime of the pool.
+ * </p>
+ * <p>
+ * Backends which compile several scripts can use the ids for referencing a shared constant table instead of emitting the same text in
+ * every generated class. The pool holds at most {@link #getCapacity() capacity} texts; once it is full, the texts which are not pooled
+ * yet are returned as commands without a pool id. The pool is thread-safe and doesn't block the compilations interning texts which are
+ * already pooled.
+ * </p>
+ */
+public final class StaticTextPool {
+
+    private final ConcurrentMap<String, OutText> commands = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Integer, OutText> texts = new ConcurrentHashMap<>();
+    private final AtomicInteger nextId = new AtomicInteger();
+    private final int capacity;
+
+    /**
+     * Creates a pool holding at most {@code capacity} texts.
+     *
+     * @param capacity the maximum number of texts
+     * @throws IllegalArgumentException if the capacity is not positive
+     */
+    public StaticTextPool(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("The capacity of the pool must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * Returns the {@link OutText} command for a text: the pooled command, if the text is or can still be added to the pool, or a
+     * command without a {@link OutText#getPoolId() pool id} otherwise.
+     *
+     * @param text the text
+     * @return the command
+     */
+    public @NotNull OutText intern(@NotNull String text) {
+        OutText outText = commands.get(text);
+        if (outText == null) {
+            outText = commands.computeIfAbsent(text, this::pool);
+            if (outText == null) {
+                return new OutText(text);
+            }
+        }
+        return outText;
+    }
+
+    /**
+     * Returns the pooled {@link OutText} command with the provided id.
+     *
+     * @param id the id of the text
+     * @return the pooled command
+     * @throws IndexOutOfBoundsException if the pool contains no text with this id
+     */
+    public @NotNull OutText get(int id) {
+        OutText outText = texts.get(id);
+        if (outText == null) {
+            throw new IndexOutOfBoundsException("The pool contains no text with the id " + id);
+        }
+        return outText;
+    }
+
+    /**
+     * Returns the number of texts in the pool; the pooled texts have the ids from {@code 0} to {@code size() - 1}.
+     *
+     * @return the number of texts
+     */
+    public int size() {
+        return nextId.get();
+    }
+
+    /**
+     * Returns the maximum number of texts of the pool.
+     *
+     * @return the capacity of the pool
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    private OutText pool(String text) {
+        int id = nextId.getAndUpdate(current -> current < capacity ? current + 1 : current);
+        if (id == capacity) {
+            return null;
+        }
+        OutText outText = new OutText(text, id);
+        texts.put(id, outText);
+        return outText;
+    }
+}
@@ -19,6 +19,7 @@
 package org.apache.sling.scripting.sightly.compiler.commands;
 
 import org.apache.sling.scripting.sightly.compiler.expression.ExpressionNode;
+import org.apache.sling.scripting.sightly.compiler.expression.ExpressionType;
 
 /**
  * This {@link Command} marks the binding of a variable. The command must have a corresponding binding end later in the stream.
@@ -28,10 +29,37 @@ public final class VariableBinding {
     public static class Start implements Command {
         private String variableName;
         private ExpressionNode expression;
+        private ExpressionType type;
+        private int slot;
 
         public Start(String variableName, ExpressionNode expression) {
+            this(variableName, expression, ExpressionType.UNKNOWN);
+        }
+
+        /**
+         * Creates a variable binding whose bound expression is known to evaluate to a value of the given {@code type}.
+         *
+         * @param variableName the name of the variable
+         * @param expression   the bound expression
+         * @param type         the static type of the bound expression
+         */
+        public Start(String variableName, ExpressionNode expression, ExpressionType type) {
+            this(variableName, expression, type, -1);
+        }
+
+        /**
+         * Creates a variable binding whose variable is stored in the given frame {@code slot}.
+         *
+         * @param variableName the name of the variable
+         * @param expression   the bound expression
+         * @param type         the static type of the bound expression
+         * @param slot         the frame slot of the variable, or {@code -1} if the variable was not resolved to a slot
+         */
+        public Start(String variableName, ExpressionNode expression, ExpressionType type, int slot) {
             this.variableName = variableName;
             this.expression = expression;
+            this.type = type;
+            this.slot = slot;
         }
 
         public String getVariableName() {
@@ -42,6 +70,26 @@ public final class VariableBinding {
             return expression;
         }
 
+        /**
+         * Returns the static type of the bound expression, as inferred by the compiler.
+         *
+         * @return the type of the bound expression; {@link ExpressionType#UNKNOWN} if the type could not be inferred
+         */
+        public ExpressionType getType() {
+            return type;
+        }
+
+        /**
+         * Returns the frame slot of the bound variable, as resolved by the compiler. The local variables of the main part of a script and
+         * of each procedure are stored in their own frame; a slot is used by a single variable at a time, being reused once the variable
+         * goes out of scope.
+         *
+         * @return the slot of the variable, or {@code -1} if the variable was not resolved to a slot
+         */
+        public int getSlot() {
+            return slot;
+        }
+
         @Override
         public void accept(CommandVisitor visitor) {
             visitor.visit(this);
@@ -76,10 +124,23 @@ public final class VariableBinding {
 
         private final String variableName;
         private final ExpressionNode expressionNode;
+        private final ExpressionType type;
 
         public Global(String variableName, ExpressionNode expressionNode) {
+            this(variableName, expressionNode, ExpressionType.UNKNOWN);
+        }
+
+        /**
+         * Creates a global variable binding whose bound expression is known to evaluate to a value of the given {@code type}.
+         *
+         * @param variableName   the name of the variable
+         * @param expressionNode the bound expression
+         * @param type           the static type of the bound expression
+         */
+        public Global(String variableName, ExpressionNode expressionNode, ExpressionType type) {
             this.variableName = variableName;
             this.expressionNode = expressionNode;
+            this.type = type;
         }
 
         public String getVariableName() {
@@ -90,6 +151,15 @@ public final class VariableBinding {
             return expressionNode;
         }
 
+        /**
+         * Returns the static type of the bound expression, as inferred by the compiler.
+         *
+         * @return the type of the bound expression; {@link ExpressionType#UNKNOWN} if the type could not be inferred
+         */
+        public ExpressionType getType() {
+            return type;
+        }
+
         @Override
         public void accept(CommandVisitor visitor) {
             visitor.visit(this);
@@ -0,0 +1,51 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.compiler.expression;
+
+/**
+ * Describes the static type of the value an {@link ExpressionNode} evaluates to, as inferred by the compiler. Backends can use this
+ * information to avoid runtime type coercions when the type of a value is known at compile time.
+ */
+public enum ExpressionType {
+
+    /**
+     * The expression always evaluates to a {@link Boolean}.
+     */
+    BOOLEAN,
+
+    /**
+     * The expression always evaluates to a {@link Number}.
+     */
+    NUMBER,
+
+    /**
+     * The expression always evaluates to a {@link String}.
+     */
+    STRING,
+
+    /**
+     * The expression always evaluates to a {@link java.util.Collection}.
+     */
+    COLLECTION,
+
+    /**
+     * The type of the value cannot be determined at compile time.
+     */
+    UNKNOWN
+}
@@ -21,6 +21,7 @@ package org.apache.sling.scripting.sightly.compiler.expression;
 import org.apache.sling.scripting.sightly.compiler.expression.nodes.ArrayLiteral;
 import org.apache.sling.scripting.sightly.compiler.expression.nodes.BinaryOperation;
 import org.apache.sling.scripting.sightly.compiler.expression.nodes.BooleanConstant;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.Concatenation;
 import org.apache.sling.scripting.sightly.compiler.expression.nodes.Identifier;
 import org.apache.sling.scripting.sightly.compiler.expression.nodes.MapLiteral;
 import org.apache.sling.scripting.sightly.compiler.expression.nodes.NullLiteral;
@@ -135,4 +136,15 @@ public interface NodeVisitor<T> {
      * @return the evaluation result
      */
     T evaluate(NullLiteral nullLiteral);
+
+    /**
+     * Evaluate a {@link Concatenation} node. By default the node is evaluated as its equivalent chain of {@link BinaryOperation}s
+     * (see {@link Concatenation#toBinaryOperation()}).
+     *
+     * @param concatenation the node to evaluate
+     * @return the evaluation result
+     */
+    default T evaluate(Concatenation concatenation) {
+        return concatenation.toBinaryOperation().accept(this);
+    }
 }
@@ -62,6 +62,11 @@ public enum BinaryOperator {
         public Object eval(Object left, Object right) {
             return lt(left, right);
         }
+
+        @Override
+        public boolean evalBoolean(double left, double right) {
+            return left < right;
+        }
     },
     /**
      * Less or equal.
@@ -71,6 +76,11 @@ public enum BinaryOperator {
         public Object eval(Object left, Object right) {
             return leq(left, right);
         }
+
+        @Override
+        public boolean evalBoolean(double left, double right) {
+            return left <= right;
+        }
     },
     /**
      * Greater than.
@@ -80,6 +90,11 @@ public enum BinaryOperator {
         public Object eval(Object left, Object right) {
             return !leq(left, right);
         }
+
+        @Override
+        public boolean evalBoolean(double left, double right) {
+            return !(left <= right);
+        }
     },
     /**
      * Greater or equal.
@@ -89,6 +104,11 @@ public enum BinaryOperator {
         public Object eval(Object left, Object right) {
             return !lt(left, right);
         }
+
+        @Override
+        public boolean evalBoolean(double left, double right) {
+            return !(left < right);
+        }
     },
     /**
      * Equal.
@@ -116,6 +136,11 @@ public enum BinaryOperator {
         public Object eval(Object left, Object right) {
             return strictEq(left, right);
         }
+
+        @Override
+        public boolean evalBoolean(double left, double right) {
+            return left == right;
+        }
     },
     /**
      * Strict version of the not-equal operator.
@@ -125,6 +150,11 @@ public enum BinaryOperator {
         public Object eval(Object left, Object right) {
             return !strictEq(left, right);
         }
+
+        @Override
+        public boolean evalBoolean(double left, double right) {
+            return left != right;
+        }
     },
     /**
      * Addition.
@@ -132,8 +162,14 @@ public enum BinaryOperator {
     ADD {
         @Override
         public Object eval(Object left, Object right) {
-            return adjust(ObjectModel.toNumber(left).doubleValue()
-                    + ObjectModel.toNumber(right).doubleValue());
+            return adjust(evalDouble(
+                    ObjectModel.toNumber(left).doubleValue(),
+                    ObjectModel.toNumber(right).doubleValue()));
+        }
+
+        @Override
+        public double evalDouble(double left, double right) {
+            return left + right;
         }
     },
 
@@ -143,8 +179,14 @@ public enum BinaryOperator {
     SUB {
         @Override
         public Object eval(Object left, Object right) {
-            return adjust(ObjectModel.toNumber(left).doubleValue()
-                    - ObjectModel.toNumber(right).doubleValue());
+            return adjust(evalDouble(
+                    ObjectModel.toNumber(left).doubleValue(),
+                    ObjectModel.toNumber(right).doubleValue()));
+        }
+
+        @Override
+        public double evalDouble(double left, double right) {
+            return left - right;
         }
     },
     /**
@@ -153,8 +195,14 @@ public enum BinaryOperator {
     MUL {
         @Override
         public Object eval(Object left, Object right) {
-            return adjust(ObjectModel.toNumber(left).doubleValue()
-                    * ObjectModel.toNumber(right).doubleValue());
+            return adjust(evalDouble(
+                    ObjectModel.toNumber(left).doubleValue(),
+                    ObjectModel.toNumber(right).doubleValue()));
+        }
+
+        @Override
+        public double evalDouble(double left, double right) {
+            return left * right;
         }
     },
     /**
@@ -163,8 +211,14 @@ public enum BinaryOperator {
     DIV {
         @Override
         public Object eval(Object left, Object right) {
-            return adjust(ObjectModel.toNumber(left).doubleValue()
-                    / ObjectModel.toNumber(right).doubleValue());
+            return adjust(evalDouble(
+                    ObjectModel.toNumber(left).doubleValue(),
+                    ObjectModel.toNumber(right).doubleValue()));
+        }
+
+        @Override
+        public double evalDouble(double left, double right) {
+            return left / right;
         }
     },
     /**
@@ -173,8 +227,14 @@ public enum BinaryOperator {
     I_DIV {
         @Override
         public Object eval(Object left, Object right) {
-            return ObjectModel.toNumber(left).intValue()
-                    / ObjectModel.toNumber(right).intValue();
+            return evalInt(
+                    ObjectModel.toNumber(left).intValue(),
+                    ObjectModel.toNumber(right).intValue());
+        }
+
+        @Override
+        public int evalInt(int left, int right) {
+            return left / right;
         }
     },
 
@@ -184,8 +244,14 @@ public enum BinaryOperator {
     REM {
         @Override
         public Object eval(Object left, Object right) {
-            return adjust(ObjectModel.toNumber(left).intValue()
-                    % ObjectModel.toNumber(right).intValue());
+            return adjust(evalInt(
+                    ObjectModel.toNumber(left).intValue(),
+                    ObjectModel.toNumber(right).intValue()));
+        }
+
+        @Override
+        public int evalInt(int left, int right) {
+            return left % right;
         }
     },
 
@@ -273,7 +339,14 @@ public enum BinaryOperator {
         return false;
     }
 
-    private static Number adjust(double x) {
+    /**
+     * Boxes the result of a floating point arithmetic operation the same way {@link #eval(Object, Object)} does: integral values are
+     * returned as {@link Integer}s, all the other values as {@link Double}s.
+     *
+     * @param x the result of a floating point operation (see {@link #evalDouble(double, double)})
+     * @return the boxed result
+     */
+    public static Number adjust(double x) {
         if (Math.floor(x) == x) {
             return (int) x;
         }
@@ -281,4 +354,45 @@ public enum BinaryOperator {
     }
 
     public abstract Object eval(Object left, Object right);
+
+    /**
+     * Primitive specialisation of {@link #eval(Object, Object)} for the floating point arithmetic operators ({@link #ADD},
+     * {@link #SUB}, {@link #MUL} and {@link #DIV}), when both operands are known to be numbers. Boxing the result with
+     * {@link #adjust(double)} provides the same value as {@link #eval(Object, Object)}.
+     *
+     * @param left  the left operand's {@link Number#doubleValue()}
+     * @param right the right operand's {@link Number#doubleValue()}
+     * @return the result of the operation
+     * @throws UnsupportedOperationException if this operator is not a floating point arithmetic operator
+     */
+    public double evalDouble(double left, double right) {
+        throw new UnsupportedOperationException("Operator " + name() + " does not support floating point operands.");
+    }
+
+    /**
+     * Primitive specialisation of {@link #eval(Object, Object)} for the integer arithmetic operators ({@link #I_DIV} and {@link #REM}),
+     * when both operands are known to be numbers.
+     *
+     * @param left  the left operand's {@link Number#intValue()}
+     * @param right the right operand's {@link Number#intValue()}
+     * @return the result of the operation
+     * @throws ArithmeticException           if the right operand is 0
+     * @throws UnsupportedOperationException if this operator is not an integer arithmetic operator
+     */
+    public int evalInt(int left, int right) {
+        throw new UnsupportedOperationException("Operator " + name() + " does not support integer operands.");
+    }
+
+    /**
+     * Primitive specialisation of {@link #eval(Object, Object)} for the numeric comparison operators ({@link #LT}, {@link #LEQ},
+     * {@link #GT}, {@link #GEQ}, {@link #STRICT_EQ} and {@link #STRICT_NEQ}), when both operands are known to be numbers.
+     *
+     * @param left  the left operand's {@link Number#doubleValue()}
+     * @param right the right operand's {@link Number#doubleValue()}
+     * @return the result of the comparison
+     * @throws UnsupportedOperationException if this operator is not a numeric comparison operator
+     */
+    public boolean evalBoolean(double left, double right) {
+        throw new UnsupportedOperationException("Operator " + name() + " does not support numeric comparisons.");
+    }
 }
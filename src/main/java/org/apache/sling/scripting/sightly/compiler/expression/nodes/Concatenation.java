@@ -0,0 +1,81 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.compiler.expression.nodes;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.sling.scripting.sightly.compiler.expression.ExpressionNode;
+import org.apache.sling.scripting.sightly.compiler.expression.NodeVisitor;
+
+/**
+ * A {@code Concatenation} joins the string representations of all its operands (e.g. the fragments of an interpolation like
+ * {@code "a ${b} c ${d}"}), allowing backends to build the result in a single buffer. It is equivalent to a left-deep chain of
+ * {@link BinaryOperator#CONCATENATE} operations, which is provided by {@link #toBinaryOperation()}.
+ */
+public final class Concatenation implements ExpressionNode {
+
+    private final List<ExpressionNode> operands;
+
+    /**
+     * Creates a {@code Concatenation}.
+     *
+     * @param operands the operands, in order; there must be at least two operands
+     * @throws IllegalArgumentException if less than two operands are provided
+     */
+    public Concatenation(List<ExpressionNode> operands) {
+        if (operands.size() < 2) {
+            throw new IllegalArgumentException("A concatenation requires at least two operands.");
+        }
+        this.operands = new ArrayList<>(operands);
+    }
+
+    /**
+     * Returns an unmodifiable {@link List} containing the concatenation's operands.
+     *
+     * @return an unmodifiable {@link List}
+     */
+    public List<ExpressionNode> getOperands() {
+        return Collections.unmodifiableList(operands);
+    }
+
+    /**
+     * Returns the equivalent left-deep chain of {@link BinaryOperator#CONCATENATE} operations.
+     *
+     * @return the equivalent {@link BinaryOperation}
+     */
+    public BinaryOperation toBinaryOperation() {
+        BinaryOperation result = new BinaryOperation(BinaryOperator.CONCATENATE, operands.get(0), operands.get(1));
+        for (int i = 2; i < operands.size(); i++) {
+            result = new BinaryOperation(BinaryOperator.CONCATENATE, result, operands.get(i));
+        }
+        return result;
+    }
+
+    @Override
+    public <T> T accept(NodeVisitor<T> visitor) {
+        return visitor.evaluate(this);
+    }
+
+    @Override
+    public String toString() {
+        return "Concatenation{" + "operands=" + operands + '}';
+    }
+}
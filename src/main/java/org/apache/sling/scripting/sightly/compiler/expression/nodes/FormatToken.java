@@ -0,0 +1,161 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.compiler.expression.nodes;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A token of a string formatting pattern (see {@link RuntimeCall#getFormatTokens()}): either a text segment, which is rendered as is,
+ * or a placeholder, which is replaced by the formatting argument with the placeholder's index.
+ */
+public final class FormatToken {
+
+    private static final String STRING_FORMAT_TYPE = "string";
+    private static final Pattern PLACEHOLDER_REGEX = Pattern.compile("\\{\\d+}");
+    private static final Pattern COMPLEX_PLACEHOLDER_REGEX = Pattern.compile("\\{\\s*\\d+\\s*,");
+
+    private final String text;
+    private final int argumentIndex;
+
+    private FormatToken(String text, int argumentIndex) {
+        this.text = text;
+        this.argumentIndex = argumentIndex;
+    }
+
+    /**
+     * Creates a text segment token.
+     *
+     * @param text the text of the segment
+     * @return the token
+     */
+    public static @NotNull FormatToken text(@NotNull String text) {
+        return new FormatToken(Objects.requireNonNull(text), -1);
+    }
+
+    /**
+     * Creates a placeholder token.
+     *
+     * @param argumentIndex the index of the formatting argument replacing the placeholder
+     * @return the token
+     */
+    public static @NotNull FormatToken argument(int argumentIndex) {
+        if (argumentIndex < 0) {
+            throw new IllegalArgumentException("Negative argument index " + argumentIndex);
+        }
+        return new FormatToken(null, argumentIndex);
+    }
+
+    /**
+     * <p>
+     * Splits a string formatting pattern into its text segments and placeholders, in order. Empty text segments are omitted.
+     * </p>
+     * <p>
+     * Only the patterns formatted as strings with simple placeholders (e.g. {@code {0}}) are split. Date and number patterns, as well as
+     * the placeholders with format types or styles, are left to the runtime's locale-aware formatters. Without a formatting type, a
+     * pattern is a string pattern only if it contains placeholders, since the runtime otherwise guesses the type from the formatted
+     * object.
+     * </p>
+     *
+     * @param pattern        the formatting pattern
+     * @param formattingType the value of the {@code type} option of the format call, or {@code null} if the option wasn't provided
+     * @return the tokens of the pattern, or {@code null} if the pattern is not a simple string formatting pattern
+     */
+    public static @Nullable List<FormatToken> parse(@NotNull String pattern, @Nullable String formattingType) {
+        if (formattingType == null) {
+            if (!PLACEHOLDER_REGEX.matcher(pattern).find()) {
+                return null;
+            }
+        } else if (!STRING_FORMAT_TYPE.equals(formattingType)) {
+            return null;
+        }
+        if (COMPLEX_PLACEHOLDER_REGEX.matcher(pattern).find()) {
+            return null;
+        }
+        List<FormatToken> tokens = new ArrayList<>();
+        Matcher matcher = PLACEHOLDER_REGEX.matcher(pattern);
+        int lastPos = 0;
+        while (matcher.find()) {
+            if (matcher.start() > lastPos) {
+                tokens.add(text(pattern.substring(lastPos, matcher.start())));
+            }
+            tokens.add(argument(Integer.parseInt(pattern.substring(matcher.start() + 1, matcher.end() - 1))));
+            lastPos = matcher.end();
+        }
+        if (lastPos < pattern.length()) {
+            tokens.add(text(pattern.substring(lastPos)));
+        }
+        return tokens;
+    }
+
+    /**
+     * Tells if this token is a placeholder.
+     *
+     * @return {@code true} if this token is a placeholder, {@code false} if it is a text segment
+     */
+    public boolean isArgument() {
+        return text == null;
+    }
+
+    /**
+     * Returns the text of a text segment.
+     *
+     * @return the text of the segment, or {@code null} if this token is a placeholder
+     */
+    public @Nullable String getText() {
+        return text;
+    }
+
+    /**
+     * Returns the index of the formatting argument replacing a placeholder.
+     *
+     * @return the index of the argument, or {@code -1} if this token is a text segment
+     */
+    public int getArgumentIndex() {
+        return argumentIndex;
+    }
+
+    @Override
+    public String toString() {
+        return isArgument() ? "FormatToken{argumentIndex=" + argumentIndex + '}' : "FormatToken{text='" + text + "'}";
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(text, argumentIndex);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj instanceof FormatToken) {
+            FormatToken other = (FormatToken) obj;
+            return argumentIndex == other.argumentIndex && Objects.equals(text, other.text);
+        }
+        return false;
+    }
+}
@@ -26,6 +26,7 @@ import org.apache.sling.scripting.sightly.compiler.expression.NodeVisitor;
 public final class Identifier implements Atom {
 
     private final String name;
+    private final int slot;
 
     /**
      * Creates an identifier.
@@ -33,7 +34,18 @@ public final class Identifier implements Atom {
      * @param name the name of the identifier
      */
     public Identifier(String name) {
+        this(name, -1);
+    }
+
+    /**
+     * Creates an identifier referencing a local variable stored in a frame slot.
+     *
+     * @param name the name of the identifier
+     * @param slot the slot of the referenced variable, or {@code -1} if the identifier does not reference a local variable
+     */
+    public Identifier(String name, int slot) {
         this.name = name;
+        this.slot = slot;
     }
 
     @Override
@@ -50,6 +62,16 @@ public final class Identifier implements Atom {
         return name;
     }
 
+    /**
+     * Returns the frame slot of the local variable referenced by this identifier, as resolved by the compiler (see
+     * {@link org.apache.sling.scripting.sightly.compiler.commands.VariableBinding.Start#getSlot()}).
+     *
+     * @return the slot of the variable, or {@code -1} if the identifier does not reference a local variable or was not resolved
+     */
+    public int getSlot() {
+        return slot;
+    }
+
     @Override
     public String getText() {
         return getName();
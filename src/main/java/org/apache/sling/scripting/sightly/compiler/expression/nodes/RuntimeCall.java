@@ -28,6 +28,7 @@ import java.util.Set;
 import org.apache.sling.scripting.sightly.compiler.SightlyCompilerException;
 import org.apache.sling.scripting.sightly.compiler.expression.ExpressionNode;
 import org.apache.sling.scripting.sightly.compiler.expression.NodeVisitor;
+import org.jetbrains.annotations.Nullable;
 
 /**
  * A {@code RuntimeCall} is a special expression which provides access to utility functions from the runtime.
@@ -44,6 +45,10 @@ public final class RuntimeCall implements ExpressionNode {
      *     <li>an array of objects that will replace the format placeholders</li>
      * </ol>
      * <p>
+     *     When the format String is a literal using only simple placeholders (e.g. {@code {0}}) for string formatting, backends can
+     *     obtain a pre-parsed form of the pattern at compilation time, through {@link #getFormatTokens()}.
+     * </p>
+     * <p>
      *     For more details check https://github.com/Adobe-Marketing-Cloud/htl-spec/blob/1.2/SPECIFICATION.md#122-format.
      * </p>
      */
@@ -159,6 +164,8 @@ public final class RuntimeCall implements ExpressionNode {
      */
     public static final String USE = "use";
 
+    private static final String FORMAT_TYPE_OPTION = "type";
+
     private static final Set<String> RUNTIME_FUNCTIONS;
 
     static {
@@ -219,6 +226,33 @@ public final class RuntimeCall implements ExpressionNode {
         return Collections.unmodifiableList(arguments);
     }
 
+    /**
+     * For a {@link #FORMAT} call whose format String is a literal using only simple placeholders (e.g. {@code {0}}) for string
+     * formatting, returns the pre-parsed pattern: its text segments and placeholders, in order. Backends can use the tokens to generate
+     * code which renders the result without parsing the pattern on every call. Date and number patterns are not pre-parsed, since their
+     * parsing is owned by the runtime's locale-aware formatters (see {@link FormatToken#parse(String, String)}).
+     *
+     * @return the tokens of the format pattern, or {@code null} if this call is not a string formatting call with a literal simple
+     * pattern
+     */
+    public @Nullable List<FormatToken> getFormatTokens() {
+        if (!FORMAT.equals(functionName) || arguments.isEmpty() || !(arguments.get(0) instanceof StringConstant)) {
+            return null;
+        }
+        String formattingType = null;
+        if (arguments.size() > 1 && arguments.get(1) instanceof MapLiteral) {
+            ExpressionNode type = ((MapLiteral) arguments.get(1)).getValue(FORMAT_TYPE_OPTION);
+            if (type != null) {
+                if (!(type instanceof StringConstant)) {
+                    return null;
+                }
+                formattingType = ((StringConstant) type).getText();
+            }
+        }
+        List<FormatToken> tokens = FormatToken.parse(((StringConstant) arguments.get(0)).getText(), formattingType);
+        return tokens == null ? null : Collections.unmodifiableList(tokens);
+    }
+
     @Override
     public <T> T accept(NodeVisitor<T> visitor) {
         return visitor.evaluate(this);
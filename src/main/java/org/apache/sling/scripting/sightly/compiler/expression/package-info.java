@@ -19,7 +19,7 @@
  * The {@code org.apache.sling.scripting.sightly.compiler.expression} package defines the API for
  * {@link org.apache.sling.scripting.sightly.compiler.expression.Expression} processing.
  */
-@Version("1.0.0")
+@Version("1.2.0")
 package org.apache.sling.scripting.sightly.compiler.expression;
 
 import org.osgi.annotation.versioning.Version;
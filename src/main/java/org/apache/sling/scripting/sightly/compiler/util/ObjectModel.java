@@ -18,6 +18,9 @@
  */
 package org.apache.sling.scripting.sightly.compiler.util;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Array;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
@@ -31,7 +34,10 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.math.NumberUtils;
@@ -70,6 +76,20 @@ public final class ObjectModel {
 
     private static final String TO_STRING_METHOD = "toString";
 
+    private static final MethodType ACCESSOR_TYPE = MethodType.methodType(Object.class, Object.class);
+
+    /*
+     * Per-class caches of the accessors for the resolved public fields and bean methods, keyed by property name. An accessor is a
+     * MethodHandle adapted to the (Object)Object type, such that it can be invoked on any target without further lookups. The caches
+     * are backed by ClassValue instances, which tie the cached data to the lifecycle of the class itself: when a class loader is
+     * discarded (e.g. when an OSGi bundle is refreshed) its classes, together with their cached accessors, become eligible for garbage
+     * collection. The cached values are only JDK types, so that the classes for which data is cached do not pin this bundle's class
+     * loader.
+     */
+    private static final ClassValue<ConcurrentMap<String, Optional<MethodHandle>>> FIELD_ACCESSORS = newAccessorCache();
+    private static final ClassValue<ConcurrentMap<String, Optional<MethodHandle>>> BEAN_METHOD_ACCESSORS =
+            newAccessorCache();
+
     private ObjectModel() {}
 
     /**
@@ -369,12 +389,17 @@ public final class ObjectModel {
         if (cls.isArray() && "length".equals(fieldName)) {
             return Array.getLength(object);
         }
-        try {
-            Field field = cls.getField(fieldName);
-            return field.get(object);
-        } catch (Exception e) {
-            return null;
+        MethodHandle accessor = getFieldAccessor(cls, fieldName);
+        if (accessor != null) {
+            try {
+                return (Object) accessor.invokeExact(object);
+            } catch (Error e) {
+                throw e;
+            } catch (Throwable e) {
+                // ignore - the field cannot be read
+            }
         }
+        return null;
     }
 
     /**
@@ -390,14 +415,16 @@ public final class ObjectModel {
             return null;
         }
         Class<?> cls = object.getClass();
-        Method method = findBeanMethod(cls, methodName);
-        if (method != null) {
-            try {
-                method = extractMethodInheritanceChain(cls, method);
-                return method.invoke(object);
-            } catch (Exception e) {
-                LOGGER.error("Cannot access method " + methodName + " on object " + object.toString(), e);
+        try {
+            MethodHandle accessor = getBeanMethodAccessor(cls, methodName);
+            if (accessor != null) {
+                return (Object) accessor.invokeExact(object);
             }
+        } catch (Error e) {
+            throw e;
+        } catch (Throwable e) {
+            // the method handle declares Throwable; the exceptions are handled like the ones of a reflective invocation
+            LOGGER.error("Cannot access method " + methodName + " on object " + object.toString(), e);
         }
         return null;
     }
@@ -452,6 +479,60 @@ public final class ObjectModel {
         return declaringClass != Object.class || TO_STRING_METHOD.equals(method.getName());
     }
 
+    private static MethodHandle getFieldAccessor(Class<?> cls, String fieldName) {
+        ConcurrentMap<String, Optional<MethodHandle>> accessors = FIELD_ACCESSORS.get(cls);
+        Optional<MethodHandle> accessor = accessors.get(fieldName);
+        if (accessor == null) {
+            MethodHandle resolved = null;
+            try {
+                Field field = cls.getField(fieldName);
+                resolved = asAccessor(
+                        MethodHandles.publicLookup().unreflectGetter(field), Modifier.isStatic(field.getModifiers()));
+            } catch (NoSuchFieldException | IllegalAccessException e) {
+                // ignore - the class does not have an accessible public field with this name
+            }
+            accessor = Optional.ofNullable(resolved);
+            accessors.putIfAbsent(fieldName, accessor);
+        }
+        return accessor.orElse(null);
+    }
+
+    private static MethodHandle getBeanMethodAccessor(Class<?> cls, String methodName) {
+        ConcurrentMap<String, Optional<MethodHandle>> accessors = BEAN_METHOD_ACCESSORS.get(cls);
+        Optional<MethodHandle> accessor = accessors.get(methodName);
+        if (accessor == null) {
+            MethodHandle resolved = null;
+            Method method = extractMethodInheritanceChain(cls, findBeanMethod(cls, methodName));
+            if (method != null) {
+                try {
+                    resolved = asAccessor(
+                            MethodHandles.publicLookup().unreflect(method), Modifier.isStatic(method.getModifiers()));
+                } catch (IllegalAccessException e) {
+                    LOGGER.error("Cannot access method " + methodName + " on class " + cls.getName(), e);
+                }
+            }
+            accessor = Optional.ofNullable(resolved);
+            accessors.putIfAbsent(methodName, accessor);
+        }
+        return accessor.orElse(null);
+    }
+
+    private static MethodHandle asAccessor(MethodHandle handle, boolean isStatic) {
+        if (isStatic) {
+            handle = MethodHandles.dropArguments(handle, 0, Object.class);
+        }
+        return handle.asType(ACCESSOR_TYPE);
+    }
+
+    private static ClassValue<ConcurrentMap<String, Optional<MethodHandle>>> newAccessorCache() {
+        return new ClassValue<ConcurrentMap<String, Optional<MethodHandle>>>() {
+            @Override
+            protected ConcurrentMap<String, Optional<MethodHandle>> computeValue(Class<?> type) {
+                return new ConcurrentHashMap<>();
+            }
+        };
+    }
+
     private static Method extractMethodInheritanceChain(Class type, Method method) {
         if (method == null || Modifier.isPublic(type.getModifiers())) {
             return method;
@@ -19,19 +19,22 @@
 package org.apache.sling.scripting.sightly.compiler.util;
 
 import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Stack;
 
 /**
  * Tracks information related to HTL variables, at different levels of the compiler.
  */
 public final class VariableTracker<T> {
 
-    private final Map<String, Stack<T>> variableData = new HashMap<>();
-    private final Stack<String> declarationStack = new Stack<>();
+    // the per-variable data stacks are array lists since the tracked data is allowed to be null
+    private final Map<String, List<T>> variableData = new HashMap<>();
+    private final Deque<String> declarationStack = new ArrayDeque<>();
 
     /**
      * Checks if the variable identified by {@code name} is tracked by this tracker or not.
@@ -41,7 +44,7 @@ public final class VariableTracker<T> {
      */
     public boolean isDeclared(String name) {
         name = name.toLowerCase();
-        Stack<T> dataStack = variableData.get(name);
+        List<T> dataStack = variableData.get(name);
         return dataStack != null;
     }
 
@@ -54,12 +57,12 @@ public final class VariableTracker<T> {
     public void pushVariable(String name, T data) {
         if (name != null) {
             name = name.toLowerCase();
-            Stack<T> dataStack = variableData.get(name);
+            List<T> dataStack = variableData.get(name);
             if (dataStack == null) {
-                dataStack = new Stack<>();
+                dataStack = new ArrayList<>();
                 variableData.put(name, dataStack);
             }
-            dataStack.push(data);
+            dataStack.add(data);
             declarationStack.push(name);
         }
     }
@@ -72,9 +75,9 @@ public final class VariableTracker<T> {
      */
     public String popVariable() {
         String variable = declarationStack.pop();
-        Stack<T> dataStack = variableData.get(variable);
+        List<T> dataStack = variableData.get(variable);
         assert dataStack != null;
-        dataStack.pop();
+        dataStack.remove(dataStack.size() - 1);
         if (dataStack.isEmpty()) {
             variableData.remove(variable);
         }
@@ -88,10 +91,10 @@ public final class VariableTracker<T> {
      * @throws java.util.NoSuchElementException if there are no variables in scope
      */
     public Map.Entry<String, T> peek() {
-        String variable = declarationStack.peek();
-        Stack<T> dataStack = variableData.get(variable);
+        String variable = declarationStack.element();
+        List<T> dataStack = variableData.get(variable);
         assert dataStack != null;
-        T data = dataStack.peek();
+        T data = dataStack.get(dataStack.size() - 1);
         return new AbstractMap.SimpleImmutableEntry<>(variable, data);
     }
 
@@ -112,12 +115,12 @@ public final class VariableTracker<T> {
      */
     public T get(String name) {
         name = name.toLowerCase();
-        Stack<T> dataStack = variableData.get(name);
+        List<T> dataStack = variableData.get(name);
         if (dataStack == null) {
             return null;
         }
         assert !dataStack.isEmpty();
-        return dataStack.peek();
+        return dataStack.get(dataStack.size() - 1);
     }
 
     /**
@@ -141,7 +144,7 @@ public final class VariableTracker<T> {
      */
     public List<T> getAll(String name) {
         name = name.toLowerCase();
-        Stack<T> dataStack = variableData.get(name);
+        List<T> dataStack = variableData.get(name);
         if (dataStack == null) {
             return Collections.emptyList();
         }
@@ -156,7 +159,7 @@ public final class VariableTracker<T> {
      */
     public int getOccurrenceCount(String name) {
         name = name.toLowerCase();
-        Stack<T> dataStack = variableData.get(name);
+        List<T> dataStack = variableData.get(name);
         if (dataStack == null) {
             return 0;
         }
@@ -0,0 +1,280 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.impl.compiler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.sling.scripting.sightly.compiler.CancellationToken;
+import org.apache.sling.scripting.sightly.compiler.CompilationBudget;
+import org.apache.sling.scripting.sightly.compiler.SightlyCompilerException;
+import org.apache.sling.scripting.sightly.compiler.commands.Command;
+import org.apache.sling.scripting.sightly.compiler.commands.CommandHandler;
+import org.apache.sling.scripting.sightly.compiler.commands.CommandStream;
+import org.apache.sling.scripting.sightly.compiler.expression.Expression;
+import org.apache.sling.scripting.sightly.compiler.expression.ExpressionNode;
+import org.apache.sling.scripting.sightly.compiler.expression.SideEffectVisitor;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.ArrayLiteral;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.BinaryOperation;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.BooleanConstant;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.Identifier;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.MapLiteral;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.NullLiteral;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.NumericConstant;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.PropertyAccess;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.RuntimeCall;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.StringConstant;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.TernaryOperator;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.UnaryOperation;
+import org.apache.sling.scripting.sightly.impl.compiler.optimization.StreamTransformer;
+
+/**
+ * <p>
+ * Enforces the {@link CompilationBudget} of a compilation and its {@link CancellationToken}. The front-end checks the nesting depth of
+ * the elements and the size of the expressions it parses; the monitor is attached as a handler to the stream of the front-end, counting
+ * the generated commands, and checks the deadline and the token on each command. The optimisation passes are
+ * {@link #checked(StreamTransformer) checked} on each of the commands they receive.
+ * </p>
+ * <p>
+ * A violated limit is reported by throwing a {@link SightlyCompilerException}, which stops the compilation. The checks can run on any
+ * thread, but the commands of the front-end must be counted on a single thread.
+ * </p>
+ */
+public final class CompilationMonitor implements CommandHandler {
+
+    /**
+     * A monitor which never stops a compilation.
+     */
+    public static final CompilationMonitor UNBOUNDED = new CompilationMonitor(CompilationBudget.UNLIMITED, null);
+
+    private final CompilationBudget budget;
+    private final CancellationToken cancellationToken;
+    private final long deadline;
+    private int commands;
+
+    /**
+     * Creates a monitor for a compilation starting now.
+     *
+     * @param budget            the budget of the compilation
+     * @param cancellationToken the token cancelling the compilation; can be {@code null}
+     */
+    public CompilationMonitor(CompilationBudget budget, CancellationToken cancellationToken) {
+        this.budget = budget;
+        this.cancellationToken = cancellationToken;
+        long timeout = budget.getTimeout(TimeUnit.NANOSECONDS);
+        this.deadline = timeout == 0 ? 0 : System.nanoTime() + timeout;
+    }
+
+    /**
+     * Tells if this monitor can stop a compilation.
+     *
+     * @return {@code true} if the monitor never stops a compilation, {@code false} otherwise
+     */
+    public boolean isUnbounded() {
+        return budget.isUnlimited() && cancellationToken == null;
+    }
+
+    /**
+     * Stops the compilation if it was cancelled or if its deadline passed.
+     */
+    public void checkpoint() {
+        if (cancellationToken != null && cancellationToken.isCancelled()) {
+            throw new SightlyCompilerException("The compilation was cancelled.");
+        }
+        if (deadline != 0 && System.nanoTime() - deadline > 0) {
+            throw new SightlyCompilerException(String.format(
+                    "The compilation exceeded its time limit of %d ms.", budget.getTimeout(TimeUnit.MILLISECONDS)));
+        }
+    }
+
+    /**
+     * Stops the compilation if the element nesting depth exceeds the budget.
+     *
+     * @param depth  the number of nested elements
+     * @param markup the markup of the innermost element, reported as the offending input
+     */
+    public void checkNestingDepth(int depth, String markup) {
+        int maxNestingDepth = budget.getMaxNestingDepth();
+        if (maxNestingDepth != 0 && depth > maxNestingDepth) {
+            throw new SightlyCompilerException(
+                    String.format("The elements are nested deeper than the limit of %d elements.", maxNestingDepth),
+                    markup);
+        }
+    }
+
+    /**
+     * Stops the compilation if the size of an expression exceeds the budget.
+     *
+     * @param expression the parsed expression
+     * @param source     the source of the expression, reported as the offending input
+     */
+    public void checkExpression(Expression expression, String source) {
+        int maxExpressionSize = budget.getMaxExpressionSize();
+        if (maxExpressionSize != 0) {
+            List<ExpressionNode> nodes = new ArrayList<>(expression.getOptions().values());
+            nodes.add(expression.getRoot());
+            int size = NodeCounter.count(nodes);
+            if (size > maxExpressionSize) {
+                throw new SightlyCompilerException(
+                        String.format(
+                                "The expression has %d nodes, exceeding the limit of %d nodes.",
+                                size, maxExpressionSize),
+                        source);
+            }
+        }
+    }
+
+    /**
+     * Returns a transformer which checks this monitor on each of the commands received by the provided {@code transformer}.
+     *
+     * @param transformer the transformer
+     * @return the checked transformer
+     */
+    public StreamTransformer checked(final StreamTransformer transformer) {
+        return new StreamTransformer() {
+            @Override
+            public CommandStream transform(CommandStream inStream) {
+                final PushStream checkedStream = new PushStream();
+                inStream.addHandler(new CommandHandler() {
+                    @Override
+                    public void onEmit(Command command) {
+                        checkpoint();
+                        checkedStream.write(command);
+                    }
+
+                    @Override
+                    public void onError(String errorMessage) {
+                        checkedStream.signalError(errorMessage);
+                    }
+
+                    @Override
+                    public void onDone() {
+                        checkedStream.close();
+                    }
+                });
+                return transformer.transform(checkedStream);
+            }
+        };
+    }
+
+    @Override
+    public void onEmit(Command command) {
+        int maxCommands = budget.getMaxCommands();
+        if (maxCommands != 0 && ++commands > maxCommands) {
+            throw new SightlyCompilerException(
+                    String.format("The script generates more than the limit of %d commands.", maxCommands));
+        }
+        checkpoint();
+    }
+
+    @Override
+    public void onError(String errorMessage) {}
+
+    @Override
+    public void onDone() {}
+
+    private static final class NodeCounter extends SideEffectVisitor {
+
+        private int count;
+
+        static int count(List<ExpressionNode> nodes) {
+            NodeCounter counter = new NodeCounter();
+            counter.traverse(nodes);
+            return counter.count;
+        }
+
+        private void traverse(List<ExpressionNode> nodes) {
+            for (ExpressionNode node : nodes) {
+                node.accept(this);
+            }
+        }
+
+        @Override
+        public void visit(PropertyAccess propertyAccess) {
+            count++;
+            propertyAccess.getTarget().accept(this);
+            propertyAccess.getProperty().accept(this);
+        }
+
+        @Override
+        public void visit(Identifier identifier) {
+            count++;
+        }
+
+        @Override
+        public void visit(StringConstant text) {
+            count++;
+        }
+
+        @Override
+        public void visit(BinaryOperation binaryOperation) {
+            count++;
+            binaryOperation.getLeftOperand().accept(this);
+            binaryOperation.getRightOperand().accept(this);
+        }
+
+        @Override
+        public void visit(BooleanConstant booleanConstant) {
+            count++;
+        }
+
+        @Override
+        public void visit(NumericConstant numericConstant) {
+            count++;
+        }
+
+        @Override
+        public void visit(UnaryOperation unaryOperation) {
+            count++;
+            unaryOperation.getTarget().accept(this);
+        }
+
+        @Override
+        public void visit(TernaryOperator ternaryOperator) {
+            count++;
+            ternaryOperator.getCondition().accept(this);
+            ternaryOperator.getThenBranch().accept(this);
+            ternaryOperator.getElseBranch().accept(this);
+        }
+
+        @Override
+        public void visit(RuntimeCall runtimeCall) {
+            count++;
+            traverse(runtimeCall.getArguments());
+        }
+
+        @Override
+        public void visit(MapLiteral mapLiteral) {
+            count++;
+            traverse(new ArrayList<>(mapLiteral.getMap().values()));
+        }
+
+        @Override
+        public void visit(ArrayLiteral arrayLiteral) {
+            count++;
+            traverse(arrayLiteral.getItems());
+        }
+
+        @Override
+        public void visit(NullLiteral nullLiteral) {
+            count++;
+        }
+    }
+}
@@ -18,6 +18,7 @@
  */
 package org.apache.sling.scripting.sightly.impl.compiler;
 
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -33,12 +34,24 @@ public final class PushStream implements CommandStream {
 
     private BroadcastHandler handler = new BroadcastHandler();
     private boolean closed;
-    private List<Command> commands = new LinkedList<>();
+    private String errorMessage;
+    private List<Command> commands = new ArrayList<>();
     private List<StreamMessage> warnings = new LinkedList<>();
 
     @Override
     public void addHandler(CommandHandler handler) {
-        this.handler.addHandler(handler);
+        if (closed) {
+            for (Command command : commands) {
+                handler.onEmit(command);
+            }
+            if (errorMessage != null) {
+                handler.onError(errorMessage);
+            } else {
+                handler.onDone();
+            }
+        } else {
+            this.handler.addHandler(handler);
+        }
     }
 
     @Override
@@ -69,6 +82,7 @@ public final class PushStream implements CommandStream {
             throw new UnsupportedOperationException("Stream has already been closed.");
         }
         closed = true;
+        errorMessage = message;
         this.handler.onError(message);
     }
 
@@ -85,6 +99,15 @@ public final class PushStream implements CommandStream {
         this.handler.onDone();
     }
 
+    /**
+     * Tells if this stream has been closed, either normally or by signalling an error.
+     *
+     * @return {@code true} if the stream has been closed, {@code false} otherwise
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
     public void warn(StreamMessage warning) {
         warnings.add(warning);
     }
@@ -0,0 +1,140 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.impl.compiler.analysis;
+
+import java.util.Locale;
+
+import org.apache.sling.scripting.sightly.compiler.commands.Command;
+import org.apache.sling.scripting.sightly.compiler.commands.CommandStream;
+import org.apache.sling.scripting.sightly.compiler.commands.Conditional;
+import org.apache.sling.scripting.sightly.compiler.commands.Flush;
+import org.apache.sling.scripting.sightly.compiler.commands.Loop;
+import org.apache.sling.scripting.sightly.compiler.commands.OutText;
+import org.apache.sling.scripting.sightly.compiler.commands.Procedure;
+import org.apache.sling.scripting.sightly.impl.compiler.PushStream;
+import org.apache.sling.scripting.sightly.impl.compiler.optimization.StreamTransformer;
+import org.apache.sling.scripting.sightly.impl.compiler.util.stream.EmitterVisitor;
+import org.apache.sling.scripting.sightly.impl.compiler.util.stream.Streams;
+import org.apache.sling.scripting.sightly.impl.compiler.visitor.UniformVisitor;
+
+/**
+ * Inserts {@link Flush} hints in the stream after the end of the document's {@code head} and after large static text outputs, as long as
+ * they are not nested in conditionals, loops or procedures. This analysis should run on the optimised stream, after the text writes have
+ * been coalesced.
+ */
+public final class FlushPoints extends UniformVisitor implements EmitterVisitor {
+
+    /**
+     * The default amount of static text, in characters, after which a flush is hinted.
+     */
+    public static final int DEFAULT_THRESHOLD = 8192;
+
+    public static final StreamTransformer TRANSFORMER = transformer(DEFAULT_THRESHOLD);
+
+    private static final String HEAD_END = "</head>";
+
+    private final PushStream outputStream = new PushStream();
+    private final int threshold;
+    private int depth;
+    private int pendingText;
+
+    private FlushPoints(int threshold) {
+        this.threshold = threshold;
+    }
+
+    /**
+     * Returns a transformer which hints a flush after {@code threshold} characters of static text.
+     *
+     * @param threshold the amount of static text, in characters, after which a flush is hinted
+     * @return the transformer
+     */
+    public static StreamTransformer transformer(final int threshold) {
+        return new StreamTransformer() {
+            @Override
+            public CommandStream transform(CommandStream inStream) {
+                return Streams.map(inStream, new FlushPoints(threshold));
+            }
+        };
+    }
+
+    @Override
+    public void visit(Conditional.Start conditionalStart) {
+        depth++;
+        super.visit(conditionalStart);
+    }
+
+    @Override
+    public void visit(Conditional.End conditionalEnd) {
+        depth--;
+        super.visit(conditionalEnd);
+    }
+
+    @Override
+    public void visit(Loop.Start loopStart) {
+        depth++;
+        super.visit(loopStart);
+    }
+
+    @Override
+    public void visit(Loop.End loopEnd) {
+        depth--;
+        super.visit(loopEnd);
+    }
+
+    @Override
+    public void visit(Procedure.Start startProcedure) {
+        depth++;
+        super.visit(startProcedure);
+    }
+
+    @Override
+    public void visit(Procedure.End endProcedure) {
+        depth--;
+        super.visit(endProcedure);
+    }
+
+    @Override
+    public void visit(OutText outText) {
+        super.visit(outText);
+        if (depth == 0) {
+            String text = outText.getText();
+            pendingText += text.length();
+            if (pendingText >= threshold || text.toLowerCase(Locale.ENGLISH).contains(HEAD_END)) {
+                outputStream.write(Flush.INSTANCE);
+                pendingText = 0;
+            }
+        }
+    }
+
+    @Override
+    public void visit(Flush flush) {
+        pendingText = 0;
+        super.visit(flush);
+    }
+
+    @Override
+    protected void onCommand(Command command) {
+        outputStream.write(command);
+    }
+
+    @Override
+    public PushStream getOutputStream() {
+        return outputStream;
+    }
+}
@@ -0,0 +1,476 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.impl.compiler.analysis;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.sling.scripting.sightly.compiler.commands.AbstractCommandVisitor;
+import org.apache.sling.scripting.sightly.compiler.commands.Command;
+import org.apache.sling.scripting.sightly.compiler.commands.CommandHandler;
+import org.apache.sling.scripting.sightly.compiler.commands.CommandStream;
+import org.apache.sling.scripting.sightly.compiler.commands.Conditional;
+import org.apache.sling.scripting.sightly.compiler.commands.Loop;
+import org.apache.sling.scripting.sightly.compiler.commands.OutText;
+import org.apache.sling.scripting.sightly.compiler.commands.OutputVariable;
+import org.apache.sling.scripting.sightly.compiler.commands.Procedure;
+import org.apache.sling.scripting.sightly.compiler.commands.Segment;
+import org.apache.sling.scripting.sightly.compiler.commands.VariableBinding;
+import org.apache.sling.scripting.sightly.compiler.expression.ExpressionNode;
+import org.apache.sling.scripting.sightly.compiler.expression.SideEffectVisitor;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.ArrayLiteral;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.BinaryOperation;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.BooleanConstant;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.Identifier;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.MapLiteral;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.NullLiteral;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.NumericConstant;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.PropertyAccess;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.RuntimeCall;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.StringConstant;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.TernaryOperator;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.UnaryOperation;
+import org.apache.sling.scripting.sightly.impl.compiler.PushStream;
+import org.apache.sling.scripting.sightly.impl.compiler.optimization.CommandVariableUsage;
+import org.apache.sling.scripting.sightly.impl.compiler.optimization.StreamTransformer;
+
+/**
+ * <p>
+ * Marks {@link Segment}s in streams whose generated code would be too large for a single method. The size of the code generated for
+ * each command is estimated in bytecodes; when a method body (the main stream or a procedure's body) exceeds the size budget, the
+ * commands nested in it are grouped into balanced segments which don't exceed the budget, recursing into the nested regions which
+ * exceed the budget on their own. Each segment lists the variables bound outside of it which its commands use, including the global
+ * variables assigned before it. Regions which assign global variables are never placed in a segment, so that the assigned values stay
+ * visible to the following commands.
+ * </p>
+ * <p>
+ * The analysis buffers the whole stream and should run on the optimised stream, right before it is handed to a backend.
+ * </p>
+ */
+public final class Segmentation implements CommandHandler {
+
+    /**
+     * The default size budget, in estimated bytecodes; it leaves a wide margin under HotSpot's {@code HugeMethodLimit} (8000 bytecodes)
+     * for the estimation errors.
+     */
+    public static final int DEFAULT_BUDGET = 4000;
+
+    public static final StreamTransformer TRANSFORMER = transformer(DEFAULT_BUDGET);
+
+    private final PushStream outStream;
+    private final int budget;
+    private final int minSegmentSize;
+    private final List<Command> commands = new ArrayList<>();
+    private Map<Integer, Segment.Start> segmentStarts = new HashMap<>();
+    private Set<Integer> segmentEnds = new HashSet<>();
+    private final Map<Integer, String> globalAssignments = new HashMap<>();
+
+    private Segmentation(PushStream outStream, int budget) {
+        this.outStream = outStream;
+        this.budget = budget;
+        // smaller ranges are not worth the cost of a method call
+        this.minSegmentSize = budget / 20;
+    }
+
+    /**
+     * Returns a transformer which segments the method bodies larger than {@code budget}.
+     *
+     * @param budget the maximum estimated size of a method body, in bytecodes
+     * @return the transformer
+     */
+    public static StreamTransformer transformer(final int budget) {
+        return new StreamTransformer() {
+            @Override
+            public CommandStream transform(CommandStream inStream) {
+                PushStream outputStream = new PushStream();
+                inStream.addHandler(new Segmentation(outputStream, budget));
+                return outputStream;
+            }
+        };
+    }
+
+    @Override
+    public void onEmit(Command command) {
+        commands.add(command);
+    }
+
+    @Override
+    public void onError(String errorMessage) {
+        flush();
+        outStream.signalError(errorMessage);
+    }
+
+    @Override
+    public void onDone() {
+        Region root = parse();
+        if (root != null) {
+            segmentMethod(root, new HashMap<String, String>());
+        }
+        flush();
+        outStream.close();
+    }
+
+    private Region parse() {
+        Region root = new Region(-1, false);
+        Deque<Region> stack = new ArrayDeque<>();
+        stack.push(root);
+        for (int i = 0; i < commands.size(); i++) {
+            Command command = commands.get(i);
+            if (isRegionStart(command)) {
+                Region region = new Region(i, command instanceof Procedure.Start);
+                stack.peek().children.add(region);
+                stack.push(region);
+            } else if (isRegionEnd(command)) {
+                if (stack.size() == 1) {
+                    // unbalanced stream
+                    return null;
+                }
+                stack.pop().end = i;
+            } else {
+                Region leaf = new Region(i, false);
+                leaf.end = i;
+                if (command instanceof VariableBinding.Global) {
+                    leaf.assignsGlobals = true;
+                    globalAssignments.put(i, ((VariableBinding.Global) command).getVariableName());
+                }
+                stack.peek().children.add(leaf);
+            }
+        }
+        if (stack.size() != 1) {
+            return null;
+        }
+        root.end = commands.size();
+        computeSize(root);
+        return root;
+    }
+
+    private void computeSize(Region region) {
+        SizeEstimator estimator = new SizeEstimator();
+        if (region.start >= 0) {
+            commands.get(region.start).accept(estimator);
+        }
+        if (region.end > region.start && region.end < commands.size()) {
+            commands.get(region.end).accept(estimator);
+        }
+        int size = estimator.size;
+        for (Region child : region.children) {
+            computeSize(child);
+            if (!child.procedure) {
+                // procedures are generated as separate methods
+                size += child.size;
+                region.assignsGlobals |= child.assignsGlobals;
+            }
+        }
+        region.size = size;
+    }
+
+    private void segmentMethod(Region method, Map<String, String> scope) {
+        if (method.size > budget) {
+            segment(method, scope);
+        } else {
+            for (Region child : method.children) {
+                if (child.procedure) {
+                    segmentMethod(child, new HashMap<String, String>());
+                }
+            }
+        }
+    }
+
+    private void segment(Region region, Map<String, String> scope) {
+        Map<String, String> innerScope = new HashMap<>(scope);
+        if (region.start >= 0) {
+            bindVariables(commands.get(region.start), innerScope);
+        }
+        List<Region> run = new ArrayList<>();
+        int runSize = 0;
+        for (Region child : region.children) {
+            if (child.procedure) {
+                markSegment(run, runSize, innerScope);
+                run.clear();
+                runSize = 0;
+                // procedures don't see the variables of the stream in which they are defined
+                segmentMethod(child, new HashMap<String, String>());
+            } else if (child.size > budget || child.assignsGlobals) {
+                markSegment(run, runSize, innerScope);
+                run.clear();
+                runSize = 0;
+                segment(child, innerScope);
+            } else {
+                if (runSize + child.size > budget) {
+                    markSegment(run, runSize, innerScope);
+                    run.clear();
+                    runSize = 0;
+                }
+                run.add(child);
+                runSize += child.size;
+            }
+        }
+        markSegment(run, runSize, innerScope);
+    }
+
+    private void markSegment(List<Region> run, int runSize, Map<String, String> scope) {
+        if (run.isEmpty() || runSize < minSegmentSize) {
+            return;
+        }
+        int start = run.get(0).start;
+        int end = run.get(run.size() - 1).end;
+        Map<String, String> globals = new HashMap<>();
+        for (Map.Entry<Integer, String> globalAssignment : globalAssignments.entrySet()) {
+            if (globalAssignment.getKey() < start) {
+                bindVariable(globalAssignment.getValue(), globals);
+            }
+        }
+        Set<String> liveVariables = new HashSet<>();
+        for (int i = start; i <= end; i++) {
+            for (String variable : CommandVariableUsage.extractVariables(commands.get(i))) {
+                String name = variable.toLowerCase();
+                String boundVariable = scope.containsKey(name) ? scope.get(name) : globals.get(name);
+                if (boundVariable != null) {
+                    liveVariables.add(boundVariable);
+                }
+            }
+        }
+        segmentStarts.put(start, new Segment.Start(liveVariables));
+        segmentEnds.add(end);
+    }
+
+    private void bindVariables(Command command, Map<String, String> scope) {
+        if (command instanceof VariableBinding.Start) {
+            bindVariable(((VariableBinding.Start) command).getVariableName(), scope);
+        } else if (command instanceof Loop.Start) {
+            Loop.Start loopStart = (Loop.Start) command;
+            bindVariable(loopStart.getItemVariable(), scope);
+            bindVariable(loopStart.getIndexVariable(), scope);
+            bindVariable(loopStart.getBeginVariable(), scope);
+            bindVariable(loopStart.getStepVariable(), scope);
+            bindVariable(loopStart.getEndVariable(), scope);
+        } else if (command instanceof Procedure.Start) {
+            for (String parameter : ((Procedure.Start) command).getParameters()) {
+                bindVariable(parameter, scope);
+            }
+        }
+    }
+
+    private void bindVariable(String variable, Map<String, String> scope) {
+        if (variable != null) {
+            scope.put(variable.toLowerCase(), variable);
+        }
+    }
+
+    private void flush() {
+        for (int i = 0; i < commands.size(); i++) {
+            Segment.Start segmentStart = segmentStarts.get(i);
+            if (segmentStart != null) {
+                outStream.write(segmentStart);
+            }
+            outStream.write(commands.get(i));
+            if (segmentEnds.contains(i)) {
+                outStream.write(Segment.END);
+            }
+        }
+        commands.clear();
+        segmentStarts = new HashMap<>();
+        segmentEnds = new HashSet<>();
+    }
+
+    private static boolean isRegionStart(Command command) {
+        return command instanceof VariableBinding.Start
+                || command instanceof Conditional.Start
+                || command instanceof Loop.Start
+                || command instanceof Procedure.Start
+                || command instanceof Segment.Start;
+    }
+
+    private static boolean isRegionEnd(Command command) {
+        return command instanceof VariableBinding.End
+                || command instanceof Conditional.End
+                || command instanceof Loop.End
+                || command instanceof Procedure.End
+                || command instanceof Segment.End;
+    }
+
+    /**
+     * A balanced range of commands: a single command, or an opening command, its nested regions and the matching closing command.
+     */
+    private static final class Region {
+        private final int start;
+        private final boolean procedure;
+        private final List<Region> children = new ArrayList<>();
+        private int end;
+        private int size;
+        private boolean assignsGlobals;
+
+        private Region(int start, boolean procedure) {
+            this.start = start;
+            this.procedure = procedure;
+        }
+    }
+
+    /**
+     * Rough estimates of the bytecodes generated for each command.
+     */
+    private static final class SizeEstimator extends AbstractCommandVisitor {
+
+        private int size;
+
+        @Override
+        public void visit(Conditional.Start conditionalStart) {
+            size += 10;
+        }
+
+        @Override
+        public void visit(VariableBinding.Start variableBindingStart) {
+            size += 4 + ExpressionSize.of(variableBindingStart.getExpression());
+        }
+
+        @Override
+        public void visit(VariableBinding.End variableBindingEnd) {
+            size += 2;
+        }
+
+        @Override
+        public void visit(VariableBinding.Global globalAssignment) {
+            size += 10 + ExpressionSize.of(globalAssignment.getExpression());
+        }
+
+        @Override
+        public void visit(OutputVariable outputVariable) {
+            size += 10;
+        }
+
+        @Override
+        public void visit(OutText outText) {
+            size += 6;
+        }
+
+        @Override
+        public void visit(Loop.Start loopStart) {
+            size += 60;
+        }
+
+        @Override
+        public void visit(Loop.End loopEnd) {
+            size += 10;
+        }
+
+        @Override
+        public void visit(Procedure.Call procedureCall) {
+            size += 30;
+        }
+    }
+
+    /**
+     * Estimates the bytecodes generated for evaluating an expression.
+     */
+    private static final class ExpressionSize extends SideEffectVisitor {
+
+        private static final int NODE_SIZE = 6;
+
+        private int size;
+
+        static int of(ExpressionNode node) {
+            ExpressionSize expressionSize = new ExpressionSize();
+            node.accept(expressionSize);
+            return expressionSize.size;
+        }
+
+        private void traverse(List<ExpressionNode> nodes) {
+            for (ExpressionNode node : nodes) {
+                node.accept(this);
+            }
+        }
+
+        @Override
+        public void visit(PropertyAccess propertyAccess) {
+            size += NODE_SIZE;
+            propertyAccess.getTarget().accept(this);
+            propertyAccess.getProperty().accept(this);
+        }
+
+        @Override
+        public void visit(Identifier identifier) {
+            size += NODE_SIZE;
+        }
+
+        @Override
+        public void visit(StringConstant text) {
+            size += NODE_SIZE;
+        }
+
+        @Override
+        public void visit(BinaryOperation binaryOperation) {
+            size += NODE_SIZE;
+            binaryOperation.getLeftOperand().accept(this);
+            binaryOperation.getRightOperand().accept(this);
+        }
+
+        @Override
+        public void visit(BooleanConstant booleanConstant) {
+            size += NODE_SIZE;
+        }
+
+        @Override
+        public void visit(NumericConstant numericConstant) {
+            size += NODE_SIZE;
+        }
+
+        @Override
+        public void visit(UnaryOperation unaryOperation) {
+            size += NODE_SIZE;
+            unaryOperation.getTarget().accept(this);
+        }
+
+        @Override
+        public void visit(TernaryOperator ternaryOperator) {
+            size += NODE_SIZE;
+            ternaryOperator.getCondition().accept(this);
+            ternaryOperator.getThenBranch().accept(this);
+            ternaryOperator.getElseBranch().accept(this);
+        }
+
+        @Override
+        public void visit(RuntimeCall runtimeCall) {
+            size += NODE_SIZE;
+            traverse(runtimeCall.getArguments());
+        }
+
+        @Override
+        public void visit(MapLiteral mapLiteral) {
+            size += NODE_SIZE;
+            traverse(new ArrayList<>(mapLiteral.getMap().values()));
+        }
+
+        @Override
+        public void visit(ArrayLiteral arrayLiteral) {
+            size += NODE_SIZE;
+            traverse(arrayLiteral.getItems());
+        }
+
+        @Override
+        public void visit(NullLiteral nullLiteral) {
+            size += NODE_SIZE;
+        }
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.impl.compiler.analysis;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.sling.scripting.sightly.compiler.commands.Command;
+import org.apache.sling.scripting.sightly.compiler.commands.CommandStream;
+import org.apache.sling.scripting.sightly.compiler.commands.Conditional;
+import org.apache.sling.scripting.sightly.compiler.commands.Loop;
+import org.apache.sling.scripting.sightly.compiler.commands.OutputAttribute;
+import org.apache.sling.scripting.sightly.compiler.commands.OutputVariable;
+import org.apache.sling.scripting.sightly.compiler.commands.Procedure;
+import org.apache.sling.scripting.sightly.compiler.commands.VariableBinding;
+import org.apache.sling.scripting.sightly.compiler.expression.ExpressionNode;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.Identifier;
+import org.apache.sling.scripting.sightly.compiler.util.VariableTracker;
+import org.apache.sling.scripting.sightly.impl.compiler.PushStream;
+import org.apache.sling.scripting.sightly.impl.compiler.optimization.StreamTransformer;
+import org.apache.sling.scripting.sightly.impl.compiler.util.expression.NodeTransformer;
+import org.apache.sling.scripting.sightly.impl.compiler.util.stream.EmitterVisitor;
+import org.apache.sling.scripting.sightly.impl.compiler.util.stream.Streams;
+import org.apache.sling.scripting.sightly.impl.compiler.visitor.UniformVisitor;
+
+/**
+ * Resolves the local variables to frame slots: every {@link VariableBinding.Start}, {@link Loop.Start} item and index variable and
+ * {@link Procedure.Start} parameter is annotated with the slot of its variable, while every {@link Identifier}, {@link OutputVariable},
+ * {@link OutputAttribute}, {@link Conditional.Start}, {@link Loop.Start} list and bound variable and {@link Procedure.Call} referencing
+ * a local variable is annotated with the variable's slot; the references to other variables keep the slot {@code -1}. The main part of
+ * the script and each procedure have their own frame, whose slots are assigned in declaration order and reused once their variables go
+ * out of scope; the parameters of a procedure take the first slots of its frame, in the alphabetical order of their names. Like the
+ * rest of the compiler, the resolution of the variable names is case-insensitive. This analysis should run last, since the other
+ * transformers do not preserve the slots.
+ */
+public final class SlotResolution extends UniformVisitor implements EmitterVisitor {
+
+    public static final StreamTransformer TRANSFORMER = new StreamTransformer() {
+        @Override
+        public CommandStream transform(CommandStream inStream) {
+            return Streams.map(inStream, new SlotResolution());
+        }
+    };
+
+    private final PushStream outputStream = new PushStream();
+    private final Deque<VariableTracker<Integer>> outerFrames = new ArrayDeque<>();
+    private final Deque<Integer> outerDepths = new ArrayDeque<>();
+    private final SlotAnnotator slotAnnotator = new SlotAnnotator();
+    private VariableTracker<Integer> frame = new VariableTracker<>();
+    private int depth;
+
+    private SlotResolution() {}
+
+    @Override
+    public void visit(VariableBinding.Start variableBindingStart) {
+        ExpressionNode expression = slotAnnotator.transform(variableBindingStart.getExpression());
+        outputStream.write(new VariableBinding.Start(
+                variableBindingStart.getVariableName(), expression, variableBindingStart.getType(), depth));
+        declare(variableBindingStart.getVariableName());
+    }
+
+    @Override
+    public void visit(VariableBinding.End variableBindingEnd) {
+        release();
+        outputStream.write(variableBindingEnd);
+    }
+
+    @Override
+    public void visit(VariableBinding.Global globalAssignment) {
+        outputStream.write(new VariableBinding.Global(
+                globalAssignment.getVariableName(),
+                slotAnnotator.transform(globalAssignment.getExpression()),
+                globalAssignment.getType()));
+    }
+
+    @Override
+    public void visit(OutputVariable outputVariable) {
+        outputStream.write(
+                new OutputVariable(outputVariable.getVariableName(), slot(outputVariable.getVariableName())));
+    }
+
+    @Override
+    public void visit(OutputAttribute outputAttribute) {
+        outputStream.write(new OutputAttribute(
+                outputAttribute.getName(),
+                outputAttribute.getValueVariable(),
+                outputAttribute.getEscapedValueVariable(),
+                outputAttribute.getQuoteChar(),
+                slot(outputAttribute.getValueVariable()),
+                slot(outputAttribute.getEscapedValueVariable())));
+    }
+
+    @Override
+    public void visit(Conditional.Start conditionalStart) {
+        outputStream.write(new Conditional.Start(
+                conditionalStart.getVariable(),
+                conditionalStart.getExpectedTruthValue(),
+                slot(conditionalStart.getVariable())));
+    }
+
+    @Override
+    public void visit(Loop.Start loopStart) {
+        outputStream.write(new Loop.Start(
+                loopStart.getListVariable(),
+                loopStart.getItemVariable(),
+                loopStart.getIndexVariable(),
+                loopStart.getBeginVariable(),
+                loopStart.getStepVariable(),
+                loopStart.getEndVariable(),
+                slot(loopStart.getListVariable()),
+                depth,
+                depth + 1,
+                slot(loopStart.getBeginVariable()),
+                slot(loopStart.getStepVariable()),
+                slot(loopStart.getEndVariable())));
+        declare(loopStart.getItemVariable());
+        declare(loopStart.getIndexVariable());
+    }
+
+    @Override
+    public void visit(Loop.End loopEnd) {
+        release();
+        release();
+        outputStream.write(loopEnd);
+    }
+
+    @Override
+    public void visit(Procedure.Start startProcedure) {
+        outerFrames.push(frame);
+        outerDepths.push(depth);
+        frame = new VariableTracker<>();
+        depth = 0;
+        List<String> parameters = new ArrayList<>(startProcedure.getParameters());
+        Collections.sort(parameters);
+        Map<String, Integer> parameterSlots = new LinkedHashMap<>();
+        for (String parameter : parameters) {
+            parameterSlots.put(parameter, depth);
+            declare(parameter);
+        }
+        outputStream.write(
+                new Procedure.Start(startProcedure.getName(), startProcedure.getParameters(), parameterSlots));
+    }
+
+    @Override
+    public void visit(Procedure.End endProcedure) {
+        frame = outerFrames.pop();
+        depth = outerDepths.pop();
+        outputStream.write(endProcedure);
+    }
+
+    @Override
+    public void visit(Procedure.Call procedureCall) {
+        outputStream.write(new Procedure.Call(
+                procedureCall.getTemplateVariable(),
+                procedureCall.getArgumentsVariable(),
+                slot(procedureCall.getTemplateVariable()),
+                slot(procedureCall.getArgumentsVariable())));
+    }
+
+    @Override
+    protected void onCommand(Command command) {
+        outputStream.write(command);
+    }
+
+    @Override
+    public PushStream getOutputStream() {
+        return outputStream;
+    }
+
+    private void declare(String variable) {
+        frame.pushVariable(variable, depth++);
+    }
+
+    private int slot(String variable) {
+        Integer slot = variable == null ? null : frame.get(variable);
+        return slot == null ? -1 : slot;
+    }
+
+    private void release() {
+        frame.popVariable();
+        depth--;
+    }
+
+    private final class SlotAnnotator extends NodeTransformer {
+
+        @Override
+        public ExpressionNode evaluate(Identifier identifier) {
+            Integer slot = frame.get(identifier.getName());
+            if (slot == null || slot == identifier.getSlot()) {
+                return identifier;
+            }
+            return new Identifier(identifier.getName(), slot);
+        }
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.impl.compiler.analysis;
+
+import org.apache.sling.scripting.sightly.compiler.commands.Command;
+import org.apache.sling.scripting.sightly.compiler.commands.CommandStream;
+import org.apache.sling.scripting.sightly.compiler.commands.VariableBinding;
+import org.apache.sling.scripting.sightly.compiler.expression.ExpressionNode;
+import org.apache.sling.scripting.sightly.compiler.expression.ExpressionType;
+import org.apache.sling.scripting.sightly.compiler.expression.NodeVisitor;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.ArrayLiteral;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.BinaryOperation;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.BooleanConstant;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.Concatenation;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.Identifier;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.MapLiteral;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.NullLiteral;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.NumericConstant;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.PropertyAccess;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.RuntimeCall;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.StringConstant;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.TernaryOperator;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.UnaryOperation;
+import org.apache.sling.scripting.sightly.impl.compiler.PushStream;
+import org.apache.sling.scripting.sightly.impl.compiler.optimization.StreamTransformer;
+import org.apache.sling.scripting.sightly.impl.compiler.util.stream.EmitterVisitor;
+import org.apache.sling.scripting.sightly.impl.compiler.util.stream.Streams;
+import org.apache.sling.scripting.sightly.impl.compiler.visitor.TrackingVisitor;
+
+/**
+ * Infers the static types of the expressions bound by {@link VariableBinding.Start} commands and annotates the commands with them (see
+ * {@link VariableBinding.Start#getType()}). This analysis should run on the optimised stream, right before it is handed to a backend.
+ */
+public final class TypeInference extends TrackingVisitor<ExpressionType> implements EmitterVisitor {
+
+    public static final StreamTransformer TRANSFORMER = new StreamTransformer() {
+        @Override
+        public CommandStream transform(CommandStream inStream) {
+            return Streams.map(inStream, new TypeInference());
+        }
+    };
+
+    private final PushStream outputStream = new PushStream();
+    private final ExpressionTypeVisitor expressionTypeVisitor = new ExpressionTypeVisitor();
+
+    private TypeInference() {}
+
+    @Override
+    public void visit(VariableBinding.Start variableBindingStart) {
+        ExpressionNode node = variableBindingStart.getExpression();
+        ExpressionType type = node.accept(expressionTypeVisitor);
+        tracker.pushVariable(variableBindingStart.getVariableName(), type);
+        if (type == variableBindingStart.getType()) {
+            outputStream.write(variableBindingStart);
+        } else {
+            outputStream.write(new VariableBinding.Start(
+                    variableBindingStart.getVariableName(), node, type, variableBindingStart.getSlot()));
+        }
+    }
+
+    @Override
+    public void visit(VariableBinding.Global globalAssignment) {
+        // globals can be re-assigned anywhere in the template, so their identifiers are never resolved to a type
+        ExpressionNode node = globalAssignment.getExpression();
+        ExpressionType type = node.accept(expressionTypeVisitor);
+        if (type == globalAssignment.getType()) {
+            outputStream.write(globalAssignment);
+        } else {
+            outputStream.write(new VariableBinding.Global(globalAssignment.getVariableName(), node, type));
+        }
+    }
+
+    @Override
+    protected ExpressionType assignDefault(Command command) {
+        return ExpressionType.UNKNOWN;
+    }
+
+    @Override
+    protected void onCommand(Command command) {
+        outputStream.write(command);
+    }
+
+    @Override
+    public PushStream getOutputStream() {
+        return outputStream;
+    }
+
+    private static ExpressionType union(ExpressionType first, ExpressionType second) {
+        return first == second ? first : ExpressionType.UNKNOWN;
+    }
+
+    private class ExpressionTypeVisitor implements NodeVisitor<ExpressionType> {
+
+        @Override
+        public ExpressionType evaluate(PropertyAccess propertyAccess) {
+            return ExpressionType.UNKNOWN;
+        }
+
+        @Override
+        public ExpressionType evaluate(Identifier identifier) {
+            ExpressionType type = tracker.get(identifier.getName());
+            return type == null ? ExpressionType.UNKNOWN : type;
+        }
+
+        @Override
+        public ExpressionType evaluate(StringConstant text) {
+            return ExpressionType.STRING;
+        }
+
+        @Override
+        public ExpressionType evaluate(BinaryOperation binaryOperation) {
+            switch (binaryOperation.getOperator()) {
+                case AND:
+                case OR:
+                    // the logical operators evaluate to one of their operands
+                    return union(
+                            binaryOperation.getLeftOperand().accept(this),
+                            binaryOperation.getRightOperand().accept(this));
+                case CONCATENATE:
+                    return ExpressionType.STRING;
+                case ADD:
+                case SUB:
+                case MUL:
+                case DIV:
+                case I_DIV:
+                case REM:
+                    return ExpressionType.NUMBER;
+                default:
+                    return ExpressionType.BOOLEAN;
+            }
+        }
+
+        @Override
+        public ExpressionType evaluate(BooleanConstant booleanConstant) {
+            return ExpressionType.BOOLEAN;
+        }
+
+        @Override
+        public ExpressionType evaluate(NumericConstant numericConstant) {
+            return ExpressionType.NUMBER;
+        }
+
+        @Override
+        public ExpressionType evaluate(UnaryOperation unaryOperation) {
+            switch (unaryOperation.getOperator()) {
+                case LENGTH:
+                    return ExpressionType.NUMBER;
+                default:
+                    return ExpressionType.BOOLEAN;
+            }
+        }
+
+        @Override
+        public ExpressionType evaluate(TernaryOperator ternaryOperator) {
+            return union(
+                    ternaryOperator.getThenBranch().accept(this),
+                    ternaryOperator.getElseBranch().accept(this));
+        }
+
+        @Override
+        public ExpressionType evaluate(RuntimeCall runtimeCall) {
+            // the runtime functions are provided by the runtime, so nothing is known about their results; the calls
+            // folded by the compiler were already replaced by their constant results
+            return ExpressionType.UNKNOWN;
+        }
+
+        @Override
+        public ExpressionType evaluate(MapLiteral mapLiteral) {
+            return ExpressionType.UNKNOWN;
+        }
+
+        @Override
+        public ExpressionType evaluate(ArrayLiteral arrayLiteral) {
+            return ExpressionType.COLLECTION;
+        }
+
+        @Override
+        public ExpressionType evaluate(NullLiteral nullLiteral) {
+            return ExpressionType.UNKNOWN;
+        }
+
+        @Override
+        public ExpressionType evaluate(Concatenation concatenation) {
+            return ExpressionType.STRING;
+        }
+    }
+}
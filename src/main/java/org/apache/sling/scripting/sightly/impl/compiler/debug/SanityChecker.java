@@ -18,9 +18,9 @@
  */
 package org.apache.sling.scripting.sightly.impl.compiler.debug;
 
-import java.util.Stack;
+import java.util.ArrayDeque;
+import java.util.Deque;
 
-import org.apache.sling.scripting.sightly.compiler.SightlyCompilerException;
 import org.apache.sling.scripting.sightly.compiler.commands.AbstractCommandVisitor;
 import org.apache.sling.scripting.sightly.compiler.commands.Command;
 import org.apache.sling.scripting.sightly.compiler.commands.CommandHandler;
@@ -28,6 +28,7 @@ import org.apache.sling.scripting.sightly.compiler.commands.CommandStream;
 import org.apache.sling.scripting.sightly.compiler.commands.Conditional;
 import org.apache.sling.scripting.sightly.compiler.commands.Loop;
 import org.apache.sling.scripting.sightly.compiler.commands.Procedure;
+import org.apache.sling.scripting.sightly.compiler.commands.Segment;
 import org.apache.sling.scripting.sightly.compiler.commands.VariableBinding;
 
 /**
@@ -38,10 +39,11 @@ public final class SanityChecker extends AbstractCommandVisitor implements Comma
     private enum NestedType {
         CONDITIONAL,
         VARIABLE_BIND,
-        LOOP
+        LOOP,
+        SEGMENT
     }
 
-    private final Stack<NestedType> stack = new Stack<>();
+    private final Deque<NestedType> stack = new ArrayDeque<>();
     private boolean inProcedure;
 
     private SanityChecker() {}
@@ -57,7 +59,7 @@ public final class SanityChecker extends AbstractCommandVisitor implements Comma
 
     @Override
     public void onError(String errorMessage) {
-        throw new SightlyCompilerException(errorMessage);
+        // a failed stream can be left unbalanced; the failure is reported by whoever signalled it
     }
 
     @Override
@@ -97,6 +99,16 @@ public final class SanityChecker extends AbstractCommandVisitor implements Comma
         popCheck(NestedType.LOOP);
     }
 
+    @Override
+    public void visit(Segment.Start segmentStart) {
+        stack.push(NestedType.SEGMENT);
+    }
+
+    @Override
+    public void visit(Segment.End segmentEnd) {
+        popCheck(NestedType.SEGMENT);
+    }
+
     @Override
     public void visit(Procedure.Start startProcedure) {
         if (inProcedure) {
@@ -26,8 +26,7 @@ import java.util.Set;
 import org.apache.sling.scripting.sightly.compiler.expression.Expression;
 import org.apache.sling.scripting.sightly.compiler.expression.ExpressionNode;
 import org.apache.sling.scripting.sightly.compiler.expression.MarkupContext;
-import org.apache.sling.scripting.sightly.compiler.expression.nodes.BinaryOperation;
-import org.apache.sling.scripting.sightly.compiler.expression.nodes.BinaryOperator;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.Concatenation;
 import org.apache.sling.scripting.sightly.compiler.expression.nodes.StringConstant;
 import org.apache.sling.scripting.sightly.impl.compiler.PushStream;
 import org.apache.sling.scripting.sightly.impl.compiler.Syntax;
@@ -95,13 +94,22 @@ public class ExpressionWrapper {
     }
 
     private ExpressionNode join(List<ExpressionNode> nodes) {
-        if (nodes.isEmpty()) {
+        List<ExpressionNode> operands = new ArrayList<>(nodes.size());
+        for (ExpressionNode node : nodes) {
+            int last = operands.size() - 1;
+            if (node instanceof StringConstant && last >= 0 && operands.get(last) instanceof StringConstant) {
+                String merged = ((StringConstant) operands.get(last)).getText() + ((StringConstant) node).getText();
+                operands.set(last, new StringConstant(merged));
+            } else {
+                operands.add(node);
+            }
+        }
+        if (operands.isEmpty()) {
             return StringConstant.EMPTY;
         }
-        ExpressionNode root = nodes.remove(0);
-        for (ExpressionNode node : nodes) {
-            root = new BinaryOperation(BinaryOperator.CONCATENATE, root, node);
+        if (operands.size() == 1) {
+            return operands.get(0);
         }
-        return root;
+        return new Concatenation(operands);
     }
 }
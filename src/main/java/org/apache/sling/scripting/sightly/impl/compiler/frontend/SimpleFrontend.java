@@ -23,6 +23,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import org.apache.sling.scripting.sightly.impl.compiler.CompilationMonitor;
 import org.apache.sling.scripting.sightly.impl.compiler.PushStream;
 import org.apache.sling.scripting.sightly.impl.filter.Filter;
 import org.apache.sling.scripting.sightly.impl.html.dom.DocumentParser;
@@ -48,7 +49,18 @@ public class SimpleFrontend {
     }
 
     public void compile(PushStream stream, String source) {
-        MarkupHandler markupHandler = new MarkupHandler(stream, plugins, filters, knownExpressionOptions);
+        compile(stream, source, CompilationMonitor.UNBOUNDED);
+    }
+
+    /**
+     * Compiles the {@code source} to the {@code stream}, within the limits enforced by the {@code monitor}.
+     *
+     * @param stream  the stream receiving the commands
+     * @param source  the source of the script
+     * @param monitor the monitor of the compilation
+     */
+    public void compile(PushStream stream, String source, CompilationMonitor monitor) {
+        MarkupHandler markupHandler = new MarkupHandler(stream, plugins, filters, knownExpressionOptions, monitor);
         DocumentParser.parse(source, markupHandler);
     }
 }
@@ -0,0 +1,32 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.impl.compiler.interpreter;
+
+import org.apache.sling.scripting.sightly.render.AbstractRuntimeObjectModel;
+
+/**
+ * The object model of the {@link org.apache.sling.scripting.sightly.compiler.backend.InterpreterRuntime}s which don't provide their
+ * own: the default property resolution and conversions of the HTL runtime.
+ */
+public final class DefaultObjectModel extends AbstractRuntimeObjectModel {
+
+    public static final DefaultObjectModel INSTANCE = new DefaultObjectModel();
+
+    private DefaultObjectModel() {}
+}
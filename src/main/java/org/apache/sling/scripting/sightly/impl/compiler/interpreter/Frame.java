@@ -0,0 +1,47 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.impl.compiler.interpreter;
+
+import java.io.Writer;
+import java.util.Map;
+
+import org.apache.sling.scripting.sightly.compiler.backend.InterpreterRuntime;
+import org.apache.sling.scripting.sightly.render.RuntimeObjectModel;
+
+/**
+ * The state of a {@link Unit} being rendered: the values of its local and global variable slots and the rendering environment.
+ */
+final class Frame {
+
+    final Object[] slots;
+    final Object[] globals;
+    final Map<String, Object> bindings;
+    final Writer writer;
+    final InterpreterRuntime runtime;
+    final RuntimeObjectModel objectModel;
+
+    Frame(int slotCount, int globalCount, Map<String, Object> bindings, Writer writer, InterpreterRuntime runtime) {
+        this.slots = new Object[slotCount];
+        this.globals = new Object[globalCount];
+        this.bindings = bindings;
+        this.writer = writer;
+        this.runtime = runtime;
+        this.objectModel = runtime != null ? runtime.getObjectModel() : DefaultObjectModel.INSTANCE;
+    }
+}
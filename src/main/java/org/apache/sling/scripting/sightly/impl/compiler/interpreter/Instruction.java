@@ -0,0 +1,244 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.impl.compiler.interpreter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.BinaryOperator;
+
+/**
+ * An executable node of an interpreted script, linked from one or more commands.
+ */
+abstract class Instruction {
+
+    abstract void execute(Frame frame) throws IOException;
+
+    static void execute(Instruction[] instructions, Frame frame) throws IOException {
+        for (Instruction instruction : instructions) {
+            instruction.execute(frame);
+        }
+    }
+
+    static final class Text extends Instruction {
+
+        private final String text;
+
+        Text(String text) {
+            this.text = text;
+        }
+
+        @Override
+        void execute(Frame frame) throws IOException {
+            frame.writer.write(text);
+        }
+    }
+
+    static final class Output extends Instruction {
+
+        private final Evaluation value;
+
+        Output(Evaluation value) {
+            this.value = value;
+        }
+
+        @Override
+        void execute(Frame frame) throws IOException {
+            frame.writer.write(frame.objectModel.toString(value.evaluate(frame)));
+        }
+    }
+
+    static final class Attribute extends Instruction {
+
+        private final String name;
+        private final String quote;
+        private final Evaluation value;
+        private final Evaluation escapedValue;
+
+        Attribute(String name, char quoteChar, Evaluation value, Evaluation escapedValue) {
+            this.name = " " + name;
+            this.quote = String.valueOf(quoteChar);
+            this.value = value;
+            this.escapedValue = escapedValue;
+        }
+
+        @Override
+        void execute(Frame frame) throws IOException {
+            // same semantics as OutputAttribute#lower()
+            Object rawValue = value.evaluate(frame);
+            Object escaped = escapedValue.evaluate(frame);
+            if (BinaryOperator.eq(null, escaped)
+                    || BinaryOperator.eq("", escaped)
+                    || BinaryOperator.eq("", rawValue)
+                    || BinaryOperator.eq(Boolean.FALSE, rawValue)) {
+                return;
+            }
+            frame.writer.write(name);
+            if (!BinaryOperator.eq(Boolean.TRUE, rawValue)) {
+                frame.writer.write("=");
+                frame.writer.write(quote);
+                frame.writer.write(frame.objectModel.toString(escaped));
+                frame.writer.write(quote);
+            }
+        }
+    }
+
+    static final class Assign extends Instruction {
+
+        private final int slot;
+        private final Evaluation evaluation;
+
+        Assign(int slot, Evaluation evaluation) {
+            this.slot = slot;
+            this.evaluation = evaluation;
+        }
+
+        @Override
+        void execute(Frame frame) {
+            frame.slots[slot] = evaluation.evaluate(frame);
+        }
+    }
+
+    static final class AssignGlobal extends Instruction {
+
+        private final int globalSlot;
+        private final Evaluation evaluation;
+
+        AssignGlobal(int globalSlot, Evaluation evaluation) {
+            this.globalSlot = globalSlot;
+            this.evaluation = evaluation;
+        }
+
+        @Override
+        void execute(Frame frame) {
+            frame.globals[globalSlot] = evaluation.evaluate(frame);
+        }
+    }
+
+    static final class Conditional extends Instruction {
+
+        private final Evaluation condition;
+        private final boolean expectedTruthValue;
+        private final Instruction[] body;
+
+        Conditional(Evaluation condition, boolean expectedTruthValue, Instruction[] body) {
+            this.condition = condition;
+            this.expectedTruthValue = expectedTruthValue;
+            this.body = body;
+        }
+
+        @Override
+        void execute(Frame frame) throws IOException {
+            if (frame.objectModel.toBoolean(condition.evaluate(frame)) == expectedTruthValue) {
+                execute(body, frame);
+            }
+        }
+    }
+
+    static final class Loop extends Instruction {
+
+        private final Evaluation list;
+        private final int itemSlot;
+        private final int indexSlot;
+        private final Evaluation begin;
+        private final Evaluation step;
+        private final Evaluation end;
+        private final Instruction[] body;
+
+        Loop(
+                Evaluation list,
+                int itemSlot,
+                int indexSlot,
+                Evaluation begin,
+                Evaluation step,
+                Evaluation end,
+                Instruction[] body) {
+            this.list = list;
+            this.itemSlot = itemSlot;
+            this.indexSlot = indexSlot;
+            this.begin = begin;
+            this.step = step;
+            this.end = end;
+            this.body = body;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        void execute(Frame frame) throws IOException {
+            Collection<Object> collection = frame.objectModel.toCollection(list.evaluate(frame));
+            List<Object> items = collection instanceof List ? (List<Object>) collection : new ArrayList<>(collection);
+            int first = bound(frame, begin, 0);
+            int increment = bound(frame, step, 1);
+            int last = Math.min(bound(frame, end, items.size() - 1), items.size() - 1);
+            if (increment <= 0) {
+                return;
+            }
+            for (int index = Math.max(first, 0); index <= last; index += increment) {
+                frame.slots[itemSlot] = items.get(index);
+                frame.slots[indexSlot] = index;
+                execute(body, frame);
+            }
+        }
+
+        private static int bound(Frame frame, Evaluation bound, int defaultValue) {
+            Object value = bound == null ? null : bound.evaluate(frame);
+            if (value == null) {
+                return defaultValue;
+            }
+            return frame.objectModel.toNumber(value).intValue();
+        }
+    }
+
+    static final class Call extends Instruction {
+
+        private final Evaluation template;
+        private final Evaluation arguments;
+
+        Call(Evaluation template, Evaluation arguments) {
+            this.template = template;
+            this.arguments = arguments;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        void execute(Frame frame) throws IOException {
+            Object called = template.evaluate(frame);
+            Object values = arguments.evaluate(frame);
+            Map<String, Object> parameters =
+                    values instanceof Map ? (Map<String, Object>) values : Collections.<String, Object>emptyMap();
+            if (called instanceof Template) {
+                ((Template) called).render(frame.bindings, parameters, frame.writer, frame.runtime);
+            } else {
+                frame.runtime.callTemplate(called, parameters, frame.writer);
+            }
+        }
+    }
+
+    static final class Flush extends Instruction {
+
+        @Override
+        void execute(Frame frame) throws IOException {
+            frame.writer.flush();
+        }
+    }
+}
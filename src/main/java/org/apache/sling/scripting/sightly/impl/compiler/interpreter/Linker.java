@@ -0,0 +1,517 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.impl.compiler.interpreter;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.sling.scripting.sightly.compiler.commands.Command;
+import org.apache.sling.scripting.sightly.compiler.commands.CommandVisitor;
+import org.apache.sling.scripting.sightly.compiler.commands.Conditional;
+import org.apache.sling.scripting.sightly.compiler.commands.Flush;
+import org.apache.sling.scripting.sightly.compiler.commands.Loop;
+import org.apache.sling.scripting.sightly.compiler.commands.OutText;
+import org.apache.sling.scripting.sightly.compiler.commands.OutputAttribute;
+import org.apache.sling.scripting.sightly.compiler.commands.OutputVariable;
+import org.apache.sling.scripting.sightly.compiler.commands.Procedure;
+import org.apache.sling.scripting.sightly.compiler.commands.VariableBinding;
+import org.apache.sling.scripting.sightly.compiler.expression.ExpressionNode;
+import org.apache.sling.scripting.sightly.compiler.expression.NodeVisitor;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.ArrayLiteral;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.BinaryOperation;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.BinaryOperator;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.BooleanConstant;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.Concatenation;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.FormatToken;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.Identifier;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.MapLiteral;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.NullLiteral;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.NumericConstant;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.PropertyAccess;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.RuntimeCall;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.StringConstant;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.TernaryOperator;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.UnaryOperation;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.UnaryOperator;
+import org.apache.sling.scripting.sightly.impl.filter.FormatFilter;
+import org.apache.sling.scripting.sightly.render.RuntimeObjectModel;
+
+/**
+ * Links a sequence of commands into a {@link Program}. The commands must have been annotated by the compiler's slot resolution: the
+ * local variables are stored in the frame slots of their {@link Unit} given by the commands, while the other variables are resolved,
+ * case-insensitively, to global slots loaded once per rendering from the script's templates or from the bindings. Properties are
+ * resolved and values are converted through the object model of the
+ * {@link org.apache.sling.scripting.sightly.compiler.backend.InterpreterRuntime}.
+ */
+public final class Linker implements CommandVisitor {
+
+    private final Deque<UnitBuilder> outerUnits = new ArrayDeque<>();
+    private final Map<String, Unit> procedures = new LinkedHashMap<>();
+    private final ExpressionLinker expressionLinker = new ExpressionLinker();
+    private UnitBuilder unit = new UnitBuilder(null, Collections.<String, Integer>emptyMap());
+
+    private Linker() {}
+
+    /**
+     * Links a sequence of commands.
+     *
+     * @param commands the commands
+     * @return the linked program
+     */
+    public static Program link(Iterable<? extends Command> commands) {
+        Linker linker = new Linker();
+        for (Command command : commands) {
+            command.accept(linker);
+        }
+        if (!linker.outerUnits.isEmpty()) {
+            throw new IllegalStateException("Unclosed procedure " + linker.unit.name);
+        }
+        return new Program(linker.unit.build(), linker.procedures);
+    }
+
+    @Override
+    public void visit(Conditional.Start conditionalStart) {
+        final Evaluation condition = unit.read(conditionalStart.getVariable(), conditionalStart.getSlot());
+        final boolean expectedTruthValue = conditionalStart.getExpectedTruthValue();
+        unit.open(body -> new Instruction.Conditional(condition, expectedTruthValue, body));
+    }
+
+    @Override
+    public void visit(Conditional.End conditionalEnd) {
+        unit.close();
+    }
+
+    @Override
+    public void visit(VariableBinding.Start variableBindingStart) {
+        Evaluation evaluation = expressionLinker.link(variableBindingStart.getExpression());
+        unit.add(new Instruction.Assign(
+                unit.declare(variableBindingStart.getVariableName(), variableBindingStart.getSlot()), evaluation));
+    }
+
+    @Override
+    public void visit(VariableBinding.End variableBindingEnd) {
+        unit.release();
+    }
+
+    @Override
+    public void visit(VariableBinding.Global globalAssignment) {
+        Evaluation evaluation = expressionLinker.link(globalAssignment.getExpression());
+        unit.add(new Instruction.AssignGlobal(unit.global(globalAssignment.getVariableName()), evaluation));
+    }
+
+    @Override
+    public void visit(OutputVariable outputVariable) {
+        unit.add(new Instruction.Output(unit.read(outputVariable.getVariableName(), outputVariable.getSlot())));
+    }
+
+    @Override
+    public void visit(OutputAttribute outputAttribute) {
+        unit.add(new Instruction.Attribute(
+                outputAttribute.getName(),
+                outputAttribute.getQuoteChar(),
+                unit.read(outputAttribute.getValueVariable(), outputAttribute.getValueSlot()),
+                unit.read(outputAttribute.getEscapedValueVariable(), outputAttribute.getEscapedValueSlot())));
+    }
+
+    @Override
+    public void visit(OutText outText) {
+        unit.add(new Instruction.Text(outText.getText()));
+    }
+
+    @Override
+    public void visit(Loop.Start loopStart) {
+        final Evaluation list = unit.read(loopStart.getListVariable(), loopStart.getListSlot());
+        final Evaluation begin = unit.readOptional(loopStart.getBeginVariable(), loopStart.getBeginSlot());
+        final Evaluation step = unit.readOptional(loopStart.getStepVariable(), loopStart.getStepSlot());
+        final Evaluation end = unit.readOptional(loopStart.getEndVariable(), loopStart.getEndSlot());
+        final int itemSlot = unit.declare(loopStart.getItemVariable(), loopStart.getItemSlot());
+        final int indexSlot = unit.declare(loopStart.getIndexVariable(), loopStart.getIndexSlot());
+        unit.open(body -> new Instruction.Loop(list, itemSlot, indexSlot, begin, step, end, body));
+    }
+
+    @Override
+    public void visit(Loop.End loopEnd) {
+        unit.close();
+        unit.release();
+        unit.release();
+    }
+
+    @Override
+    public void visit(Procedure.Start startProcedure) {
+        outerUnits.push(unit);
+        unit = new UnitBuilder(startProcedure.getName(), startProcedure.getParameterSlots());
+        for (String parameter : startProcedure.getParameters()) {
+            if (!startProcedure.getParameterSlots().containsKey(parameter)) {
+                throw new IllegalStateException("Parameter " + parameter + " of procedure " + startProcedure.getName()
+                        + " was not resolved to a slot");
+            }
+        }
+    }
+
+    @Override
+    public void visit(Procedure.End endProcedure) {
+        if (outerUnits.isEmpty()) {
+            throw new IllegalStateException("Procedure end without a procedure start");
+        }
+        procedures.put(unit.name, unit.build());
+        unit = outerUnits.pop();
+    }
+
+    @Override
+    public void visit(Procedure.Call procedureCall) {
+        unit.add(new Instruction.Call(
+                unit.read(procedureCall.getTemplateVariable(), procedureCall.getTemplateSlot()),
+                unit.read(procedureCall.getArgumentsVariable(), procedureCall.getArgumentsSlot())));
+    }
+
+    @Override
+    public void visit(Flush flush) {
+        unit.add(new Instruction.Flush());
+    }
+
+    private interface BlockFactory {
+
+        Instruction create(Instruction[] body);
+    }
+
+    private static final class Block {
+
+        private final List<Instruction> instructions = new ArrayList<>();
+        private final BlockFactory factory;
+
+        private Block(BlockFactory factory) {
+            this.factory = factory;
+        }
+    }
+
+    private static final class UnitBuilder {
+
+        private final String name;
+        private final Map<String, Integer> globalSlots = new LinkedHashMap<>();
+        private final Map<String, String> globalNames = new HashMap<>();
+        private final Deque<Block> blocks = new ArrayDeque<>();
+        private final String[] parameterNames;
+        private final int[] parameterSlots;
+        private int slotCount;
+        private int bindings;
+
+        private UnitBuilder(String name, Map<String, Integer> parameters) {
+            this.name = name;
+            blocks.push(new Block(null));
+            parameterNames = parameters.keySet().toArray(new String[0]);
+            parameterSlots = new int[parameterNames.length];
+            for (int i = 0; i < parameterNames.length; i++) {
+                parameterSlots[i] = parameters.get(parameterNames[i]);
+                slotCount = Math.max(slotCount, parameterSlots[i] + 1);
+            }
+        }
+
+        private int declare(String variable, int slot) {
+            if (slot < 0) {
+                throw new IllegalStateException("Variable " + variable + " was not resolved to a slot");
+            }
+            slotCount = Math.max(slotCount, slot + 1);
+            bindings++;
+            return slot;
+        }
+
+        private void release() {
+            if (bindings == 0) {
+                throw new IllegalStateException("Variable binding end without a variable binding start");
+            }
+            bindings--;
+        }
+
+        private Evaluation read(String variable, int slot) {
+            if (slot >= 0) {
+                return frame -> frame.slots[slot];
+            }
+            final int globalSlot = global(variable);
+            return frame -> frame.globals[globalSlot];
+        }
+
+        private Evaluation readOptional(String variable, int slot) {
+            return variable == null ? null : read(variable, slot);
+        }
+
+        private int global(String variable) {
+            String key = variable.toLowerCase(Locale.ENGLISH);
+            Integer slot = globalSlots.get(key);
+            if (slot == null) {
+                slot = globalSlots.size();
+                globalSlots.put(key, slot);
+                globalNames.put(key, variable);
+            }
+            return slot;
+        }
+
+        private void add(Instruction instruction) {
+            blocks.peek().instructions.add(instruction);
+        }
+
+        private void open(BlockFactory factory) {
+            blocks.push(new Block(factory));
+        }
+
+        private void close() {
+            if (blocks.size() <= 1) {
+                throw new IllegalStateException("Block end without a block start");
+            }
+            Block block = blocks.pop();
+            add(block.factory.create(block.instructions.toArray(new Instruction[0])));
+        }
+
+        private Unit build() {
+            if (blocks.size() != 1) {
+                throw new IllegalStateException("Unclosed conditional or loop");
+            }
+            String[] names = new String[globalSlots.size()];
+            for (Map.Entry<String, Integer> globalSlot : globalSlots.entrySet()) {
+                names[globalSlot.getValue()] = globalNames.get(globalSlot.getKey());
+            }
+            return new Unit(
+                    blocks.peek().instructions.toArray(new Instruction[0]),
+                    slotCount,
+                    names,
+                    parameterNames,
+                    parameterSlots);
+        }
+    }
+
+    private final class ExpressionLinker implements NodeVisitor<Evaluation> {
+
+        private Evaluation link(ExpressionNode node) {
+            return node.accept(this);
+        }
+
+        private Evaluation[] link(List<ExpressionNode> nodes) {
+            Evaluation[] evaluations = new Evaluation[nodes.size()];
+            for (int i = 0; i < evaluations.length; i++) {
+                evaluations[i] = link(nodes.get(i));
+            }
+            return evaluations;
+        }
+
+        @Override
+        public Evaluation evaluate(PropertyAccess propertyAccess) {
+            final Evaluation target = link(propertyAccess.getTarget());
+            final Evaluation property = link(propertyAccess.getProperty());
+            return frame -> frame.objectModel.resolveProperty(target.evaluate(frame), property.evaluate(frame));
+        }
+
+        @Override
+        public Evaluation evaluate(Identifier identifier) {
+            return unit.read(identifier.getName(), identifier.getSlot());
+        }
+
+        @Override
+        public Evaluation evaluate(StringConstant text) {
+            final String value = text.getText();
+            return frame -> value;
+        }
+
+        @Override
+        public Evaluation evaluate(BinaryOperation binaryOperation) {
+            final BinaryOperator operator = binaryOperation.getOperator();
+            final Evaluation left = link(binaryOperation.getLeftOperand());
+            final Evaluation right = link(binaryOperation.getRightOperand());
+            switch (operator) {
+                case AND:
+                    return frame -> {
+                        Object value = left.evaluate(frame);
+                        return frame.objectModel.toBoolean(value) ? right.evaluate(frame) : value;
+                    };
+                case OR:
+                    return frame -> {
+                        Object value = left.evaluate(frame);
+                        return frame.objectModel.toBoolean(value) ? value : right.evaluate(frame);
+                    };
+                case CONCATENATE:
+                    return frame -> frame.objectModel
+                            .toString(left.evaluate(frame))
+                            .concat(frame.objectModel.toString(right.evaluate(frame)));
+                case ADD:
+                case SUB:
+                case MUL:
+                case DIV:
+                    return frame -> BinaryOperator.adjust(operator.evalDouble(
+                            frame.objectModel.toNumber(left.evaluate(frame)).doubleValue(),
+                            frame.objectModel.toNumber(right.evaluate(frame)).doubleValue()));
+                case I_DIV:
+                    return frame -> operator.evalInt(
+                            frame.objectModel.toNumber(left.evaluate(frame)).intValue(),
+                            frame.objectModel.toNumber(right.evaluate(frame)).intValue());
+                case REM:
+                    return frame -> BinaryOperator.adjust(operator.evalInt(
+                            frame.objectModel.toNumber(left.evaluate(frame)).intValue(),
+                            frame.objectModel.toNumber(right.evaluate(frame)).intValue()));
+                case IN:
+                    return frame -> contains(frame.objectModel, right.evaluate(frame), left.evaluate(frame));
+                default:
+                    // the comparisons don't convert their operands
+                    return frame -> operator.eval(left.evaluate(frame), right.evaluate(frame));
+            }
+        }
+
+        @Override
+        public Evaluation evaluate(BooleanConstant booleanConstant) {
+            final Boolean value = booleanConstant.getValue();
+            return frame -> value;
+        }
+
+        @Override
+        public Evaluation evaluate(NumericConstant numericConstant) {
+            final Number value = numericConstant.getValue();
+            return frame -> value;
+        }
+
+        @Override
+        public Evaluation evaluate(UnaryOperation unaryOperation) {
+            final UnaryOperator operator = unaryOperation.getOperator();
+            final Evaluation target = link(unaryOperation.getTarget());
+            switch (operator) {
+                case NOT:
+                    return frame -> !frame.objectModel.toBoolean(target.evaluate(frame));
+                case IS_WHITESPACE:
+                    return frame -> StringUtils.isWhitespace(frame.objectModel.toString(target.evaluate(frame)));
+                case LENGTH:
+                    return frame -> frame.objectModel
+                            .toCollection(target.evaluate(frame))
+                            .size();
+                default:
+                    return frame -> operator.eval(target.evaluate(frame));
+            }
+        }
+
+        @Override
+        public Evaluation evaluate(TernaryOperator ternaryOperator) {
+            final Evaluation condition = link(ternaryOperator.getCondition());
+            final Evaluation thenBranch = link(ternaryOperator.getThenBranch());
+            final Evaluation elseBranch = link(ternaryOperator.getElseBranch());
+            return frame -> frame.objectModel.toBoolean(condition.evaluate(frame))
+                    ? thenBranch.evaluate(frame)
+                    : elseBranch.evaluate(frame);
+        }
+
+        @Override
+        public Evaluation evaluate(RuntimeCall runtimeCall) {
+            final String functionName = runtimeCall.getFunctionName();
+            final Evaluation[] arguments = link(runtimeCall.getArguments());
+            final List<FormatToken> formatTokens = runtimeCall.getFormatTokens();
+            if (formatTokens != null
+                    && arguments.length == 2
+                    && runtimeCall.getArguments().get(1) instanceof MapLiteral) {
+                // the string patterns are rendered from their tokens, instead of being parsed by the runtime on every
+                // call
+                final Evaluation options = arguments[1];
+                return frame -> format(
+                        frame.objectModel,
+                        formatTokens,
+                        ((Map<?, ?>) options.evaluate(frame)).get(FormatFilter.FORMAT_OPTION));
+            }
+            return frame -> {
+                Object[] values = new Object[arguments.length];
+                for (int i = 0; i < arguments.length; i++) {
+                    values[i] = arguments[i].evaluate(frame);
+                }
+                return frame.runtime.call(functionName, values);
+            };
+        }
+
+        @Override
+        public Evaluation evaluate(MapLiteral mapLiteral) {
+            final String[] keys = mapLiteral.getMap().keySet().toArray(new String[0]);
+            final Evaluation[] values = new Evaluation[keys.length];
+            for (int i = 0; i < keys.length; i++) {
+                values[i] = link(mapLiteral.getValue(keys[i]));
+            }
+            return frame -> {
+                Map<String, Object> map = new LinkedHashMap<>();
+                for (int i = 0; i < keys.length; i++) {
+                    map.put(keys[i], values[i].evaluate(frame));
+                }
+                return map;
+            };
+        }
+
+        @Override
+        public Evaluation evaluate(ArrayLiteral arrayLiteral) {
+            final Evaluation[] items = link(arrayLiteral.getItems());
+            return frame -> {
+                List<Object> list = new ArrayList<>(items.length);
+                for (Evaluation item : items) {
+                    list.add(item.evaluate(frame));
+                }
+                return list;
+            };
+        }
+
+        @Override
+        public Evaluation evaluate(NullLiteral nullLiteral) {
+            return frame -> null;
+        }
+
+        @Override
+        public Evaluation evaluate(Concatenation concatenation) {
+            final Evaluation[] operands = link(concatenation.getOperands());
+            return frame -> {
+                StringBuilder builder = new StringBuilder();
+                for (Evaluation operand : operands) {
+                    builder.append(frame.objectModel.toString(operand.evaluate(frame)));
+                }
+                return builder.toString();
+            };
+        }
+
+        private String format(RuntimeObjectModel objectModel, List<FormatToken> tokens, Object formatArguments) {
+            Object[] values = objectModel.isCollection(formatArguments)
+                    ? objectModel.toCollection(formatArguments).toArray()
+                    : new Object[] {formatArguments};
+            StringBuilder builder = new StringBuilder();
+            for (FormatToken token : tokens) {
+                if (!token.isArgument()) {
+                    builder.append(token.getText());
+                } else if (token.getArgumentIndex() < values.length) {
+                    builder.append(objectModel.toString(values[token.getArgumentIndex()]));
+                }
+            }
+            return builder.toString();
+        }
+
+        private boolean contains(RuntimeObjectModel objectModel, Object container, Object item) {
+            if (item instanceof String && container instanceof String) {
+                return ((String) container).contains((String) item);
+            }
+            for (Object element : objectModel.toCollection(container)) {
+                if (element.equals(item)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.impl.compiler.interpreter;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.sling.scripting.sightly.compiler.backend.InterpreterRuntime;
+
+/**
+ * A linked script: its main {@link Unit} and the templates defined by its procedures.
+ */
+public final class Program {
+
+    private final Unit main;
+    private final Map<String, Template> templates = new LinkedHashMap<>();
+    private final Map<String, Template> templatesByKey = new HashMap<>();
+
+    Program(Unit main, Map<String, Unit> procedures) {
+        this.main = main;
+        for (Map.Entry<String, Unit> procedure : procedures.entrySet()) {
+            Template template = new Template(this, procedure.getKey(), procedure.getValue());
+            templates.put(procedure.getKey(), template);
+            templatesByKey.put(procedure.getKey().toLowerCase(Locale.ENGLISH), template);
+        }
+    }
+
+    public void render(Map<String, Object> bindings, Writer writer, InterpreterRuntime runtime) throws IOException {
+        main.render(this, bindings, Collections.<String, Object>emptyMap(), writer, runtime);
+    }
+
+    public Map<String, Object> getTemplates() {
+        return Collections.<String, Object>unmodifiableMap(templates);
+    }
+
+    Template getTemplate(String name) {
+        return templatesByKey.get(name.toLowerCase(Locale.ENGLISH));
+    }
+}
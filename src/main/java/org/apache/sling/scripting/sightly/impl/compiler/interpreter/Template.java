@@ -0,0 +1,51 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.impl.compiler.interpreter;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+
+import org.apache.sling.scripting.sightly.compiler.backend.InterpreterRuntime;
+
+/**
+ * A procedure of an interpreted script, as seen by the expressions of the script.
+ */
+final class Template {
+
+    private final Program program;
+    private final String name;
+    private final Unit unit;
+
+    Template(Program program, String name, Unit unit) {
+        this.program = program;
+        this.name = name;
+        this.unit = unit;
+    }
+
+    void render(Map<String, Object> bindings, Map<String, Object> parameters, Writer writer, InterpreterRuntime runtime)
+            throws IOException {
+        unit.render(program, bindings, parameters, writer, runtime);
+    }
+
+    @Override
+    public String toString() {
+        return "Template{" + "name='" + name + '\'' + '}';
+    }
+}
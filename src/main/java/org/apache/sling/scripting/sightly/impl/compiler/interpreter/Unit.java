@@ -0,0 +1,76 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.impl.compiler.interpreter;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+
+import org.apache.sling.scripting.sightly.compiler.backend.InterpreterRuntime;
+
+/**
+ * A linked body of commands (the main part of a script or a procedure), together with the layout of its variable slots.
+ */
+final class Unit {
+
+    private final Instruction[] body;
+    private final int slotCount;
+    private final String[] globalNames;
+    private final String[] parameterNames;
+    private final int[] parameterSlots;
+
+    Unit(Instruction[] body, int slotCount, String[] globalNames, String[] parameterNames, int[] parameterSlots) {
+        this.body = body;
+        this.slotCount = slotCount;
+        this.globalNames = globalNames;
+        this.parameterNames = parameterNames;
+        this.parameterSlots = parameterSlots;
+    }
+
+    void render(
+            Program program,
+            Map<String, Object> bindings,
+            Map<String, Object> parameters,
+            Writer writer,
+            InterpreterRuntime runtime)
+            throws IOException {
+        Frame frame = new Frame(slotCount, globalNames.length, bindings, writer, runtime);
+        for (int i = 0; i < globalNames.length; i++) {
+            Template template = program.getTemplate(globalNames[i]);
+            frame.globals[i] = template != null ? template : lookup(bindings, globalNames[i]);
+        }
+        for (int i = 0; i < parameterNames.length; i++) {
+            frame.slots[parameterSlots[i]] = parameters.get(parameterNames[i]);
+        }
+        Instruction.execute(body, frame);
+    }
+
+    private static Object lookup(Map<String, Object> bindings, String name) {
+        Object value = bindings.get(name);
+        if (value == null) {
+            // identifiers are case-insensitive
+            for (Map.Entry<String, Object> binding : bindings.entrySet()) {
+                if (name.equalsIgnoreCase(binding.getKey())) {
+                    return binding.getValue();
+                }
+            }
+        }
+        return value;
+    }
+}
@@ -25,6 +25,7 @@ import org.apache.sling.scripting.sightly.compiler.commands.AbstractCommandVisit
 import org.apache.sling.scripting.sightly.compiler.commands.Command;
 import org.apache.sling.scripting.sightly.compiler.commands.Conditional;
 import org.apache.sling.scripting.sightly.compiler.commands.Loop;
+import org.apache.sling.scripting.sightly.compiler.commands.OutputAttribute;
 import org.apache.sling.scripting.sightly.compiler.commands.OutputVariable;
 import org.apache.sling.scripting.sightly.compiler.commands.Procedure;
 import org.apache.sling.scripting.sightly.compiler.commands.VariableBinding;
@@ -67,6 +68,12 @@ public class CommandVariableUsage extends AbstractCommandVisitor {
         variables.add(outputVariable.getVariableName());
     }
 
+    @Override
+    public void visit(OutputAttribute outputAttribute) {
+        variables.add(outputAttribute.getValueVariable());
+        variables.add(outputAttribute.getEscapedValueVariable());
+    }
+
     @Override
     public void visit(Loop.Start loopStart) {
         variables.add(loopStart.getListVariable());
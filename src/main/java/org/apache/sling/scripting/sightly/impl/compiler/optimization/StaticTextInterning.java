@@ -0,0 +1,76 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.impl.compiler.optimization;
+
+import org.apache.sling.scripting.sightly.compiler.commands.Command;
+import org.apache.sling.scripting.sightly.compiler.commands.CommandHandler;
+import org.apache.sling.scripting.sightly.compiler.commands.CommandStream;
+import org.apache.sling.scripting.sightly.compiler.commands.OutText;
+import org.apache.sling.scripting.sightly.compiler.commands.StaticTextPool;
+import org.apache.sling.scripting.sightly.impl.compiler.PushStream;
+
+/**
+ * Replaces the text writes with the commands interned in a {@link StaticTextPool}.
+ */
+public final class StaticTextInterning implements CommandHandler {
+
+    private final PushStream outStream;
+    private final StaticTextPool pool;
+
+    private StaticTextInterning(PushStream stream, StaticTextPool pool) {
+        this.outStream = stream;
+        this.pool = pool;
+    }
+
+    /**
+     * Returns a transformer which interns the text writes in the provided {@code pool}.
+     *
+     * @param pool the pool
+     * @return the transformer
+     */
+    public static StreamTransformer transformer(final StaticTextPool pool) {
+        return new StreamTransformer() {
+            @Override
+            public CommandStream transform(CommandStream inStream) {
+                PushStream outputStream = new PushStream();
+                inStream.addHandler(new StaticTextInterning(outputStream, pool));
+                return outputStream;
+            }
+        };
+    }
+
+    @Override
+    public void onEmit(Command command) {
+        if (command instanceof OutText) {
+            outStream.write(pool.intern(((OutText) command).getText()));
+        } else {
+            outStream.write(command);
+        }
+    }
+
+    @Override
+    public void onError(String errorMessage) {
+        outStream.signalError(errorMessage);
+    }
+
+    @Override
+    public void onDone() {
+        outStream.close();
+    }
+}
@@ -18,9 +18,10 @@
  */
 package org.apache.sling.scripting.sightly.impl.compiler.optimization;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
-import java.util.Stack;
 
 import org.apache.sling.scripting.sightly.compiler.commands.Command;
 import org.apache.sling.scripting.sightly.compiler.commands.CommandStream;
@@ -44,7 +45,7 @@ public final class UnusedVariableRemoval extends TrackingVisitor<UnusedVariableR
     };
 
     private final PushStream outputStream = new PushStream();
-    private final Stack<List<Command>> storedCommandsStack = new Stack<>();
+    private final Deque<List<Command>> storedCommandsStack = new ArrayDeque<>();
 
     private UnusedVariableRemoval() {}
 
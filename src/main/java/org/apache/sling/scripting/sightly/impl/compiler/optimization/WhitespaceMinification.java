@@ -0,0 +1,238 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.impl.compiler.optimization;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+import org.apache.sling.scripting.sightly.compiler.commands.Command;
+import org.apache.sling.scripting.sightly.compiler.commands.CommandHandler;
+import org.apache.sling.scripting.sightly.compiler.commands.CommandStream;
+import org.apache.sling.scripting.sightly.compiler.commands.OutText;
+import org.apache.sling.scripting.sightly.compiler.commands.Procedure;
+import org.apache.sling.scripting.sightly.impl.compiler.PushStream;
+
+/**
+ * Collapses the insignificant whitespace from the static text of the markup: every run of whitespace outside attribute values, comments
+ * and the content of the {@code pre}, {@code textarea}, {@code script} and {@code style} elements is replaced by a single character. The
+ * markup state is tracked across the dynamic output; the content of elements with a dynamic name is treated like the content of a
+ * {@code pre} element. Procedure bodies are left untouched, since they can be called from any markup context. This transformer should run
+ * after the text writes have been coalesced.
+ */
+public final class WhitespaceMinification implements CommandHandler {
+
+    public static final StreamTransformer TRANSFORMER = new StreamTransformer() {
+        @Override
+        public CommandStream transform(CommandStream inStream) {
+            PushStream outputStream = new PushStream();
+            WhitespaceMinification instance = new WhitespaceMinification(outputStream);
+            inStream.addHandler(instance);
+            return outputStream;
+        }
+    };
+
+    private static final Set<String> RAW_TEXT_ELEMENTS =
+            new HashSet<>(Arrays.asList("pre", "textarea", "script", "style"));
+    private static final String DYNAMIC_ELEMENT = "";
+    private static final String COMMENT_START = "<!--";
+    private static final String COMMENT_END = "-->";
+
+    private enum State {
+        TEXT,
+        TAG_NAME,
+        TAG,
+        ATTRIBUTE_VALUE,
+        COMMENT,
+        RAW_TEXT
+    }
+
+    private final PushStream outStream;
+    private State state = State.TEXT;
+    private final StringBuilder tagName = new StringBuilder();
+    private boolean endTag;
+    private char quote;
+    private String rawTextElement;
+    private int procedureDepth;
+
+    private WhitespaceMinification(PushStream stream) {
+        this.outStream = stream;
+    }
+
+    @Override
+    public void onEmit(Command command) {
+        if (command instanceof OutText && procedureDepth == 0) {
+            String text = minify(((OutText) command).getText());
+            if (!text.isEmpty()) {
+                outStream.write(new OutText(text));
+            }
+            return;
+        }
+        if (command instanceof Procedure.Start) {
+            procedureDepth++;
+        } else if (command instanceof Procedure.End) {
+            procedureDepth--;
+        } else if (procedureDepth == 0 && state == State.TAG_NAME) {
+            // the static text ends with the tag name, or the name is completed by the dynamic output
+            if (!endTag && tagName.length() == 0) {
+                rawTextElement = DYNAMIC_ELEMENT;
+            }
+            endTagName();
+        }
+        outStream.write(command);
+    }
+
+    @Override
+    public void onError(String errorMessage) {
+        outStream.signalError(errorMessage);
+    }
+
+    @Override
+    public void onDone() {
+        outStream.close();
+    }
+
+    private String minify(String text) {
+        StringBuilder builder = new StringBuilder(text.length());
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            char c = text.charAt(i);
+            switch (state) {
+                case TEXT:
+                case TAG:
+                    if (isWhitespace(c)) {
+                        i = collapseWhitespace(text, i, builder);
+                        continue;
+                    }
+                    if (state == State.TEXT) {
+                        if (text.startsWith(COMMENT_START, i)) {
+                            builder.append(COMMENT_START);
+                            i += COMMENT_START.length();
+                            state = State.COMMENT;
+                            continue;
+                        }
+                        if (c == '<' && (i + 1 == length || isTagNameStart(text.charAt(i + 1)))) {
+                            tagName.setLength(0);
+                            endTag = false;
+                            state = State.TAG_NAME;
+                        } else if (c == '<' && (text.charAt(i + 1) == '!' || text.charAt(i + 1) == '?')) {
+                            state = State.TAG;
+                        }
+                    } else if (c == '"' || c == '\'') {
+                        quote = c;
+                        state = State.ATTRIBUTE_VALUE;
+                    } else if (c == '>') {
+                        state = rawTextElement == null ? State.TEXT : State.RAW_TEXT;
+                    }
+                    builder.append(c);
+                    i++;
+                    break;
+                case TAG_NAME:
+                    if (c == '/' && tagName.length() == 0 && !endTag) {
+                        endTag = true;
+                    } else if (Character.isLetterOrDigit(c) || c == '-' || c == ':') {
+                        tagName.append(c);
+                    } else {
+                        endTagName();
+                        continue;
+                    }
+                    builder.append(c);
+                    i++;
+                    break;
+                case ATTRIBUTE_VALUE:
+                    if (c == quote) {
+                        state = State.TAG;
+                    }
+                    builder.append(c);
+                    i++;
+                    break;
+                case COMMENT:
+                    if (text.startsWith(COMMENT_END, i)) {
+                        builder.append(COMMENT_END);
+                        i += COMMENT_END.length();
+                        state = State.TEXT;
+                        continue;
+                    }
+                    builder.append(c);
+                    i++;
+                    break;
+                case RAW_TEXT:
+                    if (isRawTextEnd(text, i)) {
+                        builder.append("</");
+                        i += 2;
+                        tagName.setLength(0);
+                        endTag = true;
+                        rawTextElement = null;
+                        state = State.TAG_NAME;
+                        continue;
+                    }
+                    builder.append(c);
+                    i++;
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown markup state " + state);
+            }
+        }
+        return builder.toString();
+    }
+
+    private void endTagName() {
+        String name = tagName.toString().toLowerCase(Locale.ENGLISH);
+        if (!endTag && RAW_TEXT_ELEMENTS.contains(name)) {
+            rawTextElement = name;
+        }
+        state = State.TAG;
+    }
+
+    private boolean isRawTextEnd(String text, int index) {
+        if (!text.startsWith("</", index)) {
+            return false;
+        }
+        int nameStart = index + 2;
+        if (DYNAMIC_ELEMENT.equals(rawTextElement)) {
+            return nameStart == text.length();
+        }
+        int nameEnd = nameStart + rawTextElement.length();
+        return text.regionMatches(true, nameStart, rawTextElement, 0, rawTextElement.length())
+                && (nameEnd == text.length() || !Character.isLetterOrDigit(text.charAt(nameEnd)));
+    }
+
+    private int collapseWhitespace(String text, int start, StringBuilder builder) {
+        boolean newLine = false;
+        int i = start;
+        while (i < text.length() && isWhitespace(text.charAt(i))) {
+            if (text.charAt(i) == '\n') {
+                newLine = true;
+            }
+            i++;
+        }
+        builder.append(newLine ? '\n' : ' ');
+        return i;
+    }
+
+    private static boolean isTagNameStart(char c) {
+        return Character.isLetter(c) || c == '/';
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.impl.compiler.optimization.reduce;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.FormatToken;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.RuntimeCall;
+import org.apache.sling.scripting.sightly.impl.filter.FormatFilter;
+import org.apache.sling.scripting.sightly.impl.filter.URIManipulationFilter;
+import org.apache.sling.scripting.sightly.render.ObjectModel;
+
+/**
+ * Registry of the {@link RuntimeCall} functions which are pure and can be evaluated during compilation when all their arguments are
+ * constant. The implementations follow the runtime's semantics and only handle the cases where the outcome doesn't depend on the
+ * runtime's environment (e.g. the request's locale); for all other cases the call is left to the runtime.
+ */
+public final class CompileTimeFunctions {
+
+    private static final Map<String, CompileTimeFunction> FUNCTIONS;
+
+    static {
+        Map<String, CompileTimeFunction> functions = new HashMap<>();
+        functions.put(RuntimeCall.FORMAT, new FormatFunction());
+        functions.put(RuntimeCall.JOIN, new JoinFunction());
+        functions.put(RuntimeCall.URI_MANIPULATION, new URIManipulationFunction());
+        FUNCTIONS = Collections.unmodifiableMap(functions);
+    }
+
+    private CompileTimeFunctions() {}
+
+    /**
+     * Checks if a runtime function can be evaluated during compilation.
+     *
+     * @param functionName the name of the runtime function
+     * @return {@code true} if the function is registered, {@code false} otherwise
+     */
+    public static boolean isRegistered(String functionName) {
+        return FUNCTIONS.containsKey(functionName);
+    }
+
+    /**
+     * Evaluates a runtime function on constant arguments.
+     *
+     * @param functionName the name of the runtime function
+     * @param arguments    the values of the arguments
+     * @return the result of the call or {@code null} if the call has to be evaluated by the runtime
+     */
+    public static String call(String functionName, List<Object> arguments) {
+        CompileTimeFunction function = FUNCTIONS.get(functionName);
+        if (function == null) {
+            return null;
+        }
+        return function.call(arguments);
+    }
+
+    private interface CompileTimeFunction {
+        String call(List<Object> arguments);
+    }
+
+    private static class FormatFunction implements CompileTimeFunction {
+
+        @Override
+        public String call(List<Object> arguments) {
+            if (arguments.size() != 2 || !(arguments.get(0) instanceof String) || !(arguments.get(1) instanceof Map)) {
+                return null;
+            }
+            Map<?, ?> options = (Map<?, ?>) arguments.get(1);
+            Object formattingType = options.get(FormatFilter.TYPE_OPTION);
+            if (formattingType != null && !(formattingType instanceof String)) {
+                return null;
+            }
+            // dates and numbers are formatted according to the request's locale and time zone, so they are not
+            // tokenized
+            List<FormatToken> tokens = FormatToken.parse((String) arguments.get(0), (String) formattingType);
+            if (tokens == null) {
+                return null;
+            }
+            Object[] params = decodeParams(options.get(FormatFilter.FORMAT_OPTION));
+            StringBuilder builder = new StringBuilder();
+            for (FormatToken token : tokens) {
+                if (token.isArgument()) {
+                    if (token.getArgumentIndex() < params.length) {
+                        builder.append(ObjectModel.toString(params[token.getArgumentIndex()]));
+                    }
+                } else {
+                    builder.append(token.getText());
+                }
+            }
+            return builder.toString();
+        }
+
+        private Object[] decodeParams(Object paramObj) {
+            if (paramObj instanceof Collection) {
+                return ((Collection<?>) paramObj).toArray();
+            }
+            return new Object[] {paramObj};
+        }
+    }
+
+    private static class JoinFunction implements CompileTimeFunction {
+
+        @Override
+        public String call(List<Object> arguments) {
+            if (arguments.size() != 2 || !(arguments.get(0) instanceof List)) {
+                return null;
+            }
+            String joinString = ObjectModel.toString(arguments.get(1));
+            StringBuilder sb = new StringBuilder();
+            Iterator<?> iterator = ((List<?>) arguments.get(0)).iterator();
+            while (iterator.hasNext()) {
+                sb.append(ObjectModel.toString(iterator.next()));
+                if (iterator.hasNext()) {
+                    sb.append(joinString);
+                }
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Only handles setting the extension and the selectors of simple absolute paths, like {@code /content/page}; all the other
+     * manipulations depend on how the runtime parses and encodes the URIs.
+     */
+    private static class URIManipulationFunction implements CompileTimeFunction {
+
+        private static final Pattern SIMPLE_PATH = Pattern.compile("(/[A-Za-z0-9_\\-]+)+");
+        private static final Pattern SIMPLE_EXTENSION = Pattern.compile("[A-Za-z0-9]+");
+        private static final Pattern SIMPLE_SELECTORS = Pattern.compile("[A-Za-z0-9_\\-]+(\\.[A-Za-z0-9_\\-]+)*");
+
+        @Override
+        public String call(List<Object> arguments) {
+            if (arguments.size() != 2 || !(arguments.get(0) instanceof String) || !(arguments.get(1) instanceof Map)) {
+                return null;
+            }
+            String path = (String) arguments.get(0);
+            Map<?, ?> options = (Map<?, ?>) arguments.get(1);
+            Object extension = options.get(URIManipulationFilter.EXTENSION);
+            Object selectors = options.get(URIManipulationFilter.SELECTORS);
+            int handledOptions = selectors == null ? 1 : 2;
+            if (!SIMPLE_PATH.matcher(path).matches()
+                    || options.size() != handledOptions
+                    || !matches(SIMPLE_EXTENSION, extension)
+                    || (selectors != null && !matches(SIMPLE_SELECTORS, selectors))) {
+                return null;
+            }
+            StringBuilder sb = new StringBuilder(path);
+            if (selectors != null) {
+                sb.append('.').append(selectors);
+            }
+            return sb.append('.').append(extension).toString();
+        }
+
+        private boolean matches(Pattern pattern, Object value) {
+            return value instanceof String && pattern.matcher((String) value).matches();
+        }
+    }
+}
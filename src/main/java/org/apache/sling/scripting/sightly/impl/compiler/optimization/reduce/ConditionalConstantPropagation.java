@@ -0,0 +1,558 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.impl.compiler.optimization.reduce;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.sling.scripting.sightly.compiler.CompileTimeEscaper;
+import org.apache.sling.scripting.sightly.compiler.commands.Command;
+import org.apache.sling.scripting.sightly.compiler.commands.CommandHandler;
+import org.apache.sling.scripting.sightly.compiler.commands.CommandStream;
+import org.apache.sling.scripting.sightly.compiler.commands.Conditional;
+import org.apache.sling.scripting.sightly.compiler.commands.Loop;
+import org.apache.sling.scripting.sightly.compiler.commands.OutText;
+import org.apache.sling.scripting.sightly.compiler.commands.OutputAttribute;
+import org.apache.sling.scripting.sightly.compiler.commands.OutputVariable;
+import org.apache.sling.scripting.sightly.compiler.commands.Procedure;
+import org.apache.sling.scripting.sightly.compiler.commands.StatefulVisitor;
+import org.apache.sling.scripting.sightly.compiler.commands.VariableBinding;
+import org.apache.sling.scripting.sightly.compiler.expression.ExpressionNode;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.BinaryOperator;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.Identifier;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.NullLiteral;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.UnaryOperation;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.UnaryOperator;
+import org.apache.sling.scripting.sightly.impl.compiler.PushStream;
+import org.apache.sling.scripting.sightly.impl.compiler.optimization.StreamTransformer;
+import org.apache.sling.scripting.sightly.impl.compiler.util.stream.EmitterVisitor;
+import org.apache.sling.scripting.sightly.impl.compiler.util.stream.Streams;
+import org.apache.sling.scripting.sightly.impl.compiler.visitor.StatefulRangeIgnore;
+import org.apache.sling.scripting.sightly.impl.compiler.visitor.TrackingVisitor;
+import org.apache.sling.scripting.sightly.render.ObjectModel;
+
+/**
+ * <p>
+ * Sparse conditional constant propagation: evaluates constant expressions during compilation-time and removes the code under
+ * conditionals which are proven to fail.
+ * </p>
+ * <p>
+ * Besides the constant values, the optimization tracks the truth values learned when entering a conditional, for the tested variable
+ * and for the variables it was bound to (e.g. {@code x} for a variable bound to {@code !x}). Conditionals nested in the same branch
+ * which re-test these variables are therefore removed as well.
+ * </p>
+ */
+public final class ConditionalConstantPropagation extends TrackingVisitor<EvalResult> implements EmitterVisitor {
+
+    private final PushStream outStream = new PushStream();
+    private final StatefulVisitor.StateControl stateControl;
+    private Map<String, Object> globalConstants;
+    private final CompileTimeEscaper escaper;
+    private final Deque<Set<String>> procedureParameters = new ArrayDeque<>();
+    private Map<String, Object> visibleGlobalConstants;
+
+    private final Deque<Frame> frames = new ArrayDeque<>();
+    private final Map<VariableKey, Boolean> bindingTruthValues = new HashMap<>();
+    private final Map<VariableKey, Alias> aliases = new HashMap<>();
+    private final Map<String, Integer> globalGenerations = new HashMap<>();
+    private int generation;
+    private int epoch;
+
+    private final ExpressionReducer.TruthValues truthValues = new ExpressionReducer.TruthValues() {
+        @Override
+        public Boolean getTruthValue(String variable) {
+            return lookupTruthValue(variable);
+        }
+    };
+
+    private ConditionalConstantPropagation(
+            StatefulVisitor.StateControl stateControl,
+            Map<String, Object> globalConstants,
+            CompileTimeEscaper escaper) {
+        this.stateControl = stateControl;
+        this.globalConstants = globalConstants;
+        this.escaper = escaper;
+        this.visibleGlobalConstants = globalConstants;
+        frames.push(new Frame(FrameType.ROOT, false));
+    }
+
+    public static StreamTransformer transformer() {
+        return transformer(Collections.<String, Object>emptyMap(), null);
+    }
+
+    /**
+     * Returns a transformer which also treats the provided global bindings as constants. A global binding is never folded if the
+     * script assigns it anywhere, since the assignment can be observed by the uses which precede it in the stream (e.g. in the next
+     * iterations of a loop or in a template called after the assignment); the stream is therefore buffered and scanned for assignments
+     * before any global binding is folded. A global binding is not folded either while it's shadowed by a local variable or a template
+     * parameter.
+     *
+     * @param globalConstants the global bindings known to be constant
+     * @param escaper         the escaper used for escaping constant strings; can be {@code null}
+     * @return the transformer
+     */
+    public static StreamTransformer transformer(Map<String, Object> globalConstants, final CompileTimeEscaper escaper) {
+        final Map<String, Object> constants = new HashMap<>();
+        for (Map.Entry<String, Object> entry : globalConstants.entrySet()) {
+            constants.put(entry.getKey().toLowerCase(), entry.getValue());
+        }
+        return new StreamTransformer() {
+            @Override
+            public CommandStream transform(CommandStream inStream) {
+                StatefulVisitor visitor = new StatefulVisitor();
+                ConditionalConstantPropagation ccp =
+                        new ConditionalConstantPropagation(visitor.getControl(), constants, escaper);
+                visitor.initializeWith(ccp);
+                if (constants.isEmpty()) {
+                    Streams.connect(inStream, ccp.getOutputStream(), visitor);
+                } else {
+                    PushStream scannedStream = new PushStream();
+                    inStream.addHandler(new GlobalAssignmentScan(scannedStream, ccp));
+                    Streams.connect(scannedStream, ccp.getOutputStream(), visitor);
+                }
+                return ccp.getOutputStream();
+            }
+        };
+    }
+
+    @Override
+    public void visit(VariableBinding.Start variableBindingStart) {
+        String variable = variableBindingStart.getVariableName();
+        EvalResult result = reduce(variableBindingStart.getExpression());
+        Boolean truthValue = ExpressionReducer.getTruthValue(result, truthValues);
+        Alias alias = getAlias(result);
+        result = avoidFoldingDataStructures(result);
+        tracker.pushVariable(variable, result);
+        VariableKey key = getKey(variable);
+        if (truthValue != null) {
+            bindingTruthValues.put(key, truthValue);
+        }
+        if (alias != null) {
+            aliases.put(key, alias);
+        }
+        outStream.write(new VariableBinding.Start(variable, result.getNode()));
+    }
+
+    @Override
+    public void visit(VariableBinding.End variableBindingEnd) {
+        VariableKey key = getKey(tracker.peek().getKey());
+        bindingTruthValues.remove(key);
+        aliases.remove(key);
+        super.visit(variableBindingEnd);
+    }
+
+    @Override
+    public void visit(VariableBinding.Global globalAssignment) {
+        String variable = globalAssignment.getVariableName();
+        String name = variable.toLowerCase();
+        EvalResult result = reduce(globalAssignment.getExpression());
+        Boolean truthValue = ExpressionReducer.getTruthValue(result, truthValues);
+        Alias alias = getAlias(result);
+        invalidateGlobal(name);
+        frames.peek().assignedGlobals.add(name);
+        VariableKey key = getGlobalKey(name);
+        if (truthValue != null) {
+            frames.peek().facts.put(key, truthValue);
+        }
+        if (alias != null) {
+            aliases.put(key, alias);
+        }
+        outStream.write(new VariableBinding.Global(variable, result.getNode()));
+    }
+
+    @Override
+    public void visit(Conditional.Start conditionalStart) {
+        String variable = conditionalStart.getVariable();
+        Boolean truthValue = lookupTruthValue(variable);
+        Frame frame;
+        if (truthValue == null) { // no information about the value of this variable
+            frame = new Frame(FrameType.CONDITIONAL, true);
+            learn(frame, getKey(variable), conditionalStart.getExpectedTruthValue());
+            outStream.write(conditionalStart);
+        } else if (truthValue != conditionalStart.getExpectedTruthValue()) {
+            // this conditional will always fail. We can ignore everything until the corresponding end-conditional
+            stateControl.push(new StatefulRangeIgnore(stateControl, Conditional.Start.class, Conditional.End.class));
+            return;
+        } else { // this conditional will always pass. We can remove it
+            frame = new Frame(FrameType.CONDITIONAL, false);
+        }
+        frames.push(frame);
+    }
+
+    @Override
+    public void visit(Conditional.End conditionalEnd) {
+        if (popFrame().keepEnd) {
+            outStream.write(conditionalEnd);
+        }
+    }
+
+    @Override
+    public void visit(OutputVariable outputVariable) {
+        EvalResult value = tracker.get(outputVariable.getVariableName());
+        if (value != null && value.isConstant() && value.getValue() instanceof String) {
+            // e.g. an expression escaped at compilation time
+            outStream.write(new OutText((String) value.getValue()));
+        } else {
+            outStream.write(outputVariable);
+        }
+    }
+
+    @Override
+    public void visit(OutputAttribute outputAttribute) {
+        EvalResult value = tracker.get(outputAttribute.getValueVariable());
+        EvalResult escapedValue = tracker.get(outputAttribute.getEscapedValueVariable());
+        if (value == null
+                || !value.isConstant()
+                || escapedValue == null
+                || !escapedValue.isConstant()
+                || (escapedValue.getValue() != null && !(escapedValue.getValue() instanceof String))) {
+            outStream.write(outputAttribute);
+            return;
+        }
+        Object raw = value.getValue();
+        String escaped = (String) escapedValue.getValue();
+        boolean shouldDisplay = escaped != null
+                && !escaped.isEmpty()
+                && !BinaryOperator.eq("", raw)
+                && !BinaryOperator.eq(Boolean.FALSE, raw);
+        if (shouldDisplay) {
+            StringBuilder text = new StringBuilder(" ").append(outputAttribute.getName());
+            if (!BinaryOperator.eq(Boolean.TRUE, raw)) {
+                char quoteChar = outputAttribute.getQuoteChar();
+                text.append('=').append(quoteChar).append(escaped).append(quoteChar);
+            }
+            outStream.write(new OutText(text.toString()));
+        }
+    }
+
+    @Override
+    public void visit(Loop.Start loopStart) {
+        frames.push(new Frame(FrameType.LOOP, true));
+        super.visit(loopStart);
+    }
+
+    @Override
+    public void visit(Loop.End loopEnd) {
+        super.visit(loopEnd);
+        popFrame();
+    }
+
+    @Override
+    public void visit(Procedure.Start startProcedure) {
+        Set<String> parameters = new HashSet<>();
+        for (String parameter : startProcedure.getParameters()) {
+            parameters.add(parameter.toLowerCase());
+        }
+        procedureParameters.push(parameters);
+        // the body of a template is executed with the global variables of its caller
+        invalidateGlobals();
+        updateVisibleGlobalConstants();
+        frames.push(new Frame(FrameType.PROCEDURE, true));
+        outStream.write(startProcedure);
+    }
+
+    @Override
+    public void visit(Procedure.End endProcedure) {
+        popFrame();
+        procedureParameters.pop();
+        invalidateGlobals();
+        updateVisibleGlobalConstants();
+        outStream.write(endProcedure);
+    }
+
+    @Override
+    public void visit(Procedure.Call procedureCall) {
+        // the called template could re-assign any global variable
+        invalidateGlobals();
+        outStream.write(procedureCall);
+    }
+
+    @Override
+    protected EvalResult assignDefault(Command command) {
+        // a distinct result for each declaration, so that the known facts can tell the declarations apart
+        return EvalResult.nonConstant(NullLiteral.INSTANCE);
+    }
+
+    @Override
+    protected void onCommand(Command command) {
+        outStream.write(command);
+    }
+
+    @Override
+    public PushStream getOutputStream() {
+        return outStream;
+    }
+
+    private EvalResult reduce(ExpressionNode node) {
+        return ExpressionReducer.reduce(node, tracker, visibleGlobalConstants, truthValues, escaper);
+    }
+
+    private EvalResult avoidFoldingDataStructures(EvalResult evalResult) {
+        // this prevents us from replacing variables that are bound to maps & collections
+        // in expressions since that would mean we rebuild the same constant data structures
+        // each time
+        if (evalResult.isConstant() && isDataStructure(evalResult.getValue())) {
+            return EvalResult.nonConstant(evalResult.getNode());
+        }
+        return evalResult;
+    }
+
+    private boolean isDataStructure(Object obj) {
+        return (obj instanceof Collection) || (obj instanceof Map);
+    }
+
+    private void updateVisibleGlobalConstants() {
+        if (globalConstants.isEmpty()) {
+            return;
+        }
+        Map<String, Object> visible = new HashMap<>(globalConstants);
+        for (Set<String> parameters : procedureParameters) {
+            visible.keySet().removeAll(parameters);
+        }
+        visibleGlobalConstants = visible;
+    }
+
+    private void excludeAssignedGlobals(Set<String> assignedGlobals) {
+        if (!Collections.disjoint(globalConstants.keySet(), assignedGlobals)) {
+            Map<String, Object> constants = new HashMap<>(globalConstants);
+            constants.keySet().removeAll(assignedGlobals);
+            globalConstants = constants;
+            visibleGlobalConstants = constants;
+        }
+    }
+
+    private Boolean lookupTruthValue(String variable) {
+        String name = variable.toLowerCase();
+        Boolean truthValue = null;
+        if (tracker.isDeclared(name)) {
+            EvalResult binding = tracker.get(name);
+            if (binding.isConstant()) {
+                truthValue = ObjectModel.toBoolean(binding.getValue());
+            }
+        } else if (visibleGlobalConstants.containsKey(name)) {
+            truthValue = ObjectModel.toBoolean(visibleGlobalConstants.get(name));
+        }
+        if (truthValue == null) {
+            truthValue = lookupTruthValue(getKey(name));
+        }
+        return truthValue;
+    }
+
+    private Boolean lookupTruthValue(VariableKey key) {
+        Boolean truthValue = bindingTruthValues.get(key);
+        boolean global = key.binding == null;
+        boolean crossedLoop = false;
+        for (Frame frame : frames) {
+            if (truthValue != null) {
+                break;
+            }
+            if (!global || !crossedLoop) {
+                truthValue = frame.facts.get(key);
+            }
+            if (frame.type == FrameType.PROCEDURE) {
+                // the body of a template is not executed where it's defined
+                break;
+            }
+            // global variables could have been re-assigned by a previous iteration
+            crossedLoop = crossedLoop || frame.type == FrameType.LOOP;
+        }
+        if (truthValue == null) {
+            Alias alias = aliases.get(key);
+            if (alias != null) {
+                Boolean aliasTruthValue = lookupTruthValue(alias.target);
+                if (aliasTruthValue != null) {
+                    truthValue = alias.negated != aliasTruthValue;
+                }
+            }
+        }
+        return truthValue;
+    }
+
+    private void learn(Frame frame, VariableKey key, boolean truthValue) {
+        frame.facts.put(key, truthValue);
+        Alias alias = aliases.get(key);
+        if (alias != null) {
+            learn(frame, alias.target, alias.negated != truthValue);
+        }
+    }
+
+    private Alias getAlias(EvalResult result) {
+        if (result.isConstant()) {
+            return null;
+        }
+        ExpressionNode node = result.getNode();
+        boolean negated = false;
+        while (node instanceof UnaryOperation && ((UnaryOperation) node).getOperator() == UnaryOperator.NOT) {
+            negated = !negated;
+            node = ((UnaryOperation) node).getTarget();
+        }
+        if (node instanceof Identifier) {
+            return new Alias(getKey(((Identifier) node).getName()), negated);
+        }
+        return null;
+    }
+
+    private VariableKey getKey(String variable) {
+        String name = variable.toLowerCase();
+        if (tracker.isDeclared(name)) {
+            return new VariableKey(name, tracker.get(name), 0);
+        }
+        return getGlobalKey(name);
+    }
+
+    private VariableKey getGlobalKey(String name) {
+        Integer globalGeneration = globalGenerations.get(name);
+        // globals which were not assigned since the last invalidation are identified by the (negative) epoch
+        return new VariableKey(name, null, globalGeneration == null ? -epoch : globalGeneration);
+    }
+
+    private void invalidateGlobal(String name) {
+        globalGenerations.put(name, ++generation);
+    }
+
+    private void invalidateGlobals() {
+        epoch++;
+        globalGenerations.clear();
+    }
+
+    private Frame popFrame() {
+        Frame frame = frames.pop();
+        // the global variables assigned in a branch or loop are unknown after it
+        for (String global : frame.assignedGlobals) {
+            invalidateGlobal(global);
+        }
+        frames.peek().assignedGlobals.addAll(frame.assignedGlobals);
+        return frame;
+    }
+
+    /**
+     * Buffers the stream and excludes the global variables it assigns from the global constants, before replaying the stream to the
+     * propagation.
+     */
+    private static final class GlobalAssignmentScan implements CommandHandler {
+
+        private final PushStream outStream;
+        private final ConditionalConstantPropagation propagation;
+        private final List<Command> commands = new ArrayList<>();
+        private final Set<String> assignedGlobals = new HashSet<>();
+
+        GlobalAssignmentScan(PushStream outStream, ConditionalConstantPropagation propagation) {
+            this.outStream = outStream;
+            this.propagation = propagation;
+        }
+
+        @Override
+        public void onEmit(Command command) {
+            if (command instanceof VariableBinding.Global) {
+                assignedGlobals.add(
+                        ((VariableBinding.Global) command).getVariableName().toLowerCase());
+            }
+            commands.add(command);
+        }
+
+        @Override
+        public void onError(String errorMessage) {
+            replay();
+            outStream.signalError(errorMessage);
+        }
+
+        @Override
+        public void onDone() {
+            replay();
+            outStream.close();
+        }
+
+        private void replay() {
+            propagation.excludeAssignedGlobals(assignedGlobals);
+            for (Command command : commands) {
+                outStream.write(command);
+            }
+            commands.clear();
+        }
+    }
+
+    private enum FrameType {
+        ROOT,
+        CONDITIONAL,
+        LOOP,
+        PROCEDURE
+    }
+
+    private static final class Frame {
+        private final FrameType type;
+        private final boolean keepEnd;
+        private final Map<VariableKey, Boolean> facts = new HashMap<>();
+        private final Set<String> assignedGlobals = new HashSet<>();
+
+        Frame(FrameType type, boolean keepEnd) {
+            this.type = type;
+            this.keepEnd = keepEnd;
+        }
+    }
+
+    /**
+     * Identifies a variable declaration; global variables are identified by the generation of their last assignment.
+     */
+    private static final class VariableKey {
+        private final String name;
+        private final EvalResult binding;
+        private final int generation;
+
+        VariableKey(String name, EvalResult binding, int generation) {
+            this.name = name;
+            this.binding = binding;
+            this.generation = generation;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof VariableKey)) {
+                return false;
+            }
+            VariableKey other = (VariableKey) obj;
+            return name.equals(other.name) && binding == other.binding && generation == other.generation;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * name.hashCode() + System.identityHashCode(binding)) + generation;
+        }
+    }
+
+    private static final class Alias {
+        private final VariableKey target;
+        private final boolean negated;
+
+        Alias(VariableKey target, boolean negated) {
+            this.target = target;
+            this.negated = negated;
+        }
+    }
+}
@@ -38,18 +38,32 @@ import org.apache.sling.scripting.sightly.compiler.expression.nodes.StringConsta
 public final class EvalResult {
     private final ExpressionNode node;
     private final Object value;
+    private final ExpressionNode source;
 
     public static EvalResult constant(Object obj) {
-        return new EvalResult(null, obj);
+        return new EvalResult(null, obj, null);
+    }
+
+    /**
+     * Creates a constant result which falls back to the {@code source} expression when the constant value cannot be represented as a
+     * literal (e.g. objects provided through global bindings).
+     *
+     * @param obj    the constant value
+     * @param source an expression evaluating to the same value
+     * @return the constant result
+     */
+    public static EvalResult constant(Object obj, ExpressionNode source) {
+        return new EvalResult(null, obj, source);
     }
 
     public static EvalResult nonConstant(ExpressionNode node) {
-        return new EvalResult(node, null);
+        return new EvalResult(node, null, null);
     }
 
-    private EvalResult(ExpressionNode node, Object value) {
+    private EvalResult(ExpressionNode node, Object value, ExpressionNode source) {
         this.node = node;
         this.value = value;
+        this.source = source;
     }
 
     public boolean isConstant() {
@@ -64,7 +78,17 @@ public final class EvalResult {
     }
 
     public ExpressionNode getNode() {
-        return (isConstant()) ? asLiteral(getValue()) : node;
+        if (!isConstant()) {
+            return node;
+        }
+        try {
+            return asLiteral(value);
+        } catch (SightlyCompilerException e) {
+            if (source != null) {
+                return source;
+            }
+            throw e;
+        }
     }
 
     private static ExpressionNode asLiteral(Object value) {
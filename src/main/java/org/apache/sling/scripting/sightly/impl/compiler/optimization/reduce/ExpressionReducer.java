@@ -19,17 +19,21 @@
 package org.apache.sling.scripting.sightly.impl.compiler.optimization.reduce;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import org.apache.sling.scripting.sightly.compiler.CompileTimeEscaper;
 import org.apache.sling.scripting.sightly.compiler.SightlyCompilerException;
 import org.apache.sling.scripting.sightly.compiler.expression.Expression;
 import org.apache.sling.scripting.sightly.compiler.expression.ExpressionNode;
+import org.apache.sling.scripting.sightly.compiler.expression.MarkupContext;
 import org.apache.sling.scripting.sightly.compiler.expression.NodeVisitor;
 import org.apache.sling.scripting.sightly.compiler.expression.nodes.ArrayLiteral;
 import org.apache.sling.scripting.sightly.compiler.expression.nodes.BinaryOperation;
 import org.apache.sling.scripting.sightly.compiler.expression.nodes.BooleanConstant;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.Concatenation;
 import org.apache.sling.scripting.sightly.compiler.expression.nodes.Identifier;
 import org.apache.sling.scripting.sightly.compiler.expression.nodes.MapLiteral;
 import org.apache.sling.scripting.sightly.compiler.expression.nodes.NullLiteral;
@@ -39,6 +43,7 @@ import org.apache.sling.scripting.sightly.compiler.expression.nodes.RuntimeCall;
 import org.apache.sling.scripting.sightly.compiler.expression.nodes.StringConstant;
 import org.apache.sling.scripting.sightly.compiler.expression.nodes.TernaryOperator;
 import org.apache.sling.scripting.sightly.compiler.expression.nodes.UnaryOperation;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.UnaryOperator;
 import org.apache.sling.scripting.sightly.compiler.util.VariableTracker;
 import org.apache.sling.scripting.sightly.render.ObjectModel;
 
@@ -48,14 +53,84 @@ import org.apache.sling.scripting.sightly.render.ObjectModel;
 public class ExpressionReducer implements NodeVisitor<EvalResult> {
 
     private final VariableTracker<EvalResult> tracker;
+    private final Map<String, Object> globalConstants;
+    private final TruthValues truthValues;
+    private final CompileTimeEscaper escaper;
 
     public static EvalResult reduce(ExpressionNode node, VariableTracker<EvalResult> tracker) {
-        ExpressionReducer reducer = new ExpressionReducer(tracker);
+        return reduce(node, tracker, Collections.<String, Object>emptyMap(), null, null);
+    }
+
+    /**
+     * Reduces an expression, additionally resolving the identifiers which are not tracked by the {@code tracker} against a map of global
+     * bindings known to be constant.
+     *
+     * @param node            the expression to reduce
+     * @param tracker         the tracker of the variables in scope
+     * @param globalConstants the global bindings known to be constant, keyed by their lower-case name
+     * @param truthValues     the truth values known for variables whose values are not constant; can be {@code null}
+     * @param escaper         the escaper used for folding {@link RuntimeCall#XSS} calls on constant strings; can be {@code null}
+     * @return the result of the reduction
+     */
+    public static EvalResult reduce(
+            ExpressionNode node,
+            VariableTracker<EvalResult> tracker,
+            Map<String, Object> globalConstants,
+            TruthValues truthValues,
+            CompileTimeEscaper escaper) {
+        ExpressionReducer reducer = new ExpressionReducer(tracker, globalConstants, truthValues, escaper);
         return reducer.eval(node);
     }
 
-    private ExpressionReducer(VariableTracker<EvalResult> tracker) {
+    private ExpressionReducer(
+            VariableTracker<EvalResult> tracker,
+            Map<String, Object> globalConstants,
+            TruthValues truthValues,
+            CompileTimeEscaper escaper) {
         this.tracker = tracker;
+        this.globalConstants = globalConstants;
+        this.truthValues = truthValues;
+        this.escaper = escaper;
+    }
+
+    /**
+     * Provides the truth values learned about variables whose values are not known, e.g. inside a conditional testing them.
+     */
+    public interface TruthValues {
+
+        /**
+         * Returns the truth value of a variable.
+         *
+         * @param variable the name of the variable
+         * @return the truth value of the variable or {@code null} if it is not known
+         */
+        Boolean getTruthValue(String variable);
+    }
+
+    /**
+     * Computes the truth value of an expression which has been reduced.
+     *
+     * @param result      the result of a reduction
+     * @param truthValues the truth values known for variables whose values are not constant; can be {@code null}
+     * @return the truth value of the expression or {@code null} if it cannot be determined at compilation time
+     */
+    public static Boolean getTruthValue(EvalResult result, TruthValues truthValues) {
+        Boolean truthValue = null;
+        if (result.isConstant()) {
+            truthValue = ObjectModel.toBoolean(result.getValue());
+        } else if (truthValues != null && result.getNode() instanceof Identifier) {
+            truthValue = truthValues.getTruthValue(((Identifier) result.getNode()).getName());
+        } else if (truthValues != null && result.getNode() instanceof UnaryOperation) {
+            UnaryOperation unaryOperation = (UnaryOperation) result.getNode();
+            if (unaryOperation.getOperator() == UnaryOperator.NOT) {
+                Boolean targetTruthValue =
+                        getTruthValue(EvalResult.nonConstant(unaryOperation.getTarget()), truthValues);
+                if (targetTruthValue != null) {
+                    truthValue = !targetTruthValue;
+                }
+            }
+        }
+        return truthValue;
     }
 
     private EvalResult eval(ExpressionNode node) {
@@ -85,14 +160,24 @@ public class ExpressionReducer implements NodeVisitor<EvalResult> {
             return EvalResult.nonConstant(new PropertyAccess(target.getNode(), property.getNode()));
         }
 
-        return EvalResult.constant(ObjectModel.resolveProperty(target.getValue(), property.getValue()));
+        return EvalResult.constant(
+                ObjectModel.resolveProperty(target.getValue(), property.getValue()),
+                new PropertyAccess(target.getNode(), property.getNode()));
     }
 
     @Override
     public EvalResult evaluate(Identifier identifier) {
-        EvalResult result = tracker.get(identifier.getName());
-        if (result != null && result.isConstant()) {
-            return EvalResult.constant(result.getValue());
+        String name = identifier.getName();
+        if (tracker.isDeclared(name)) {
+            EvalResult result = tracker.get(name);
+            if (result != null && result.isConstant()) {
+                return EvalResult.constant(result.getValue(), identifier);
+            }
+        } else {
+            String key = name.toLowerCase();
+            if (globalConstants.containsKey(key)) {
+                return EvalResult.constant(globalConstants.get(key), identifier);
+            }
         }
         return EvalResult.nonConstant(identifier);
     }
@@ -110,7 +195,10 @@ public class ExpressionReducer implements NodeVisitor<EvalResult> {
             return EvalResult.nonConstant(
                     new BinaryOperation(binaryOperation.getOperator(), left.getNode(), right.getNode()));
         }
-        return EvalResult.constant(binaryOperation.getOperator().eval(left.getValue(), right.getValue()));
+        // the logical operators return one of their operands, which may not have a literal representation
+        return EvalResult.constant(
+                binaryOperation.getOperator().eval(left.getValue(), right.getValue()),
+                new BinaryOperation(binaryOperation.getOperator(), left.getNode(), right.getNode()));
     }
 
     @Override
@@ -127,6 +215,12 @@ public class ExpressionReducer implements NodeVisitor<EvalResult> {
     public EvalResult evaluate(UnaryOperation unaryOperation) {
         EvalResult target = eval(unaryOperation.getTarget());
         if (!target.isConstant()) {
+            if (unaryOperation.getOperator() == UnaryOperator.NOT) {
+                Boolean targetTruthValue = getTruthValue(target, truthValues);
+                if (targetTruthValue != null) {
+                    return EvalResult.constant(!targetTruthValue);
+                }
+            }
             return EvalResult.nonConstant(new UnaryOperation(unaryOperation.getOperator(), target.getNode()));
         }
         return EvalResult.constant(unaryOperation.getOperator().eval(target.getValue()));
@@ -135,25 +229,70 @@ public class ExpressionReducer implements NodeVisitor<EvalResult> {
     @Override
     public EvalResult evaluate(TernaryOperator ternaryOperator) {
         EvalResult condition = eval(ternaryOperator.getCondition());
-        if (!condition.isConstant()) {
+        Boolean conditionTruthValue = getTruthValue(condition, truthValues);
+        if (conditionTruthValue == null) {
             return EvalResult.nonConstant(new TernaryOperator(
                     condition.getNode(), ternaryOperator.getThenBranch(), ternaryOperator.getElseBranch()));
         }
-        return (ObjectModel.toBoolean(condition.getValue()))
-                ? eval(ternaryOperator.getThenBranch())
-                : eval(ternaryOperator.getElseBranch());
+        return conditionTruthValue ? eval(ternaryOperator.getThenBranch()) : eval(ternaryOperator.getElseBranch());
     }
 
     @Override
     public EvalResult evaluate(RuntimeCall runtimeCall) {
+        List<EvalResult> results = new ArrayList<>();
         List<ExpressionNode> nodes = new ArrayList<>();
         for (ExpressionNode node : runtimeCall.getArguments()) {
             EvalResult result = eval(node);
+            results.add(result);
             nodes.add(result.getNode());
         }
+        if (escaper != null && RuntimeCall.XSS.equals(runtimeCall.getFunctionName())) {
+            String escaped = escape(results);
+            if (escaped != null) {
+                return EvalResult.constant(escaped);
+            }
+        }
+        if (CompileTimeFunctions.isRegistered(runtimeCall.getFunctionName())) {
+            List<Object> values = new ArrayList<>();
+            for (EvalResult result : results) {
+                if (!result.isConstant()) {
+                    return EvalResult.nonConstant(new RuntimeCall(runtimeCall.getFunctionName(), nodes));
+                }
+                values.add(result.getValue());
+            }
+            String value = CompileTimeFunctions.call(runtimeCall.getFunctionName(), values);
+            if (value != null) {
+                return EvalResult.constant(value);
+            }
+        }
         return EvalResult.nonConstant(new RuntimeCall(runtimeCall.getFunctionName(), nodes));
     }
 
+    private String escape(List<EvalResult> xssArguments) {
+        if (xssArguments.size() < 2 || xssArguments.size() > 3) {
+            return null;
+        }
+        for (EvalResult argument : xssArguments) {
+            if (!argument.isConstant()) {
+                return null;
+            }
+        }
+        Object text = xssArguments.get(0).getValue();
+        Object contextName = xssArguments.get(1).getValue();
+        Object hint = xssArguments.size() == 3 ? xssArguments.get(2).getValue() : null;
+        if (!(text instanceof String)
+                || !(contextName instanceof String)
+                || (hint != null && !(hint instanceof String))) {
+            // the runtime converts other values to strings according to its object model
+            return null;
+        }
+        MarkupContext markupContext = MarkupContext.lookup((String) contextName);
+        if (markupContext == null || markupContext == MarkupContext.UNSAFE) {
+            return null;
+        }
+        return escaper.escape((String) text, markupContext, (String) hint);
+    }
+
     @Override
     public EvalResult evaluate(MapLiteral mapLiteral) {
         HashMap<String, EvalResult> results = new HashMap<>();
@@ -168,7 +307,7 @@ public class ExpressionReducer implements NodeVisitor<EvalResult> {
             for (Map.Entry<String, EvalResult> entry : results.entrySet()) {
                 map.put(entry.getKey(), entry.getValue().getValue());
             }
-            return EvalResult.constant(map);
+            return EvalResult.constant(map, mapLiteral);
         } else {
             HashMap<String, ExpressionNode> literal = new HashMap<>();
             for (Map.Entry<String, EvalResult> entry : results.entrySet()) {
@@ -192,7 +331,7 @@ public class ExpressionReducer implements NodeVisitor<EvalResult> {
             for (EvalResult result : results) {
                 list.add(result.getValue());
             }
-            return EvalResult.constant(list);
+            return EvalResult.constant(list, arrayLiteral);
         } else {
             ArrayList<ExpressionNode> literal = new ArrayList<>();
             for (EvalResult result : results) {
@@ -206,4 +345,34 @@ public class ExpressionReducer implements NodeVisitor<EvalResult> {
     public EvalResult evaluate(NullLiteral nullLiteral) {
         return EvalResult.constant(null);
     }
+
+    @Override
+    public EvalResult evaluate(Concatenation concatenation) {
+        List<ExpressionNode> operands =
+                new ArrayList<>(concatenation.getOperands().size());
+        StringBuilder constantRun = new StringBuilder();
+        boolean inConstantRun = false;
+        for (ExpressionNode operand : concatenation.getOperands()) {
+            EvalResult result = eval(operand);
+            if (result.isConstant()) {
+                // adjacent constant operands are merged into a single string constant
+                constantRun.append(ObjectModel.toString(result.getValue()));
+                inConstantRun = true;
+            } else {
+                if (inConstantRun) {
+                    operands.add(new StringConstant(constantRun.toString()));
+                    constantRun.setLength(0);
+                    inConstantRun = false;
+                }
+                operands.add(result.getNode());
+            }
+        }
+        if (operands.isEmpty()) {
+            return EvalResult.constant(constantRun.toString());
+        }
+        if (inConstantRun) {
+            operands.add(new StringConstant(constantRun.toString()));
+        }
+        return EvalResult.nonConstant(new Concatenation(operands));
+    }
 }
@@ -0,0 +1,132 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.impl.compiler.util;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import org.apache.sling.scripting.sightly.compiler.SightlyCompilerException;
+
+/**
+ * Coordinates the concurrent executions of a computation for equal keys: the first caller runs the computation, while the callers
+ * arriving before it completes wait for it, interruptibly, and share its result or its failure. The completed computations are not
+ * cached. The pending computations are tracked in a {@link ConcurrentHashMap}, so the callers of different keys don't contend on a
+ * common lock.
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the results
+ */
+public final class SingleFlight<K, V> {
+
+    private final ConcurrentMap<K, CompletableFuture<V>> flights = new ConcurrentHashMap<>();
+    private final Consumer<? super K> joinListener;
+
+    public SingleFlight() {
+        this(key -> {});
+    }
+
+    /**
+     * Creates a {@code SingleFlight} which notifies the callers joining a running computation.
+     *
+     * @param joinListener notified with the key of the computation, on the thread of a caller which is about to wait for a running
+     *                     computation
+     */
+    public SingleFlight(Consumer<? super K> joinListener) {
+        this.joinListener = joinListener;
+    }
+
+    /**
+     * Runs the {@code computation}, unless a computation for an equal {@code key} is already running, in which case its outcome is
+     * awaited.
+     *
+     * @param key         the key of the computation
+     * @param computation the computation
+     * @return the outcome of the computation
+     * @throws SightlyCompilerException if the caller is interrupted while waiting for a running computation
+     */
+    public Outcome<V> execute(K key, Supplier<V> computation) {
+        CompletableFuture<V> flight = new CompletableFuture<>();
+        CompletableFuture<V> pending = flights.putIfAbsent(key, flight);
+        if (pending != null) {
+            joinListener.accept(key);
+            return new Outcome<>(await(pending), true);
+        }
+        try {
+            V result = computation.get();
+            flight.complete(result);
+            return new Outcome<>(result, false);
+        } catch (RuntimeException | Error e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            flights.remove(key, flight);
+        }
+    }
+
+    private static <V> V await(CompletableFuture<V> pending) {
+        try {
+            return pending.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SightlyCompilerException("Interrupted while waiting for a concurrent computation.", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new SightlyCompilerException(cause);
+        }
+    }
+
+    /**
+     * The result of an {@link #execute(Object, Supplier) execution}.
+     *
+     * @param <V> the type of the result
+     */
+    public static final class Outcome<V> {
+
+        private final V result;
+        private final boolean shared;
+
+        private Outcome(V result, boolean shared) {
+            this.result = result;
+            this.shared = shared;
+        }
+
+        public V getResult() {
+            return result;
+        }
+
+        /**
+         * Tells if the result was computed by another caller.
+         *
+         * @return {@code true} if the result was computed by another caller, {@code false} otherwise
+         */
+        public boolean isShared() {
+            return shared;
+        }
+    }
+}
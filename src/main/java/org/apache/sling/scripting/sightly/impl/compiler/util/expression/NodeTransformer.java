@@ -28,6 +28,7 @@ import org.apache.sling.scripting.sightly.compiler.expression.NodeVisitor;
 import org.apache.sling.scripting.sightly.compiler.expression.nodes.ArrayLiteral;
 import org.apache.sling.scripting.sightly.compiler.expression.nodes.BinaryOperation;
 import org.apache.sling.scripting.sightly.compiler.expression.nodes.BooleanConstant;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.Concatenation;
 import org.apache.sling.scripting.sightly.compiler.expression.nodes.Identifier;
 import org.apache.sling.scripting.sightly.compiler.expression.nodes.MapLiteral;
 import org.apache.sling.scripting.sightly.compiler.expression.nodes.NullLiteral;
@@ -115,6 +116,11 @@ public class NodeTransformer implements NodeVisitor<ExpressionNode> {
         return nullLiteral;
     }
 
+    @Override
+    public ExpressionNode evaluate(Concatenation concatenation) {
+        return new Concatenation(transformList(concatenation.getOperands()));
+    }
+
     private List<ExpressionNode> transformList(List<ExpressionNode> nodes) {
         ArrayList<ExpressionNode> result = new ArrayList<>();
         for (ExpressionNode node : nodes) {
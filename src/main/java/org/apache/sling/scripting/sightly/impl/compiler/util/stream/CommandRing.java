@@ -0,0 +1,113 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.impl.compiler.util.stream;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded single-producer / single-consumer ring buffer. The producer blocks while the ring is full and the consumer blocks while it
+ * is empty; since the stages of a pipeline usually run at similar rates, both spin for a while before parking until the other side
+ * hands them an element or a free slot.
+ */
+final class CommandRing {
+
+    private static final int SPINS = 128;
+
+    private final Object[] buffer;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private volatile Thread parkedProducer;
+    private volatile Thread parkedConsumer;
+
+    /**
+     * Creates a ring.
+     *
+     * @param capacity the capacity of the ring; must be a power of two
+     */
+    CommandRing(int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("The capacity must be a power of two: " + capacity);
+        }
+        buffer = new Object[capacity];
+        mask = capacity - 1;
+    }
+
+    /**
+     * Adds an element to the ring, waiting while the ring is full. Must only be called by the producer thread.
+     *
+     * @param element the element
+     */
+    void put(Object element) {
+        long position = tail.get();
+        int attempts = 0;
+        while (position - head.get() == buffer.length) {
+            if (attempts++ < SPINS) {
+                Thread.yield();
+            } else {
+                // the consumer unparks the producer after freeing a slot, so the ring is checked again once
+                // parkedProducer is set
+                parkedProducer = Thread.currentThread();
+                if (position - head.get() == buffer.length) {
+                    LockSupport.park(this);
+                }
+                parkedProducer = null;
+            }
+        }
+        buffer[(int) position & mask] = element;
+        tail.set(position + 1);
+        Thread consumer = parkedConsumer;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    /**
+     * Removes the oldest element from the ring, waiting while the ring is empty. Must only be called by the consumer thread.
+     *
+     * @return the element
+     */
+    Object take() {
+        long position = head.get();
+        int attempts = 0;
+        while (position == tail.get()) {
+            if (attempts++ < SPINS) {
+                Thread.yield();
+            } else {
+                // the producer unparks the consumer after adding an element, so the ring is checked again once
+                // parkedConsumer is set
+                parkedConsumer = Thread.currentThread();
+                if (position == tail.get()) {
+                    LockSupport.park(this);
+                }
+                parkedConsumer = null;
+            }
+        }
+        int index = (int) position & mask;
+        Object element = buffer[index];
+        buffer[index] = null;
+        head.set(position + 1);
+        Thread producer = parkedProducer;
+        if (producer != null) {
+            LockSupport.unpark(producer);
+        }
+        return element;
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.impl.compiler.util.stream;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import org.apache.sling.scripting.sightly.compiler.commands.Command;
+import org.apache.sling.scripting.sightly.compiler.commands.CommandHandler;
+import org.apache.sling.scripting.sightly.compiler.commands.CommandStream;
+import org.apache.sling.scripting.sightly.compiler.commands.Conditional;
+import org.apache.sling.scripting.sightly.compiler.commands.Loop;
+import org.apache.sling.scripting.sightly.compiler.commands.Procedure;
+import org.apache.sling.scripting.sightly.compiler.commands.Segment;
+import org.apache.sling.scripting.sightly.compiler.commands.VariableBinding;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.NullLiteral;
+import org.apache.sling.scripting.sightly.impl.compiler.PushStream;
+import org.apache.sling.scripting.sightly.impl.compiler.optimization.StreamTransformer;
+
+/**
+ * <p>
+ * Optimises the procedures defined at the top level of a stream (the {@code data-sly-template} blocks) concurrently, on a
+ * {@link ForkJoinPool}. The stream is buffered and split at the procedure boundaries: each procedure is optimised as a stream of its own,
+ * while the rest of the stream is optimised with the procedures replaced by empty placeholders, which are then replaced by the optimised
+ * procedures, in their original order.
+ * </p>
+ * <p>
+ * The only state the optimisations carry across procedure boundaries are the global variables assigned by the stream: the constant
+ * propagation needs all of them, while the segmentation needs the ones assigned before each segment. The placeholders therefore keep
+ * the global variable assignments of the procedures they replace, while each procedure is surrounded by the global variable assignments
+ * found before and after it in the stream; these assignments are discarded from the optimised procedures. The optimisations which
+ * depend on the order of the whole stream (e.g. the static text interning) must run after this transformer.
+ * </p>
+ */
+public final class ParallelProcedures implements CommandHandler {
+
+    private final StreamTransformer optimizer;
+    private final ForkJoinPool pool;
+    private final PushStream outStream;
+    private final List<Command> commands = new ArrayList<>();
+
+    private ParallelProcedures(StreamTransformer optimizer, ForkJoinPool pool, PushStream outStream) {
+        this.optimizer = optimizer;
+        this.pool = pool;
+        this.outStream = outStream;
+    }
+
+    /**
+     * Returns a transformer which applies the provided {@code optimizer} to the top-level procedures of a stream concurrently.
+     *
+     * @param optimizer the optimizer; it must not depend on the order in which the procedures are optimised
+     * @param pool      the pool running the optimisation of the procedures
+     * @return the transformer
+     */
+    public static StreamTransformer transformer(final StreamTransformer optimizer, final ForkJoinPool pool) {
+        return new StreamTransformer() {
+            @Override
+            public CommandStream transform(CommandStream inStream) {
+                PushStream outputStream = new PushStream();
+                inStream.addHandler(new ParallelProcedures(optimizer, pool, outputStream));
+                return outputStream;
+            }
+        };
+    }
+
+    @Override
+    public void onEmit(Command command) {
+        commands.add(command);
+    }
+
+    @Override
+    public void onError(String errorMessage) {
+        // the stream can be unbalanced, so it's optimised as a whole
+        emit(optimize(commands, errorMessage));
+    }
+
+    @Override
+    public void onDone() {
+        List<int[]> procedures = findProcedures();
+        if (procedures.isEmpty()) {
+            emit(optimize(commands, null));
+            return;
+        }
+        List<ForkJoinTask<Result>> tasks = new ArrayList<>(procedures.size());
+        List<Command> globals = new ArrayList<>();
+        List<Integer> globalPositions = new ArrayList<>();
+        for (int i = 0; i < commands.size(); i++) {
+            Command command = commands.get(i);
+            if (command instanceof VariableBinding.Global) {
+                // only the assignment itself is relevant for the optimisations of the other commands
+                globals.add(new VariableBinding.Global(
+                        ((VariableBinding.Global) command).getVariableName(), NullLiteral.INSTANCE));
+                globalPositions.add(i);
+            }
+        }
+        List<Command> main = new ArrayList<>();
+        int position = 0;
+        int globalsBefore = 0;
+        for (int[] procedure : procedures) {
+            while (globalsBefore < globals.size() && globalPositions.get(globalsBefore) < procedure[0]) {
+                globalsBefore++;
+            }
+            int globalsAfter = globalsBefore;
+            while (globalsAfter < globals.size() && globalPositions.get(globalsAfter) <= procedure[1]) {
+                globalsAfter++;
+            }
+            main.addAll(commands.subList(position, procedure[0]));
+            final List<Command> procedureCommands = new ArrayList<>(globals.subList(0, globalsBefore));
+            procedureCommands.addAll(commands.subList(procedure[0], procedure[1] + 1));
+            procedureCommands.addAll(globals.subList(globalsAfter, globals.size()));
+            tasks.add(pool.submit(new Callable<Result>() {
+                @Override
+                public Result call() {
+                    return optimize(procedureCommands, null);
+                }
+            }));
+            main.add(commands.get(procedure[0]));
+            main.addAll(globals.subList(globalsBefore, globalsAfter));
+            main.add(commands.get(procedure[1]));
+            position = procedure[1] + 1;
+        }
+        main.addAll(commands.subList(position, commands.size()));
+        Result mainResult = optimize(main, null);
+        List<Command> stitched = new ArrayList<>(commands.size());
+        String errorMessage = mainResult.errorMessage;
+        int procedureIndex = 0;
+        int depth = 0;
+        int i = 0;
+        while (i < mainResult.commands.size()) {
+            Command command = mainResult.commands.get(i);
+            if (depth == 0 && command instanceof Procedure.Start) {
+                Result procedureResult = tasks.get(procedureIndex++).join();
+                // the optimised procedure follows the global variable assignments which preceded it
+                int start = findFirstProcedure(procedureResult.commands);
+                stitched.addAll(procedureResult.commands.subList(start, findEnd(procedureResult.commands, start) + 1));
+                if (errorMessage == null) {
+                    errorMessage = procedureResult.errorMessage;
+                }
+                i = findEnd(mainResult.commands, i) + 1;
+                continue;
+            }
+            depth += depthChange(command);
+            stitched.add(command);
+            i++;
+        }
+        emit(new Result(stitched, errorMessage));
+    }
+
+    private List<int[]> findProcedures() {
+        List<int[]> procedures = new ArrayList<>();
+        int depth = 0;
+        for (int i = 0; i < commands.size(); i++) {
+            Command command = commands.get(i);
+            if (depth == 0 && command instanceof Procedure.Start) {
+                int end = findEnd(commands, i);
+                if (end < 0) {
+                    // unbalanced stream
+                    return new ArrayList<>();
+                }
+                procedures.add(new int[] {i, end});
+                i = end;
+            } else {
+                depth += depthChange(command);
+            }
+        }
+        return procedures;
+    }
+
+    private Result optimize(List<Command> input, String inputError) {
+        PushStream inStream = new PushStream();
+        Result result = new Result(new ArrayList<Command>(input.size()), null);
+        optimizer.transform(inStream).addHandler(result);
+        for (Command command : input) {
+            inStream.write(command);
+        }
+        if (inputError != null) {
+            inStream.signalError(inputError);
+        } else {
+            inStream.close();
+        }
+        return result;
+    }
+
+    private void emit(Result result) {
+        for (Command command : result.commands) {
+            outStream.write(command);
+        }
+        if (result.errorMessage != null) {
+            outStream.signalError(result.errorMessage);
+        } else {
+            outStream.close();
+        }
+    }
+
+    private static int findFirstProcedure(List<Command> commands) {
+        for (int i = 0; i < commands.size(); i++) {
+            if (commands.get(i) instanceof Procedure.Start) {
+                return i;
+            }
+        }
+        throw new IllegalStateException("The optimised stream does not contain a procedure.");
+    }
+
+    private static int findEnd(List<Command> commands, int start) {
+        int depth = 0;
+        for (int i = start; i < commands.size(); i++) {
+            depth += depthChange(commands.get(i));
+            if (depth == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int depthChange(Command command) {
+        if (command instanceof VariableBinding.Start
+                || command instanceof Conditional.Start
+                || command instanceof Loop.Start
+                || command instanceof Procedure.Start
+                || command instanceof Segment.Start) {
+            return 1;
+        }
+        if (command instanceof VariableBinding.End
+                || command instanceof Conditional.End
+                || command instanceof Loop.End
+                || command instanceof Procedure.End
+                || command instanceof Segment.End) {
+            return -1;
+        }
+        return 0;
+    }
+
+    /**
+     * Collects the commands of an optimised stream.
+     */
+    private static final class Result implements CommandHandler {
+
+        private final List<Command> commands;
+        private String errorMessage;
+
+        Result(List<Command> commands, String errorMessage) {
+            this.commands = commands;
+            this.errorMessage = errorMessage;
+        }
+
+        @Override
+        public void onEmit(Command command) {
+            commands.add(command);
+        }
+
+        @Override
+        public void onError(String errorMessage) {
+            this.errorMessage = errorMessage;
+        }
+
+        @Override
+        public void onDone() {}
+    }
+}
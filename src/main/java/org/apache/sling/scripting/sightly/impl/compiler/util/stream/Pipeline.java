@@ -0,0 +1,254 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.impl.compiler.util.stream;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.sling.scripting.sightly.compiler.SightlyCompilerException;
+import org.apache.sling.scripting.sightly.compiler.commands.Command;
+import org.apache.sling.scripting.sightly.compiler.commands.CommandHandler;
+import org.apache.sling.scripting.sightly.compiler.commands.CommandStream;
+import org.apache.sling.scripting.sightly.impl.compiler.PushStream;
+import org.apache.sling.scripting.sightly.impl.compiler.optimization.StreamTransformer;
+
+/**
+ * <p>
+ * Runs the stages of a compilation on the threads of an {@link Executor}. Each transformer of a {@link #sequence(List) sequence} is
+ * preceded by a boundary, which queues the commands of its input stream in a bounded single-producer / single-consumer
+ * {@link CommandRing} and replays them, on a thread of its own, to its output stream; the last boundary feeds the stream returned to the
+ * consumers (e.g. the backend compilers), which are therefore notified on the thread of that boundary. The commands keep their order,
+ * so the result is the same as the one of a sequential compilation.
+ * </p>
+ * <p>
+ * A pipeline is used for a single compilation: the boundaries are {@link #start() started} once all the consumers are attached and the
+ * compilation must end with {@link #await()}. If the producer of the input stream fails, the pipeline must be {@link #abort(String)
+ * aborted}, which signals the error to all the stages. A stage which throws an exception stops processing commands and signals the error
+ * to the following stages; the exception is rethrown by {@link #await()}.
+ * </p>
+ */
+public final class Pipeline {
+
+    private static final int RING_CAPACITY = 1024;
+    private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+    private static final Object DONE = new Object();
+
+    private final Executor executor;
+    private final List<Boundary> heads = new ArrayList<>();
+    private final List<Boundary> boundaries = new ArrayList<>();
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private CountDownLatch finished;
+
+    /**
+     * Creates a pipeline.
+     *
+     * @param executor the executor running the boundaries; since the boundaries of a pipeline wait for each other, it must be able to
+     *                 run all of them at the same time (see {@link #newExecutor()})
+     */
+    public Pipeline(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Creates an executor suitable for running pipelines: an unbounded pool of daemon threads, which are reused by the following
+     * compilations and stopped once they have been idle for a minute.
+     *
+     * @return the executor
+     */
+    public static ExecutorService newExecutor() {
+        return Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "htl-compiler-pipeline-" + THREAD_COUNTER.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Returns a transformer which applies the provided {@code transformers} in sequence, each one on a thread of its own.
+     *
+     * @param transformers the transformers
+     * @return the pipelined transformer
+     */
+    public StreamTransformer sequence(final List<StreamTransformer> transformers) {
+        return new StreamTransformer() {
+            @Override
+            public CommandStream transform(CommandStream inStream) {
+                Boundary boundary = attach(inStream);
+                heads.add(boundary);
+                for (StreamTransformer transformer : transformers) {
+                    Boundary next = attach(transformer.transform(boundary.outStream));
+                    boundary.next = next;
+                    boundary = next;
+                }
+                return boundary.outStream;
+            }
+        };
+    }
+
+    /**
+     * Submits the boundaries of the pipeline to the executor.
+     *
+     * @throws SightlyCompilerException if the executor rejects a boundary; the pipeline must still be aborted and awaited
+     */
+    public void start() {
+        finished = new CountDownLatch(boundaries.size());
+        for (int i = 0; i < boundaries.size(); i++) {
+            try {
+                executor.execute(boundaries.get(i));
+            } catch (RejectedExecutionException e) {
+                // the boundaries which will never run must not be awaited
+                for (int j = i; j < boundaries.size(); j++) {
+                    finished.countDown();
+                }
+                failure.compareAndSet(null, e);
+                throw new SightlyCompilerException("The compilation pipeline could not be started.", e);
+            }
+        }
+    }
+
+    /**
+     * Signals an error to the stages which have not yet received the end of their input. Must be called from the thread producing the
+     * input stream.
+     *
+     * @param errorMessage the error message
+     */
+    public void abort(String errorMessage) {
+        for (Boundary head : heads) {
+            head.terminate(errorMessage);
+        }
+    }
+
+    /**
+     * Waits for all the stages to finish processing their input.
+     *
+     * @throws SightlyCompilerException if the waiting thread is interrupted
+     */
+    public void await() {
+        try {
+            if (finished != null) {
+                finished.await();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SightlyCompilerException("Interrupted while waiting for the compilation pipeline.", e);
+        }
+        Throwable throwable = failure.get();
+        if (throwable instanceof RuntimeException) {
+            throw (RuntimeException) throwable;
+        }
+        if (throwable instanceof Error) {
+            throw (Error) throwable;
+        }
+        if (throwable != null) {
+            throw new SightlyCompilerException(throwable);
+        }
+    }
+
+    private Boundary attach(CommandStream inStream) {
+        Boundary boundary = new Boundary();
+        boundaries.add(boundary);
+        inStream.addHandler(boundary);
+        return boundary;
+    }
+
+    private static final class Failure {
+
+        private final String message;
+
+        private Failure(String message) {
+            this.message = message;
+        }
+    }
+
+    private final class Boundary implements CommandHandler, Runnable {
+
+        private final CommandRing ring = new CommandRing(RING_CAPACITY);
+        private final PushStream outStream = new PushStream();
+        private Boundary next;
+        // only accessed by the producer thread
+        private boolean terminated;
+
+        @Override
+        public void onEmit(Command command) {
+            ring.put(command);
+        }
+
+        @Override
+        public void onError(String errorMessage) {
+            terminated = true;
+            ring.put(new Failure(errorMessage));
+        }
+
+        @Override
+        public void onDone() {
+            terminated = true;
+            ring.put(DONE);
+        }
+
+        private void terminate(String errorMessage) {
+            if (!terminated) {
+                onError(errorMessage);
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                replay();
+            } finally {
+                finished.countDown();
+            }
+        }
+
+        private void replay() {
+            String failureMessage = null;
+            while (true) {
+                Object element = ring.take();
+                boolean last = element == DONE || element instanceof Failure;
+                if (failureMessage == null) {
+                    try {
+                        if (element == DONE) {
+                            outStream.close();
+                        } else if (element instanceof Failure) {
+                            outStream.signalError(((Failure) element).message);
+                        } else {
+                            outStream.write((Command) element);
+                        }
+                    } catch (RuntimeException | Error e) {
+                        failure.compareAndSet(null, e);
+                        failureMessage = String.valueOf(e);
+                    }
+                }
+                if (last) {
+                    if (failureMessage != null && next != null) {
+                        next.terminate(failureMessage);
+                    }
+                    return;
+                }
+            }
+        }
+    }
+}
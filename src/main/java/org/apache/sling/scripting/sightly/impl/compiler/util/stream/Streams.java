@@ -29,7 +29,7 @@ public class Streams {
 
     /**
      * Attach the visitor as a handle to the inStream and propagate
-     * the done signal from the inStream to the outStream
+     * the done and error signals from the inStream to the outStream
      *
      * @param inStream  - the input stream
      * @param outStream - the output stream
@@ -37,6 +37,11 @@ public class Streams {
      */
     public static void connect(CommandStream inStream, final PushStream outStream, CommandVisitor visitor) {
         inStream.addHandler(new VisitorHandler(visitor) {
+            @Override
+            public void onError(String errorMessage) {
+                outStream.signalError(errorMessage);
+            }
+
             @Override
             public void onDone() {
                 outStream.close();
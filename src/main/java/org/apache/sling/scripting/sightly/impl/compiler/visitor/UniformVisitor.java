@@ -21,10 +21,13 @@ package org.apache.sling.scripting.sightly.impl.compiler.visitor;
 import org.apache.sling.scripting.sightly.compiler.commands.Command;
 import org.apache.sling.scripting.sightly.compiler.commands.CommandVisitor;
 import org.apache.sling.scripting.sightly.compiler.commands.Conditional;
+import org.apache.sling.scripting.sightly.compiler.commands.Flush;
 import org.apache.sling.scripting.sightly.compiler.commands.Loop;
 import org.apache.sling.scripting.sightly.compiler.commands.OutText;
+import org.apache.sling.scripting.sightly.compiler.commands.OutputAttribute;
 import org.apache.sling.scripting.sightly.compiler.commands.OutputVariable;
 import org.apache.sling.scripting.sightly.compiler.commands.Procedure;
+import org.apache.sling.scripting.sightly.compiler.commands.Segment;
 import org.apache.sling.scripting.sightly.compiler.commands.VariableBinding;
 
 /**
@@ -69,6 +72,26 @@ public abstract class UniformVisitor implements CommandVisitor {
         onCommand(outText);
     }
 
+    @Override
+    public void visit(OutputAttribute outputAttribute) {
+        onCommand(outputAttribute);
+    }
+
+    @Override
+    public void visit(Segment.Start segmentStart) {
+        onCommand(segmentStart);
+    }
+
+    @Override
+    public void visit(Segment.End segmentEnd) {
+        onCommand(segmentEnd);
+    }
+
+    @Override
+    public void visit(Flush flush) {
+        onCommand(flush);
+    }
+
     @Override
     public void visit(Loop.Start loopStart) {
         onCommand(loopStart);
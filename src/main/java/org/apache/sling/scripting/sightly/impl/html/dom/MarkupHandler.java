@@ -18,18 +18,20 @@
  */
 package org.apache.sling.scripting.sightly.impl.html.dom;
 
+import java.util.ArrayDeque;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.Stack;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.sling.scripting.sightly.compiler.SightlyCompilerException;
 import org.apache.sling.scripting.sightly.compiler.commands.Conditional;
 import org.apache.sling.scripting.sightly.compiler.commands.OutText;
+import org.apache.sling.scripting.sightly.compiler.commands.OutputAttribute;
 import org.apache.sling.scripting.sightly.compiler.commands.OutputVariable;
 import org.apache.sling.scripting.sightly.compiler.commands.VariableBinding;
 import org.apache.sling.scripting.sightly.compiler.expression.Expression;
@@ -42,6 +44,7 @@ import org.apache.sling.scripting.sightly.compiler.expression.nodes.Identifier;
 import org.apache.sling.scripting.sightly.compiler.expression.nodes.NullLiteral;
 import org.apache.sling.scripting.sightly.compiler.expression.nodes.RuntimeCall;
 import org.apache.sling.scripting.sightly.compiler.expression.nodes.StringConstant;
+import org.apache.sling.scripting.sightly.impl.compiler.CompilationMonitor;
 import org.apache.sling.scripting.sightly.impl.compiler.Patterns;
 import org.apache.sling.scripting.sightly.impl.compiler.PushStream;
 import org.apache.sling.scripting.sightly.impl.compiler.Syntax;
@@ -70,8 +73,9 @@ public class MarkupHandler {
     private final Map<String, Plugin> pluginRegistry;
     private final CompilerContext compilerContext;
     private final ExpressionWrapper expressionWrapper;
+    private final CompilationMonitor monitor;
 
-    private final Stack<ElementContext> elementStack = new Stack<>();
+    private final Deque<ElementContext> elementStack = new ArrayDeque<>();
     private static final Set<String> URI_ATTRIBUTES = Collections.unmodifiableSet(
             new HashSet<>(Arrays.asList("action", "cite", "data", "formaction", "href", "manifest", "poster", "src")));
 
@@ -80,18 +84,31 @@ public class MarkupHandler {
             Map<String, Plugin> pluginRegistry,
             List<Filter> filters,
             Set<String> knownExpressionOptions) {
+        this(stream, pluginRegistry, filters, knownExpressionOptions, CompilationMonitor.UNBOUNDED);
+    }
+
+    public MarkupHandler(
+            PushStream stream,
+            Map<String, Plugin> pluginRegistry,
+            List<Filter> filters,
+            Set<String> knownExpressionOptions,
+            CompilationMonitor monitor) {
         this.stream = stream;
+        this.monitor = monitor;
         this.pluginRegistry = pluginRegistry;
         this.expressionWrapper = new ExpressionWrapper(stream, filters, knownExpressionOptions);
         this.compilerContext = new CompilerContext(symbolGenerator, expressionWrapper, stream);
     }
 
     public void onOpenTagStart(String markup, String tagName) {
+        monitor.checkpoint();
         ElementContext context = new ElementContext(tagName, markup);
         elementStack.push(context);
+        monitor.checkNestingDepth(elementStack.size(), markup);
     }
 
     public void onAttribute(String name, String value, char quoteChar) {
+        monitor.checkpoint();
         ElementContext context = elementStack.peek();
         if (Syntax.isPluginAttribute(name)) {
             try {
@@ -149,7 +166,7 @@ public class MarkupHandler {
         if (content == null) {
             emitSimpleTextAttribute(name, null, quoteChar, invoke);
         } else {
-            Interpolation interpolation = expressionParser.parseInterpolation(content);
+            Interpolation interpolation = parseInterpolation(content);
             String text = tryAsSimpleText(interpolation);
             if (text != null) {
                 emitSimpleTextAttribute(name, text, quoteChar, invoke);
@@ -208,8 +225,6 @@ public class MarkupHandler {
                 expressionWrapper.transform(interpolation, null, ExpressionContext.ATTRIBUTE); // raw expression
         String attrValue = symbolGenerator.next("attrValue"); // holds the raw attribute value
         String attrContent = symbolGenerator.next("attrContent"); // holds the escaped attribute value
-        String isTrueVar = symbolGenerator.next("isTrueAttr"); // holds the comparison (attrValue == true)
-        String shouldDisplayAttr = symbolGenerator.next("shouldDisplayAttr");
         MarkupContext markupContext = getAttributeMarkupContext(name);
         boolean alreadyEscaped = false;
         if (valueExpression.getRoot() instanceof RuntimeCall) {
@@ -219,45 +234,54 @@ public class MarkupHandler {
             }
         }
         ExpressionNode node = valueExpression.getRoot();
-        stream.write(new VariableBinding.Start(attrValue, node)); // attrContent = <expr>
+        stream.write(new VariableBinding.Start(attrValue, node)); // attrValue = <expr>
         if (!alreadyEscaped) {
             Expression contentExpression = valueExpression.withNode(new Identifier(attrValue));
             stream.write(new VariableBinding.Start(
                     attrContent,
                     adjustContext(compilerContext, contentExpression, markupContext)
-                            .getRoot()));
-            stream.write(new VariableBinding.Start(
-                    shouldDisplayAttr,
-                    new BinaryOperation(
-                            BinaryOperator.AND,
-                            new BinaryOperation(
-                                    BinaryOperator.AND,
-                                    new BinaryOperation(
-                                            BinaryOperator.NEQ, NullLiteral.INSTANCE, new Identifier(attrContent)),
-                                    new BinaryOperation(
-                                            BinaryOperator.NEQ, StringConstant.EMPTY, new Identifier(attrContent))),
-                            new BinaryOperation(
-                                    BinaryOperator.AND,
-                                    new BinaryOperation(
-                                            BinaryOperator.NEQ, StringConstant.EMPTY, new Identifier(attrValue)),
-                                    new BinaryOperation(
-                                            BinaryOperator.NEQ, BooleanConstant.FALSE, new Identifier(attrValue))))));
-
+                            .getRoot())); // attrContent = escape(attrValue)
         } else {
-            stream.write(new VariableBinding.Start(
-                    shouldDisplayAttr,
-                    new BinaryOperation(
-                            BinaryOperator.AND,
-                            new BinaryOperation(BinaryOperator.NEQ, NullLiteral.INSTANCE, new Identifier(attrValue)),
-                            new BinaryOperation(
-                                    BinaryOperator.AND,
-                                    new BinaryOperation(
-                                            BinaryOperator.NEQ, StringConstant.EMPTY, new Identifier(attrValue)),
-                                    new BinaryOperation(
-                                            BinaryOperator.NEQ, BooleanConstant.FALSE, new Identifier(attrValue))))));
+            attrContent = attrValue;
         }
-        stream.write(new Conditional.Start(shouldDisplayAttr, true)); // if (attrContent)
+        if (invoke.interceptsAttributeValue(name)) {
+            emitInterceptedAttribute(name, attrValue, attrContent, node, quoteChar, invoke);
+        } else {
+            stream.write(new OutputAttribute(name, attrValue, attrContent, quoteChar != 0 ? quoteChar : '"'));
+        }
+        if (!alreadyEscaped) {
+            stream.write(VariableBinding.END); // end scope for attrContent
+        }
+        stream.write(VariableBinding.END); // end scope for attrValue
+    }
 
+    private void emitInterceptedAttribute(
+            String name,
+            String attrValue,
+            String attrContent,
+            ExpressionNode node,
+            char quoteChar,
+            PluginInvoke invoke) {
+        // the plugins write their commands between the attribute's name and value, so the two are written separately
+        String isTrueVar = symbolGenerator.next("isTrueAttr"); // holds the comparison (attrValue == true)
+        String shouldDisplayAttr = symbolGenerator.next("shouldDisplayAttr");
+        stream.write(new VariableBinding.Start(
+                shouldDisplayAttr,
+                new BinaryOperation(
+                        BinaryOperator.AND,
+                        new BinaryOperation(
+                                BinaryOperator.AND,
+                                new BinaryOperation(
+                                        BinaryOperator.NEQ, NullLiteral.INSTANCE, new Identifier(attrContent)),
+                                new BinaryOperation(
+                                        BinaryOperator.NEQ, StringConstant.EMPTY, new Identifier(attrContent))),
+                        new BinaryOperation(
+                                BinaryOperator.AND,
+                                new BinaryOperation(
+                                        BinaryOperator.NEQ, StringConstant.EMPTY, new Identifier(attrValue)),
+                                new BinaryOperation(
+                                        BinaryOperator.NEQ, BooleanConstant.FALSE, new Identifier(attrValue))))));
+        stream.write(new Conditional.Start(shouldDisplayAttr, true)); // if (attrContent)
         emitAttributeStart(name); // write("attrName");
         invoke.beforeAttributeValue(stream, name, node);
         stream.write(new VariableBinding.Start(
@@ -265,21 +289,13 @@ public class MarkupHandler {
                 new BinaryOperation(BinaryOperator.EQ, BooleanConstant.TRUE, new Identifier(attrValue))));
         stream.write(new Conditional.Start(isTrueVar, false)); // if (!isTrueAttr)
         emitAttributeValueStart(quoteChar); // write("='");
-        if (!alreadyEscaped) {
-            stream.write(new OutputVariable(attrContent)); // write(attrContent)
-        } else {
-            stream.write(new OutputVariable(attrValue)); // write(attrValue)
-        }
+        stream.write(new OutputVariable(attrContent)); // write(attrContent)
         emitAttributeEnd(quoteChar); // write("'");
         stream.write(Conditional.END); // end if isTrueAttr
         stream.write(VariableBinding.END); // end scope for isTrueAttr
         invoke.afterAttributeValue(stream, name);
         stream.write(Conditional.END); // end if attrContent
-        stream.write(VariableBinding.END); // end scope for attrContent
-        if (!alreadyEscaped) {
-            stream.write(VariableBinding.END);
-        }
-        stream.write(VariableBinding.END); // end scope for attrValue
+        stream.write(VariableBinding.END); // end scope for shouldDisplayAttr
     }
 
     private void emitAttributeStart(String name) {
@@ -347,7 +363,7 @@ public class MarkupHandler {
     }
 
     private void outText(String content, MarkupContext context) {
-        Interpolation interpolation = expressionParser.parseInterpolation(content);
+        Interpolation interpolation = parseInterpolation(content);
         if (context == null) {
             interpolation = requireContext(interpolation);
         }
@@ -428,6 +444,16 @@ public class MarkupHandler {
         return null;
     }
 
+    private Interpolation parseInterpolation(String content) {
+        Interpolation interpolation = expressionParser.parseInterpolation(content);
+        for (Fragment fragment : interpolation.getFragments()) {
+            if (fragment.isExpression()) {
+                monitor.checkExpression(fragment.getExpression(), content);
+            }
+        }
+        return interpolation;
+    }
+
     private void out(String text) {
         stream.write(new OutText(text));
     }
@@ -437,8 +463,7 @@ public class MarkupHandler {
         if (callInfo != null) {
             Plugin plugin = obtainPlugin(callInfo.getName());
             ExpressionContext expressionContext = ExpressionContext.getContextForPlugin(plugin.name());
-            Expression expr =
-                    expressionWrapper.transform(expressionParser.parseInterpolation(value), null, expressionContext);
+            Expression expr = expressionWrapper.transform(parseInterpolation(value), null, expressionContext);
             PluginInvoke invoke = plugin.invoke(expr, callInfo, compilerContext);
             context.addPlugin(invoke, plugin.priority());
             context.addPluginCall(name, callInfo, expr);
@@ -78,6 +78,16 @@ public class AggregatePluginInvoke implements PluginInvoke {
         }
     }
 
+    @Override
+    public boolean interceptsAttributeValue(String attributeName) {
+        for (PluginInvoke invoke : invokes) {
+            if (invoke.interceptsAttributeValue(attributeName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     @Override
     public void afterAttribute(PushStream stream, String attributeName) {
         for (int i = invokes.size() - 1; i >= 0; i--) {
@@ -26,6 +26,7 @@ import org.apache.commons.lang3.StringUtils;
 import org.apache.sling.scripting.sightly.compiler.commands.Conditional;
 import org.apache.sling.scripting.sightly.compiler.commands.Loop;
 import org.apache.sling.scripting.sightly.compiler.commands.OutText;
+import org.apache.sling.scripting.sightly.compiler.commands.OutputAttribute;
 import org.apache.sling.scripting.sightly.compiler.commands.OutputVariable;
 import org.apache.sling.scripting.sightly.compiler.commands.VariableBinding;
 import org.apache.sling.scripting.sightly.compiler.expression.Expression;
@@ -137,6 +138,11 @@ public class AttributePlugin extends AbstractPlugin {
             }
         }
 
+        @Override
+        public boolean interceptsAttributeValue(String attributeName) {
+            return attributeName.equals(this.attributeName) && beforeCall;
+        }
+
         @Override
         public void afterAttribute(PushStream stream, String attributeName) {
             if (attributeName.equals(this.attributeName) && beforeCall) {
@@ -147,10 +153,11 @@ public class AttributePlugin extends AbstractPlugin {
         @Override
         public void afterAttributes(PushStream stream) {
             if (writeAtEnd) {
-                emitStart(stream);
-                stream.write(new OutText(" " + this.attributeName));
-                emitWrite(stream);
-                emitEnd(stream);
+                stream.write(new VariableBinding.Start(attrValue, node));
+                stream.write(new VariableBinding.Start(escapedAttrValue, contentNode));
+                stream.write(new OutputAttribute(attributeName, attrValue, escapedAttrValue, '"'));
+                stream.write(VariableBinding.END);
+                stream.write(VariableBinding.END);
             }
         }
 
@@ -47,6 +47,11 @@ public class DefaultPluginInvoke implements PluginInvoke {
     @Override
     public void afterAttributeValue(PushStream stream, String attributeName) {}
 
+    @Override
+    public boolean interceptsAttributeValue(String attributeName) {
+        return false;
+    }
+
     @Override
     public void afterAttribute(PushStream stream, String attributeName) {}
 
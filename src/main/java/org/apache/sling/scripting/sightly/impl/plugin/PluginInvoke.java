@@ -39,6 +39,16 @@ public interface PluginInvoke {
 
     void afterAttributeValue(PushStream stream, String attributeName);
 
+    /**
+     * Tells whether this invocation writes commands through {@link #beforeAttributeValue(PushStream, String, ExpressionNode)} and
+     * {@link #afterAttributeValue(PushStream, String)} for the given attribute, in which case the attribute's name and value have to
+     * be written separately.
+     *
+     * @param attributeName the attribute's name
+     * @return {@code true} if the attribute's value is intercepted, {@code false} otherwise
+     */
+    boolean interceptsAttributeValue(String attributeName);
+
     void afterAttribute(PushStream stream, String attributeName);
 
     void onPluginCall(PushStream stream, PluginCallInfo callInfo, Expression expression);
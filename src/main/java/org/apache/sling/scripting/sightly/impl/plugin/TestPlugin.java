@@ -26,6 +26,7 @@ import org.apache.sling.scripting.sightly.compiler.expression.nodes.ArrayLiteral
 import org.apache.sling.scripting.sightly.compiler.expression.nodes.Atom;
 import org.apache.sling.scripting.sightly.compiler.expression.nodes.BinaryOperation;
 import org.apache.sling.scripting.sightly.compiler.expression.nodes.BinaryOperator;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.Concatenation;
 import org.apache.sling.scripting.sightly.compiler.expression.nodes.Identifier;
 import org.apache.sling.scripting.sightly.compiler.expression.nodes.MapLiteral;
 import org.apache.sling.scripting.sightly.compiler.expression.nodes.NullLiteral;
@@ -57,7 +58,8 @@ public class TestPlugin extends AbstractPlugin {
                 boolean constantValueComparison = root instanceof Atom && !(root instanceof Identifier)
                         || root instanceof NullLiteral
                         || root instanceof ArrayLiteral
-                        || root instanceof MapLiteral;
+                        || root instanceof MapLiteral
+                        || root instanceof Concatenation;
                 if (!constantValueComparison && root instanceof BinaryOperation) {
                     constantValueComparison = ((BinaryOperation) root).getOperator() == BinaryOperator.CONCATENATE;
                 }
@@ -0,0 +1,92 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.compiler;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CompilationBudgetTest {
+
+    @Test
+    public void testUnlimited() {
+        CompilationBudget budget = CompilationBudget.UNLIMITED;
+        assertTrue(budget.isUnlimited());
+        assertEquals(0, budget.getMaxCommands());
+        assertEquals(0, budget.getMaxNestingDepth());
+        assertEquals(0, budget.getMaxExpressionSize());
+        assertEquals(0, budget.getTimeout(TimeUnit.NANOSECONDS));
+        // a limit of 0 means no limit
+        assertTrue(budget.withMaxCommands(0).withTimeout(0, TimeUnit.SECONDS).isUnlimited());
+    }
+
+    @Test
+    public void testCopies() {
+        CompilationBudget budget = CompilationBudget.UNLIMITED
+                .withMaxCommands(1)
+                .withMaxNestingDepth(2)
+                .withMaxExpressionSize(3)
+                .withTimeout(4, TimeUnit.SECONDS);
+        assertFalse(budget.isUnlimited());
+        assertEquals(1, budget.getMaxCommands());
+        assertEquals(2, budget.getMaxNestingDepth());
+        assertEquals(3, budget.getMaxExpressionSize());
+        assertEquals(4000, budget.getTimeout(TimeUnit.MILLISECONDS));
+        // the budgets are immutable
+        assertTrue(CompilationBudget.UNLIMITED.isUnlimited());
+        CompilationBudget changed = budget.withMaxCommands(5);
+        assertNotSame(budget, changed);
+        assertEquals(1, budget.getMaxCommands());
+        assertEquals(5, changed.getMaxCommands());
+        assertEquals(2, changed.getMaxNestingDepth());
+        assertEquals(3, changed.getMaxExpressionSize());
+        assertEquals(4, changed.getTimeout(TimeUnit.SECONDS));
+        for (CompilationBudget single : new CompilationBudget[] {
+            CompilationBudget.UNLIMITED.withMaxCommands(1),
+            CompilationBudget.UNLIMITED.withMaxNestingDepth(1),
+            CompilationBudget.UNLIMITED.withMaxExpressionSize(1),
+            CompilationBudget.UNLIMITED.withTimeout(1, TimeUnit.NANOSECONDS)
+        }) {
+            assertFalse(single.isUnlimited());
+        }
+    }
+
+    @Test
+    public void testNegativeLimits() {
+        assertNegativeLimit(() -> CompilationBudget.UNLIMITED.withMaxCommands(-1));
+        assertNegativeLimit(() -> CompilationBudget.UNLIMITED.withMaxNestingDepth(-1));
+        assertNegativeLimit(() -> CompilationBudget.UNLIMITED.withMaxExpressionSize(-1));
+        assertNegativeLimit(() -> CompilationBudget.UNLIMITED.withTimeout(-1, TimeUnit.MILLISECONDS));
+    }
+
+    private static void assertNegativeLimit(Runnable change) {
+        try {
+            change.run();
+            fail("Expected an IllegalArgumentException for a negative limit.");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("-1"));
+        }
+    }
+}
@@ -0,0 +1,488 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.compiler.commands;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.sling.scripting.sightly.compiler.expression.ExpressionNode;
+import org.apache.sling.scripting.sightly.compiler.expression.ExpressionType;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.Identifier;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.StringConstant;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CompactCommandsTest {
+
+    @Test
+    public void testRoundTrip() {
+        List<Command> commands = allCommands();
+        CompactCommands compactCommands = CompactCommands.encode(commands);
+        List<Command> decoded = compactCommands.decode();
+        assertEquals(commands.size(), decoded.size());
+        for (int i = 0; i < commands.size(); i++) {
+            assertEquals(describe(commands.get(i)), describe(decoded.get(i)));
+        }
+        // the decoded commands encode to the same instructions
+        CompactCommands reencoded = CompactCommands.encode(decoded);
+        assertEquals(compactCommands.length(), reencoded.length());
+        for (int pc = 0; pc < compactCommands.length(); pc = compactCommands.next(pc)) {
+            assertEquals(compactCommands.opcode(pc), reencoded.opcode(pc));
+            for (int operand = 0; operand < CompactCommands.operandCount(compactCommands.opcode(pc)); operand++) {
+                assertEquals(compactCommands.operand(pc, operand), reencoded.operand(pc, operand));
+            }
+        }
+    }
+
+    @Test
+    public void testInstructions() {
+        List<Command> commands = allCommands();
+        CompactCommands compactCommands = CompactCommands.encode(commands);
+        List<Integer> opcodes = new ArrayList<>();
+        int pc = 0;
+        for (Command command : commands) {
+            assertEquals(describe(command), describe(compactCommands.command(pc)));
+            opcodes.add(compactCommands.opcode(pc));
+            pc = compactCommands.next(pc);
+        }
+        assertEquals(compactCommands.length(), pc);
+        // every opcode is used once, in the order of the commands
+        for (int opcode = 0; opcode < opcodes.size(); opcode++) {
+            assertEquals(Integer.valueOf(opcode), opcodes.get(opcode));
+        }
+        int outText = offsetOf(compactCommands, CompactCommands.OUT_TEXT);
+        assertEquals("text", compactCommands.string(outText, 0));
+        assertEquals(-1, compactCommands.operand(outText, 1));
+        int binding = offsetOf(compactCommands, CompactCommands.VARIABLE_BINDING_START);
+        assertEquals("a", compactCommands.string(binding, 0));
+        assertSame(((VariableBinding.Start) commands.get(2)).getExpression(), compactCommands.expression(binding, 1));
+        assertEquals(ExpressionType.STRING, compactCommands.constant(binding, 2));
+        assertEquals(3, compactCommands.operand(binding, 3));
+    }
+
+    @Test
+    public void testEmpty() {
+        CompactCommands compactCommands = CompactCommands.encode(Collections.<Command>emptyList());
+        assertEquals(0, compactCommands.length());
+        assertTrue(compactCommands.decode().isEmpty());
+        compactCommands.accept(new RecordingVisitor(compactCommands, new ArrayList<>()));
+    }
+
+    @Test
+    public void testAbsentValues() {
+        CompactCommands compactCommands = CompactCommands.encode(Arrays.<Command>asList(
+                new Loop.Start("list", "item", null), new VariableBinding.Start("a", new Identifier("b"), null)));
+        assertEquals(-1, compactCommands.operand(0, 2));
+        assertNull(compactCommands.constant(0, 2));
+        for (int bound = 3; bound < 6; bound++) {
+            assertEquals(-1, compactCommands.operand(0, bound));
+        }
+        for (int slot = 6; slot < 12; slot++) {
+            assertEquals(-1, compactCommands.operand(0, slot));
+        }
+        assertNull(compactCommands.getConstant(-1));
+        int binding = compactCommands.next(0);
+        assertEquals(-1, compactCommands.operand(binding, 2));
+        assertEquals(-1, compactCommands.operand(binding, 3));
+        Loop.Start loopStart = (Loop.Start) compactCommands.command(0);
+        assertNull(loopStart.getIndexVariable());
+        assertNull(loopStart.getBeginVariable());
+        assertEquals(-1, loopStart.getItemSlot());
+        VariableBinding.Start variableBindingStart = (VariableBinding.Start) compactCommands.command(binding);
+        assertNull(variableBindingStart.getType());
+        assertEquals(-1, variableBindingStart.getSlot());
+    }
+
+    @Test
+    public void testPooling() {
+        ExpressionNode shared = new Identifier("x");
+        CompactCommands compactCommands = CompactCommands.encode(Arrays.<Command>asList(
+                new OutputVariable("a"),
+                new OutputVariable("a"),
+                new OutText("a"),
+                new VariableBinding.Start("b", shared),
+                new VariableBinding.Start("c", shared),
+                new VariableBinding.Start("d", new Identifier("x"))));
+        int first = 0;
+        int second = compactCommands.next(first);
+        int text = compactCommands.next(second);
+        // the equal constants are stored once, whatever the command referencing them
+        assertEquals(compactCommands.operand(first, 0), compactCommands.operand(second, 0));
+        assertEquals(compactCommands.operand(first, 0), compactCommands.operand(text, 0));
+        // the expressions are pooled by identity, since the backends can annotate them
+        int b = compactCommands.next(text);
+        int c = compactCommands.next(b);
+        int d = compactCommands.next(c);
+        assertEquals(compactCommands.operand(b, 1), compactCommands.operand(c, 1));
+        assertNotEquals(compactCommands.operand(b, 1), compactCommands.operand(d, 1));
+        assertSame(shared, compactCommands.expression(c, 1));
+    }
+
+    @Test
+    public void testPoolIds() {
+        StaticTextPool pool = new StaticTextPool(1);
+        OutText pooled = pool.intern("a");
+        OutText unpooled = pool.intern("b");
+        List<Command> decoded =
+                CompactCommands.encode(Arrays.<Command>asList(pooled, unpooled)).decode();
+        assertEquals(0, ((OutText) decoded.get(0)).getPoolId());
+        assertEquals("a", ((OutText) decoded.get(0)).getText());
+        assertEquals(-1, ((OutText) decoded.get(1)).getPoolId());
+    }
+
+    @Test
+    public void testDispatch() {
+        List<Command> commands = allCommands();
+        CompactCommands compactCommands = CompactCommands.encode(commands);
+        // the switch-based dispatch passes the same operands as the decoded commands
+        List<Object> visited = new ArrayList<>();
+        compactCommands.accept(new RecordingVisitor(compactCommands, visited));
+        List<Object> expected = new ArrayList<>();
+        for (Command command : commands) {
+            expected.add(describe(command));
+        }
+        assertEquals(expected, visited);
+
+        final List<Command> decoded = new ArrayList<>();
+        compactCommands.accept(new AbstractCommandVisitor() {
+            @Override
+            public void visit(Conditional.Start conditionalStart) {
+                decoded.add(conditionalStart);
+            }
+
+            @Override
+            public void visit(Conditional.End conditionalEnd) {
+                decoded.add(conditionalEnd);
+            }
+
+            @Override
+            public void visit(VariableBinding.Start variableBindingStart) {
+                decoded.add(variableBindingStart);
+            }
+
+            @Override
+            public void visit(VariableBinding.End variableBindingEnd) {
+                decoded.add(variableBindingEnd);
+            }
+
+            @Override
+            public void visit(VariableBinding.Global globalAssignment) {
+                decoded.add(globalAssignment);
+            }
+
+            @Override
+            public void visit(OutputVariable outputVariable) {
+                decoded.add(outputVariable);
+            }
+
+            @Override
+            public void visit(OutText outText) {
+                decoded.add(outText);
+            }
+
+            @Override
+            public void visit(Loop.Start loopStart) {
+                decoded.add(loopStart);
+            }
+
+            @Override
+            public void visit(Loop.End loopEnd) {
+                decoded.add(loopEnd);
+            }
+
+            @Override
+            public void visit(Procedure.Start startProcedure) {
+                decoded.add(startProcedure);
+            }
+
+            @Override
+            public void visit(Procedure.End endProcedure) {
+                decoded.add(endProcedure);
+            }
+
+            @Override
+            public void visit(Procedure.Call procedureCall) {
+                decoded.add(procedureCall);
+            }
+
+            @Override
+            public void visit(OutputAttribute outputAttribute) {
+                decoded.add(outputAttribute);
+            }
+        });
+        // the segments and the flushes are ignored by default
+        assertEquals(commands.size() - 3, decoded.size());
+        for (int i = 0; i < decoded.size(); i++) {
+            assertEquals(describe(commands.get(i)), describe(decoded.get(i)));
+        }
+    }
+
+    private static int offsetOf(CompactCommands compactCommands, int opcode) {
+        for (int pc = 0; pc < compactCommands.length(); pc = compactCommands.next(pc)) {
+            if (compactCommands.opcode(pc) == opcode) {
+                return pc;
+            }
+        }
+        throw new AssertionError("No instruction with the opcode " + opcode);
+    }
+
+    /**
+     * Returns one command of each type, in the order of their opcodes.
+     */
+    private static List<Command> allCommands() {
+        Map<String, Integer> parameterSlots = new HashMap<>();
+        parameterSlots.put("p", 0);
+        parameterSlots.put("q", 1);
+        return Arrays.asList(
+                new Conditional.Start("c", false, 2),
+                Conditional.END,
+                new VariableBinding.Start("a", new Identifier("b"), ExpressionType.STRING, 3),
+                VariableBinding.END,
+                new VariableBinding.Global("g", new StringConstant("v"), ExpressionType.STRING),
+                new OutputVariable("o", 4),
+                new OutText("text"),
+                new Loop.Start("list", "item", "index", "begin", "step", "end", 5, 6, 7, 8, 9, 10),
+                Loop.END,
+                new Procedure.Start("t", new HashSet<>(Arrays.asList("p", "q")), parameterSlots),
+                Procedure.END,
+                new Procedure.Call("t", "args", 11, 12),
+                new OutputAttribute("title", "value", "escaped", '\'', 13, 14),
+                new Segment.Start(Collections.singleton("live")),
+                Segment.END,
+                Flush.INSTANCE);
+    }
+
+    /**
+     * Lists the type and the properties of a command, so that commands can be compared.
+     */
+    private static List<Object> describe(Command command) {
+        if (command instanceof Conditional.Start) {
+            Conditional.Start start = (Conditional.Start) command;
+            return Arrays.asList(
+                    "conditionalStart", start.getVariable(), start.getExpectedTruthValue(), start.getSlot());
+        } else if (command instanceof VariableBinding.Start) {
+            VariableBinding.Start start = (VariableBinding.Start) command;
+            return Arrays.asList(
+                    "variableBindingStart",
+                    start.getVariableName(),
+                    start.getExpression(),
+                    start.getType(),
+                    start.getSlot());
+        } else if (command instanceof VariableBinding.Global) {
+            VariableBinding.Global global = (VariableBinding.Global) command;
+            return Arrays.asList(
+                    "variableBindingGlobal", global.getVariableName(), global.getExpression(), global.getType());
+        } else if (command instanceof OutputVariable) {
+            OutputVariable outputVariable = (OutputVariable) command;
+            return Arrays.asList("outputVariable", outputVariable.getVariableName(), outputVariable.getSlot());
+        } else if (command instanceof OutText) {
+            OutText outText = (OutText) command;
+            return Arrays.asList("outText", outText.getText(), outText.getPoolId());
+        } else if (command instanceof Loop.Start) {
+            Loop.Start start = (Loop.Start) command;
+            return Arrays.asList(
+                    "loopStart",
+                    start.getListVariable(),
+                    start.getItemVariable(),
+                    start.getIndexVariable(),
+                    start.getBeginVariable(),
+                    start.getStepVariable(),
+                    start.getEndVariable(),
+                    start.getListSlot(),
+                    start.getItemSlot(),
+                    start.getIndexSlot(),
+                    start.getBeginSlot(),
+                    start.getStepSlot(),
+                    start.getEndSlot());
+        } else if (command instanceof Procedure.Start) {
+            Procedure.Start start = (Procedure.Start) command;
+            return Arrays.asList("procedureStart", start.getName(), start.getParameters(), start.getParameterSlots());
+        } else if (command instanceof Procedure.Call) {
+            Procedure.Call call = (Procedure.Call) command;
+            return Arrays.asList(
+                    "procedureCall",
+                    call.getTemplateVariable(),
+                    call.getArgumentsVariable(),
+                    call.getTemplateSlot(),
+                    call.getArgumentsSlot());
+        } else if (command instanceof OutputAttribute) {
+            OutputAttribute outputAttribute = (OutputAttribute) command;
+            return Arrays.asList(
+                    "outputAttribute",
+                    outputAttribute.getName(),
+                    outputAttribute.getValueVariable(),
+                    outputAttribute.getEscapedValueVariable(),
+                    outputAttribute.getQuoteChar(),
+                    outputAttribute.getValueSlot(),
+                    outputAttribute.getEscapedValueSlot());
+        } else if (command instanceof Segment.Start) {
+            return Arrays.asList("segmentStart", ((Segment.Start) command).getLiveVariables());
+        }
+        return Collections.<Object>singletonList(command);
+    }
+
+    private static final class RecordingVisitor implements CompactCommandVisitor {
+
+        private final CompactCommands compactCommands;
+        private final List<Object> visited;
+
+        private RecordingVisitor(CompactCommands compactCommands, List<Object> visited) {
+            this.compactCommands = compactCommands;
+            this.visited = visited;
+        }
+
+        private Object constant(int index) {
+            return compactCommands.getConstant(index);
+        }
+
+        @Override
+        public void conditionalStart(int variable, boolean expectedTruthValue, int slot) {
+            visited.add(Arrays.asList("conditionalStart", constant(variable), expectedTruthValue, slot));
+        }
+
+        @Override
+        public void conditionalEnd() {
+            visited.add(Collections.singletonList(Conditional.END));
+        }
+
+        @Override
+        public void variableBindingStart(int variable, int expression, int type, int slot) {
+            visited.add(Arrays.asList(
+                    "variableBindingStart",
+                    constant(variable),
+                    compactCommands.getExpression(expression),
+                    constant(type),
+                    slot));
+        }
+
+        @Override
+        public void variableBindingEnd() {
+            visited.add(Collections.singletonList(VariableBinding.END));
+        }
+
+        @Override
+        public void variableBindingGlobal(int variable, int expression, int type) {
+            visited.add(Arrays.asList(
+                    "variableBindingGlobal",
+                    constant(variable),
+                    compactCommands.getExpression(expression),
+                    constant(type)));
+        }
+
+        @Override
+        public void outputVariable(int variable, int slot) {
+            visited.add(Arrays.asList("outputVariable", constant(variable), slot));
+        }
+
+        @Override
+        public void outText(int text, int poolId) {
+            visited.add(Arrays.asList("outText", constant(text), poolId));
+        }
+
+        @Override
+        public void loopStart(
+                int list,
+                int item,
+                int index,
+                int begin,
+                int step,
+                int end,
+                int listSlot,
+                int itemSlot,
+                int indexSlot,
+                int beginSlot,
+                int stepSlot,
+                int endSlot) {
+            visited.add(Arrays.asList(
+                    "loopStart",
+                    constant(list),
+                    constant(item),
+                    constant(index),
+                    constant(begin),
+                    constant(step),
+                    constant(end),
+                    listSlot,
+                    itemSlot,
+                    indexSlot,
+                    beginSlot,
+                    stepSlot,
+                    endSlot));
+        }
+
+        @Override
+        public void loopEnd() {
+            visited.add(Collections.singletonList(Loop.END));
+        }
+
+        @Override
+        public void procedureStart(int name, int parameters, int parameterSlots) {
+            visited.add(
+                    Arrays.asList("procedureStart", constant(name), constant(parameters), constant(parameterSlots)));
+        }
+
+        @Override
+        public void procedureEnd() {
+            visited.add(Collections.singletonList(Procedure.END));
+        }
+
+        @Override
+        public void procedureCall(int template, int arguments, int templateSlot, int argumentsSlot) {
+            visited.add(Arrays.asList(
+                    "procedureCall", constant(template), constant(arguments), templateSlot, argumentsSlot));
+        }
+
+        @Override
+        public void outputAttribute(
+                int name, int value, int escapedValue, char quoteChar, int valueSlot, int escapedValueSlot) {
+            visited.add(Arrays.asList(
+                    "outputAttribute",
+                    constant(name),
+                    constant(value),
+                    constant(escapedValue),
+                    quoteChar,
+                    valueSlot,
+                    escapedValueSlot));
+        }
+
+        @Override
+        public void segmentStart(int liveVariables) {
+            visited.add(Arrays.asList("segmentStart", constant(liveVariables)));
+        }
+
+        @Override
+        public void segmentEnd() {
+            visited.add(Collections.singletonList(Segment.END));
+        }
+
+        @Override
+        public void flush() {
+            visited.add(Collections.singletonList(Flush.INSTANCE));
+        }
+    }
+}
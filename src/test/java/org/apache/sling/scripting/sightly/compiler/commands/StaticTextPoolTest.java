@@ -0,0 +1,144 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.compiler.commands;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class StaticTextPoolTest {
+
+    @Test
+    public void testCapacity() {
+        assertEquals(2, new StaticTextPool(2).getCapacity());
+        for (int capacity : new int[] {0, -1}) {
+            try {
+                new StaticTextPool(capacity);
+                fail("Expected an IllegalArgumentException for the capacity " + capacity);
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage().contains(String.valueOf(capacity)));
+            }
+        }
+    }
+
+    @Test
+    public void testIds() {
+        StaticTextPool pool = new StaticTextPool(3);
+        assertEquals(0, pool.size());
+        OutText first = pool.intern("first");
+        OutText second = pool.intern("second");
+        assertEquals(0, first.getPoolId());
+        assertEquals(1, second.getPoolId());
+        assertEquals("first", first.getText());
+        assertSame(first, pool.intern("first"));
+        assertSame(first, pool.intern(new String("first")));
+        assertSame(second, pool.get(1));
+        assertEquals(2, pool.size());
+        assertEquals(-1, new OutText("first").getPoolId());
+    }
+
+    @Test
+    public void testFullPool() {
+        StaticTextPool pool = new StaticTextPool(1);
+        OutText pooled = pool.intern("pooled");
+        OutText unpooled = pool.intern("unpooled");
+        assertEquals(-1, unpooled.getPoolId());
+        assertEquals("unpooled", unpooled.getText());
+        // the texts which don't fit are not retained, while the pooled ones are still shared
+        assertNotSame(unpooled, pool.intern("unpooled"));
+        assertSame(pooled, pool.intern("pooled"));
+        assertEquals(1, pool.size());
+    }
+
+    @Test
+    public void testMissingIds() {
+        StaticTextPool pool = new StaticTextPool(2);
+        pool.intern("text");
+        for (int id : new int[] {-1, 1, 2}) {
+            try {
+                pool.get(id);
+                fail("Expected an IndexOutOfBoundsException for the id " + id);
+            } catch (IndexOutOfBoundsException e) {
+                assertTrue(e.getMessage().contains(String.valueOf(id)));
+            }
+        }
+    }
+
+    @Test
+    public void testConcurrentInterning() throws Exception {
+        final int threads = 8;
+        final int texts = 64;
+        final StaticTextPool pool = new StaticTextPool(texts / 2);
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<List<OutText>>> futures = new ArrayList<>();
+            for (int thread = 0; thread < threads; thread++) {
+                futures.add(executor.submit(new Callable<List<OutText>>() {
+                    @Override
+                    public List<OutText> call() throws Exception {
+                        start.await();
+                        List<OutText> interned = new ArrayList<>();
+                        for (int text = 0; text < texts; text++) {
+                            interned.add(pool.intern("text" + text));
+                        }
+                        return interned;
+                    }
+                }));
+            }
+            start.countDown();
+            List<OutText> expected = futures.get(0).get();
+            for (Future<List<OutText>> future : futures) {
+                List<OutText> interned = future.get();
+                for (int text = 0; text < texts; text++) {
+                    if (expected.get(text).getPoolId() >= 0) {
+                        assertSame(expected.get(text), interned.get(text));
+                    } else {
+                        assertEquals(-1, interned.get(text).getPoolId());
+                    }
+                }
+            }
+            Set<Integer> ids = new HashSet<>();
+            for (OutText outText : expected) {
+                if (outText.getPoolId() >= 0) {
+                    assertTrue(ids.add(outText.getPoolId()));
+                    assertSame(outText, pool.get(outText.getPoolId()));
+                }
+            }
+            assertEquals(pool.getCapacity(), ids.size());
+            assertEquals(pool.getCapacity(), pool.size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
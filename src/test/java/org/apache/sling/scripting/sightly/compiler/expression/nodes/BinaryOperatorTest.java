@@ -20,6 +20,7 @@ package org.apache.sling.scripting.sightly.compiler.expression.nodes;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 
 import org.apache.sling.scripting.sightly.compiler.SightlyCompilerException;
 import org.apache.sling.scripting.sightly.testobjects.TestEnum;
@@ -30,6 +31,7 @@ import org.junit.runners.Parameterized;
 import org.junit.runners.Parameterized.Parameters;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 
 @RunWith(Enclosed.class)
 public class BinaryOperatorTest {
@@ -145,4 +147,147 @@ public class BinaryOperatorTest {
             BinaryOperator.lt(left, right);
         }
     }
+
+    public static class NumericSpecialisation {
+
+        private static final int ITERATIONS = 10000;
+        private static final double[] SPECIAL_VALUES = {
+            0.0,
+            -0.0,
+            1.0,
+            -1.0,
+            0.5,
+            Double.NaN,
+            Double.POSITIVE_INFINITY,
+            Double.NEGATIVE_INFINITY,
+            Double.MAX_VALUE,
+            Double.MIN_VALUE,
+            Integer.MAX_VALUE,
+            Integer.MIN_VALUE,
+            Long.MAX_VALUE,
+            1e20
+        };
+
+        private final Random random = new Random(1234567890L);
+
+        @Test
+        public void testFloatingPointArithmetic() {
+            BinaryOperator[] operators = {BinaryOperator.ADD, BinaryOperator.SUB, BinaryOperator.MUL, BinaryOperator.DIV
+            };
+            for (int i = 0; i < ITERATIONS; i++) {
+                Number left = randomNumber();
+                Number right = randomNumber();
+                for (BinaryOperator operator : operators) {
+                    assertEquals(
+                            operator + " " + left + ", " + right,
+                            operator.eval(left, right),
+                            BinaryOperator.adjust(operator.evalDouble(left.doubleValue(), right.doubleValue())));
+                }
+            }
+        }
+
+        @Test
+        public void testIntegerArithmetic() {
+            BinaryOperator[] operators = {BinaryOperator.I_DIV, BinaryOperator.REM};
+            for (int i = 0; i < ITERATIONS; i++) {
+                Number left = randomNumber();
+                Number right = randomNumber();
+                for (BinaryOperator operator : operators) {
+                    Object expected;
+                    try {
+                        expected = operator.eval(left, right);
+                    } catch (ArithmeticException e) {
+                        expected = e.getClass();
+                    }
+                    Object actual;
+                    try {
+                        actual = operator.evalInt(left.intValue(), right.intValue());
+                    } catch (ArithmeticException e) {
+                        actual = e.getClass();
+                    }
+                    assertEquals(operator + " " + left + ", " + right, expected, actual);
+                }
+            }
+        }
+
+        @Test
+        public void testComparisons() {
+            BinaryOperator[] operators = {
+                BinaryOperator.LT,
+                BinaryOperator.LEQ,
+                BinaryOperator.GT,
+                BinaryOperator.GEQ,
+                BinaryOperator.STRICT_EQ,
+                BinaryOperator.STRICT_NEQ
+            };
+            for (int i = 0; i < ITERATIONS; i++) {
+                Number left = randomNumber();
+                Number right = random.nextInt(10) == 0 ? left : randomNumber();
+                for (BinaryOperator operator : operators) {
+                    assertEquals(
+                            operator + " " + left + ", " + right,
+                            operator.eval(left, right),
+                            operator.evalBoolean(left.doubleValue(), right.doubleValue()));
+                }
+            }
+        }
+
+        @Test
+        public void testUnsupportedSpecialisations() {
+            for (BinaryOperator operator : BinaryOperator.values()) {
+                assertSupported(operator, "evalDouble", () -> operator.evalDouble(1, 2));
+                assertSupported(operator, "evalInt", () -> operator.evalInt(1, 2));
+                assertSupported(operator, "evalBoolean", () -> operator.evalBoolean(1, 2));
+            }
+        }
+
+        private void assertSupported(BinaryOperator operator, String method, Runnable invocation) {
+            boolean supported;
+            switch (method) {
+                case "evalDouble":
+                    supported = operator == BinaryOperator.ADD
+                            || operator == BinaryOperator.SUB
+                            || operator == BinaryOperator.MUL
+                            || operator == BinaryOperator.DIV;
+                    break;
+                case "evalInt":
+                    supported = operator == BinaryOperator.I_DIV || operator == BinaryOperator.REM;
+                    break;
+                default:
+                    supported = operator == BinaryOperator.LT
+                            || operator == BinaryOperator.LEQ
+                            || operator == BinaryOperator.GT
+                            || operator == BinaryOperator.GEQ
+                            || operator == BinaryOperator.STRICT_EQ
+                            || operator == BinaryOperator.STRICT_NEQ;
+            }
+            try {
+                invocation.run();
+                if (!supported) {
+                    fail("Expected " + operator + "." + method + " to be unsupported.");
+                }
+            } catch (UnsupportedOperationException e) {
+                if (supported) {
+                    fail("Expected " + operator + "." + method + " to be supported.");
+                }
+            }
+        }
+
+        private Number randomNumber() {
+            switch (random.nextInt(6)) {
+                case 0:
+                    return SPECIAL_VALUES[random.nextInt(SPECIAL_VALUES.length)];
+                case 1:
+                    return random.nextInt(21) - 10;
+                case 2:
+                    return random.nextInt();
+                case 3:
+                    return random.nextLong();
+                case 4:
+                    return random.nextFloat() * 100;
+                default:
+                    return (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(12));
+            }
+        }
+    }
 }
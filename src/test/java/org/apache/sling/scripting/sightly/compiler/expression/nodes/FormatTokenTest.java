@@ -0,0 +1,76 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.compiler.expression.nodes;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FormatTokenTest {
+
+    @Test
+    public void testParse() {
+        assertEquals(
+                Arrays.asList(
+                        FormatToken.text("a "),
+                        FormatToken.argument(1),
+                        FormatToken.argument(0),
+                        FormatToken.text(" {b} "),
+                        FormatToken.argument(12)),
+                FormatToken.parse("a {1}{0} {b} {12}", null));
+        assertEquals(Collections.singletonList(FormatToken.argument(0)), FormatToken.parse("{0}", "string"));
+        // an explicit string type doesn't need placeholders
+        assertEquals(Collections.singletonList(FormatToken.text("a")), FormatToken.parse("a", "string"));
+        assertEquals(Collections.emptyList(), FormatToken.parse("", "string"));
+    }
+
+    @Test
+    public void testRuntimeFormattedPatterns() {
+        assertNull(FormatToken.parse("#.##", "number"));
+        assertNull(FormatToken.parse("yyyy-MM-dd", "date"));
+        // without placeholders the runtime guesses the formatting type from the formatted object
+        assertNull(FormatToken.parse("yyyy-MM-dd", null));
+        assertNull(FormatToken.parse("{0,number}", "string"));
+        assertNull(FormatToken.parse("{0} { 1 , date}", null));
+    }
+
+    @Test
+    public void testTokens() {
+        FormatToken text = FormatToken.text("a");
+        assertFalse(text.isArgument());
+        assertEquals("a", text.getText());
+        assertEquals(-1, text.getArgumentIndex());
+        FormatToken argument = FormatToken.argument(2);
+        assertTrue(argument.isArgument());
+        assertNull(argument.getText());
+        assertEquals(2, argument.getArgumentIndex());
+        assertFalse(FormatToken.text("2").equals(argument));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeArgumentIndex() {
+        FormatToken.argument(-1);
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.impl.compiler;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.sling.scripting.sightly.compiler.CancellationToken;
+import org.apache.sling.scripting.sightly.compiler.CompilationBudget;
+import org.apache.sling.scripting.sightly.compiler.SightlyCompilerException;
+import org.apache.sling.scripting.sightly.compiler.commands.Command;
+import org.apache.sling.scripting.sightly.compiler.commands.CommandHandler;
+import org.apache.sling.scripting.sightly.compiler.commands.CommandStream;
+import org.apache.sling.scripting.sightly.compiler.commands.OutText;
+import org.apache.sling.scripting.sightly.compiler.expression.Expression;
+import org.apache.sling.scripting.sightly.compiler.expression.ExpressionNode;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.BinaryOperation;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.BinaryOperator;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.Identifier;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.PropertyAccess;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.StringConstant;
+import org.apache.sling.scripting.sightly.impl.compiler.optimization.StreamTransformer;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CompilationMonitorTest {
+
+    @Test
+    public void testUnbounded() {
+        assertTrue(CompilationMonitor.UNBOUNDED.isUnbounded());
+        assertFalse(new CompilationMonitor(CompilationBudget.UNLIMITED, new CancellationToken()).isUnbounded());
+        assertFalse(new CompilationMonitor(CompilationBudget.UNLIMITED.withMaxCommands(1), null).isUnbounded());
+        for (int i = 0; i < 1000; i++) {
+            CompilationMonitor.UNBOUNDED.onEmit(new OutText("text"));
+        }
+    }
+
+    @Test
+    public void testMaxCommands() {
+        CompilationMonitor monitor = new CompilationMonitor(CompilationBudget.UNLIMITED.withMaxCommands(2), null);
+        monitor.onEmit(new OutText("a"));
+        monitor.onEmit(new OutText("b"));
+        assertViolation("more than the limit of 2 commands", () -> monitor.onEmit(new OutText("c")));
+    }
+
+    @Test
+    public void testCancellation() {
+        CancellationToken cancellationToken = new CancellationToken();
+        CompilationMonitor monitor = new CompilationMonitor(CompilationBudget.UNLIMITED, cancellationToken);
+        monitor.checkpoint();
+        monitor.onEmit(new OutText("a"));
+        cancellationToken.cancel();
+        assertViolation("cancelled", monitor::checkpoint);
+        assertViolation("cancelled", () -> monitor.onEmit(new OutText("b")));
+    }
+
+    @Test
+    public void testTimeout() throws InterruptedException {
+        new CompilationMonitor(CompilationBudget.UNLIMITED.withTimeout(1, TimeUnit.HOURS), null).checkpoint();
+        CompilationMonitor monitor =
+                new CompilationMonitor(CompilationBudget.UNLIMITED.withTimeout(1, TimeUnit.MILLISECONDS), null);
+        Thread.sleep(5);
+        assertViolation("time limit of 1 ms", monitor::checkpoint);
+    }
+
+    @Test
+    public void testNestingDepth() {
+        CompilationMonitor monitor = new CompilationMonitor(CompilationBudget.UNLIMITED.withMaxNestingDepth(2), null);
+        monitor.checkNestingDepth(2, "<p>");
+        SightlyCompilerException e = assertViolation(
+                "nested deeper than the limit of 2 elements", () -> monitor.checkNestingDepth(3, "<p>"));
+        assertEquals("<p>", e.getOffendingInput());
+        CompilationMonitor.UNBOUNDED.checkNestingDepth(Integer.MAX_VALUE, "<p>");
+    }
+
+    @Test
+    public void testExpressionSize() {
+        // a.b || 'c' has 5 nodes: the operation, the property access, its target and property, and the constant
+        ExpressionNode root = new BinaryOperation(
+                BinaryOperator.OR, new PropertyAccess(new Identifier("a"), "b"), new StringConstant("c"));
+        CompilationMonitor monitor = new CompilationMonitor(CompilationBudget.UNLIMITED.withMaxExpressionSize(5), null);
+        monitor.checkExpression(new Expression(root), "${a.b || 'c'}");
+        // the options count too
+        Map<String, ExpressionNode> options = new HashMap<>();
+        options.put("context", new StringConstant("text"));
+        SightlyCompilerException e = assertViolation(
+                "has 6 nodes, exceeding the limit of 5 nodes",
+                () -> monitor.checkExpression(new Expression(root, options), "${a.b || 'c' @ context='text'}"));
+        assertEquals("${a.b || 'c' @ context='text'}", e.getOffendingInput());
+        CompilationMonitor.UNBOUNDED.checkExpression(new Expression(root, options), "");
+    }
+
+    @Test
+    public void testCheckedTransformer() {
+        CancellationToken cancellationToken = new CancellationToken();
+        CompilationMonitor monitor = new CompilationMonitor(CompilationBudget.UNLIMITED, cancellationToken);
+        StreamTransformer identity = new StreamTransformer() {
+            @Override
+            public CommandStream transform(CommandStream inStream) {
+                return inStream;
+            }
+        };
+        PushStream stream = new PushStream();
+        CommandStream outStream = monitor.checked(identity).transform(stream);
+        final String[] errorMessage = new String[1];
+        outStream.addHandler(new CommandHandler() {
+            @Override
+            public void onEmit(Command command) {}
+
+            @Override
+            public void onError(String message) {
+                errorMessage[0] = message;
+            }
+
+            @Override
+            public void onDone() {}
+        });
+        Command text = new OutText("a");
+        stream.write(text);
+        assertEquals(Collections.singletonList(text), outStream.getCommands());
+        cancellationToken.cancel();
+        assertViolation("cancelled", () -> stream.write(new OutText("b")));
+        assertEquals(Collections.singletonList(text), outStream.getCommands());
+        // the errors of the checked stream are passed through
+        stream.signalError("failure");
+        assertEquals("failure", errorMessage[0]);
+    }
+
+    private static SightlyCompilerException assertViolation(String message, Runnable check) {
+        try {
+            check.run();
+            fail("Expected a SightlyCompilerException: " + message);
+            return null;
+        } catch (SightlyCompilerException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(message));
+            return e;
+        }
+    }
+}
@@ -18,26 +18,81 @@
  */
 package org.apache.sling.scripting.sightly.impl.compiler;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
+import org.apache.sling.scripting.sightly.compiler.CancellationToken;
+import org.apache.sling.scripting.sightly.compiler.CompilationBudget;
 import org.apache.sling.scripting.sightly.compiler.CompilationResult;
 import org.apache.sling.scripting.sightly.compiler.CompilationUnit;
+import org.apache.sling.scripting.sightly.compiler.CompileTimeEscaper;
 import org.apache.sling.scripting.sightly.compiler.CompilerMessage;
 import org.apache.sling.scripting.sightly.compiler.SightlyCompiler;
+import org.apache.sling.scripting.sightly.compiler.SightlyCompilerOptions;
+import org.apache.sling.scripting.sightly.compiler.backend.BackendCompiler;
+import org.apache.sling.scripting.sightly.compiler.backend.InterpreterRuntime;
+import org.apache.sling.scripting.sightly.compiler.backend.InterpretingBackendCompiler;
+import org.apache.sling.scripting.sightly.compiler.commands.AbstractCommandVisitor;
 import org.apache.sling.scripting.sightly.compiler.commands.Command;
+import org.apache.sling.scripting.sightly.compiler.commands.CommandCursor;
+import org.apache.sling.scripting.sightly.compiler.commands.CommandHandler;
+import org.apache.sling.scripting.sightly.compiler.commands.CommandStream;
+import org.apache.sling.scripting.sightly.compiler.commands.CompactCommands;
+import org.apache.sling.scripting.sightly.compiler.commands.Conditional;
+import org.apache.sling.scripting.sightly.compiler.commands.Flush;
+import org.apache.sling.scripting.sightly.compiler.commands.Loop;
+import org.apache.sling.scripting.sightly.compiler.commands.OutText;
+import org.apache.sling.scripting.sightly.compiler.commands.OutputAttribute;
+import org.apache.sling.scripting.sightly.compiler.commands.OutputVariable;
+import org.apache.sling.scripting.sightly.compiler.commands.Procedure;
+import org.apache.sling.scripting.sightly.compiler.commands.Segment;
+import org.apache.sling.scripting.sightly.compiler.commands.StaticTextPool;
 import org.apache.sling.scripting.sightly.compiler.commands.VariableBinding;
 import org.apache.sling.scripting.sightly.compiler.expression.ExpressionNode;
+import org.apache.sling.scripting.sightly.compiler.expression.ExpressionType;
+import org.apache.sling.scripting.sightly.compiler.expression.MarkupContext;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.BinaryOperation;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.BinaryOperator;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.Concatenation;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.Identifier;
 import org.apache.sling.scripting.sightly.compiler.expression.nodes.MapLiteral;
 import org.apache.sling.scripting.sightly.compiler.expression.nodes.RuntimeCall;
 import org.apache.sling.scripting.sightly.compiler.expression.nodes.StringConstant;
+import org.apache.sling.scripting.sightly.impl.compiler.optimization.VariableFinder;
+import org.apache.sling.scripting.sightly.impl.compiler.util.SingleFlight;
+import org.apache.sling.scripting.sightly.impl.compiler.util.expression.NodeTransformer;
+import org.apache.sling.scripting.sightly.render.AbstractRuntimeObjectModel;
+import org.apache.sling.scripting.sightly.render.RuntimeObjectModel;
 import org.junit.Test;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class SightlyCompilerTest {
 
@@ -238,6 +293,867 @@ public class SightlyCompilerTest {
         assertTrue(secondArgument instanceof MapLiteral);
     }
 
+    @Test
+    public void testVariableBindingTypes() {
+        CompilationResult compilationResult = compileSource(
+                "<span data-sly-test.cond=\"${properties.a > 1}\">${cond ? properties.b : properties.c @ context='text'}</span>");
+        assertEquals(0, compilationResult.getErrors().size());
+        Map<String, ExpressionType> types = new HashMap<>();
+        for (Command command : compilationResult.getCommandStream().getCommands()) {
+            if (command instanceof VariableBinding.Start) {
+                VariableBinding.Start start = (VariableBinding.Start) command;
+                if (start.getExpression() instanceof RuntimeCall) {
+                    types.put(((RuntimeCall) start.getExpression()).getFunctionName(), start.getType());
+                } else {
+                    types.put(start.getVariableName(), start.getType());
+                }
+            } else if (command instanceof VariableBinding.Global) {
+                VariableBinding.Global global = (VariableBinding.Global) command;
+                types.put(global.getVariableName(), global.getType());
+            }
+        }
+        assertEquals(ExpressionType.BOOLEAN, types.get("cond"));
+        // the runtime functions can return any value
+        assertEquals(ExpressionType.UNKNOWN, types.get(RuntimeCall.XSS));
+    }
+
+    @Test
+    public void testGlobalConstants() {
+        String source = "<div data-sly-test=\"${wcmmode.edit}\">edit</div>"
+                + "<div data-sly-test.preview=\"${wcmmode.preview}\">preview</div>"
+                + "<div data-sly-test=\"${!wcmmode.edit}\">${wcmmode.label}</div>";
+        Map<String, Object> publish = new HashMap<>();
+        publish.put("edit", false);
+        publish.put("preview", false);
+        publish.put("label", "publish");
+        String output = getOutput(compiler.compile(
+                compilationUnit(source), null, Collections.<String, Object>singletonMap("wcmmode", publish)));
+        assertTrue(output.matches("<div>\\$\\{[^}]+}</div>"));
+
+        String unspecialised = getOutput(compileSource(source));
+        assertTrue(unspecialised.contains("edit"));
+        assertTrue(unspecialised.contains("preview"));
+    }
+
+    @Test
+    public void testShadowedGlobalConstants() {
+        String source = "<sly data-sly-set.flag=\"${properties.flag}\"/><div data-sly-test=\"${flag}\">flag</div>"
+                + "<template data-sly-template.t=\"${@ enabled}\"><p data-sly-test=\"${enabled}\">enabled</p></template>";
+        Map<String, Object> constants = new HashMap<>();
+        constants.put("flag", false);
+        constants.put("enabled", false);
+        String output = getOutput(compiler.compile(compilationUnit(source), null, constants));
+        assertTrue(output.contains("flag"));
+        assertTrue(output.contains("enabled"));
+    }
+
+    @Test
+    public void testReassignedGlobalConstants() {
+        Map<String, Object> constants = Collections.<String, Object>singletonMap("x", false);
+        assertFalse(getOutput(compiler.compile(compilationUnit("<p data-sly-test=\"${x}\">kept</p>"), null, constants))
+                .contains("kept"));
+        // the assignment is observed by the test in the next iterations
+        String loop =
+                "<sly data-sly-list=\"${items}\"><p data-sly-test=\"${x}\">kept</p><sly data-sly-set.x=\"${true}\"/></sly>";
+        assertTrue(getOutput(compiler.compile(compilationUnit(loop), null, constants))
+                .contains("kept"));
+        // the template is called after the assignment
+        String template = "<template data-sly-template.t><p data-sly-test=\"${x}\">kept</p></template>"
+                + "<sly data-sly-set.x=\"${true}\"/><sly data-sly-call=\"${t}\"/>";
+        assertTrue(getOutput(compiler.compile(compilationUnit(template), null, constants))
+                .contains("kept"));
+    }
+
+    @Test
+    public void testCompileVariants() {
+        Map<String, Map<String, Object>> variants = new LinkedHashMap<>();
+        variants.put("author", Collections.<String, Object>singletonMap("author", true));
+        variants.put("publish", Collections.<String, Object>singletonMap("author", false));
+        Map<String, CompilationResult> results = compiler.compileVariants(
+                compilationUnit("<div data-sly-test=\"${author}\">author</div><p>common</p>"),
+                variants,
+                Collections.<String, BackendCompiler>emptyMap());
+        assertEquals(2, results.size());
+        assertEquals("<div>author</div><p>common</p>", getOutput(results.get("author")));
+        assertEquals("<p>common</p>", getOutput(results.get("publish")));
+    }
+
+    @Test
+    public void testConditionalConstantPropagation() {
+        CompilationResult compilationResult =
+                compileSource("<div data-sly-test=\"${x}\"><p data-sly-test=\"${x}\">a</p>"
+                        + "<p data-sly-test=\"${!x}\">b</p>${x ? 'yes' : 'no' @ context='text'}</div>");
+        assertEquals("<div><p>a</p>${var_3}</div>", getOutput(compilationResult));
+        int conditionals = 0;
+        for (Command command : compilationResult.getCommandStream().getCommands()) {
+            if (command instanceof Conditional.Start) {
+                conditionals++;
+            } else if (command instanceof VariableBinding.Start
+                    && ((VariableBinding.Start) command).getExpression() instanceof RuntimeCall) {
+                RuntimeCall runtimeCall = (RuntimeCall) ((VariableBinding.Start) command).getExpression();
+                assertEquals("yes", ((StringConstant) runtimeCall.getArguments().get(0)).getText());
+            }
+        }
+        assertEquals(1, conditionals);
+    }
+
+    @Test
+    public void testConditionalConstantPropagationScopes() {
+        // the global variable could have been re-assigned by a previous iteration
+        String loop = getOutput(compileSource("<sly data-sly-test.g=\"${x}\"><div data-sly-list=\"${items}\">"
+                + "<p data-sly-test=\"${g}\">a</p><sly data-sly-set.g=\"${false}\"/></div></sly>"));
+        assertTrue(loop.contains("<p>a</p>"));
+        // templates are not executed where they are defined
+        CompilationResult template =
+                compileSource("<sly data-sly-test=\"${x}\"><template data-sly-template.t=\"${@ a}\">"
+                        + "<p data-sly-test=\"${x}\">a</p></template></sly>");
+        int conditionals = 0;
+        for (Command command : template.getCommandStream().getCommands()) {
+            if (command instanceof Conditional.Start) {
+                conditionals++;
+            }
+        }
+        assertEquals(2, conditionals);
+    }
+
+    @Test
+    public void testCompileTimeEscaping() {
+        SightlyCompiler escapingCompiler = SightlyCompiler.withOptions(
+                SightlyCompilerOptions.DEFAULT.withCompileTimeEscaper(new CompileTimeEscaper() {
+                    @Override
+                    public String escape(String text, MarkupContext context, String hint) {
+                        if (context == MarkupContext.TEXT) {
+                            return text.replace("<", "&lt;").replace(">", "&gt;");
+                        }
+                        return null;
+                    }
+                }));
+        String source = "<p title=\"${'a' @ context='attribute'}\">${'<b>' @ context='text'}</p>"
+                + "<p>${'<i>' @ context='unsafe'}</p>";
+        String output = getOutput(escapingCompiler.compile(compilationUnit(source)));
+        assertTrue(output, output.matches("<p title=\"\\$\\{var_\\w+}\">&lt;b&gt;</p><p>\\$\\{var_\\w+}</p>"));
+    }
+
+    @Test
+    public void testConcatenation() {
+        SightlyCompiler escapingCompiler = SightlyCompiler.withOptions(
+                SightlyCompilerOptions.DEFAULT.withCompileTimeEscaper((text, context, hint) -> text));
+        CompilationResult result = escapingCompiler.compile(compilationUnit("<p class=\"a ${b} c ${'d'} e\"></p>"));
+        assertEquals(0, result.getErrors().size());
+        Concatenation concatenation = null;
+        for (Command command : result.getCommandStream().getCommands()) {
+            if (command instanceof VariableBinding.Start
+                    && ((VariableBinding.Start) command).getExpression() instanceof Concatenation) {
+                concatenation = (Concatenation) ((VariableBinding.Start) command).getExpression();
+            }
+        }
+        assertNotNull(concatenation);
+        List<ExpressionNode> operands = concatenation.getOperands();
+        assertEquals(3, operands.size());
+        assertConstant("a ", operands.get(0));
+        assertRuntimeCall(RuntimeCall.XSS, operands.get(1));
+        assertConstant(" c d e", operands.get(2));
+        BinaryOperation lowered = concatenation.toBinaryOperation();
+        assertEquals(BinaryOperator.CONCATENATE, lowered.getOperator());
+        assertTrue(lowered.getLeftOperand() instanceof BinaryOperation);
+        // visitors without support for concatenations evaluate the lowered operations
+        assertEquals(Collections.singleton("b"), VariableFinder.findVariables(concatenation));
+    }
+
+    @Test
+    public void testOutputAttribute() throws IOException {
+        CompilationResult result =
+                compileSource("<p class=\"${properties.a}\" data-sly-attribute.title=\"${properties.b}\"></p>");
+        List<OutputAttribute> attributes = new ArrayList<>();
+        for (Command command : result.getCommandStream().getCommands()) {
+            if (command instanceof OutputAttribute) {
+                attributes.add((OutputAttribute) command);
+            }
+        }
+        assertEquals(2, attributes.size());
+        assertEquals("class", attributes.get(0).getName());
+        assertEquals("title", attributes.get(1).getName());
+
+        // visitors without support for the command process its lowered form
+        final StringBuilder text = new StringBuilder();
+        final List<String> outputVariables = new ArrayList<>();
+        attributes.get(0).accept(new AbstractCommandVisitor() {
+            @Override
+            public void visit(OutText outText) {
+                text.append(outText.getText());
+            }
+
+            @Override
+            public void visit(OutputVariable outputVariable) {
+                outputVariables.add(outputVariable.getVariableName());
+            }
+        });
+        assertEquals(" class=\"\"", text.toString());
+        assertEquals(Collections.singletonList(attributes.get(0).getEscapedValueVariable()), outputVariables);
+
+        Map<String, Object> bindings = new HashMap<>();
+        bindings.put("a", "x");
+        bindings.put("b", "y");
+        bindings.put("m", "m");
+        bindings.put("empty", "");
+        bindings.put("yes", true);
+        assertEquals(
+                "<p class=\"x\" title=\"y\" lang></p>",
+                render(
+                        "<p class=\"${a}\" title=\"${m}\" lang=\"${yes}\" data-sly-attribute.title=\"${b}\"></p>",
+                        bindings));
+        // data-sly-attribute replaces the value of a displayable attribute from the markup
+        assertEquals(
+                "<p title=\"y\"></p>", render("<p title=\"${m}\" data-sly-attribute.title=\"${b}\"></p>", bindings));
+        assertEquals("<p title></p>", render("<p title=\"${m}\" data-sly-attribute.title=\"${yes}\"></p>", bindings));
+        assertEquals("<p></p>", render("<p title=\"${empty}\" data-sly-attribute.title=\"${b}\"></p>", bindings));
+        assertEquals("<p></p>", render("<p title=\"${m}\" data-sly-attribute.title=\"${empty}\"></p>", bindings));
+
+        SightlyCompiler escapingCompiler = SightlyCompiler.withOptions(
+                SightlyCompilerOptions.DEFAULT.withCompileTimeEscaper((value, context, hint) -> value));
+        String output = getOutput(escapingCompiler.compile(
+                compilationUnit("<p value=\"${'v'}\" title=\"${''}\" disabled=\"${properties.disabled}\"></p>")));
+        assertTrue(output, output.matches("<p value=\"v\" disabled=\"\\$\\{var_\\w+}\"></p>"));
+    }
+
+    @Test
+    public void testSegmentation() {
+        StringBuilder source = new StringBuilder("<div data-sly-list=\"${items}\">");
+        for (int i = 0; i < 200; i++) {
+            source.append("<p class=\"c").append(i).append(" ${item.a}\">${item.b}</p>");
+        }
+        source.append("</div>");
+        CompilationResult result = compileSource(source.toString());
+        int segments = 0;
+        int depth = 0;
+        for (Command command : result.getCommandStream().getCommands()) {
+            if (command instanceof Segment.Start) {
+                assertEquals(0, depth++);
+                assertEquals(Collections.singleton("item"), ((Segment.Start) command).getLiveVariables());
+                segments++;
+            } else if (command instanceof Segment.End) {
+                assertEquals(1, depth--);
+            }
+        }
+        assertEquals(0, depth);
+        assertTrue(String.valueOf(segments), segments > 1);
+
+        for (Command command :
+                compileSource("<p class=\"${a}\">${b}</p>").getCommandStream().getCommands()) {
+            assertFalse(command instanceof Segment.Start);
+        }
+    }
+
+    @Test
+    public void testFlushPoints() {
+        List<Command> commands = compileSource(
+                        "<html><head><title>${title}</title></head><body>${content}</body></html>")
+                .getCommandStream()
+                .getCommands();
+        int flushIndex = commands.indexOf(Flush.INSTANCE);
+        assertTrue(flushIndex > 0);
+        assertEquals("</title></head><body>", ((OutText) commands.get(flushIndex - 1)).getText());
+        assertEquals(flushIndex, commands.lastIndexOf(Flush.INSTANCE));
+
+        commands = compileSource("<html><head data-sly-test=\"${test}\"></head><body></body></html>")
+                .getCommandStream()
+                .getCommands();
+        assertFalse(commands.contains(Flush.INSTANCE));
+    }
+
+    @Test
+    public void testEncodedText() throws IOException {
+        List<Command> commands = compileSource("<p title=\"\u00e9t\u00e9\">\u2713</p>")
+                .getCommandStream()
+                .getCommands();
+        assertEquals(1, commands.size());
+        OutText outText = (OutText) commands.get(0);
+        byte[] expected = "<p title=\"\u00e9t\u00e9\">\u2713</p>".getBytes(StandardCharsets.UTF_8);
+        assertArrayEquals(expected, outText.getEncodedText());
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        outText.writeTo(outputStream);
+        outText.writeTo(outputStream);
+        assertEquals(2 * expected.length, outputStream.size());
+    }
+
+    @Test
+    public void testStaticTextPool() {
+        assertNull(compiler.getStaticTextPool());
+        assertEquals(
+                -1,
+                ((OutText) compileSource("<div></div>")
+                                .getCommandStream()
+                                .getCommands()
+                                .get(0))
+                        .getPoolId());
+
+        StaticTextPool pool = new StaticTextPool(3);
+        SightlyCompiler poolingCompiler =
+                SightlyCompiler.withOptions(SightlyCompilerOptions.DEFAULT.withStaticTextPool(pool));
+        assertSame(pool, poolingCompiler.getStaticTextPool());
+        OutText first = (OutText) poolingCompiler
+                .compile(compilationUnit("<div class=\"pooled\"></div>"))
+                .getCommandStream()
+                .getCommands()
+                .get(0);
+        List<Command> commands = poolingCompiler
+                .compile(compilationUnit("<p>${a}</p><div class=\"pooled\"></div>"))
+                .getCommandStream()
+                .getCommands();
+        OutText second = (OutText) commands.get(commands.size() - 1);
+        assertEquals("</p><div class=\"pooled\"></div>", second.getText());
+        OutText third = (OutText) poolingCompiler
+                .compile(compilationUnit("<div class=\"pooled\"></div>"))
+                .getCommandStream()
+                .getCommands()
+                .get(0);
+        assertSame(first, third);
+        assertNotEquals(first.getPoolId(), second.getPoolId());
+        assertSame(second, pool.get(second.getPoolId()));
+        assertTrue(pool.size() > second.getPoolId());
+    }
+
+    @Test
+    public void testCompactCommands() {
+        List<Command> commands = compileSource(
+                        "<div data-sly-list.item=\"${items}\" data-sly-attribute.title=\"${item}\">"
+                                + "<p data-sly-test=\"${item.visible}\">${item.text}</p></div>"
+                                + "<template data-sly-template.t=\"${@ a}\">${a}</template>"
+                                + "<sly data-sly-call=\"${t @ a=1}\"/>")
+                .getCommandStream()
+                .getCommands();
+        CompactCommands compactCommands = CompactCommands.encode(commands);
+        List<Command> decoded = compactCommands.decode();
+        CompactCommands reencoded = CompactCommands.encode(decoded);
+        assertEquals(commands.size(), decoded.size());
+        int outTexts = 0;
+        int pc = 0;
+        for (int i = 0; i < commands.size(); i++, pc = compactCommands.next(pc)) {
+            assertEquals(commands.get(i).getClass(), decoded.get(i).getClass());
+            for (int operand = 0; operand < CompactCommands.operandCount(compactCommands.opcode(pc)); operand++) {
+                assertEquals(compactCommands.operand(pc, operand), reencoded.operand(pc, operand));
+            }
+            if (compactCommands.opcode(pc) == CompactCommands.OUT_TEXT) {
+                outTexts++;
+                assertEquals(((OutText) commands.get(i)).getText(), compactCommands.string(pc, 0));
+                assertEquals(((OutText) commands.get(i)).getPoolId(), ((OutText) decoded.get(i)).getPoolId());
+            }
+        }
+        assertEquals(compactCommands.length(), pc);
+        assertTrue(outTexts > 0);
+    }
+
+    @Test
+    public void testInterpretingBackend() throws IOException {
+        InterpretingBackendCompiler backendCompiler = new InterpretingBackendCompiler();
+        CompilationResult result = compiler.compile(
+                compilationUnit("<ul data-sly-list=\"${items}\"><li class=\"${item}\">${item}</li></ul>"
+                        + "<p data-sly-test=\"${show}\">shown</p><p data-sly-test=\"${!show}\">hidden</p>"
+                        + "<template data-sly-template.t=\"${@ a}\"><b title=\"${a}\">${a}</b></template>"
+                        + "<sly data-sly-call=\"${t @ a='x'}\"/><sly data-sly-call=\"${other @ a='y'}\"/>"
+                        + "${'{0} of {1}{2}' @ format=items}"),
+                backendCompiler);
+        assertEquals(0, result.getErrors().size());
+        List<String> calls = new ArrayList<>();
+        InterpreterRuntime runtime = new InterpreterRuntime() {
+            @Override
+            public Object call(String functionName, Object... arguments) {
+                calls.add(functionName);
+                return arguments[0];
+            }
+
+            @Override
+            public void callTemplate(Object template, Map<String, Object> arguments, Writer writer) throws IOException {
+                writer.write("[" + template + ":" + arguments.get("a") + "]");
+            }
+        };
+        Map<String, Object> bindings = new HashMap<>();
+        bindings.put("items", Arrays.asList(1, 2));
+        bindings.put("show", true);
+        bindings.put("other", "other");
+        StringWriter writer = new StringWriter();
+        backendCompiler.getScript().render(bindings, writer, runtime);
+        assertEquals(
+                "<ul><li class=\"1\">1</li><li class=\"2\">2</li></ul><p>shown</p><b title=\"x\">x</b>[other:y]1 of 2",
+                writer.toString());
+        assertTrue(calls.contains(RuntimeCall.XSS));
+        // the string patterns are formatted from their compile-time tokens
+        assertFalse(calls.contains(RuntimeCall.FORMAT));
+        assertEquals(
+                Collections.singleton("t"),
+                backendCompiler.getScript().getTemplates().keySet());
+
+        // the identifiers are case-insensitive and the values go through the runtime's object model
+        InterpretingBackendCompiler objectModelBackendCompiler = new InterpretingBackendCompiler();
+        assertEquals(
+                0,
+                compiler.compile(
+                                compilationUnit("<p data-sly-test=\"${Show}\">${page.title}</p>"
+                                        + "<sly data-sly-set.total=\"${2}\"/>${Total} ${'a' in List}"),
+                                objectModelBackendCompiler)
+                        .getErrors()
+                        .size());
+        final Object list = new Object();
+        final RuntimeObjectModel objectModel = new AbstractRuntimeObjectModel() {
+            @Override
+            public Object resolveProperty(Object target, Object property) {
+                return "page".equals(target) ? property + "!" : super.resolveProperty(target, property);
+            }
+
+            @Override
+            public Collection<Object> toCollection(Object object) {
+                return object == list ? Collections.<Object>singletonList("a") : super.toCollection(object);
+            }
+
+            @Override
+            public boolean toBoolean(Object object) {
+                return "yes".equals(object) || super.toBoolean(object);
+            }
+        };
+        Map<String, Object> objectModelBindings = new HashMap<>();
+        objectModelBindings.put("show", "yes");
+        objectModelBindings.put("PAGE", "page");
+        objectModelBindings.put("list", list);
+        writer = new StringWriter();
+        objectModelBackendCompiler.getScript().render(objectModelBindings, writer, new InterpreterRuntime() {
+            @Override
+            public Object call(String functionName, Object... arguments) {
+                return arguments[0];
+            }
+
+            @Override
+            public void callTemplate(Object template, Map<String, Object> arguments, Writer writer) {}
+
+            @Override
+            public RuntimeObjectModel getObjectModel() {
+                return objectModel;
+            }
+        });
+        assertEquals("<p>title!</p>2 true", writer.toString());
+    }
+
+    @Test
+    public void testSlotResolution() {
+        List<Command> commands = compileSource("<div data-sly-list=\"${items @ begin=first}\" title=\"${ITEM}\">${ITEM}"
+                        + "<p data-sly-test=\"${item.visible}\">${global}</p></div>"
+                        + "<template data-sly-template.t=\"${@ b, a}\">${a}</template>"
+                        + "<sly data-sly-call=\"${t @ a=1}\"/>")
+                .getCommandStream()
+                .getCommands();
+        Loop.Start loopStart = null;
+        Procedure.Start procedureStart = null;
+        Procedure.Call procedureCall = null;
+        Conditional.Start conditionalStart = null;
+        OutputAttribute outputAttribute = null;
+        Map<String, Integer> outputSlots = new HashMap<>();
+        Map<String, Integer> identifierSlots = new HashMap<>();
+        for (Command command : commands) {
+            if (command instanceof Loop.Start) {
+                loopStart = (Loop.Start) command;
+            } else if (command instanceof Procedure.Start) {
+                procedureStart = (Procedure.Start) command;
+            } else if (command instanceof Procedure.Call) {
+                procedureCall = (Procedure.Call) command;
+            } else if (command instanceof Conditional.Start) {
+                conditionalStart = (Conditional.Start) command;
+            } else if (command instanceof OutputAttribute) {
+                outputAttribute = (OutputAttribute) command;
+            } else if (command instanceof OutputVariable) {
+                outputSlots.put(((OutputVariable) command).getVariableName(), ((OutputVariable) command).getSlot());
+            } else if (command instanceof VariableBinding.Start) {
+                VariableBinding.Start variableBindingStart = (VariableBinding.Start) command;
+                assertTrue(variableBindingStart.getSlot() >= 0);
+                new NodeTransformer() {
+                    @Override
+                    public ExpressionNode evaluate(Identifier identifier) {
+                        identifierSlots.put(identifier.getName(), identifier.getSlot());
+                        return identifier;
+                    }
+                }.transform(variableBindingStart.getExpression());
+            }
+        }
+        assertNotNull(loopStart);
+        assertNotEquals(loopStart.getItemSlot(), loopStart.getIndexSlot());
+        assertTrue(loopStart.getListSlot() >= 0);
+        assertNotNull(conditionalStart);
+        assertTrue(conditionalStart.getSlot() >= 0);
+        assertNotNull(outputAttribute);
+        assertTrue(outputAttribute.getValueSlot() >= 0);
+        assertTrue(outputAttribute.getEscapedValueSlot() >= 0);
+        assertNotNull(procedureCall);
+        assertTrue(procedureCall.getTemplateSlot() >= 0);
+        assertTrue(procedureCall.getArgumentsSlot() >= 0);
+        assertFalse(outputSlots.isEmpty());
+        for (int slot : outputSlots.values()) {
+            assertTrue(slot >= 0);
+        }
+        assertEquals(Integer.valueOf(loopStart.getItemSlot()), identifierSlots.get("ITEM"));
+        assertEquals(Integer.valueOf(-1), identifierSlots.get("items"));
+        assertNotNull(procedureStart);
+        assertEquals(Integer.valueOf(0), procedureStart.getParameterSlots().get("a"));
+        assertEquals(Integer.valueOf(1), procedureStart.getParameterSlots().get("b"));
+        assertEquals(Integer.valueOf(0), identifierSlots.get("a"));
+    }
+
+    @Test
+    public void testCommandStreamReplay() throws IOException {
+        CommandStream stream =
+                compileSource("<p data-sly-test=\"${show}\">shown</p>").getCommandStream();
+        CommandCursor cursor = stream.cursor();
+        List<Command> pulled = new ArrayList<>();
+        while (cursor.hasNext()) {
+            pulled.add(cursor.next());
+        }
+        assertEquals(stream.getCommands(), pulled);
+        cursor.seek(1);
+        CommandCursor copy = cursor.copy();
+        assertSame(cursor.next(), copy.next());
+        cursor.reset();
+        assertSame(pulled.get(0), cursor.peek());
+
+        Map<String, Object> bindings = Collections.<String, Object>singletonMap("show", true);
+        for (int i = 0; i < 2; i++) {
+            InterpretingBackendCompiler backendCompiler = new InterpretingBackendCompiler();
+            backendCompiler.handle(stream);
+            StringWriter writer = new StringWriter();
+            backendCompiler.getScript().render(bindings, writer, null);
+            assertEquals("<p>shown</p>", writer.toString());
+        }
+    }
+
+    @Test
+    public void testPipelinedCompilation() throws IOException {
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            source.append("<div class=\"item-")
+                    .append(i)
+                    .append("\" data-sly-test=\"${show}\"><p data-sly-list=\"${items}\">${item} ")
+                    .append(i)
+                    .append("</p></div>\n");
+        }
+        SightlyCompiler pipelinedCompiler =
+                SightlyCompiler.withOptions(SightlyCompilerOptions.DEFAULT.withPipelinedCompilation(true));
+        InterpretingBackendCompiler backendCompiler = new InterpretingBackendCompiler();
+        CompilationResult result = pipelinedCompiler.compile(compilationUnit(source.toString()), backendCompiler);
+        assertEquals(getOutput(compileSource(source.toString())), getOutput(result));
+        Map<String, Object> bindings = new HashMap<>();
+        bindings.put("show", true);
+        bindings.put("items", Collections.singletonList("a"));
+        StringWriter writer = new StringWriter();
+        backendCompiler.getScript().render(bindings, writer, new InterpreterRuntime() {
+            @Override
+            public Object call(String functionName, Object... arguments) {
+                return arguments[0];
+            }
+
+            @Override
+            public void callTemplate(Object template, Map<String, Object> arguments, Writer writer) {}
+        });
+        assertTrue(writer.toString().endsWith("<div class=\"item-499\"><p>a 499</p></div>\n"));
+
+        InterpretingBackendCompiler failedBackendCompiler = new InterpretingBackendCompiler();
+        CompilationResult failedResult =
+                pipelinedCompiler.compile(compilationUnit(source + "<p>${'unterminated}</p>"), failedBackendCompiler);
+        assertEquals(1, failedResult.getErrors().size());
+        try {
+            failedBackendCompiler.getScript();
+            fail("Expected the failed compilation to be signalled to the backend.");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testParallelTemplateOptimization() {
+        StringBuilder source = new StringBuilder("<sly data-sly-use.model=\"com.example.Model\"/>\n");
+        for (int i = 0; i < 20; i++) {
+            source.append("<template data-sly-template.t")
+                    .append(i)
+                    .append("=\"${@ a, b}\"><div data-sly-test.visible=\"${a && model}\" class=\"t-")
+                    .append(i)
+                    .append("\"><p data-sly-list=\"${b}\">${item} ${visible}</p></div>")
+                    .append("<sly data-sly-use.model=\"com.example.Other\"/></template>\n")
+                    .append("<sly data-sly-call=\"${t")
+                    .append(i)
+                    .append(" @ a=true, b=model.items}\"/>\n");
+        }
+        List<Command> sequential = SightlyCompiler.withOptions(
+                        SightlyCompilerOptions.DEFAULT.withStaticTextPool(new StaticTextPool(1000)))
+                .compile(compilationUnit(source.toString()))
+                .getCommandStream()
+                .getCommands();
+        CompilationResult result = SightlyCompiler.withOptions(SightlyCompilerOptions.DEFAULT
+                        .withParallelTemplateOptimization(true)
+                        .withStaticTextPool(new StaticTextPool(1000)))
+                .compile(compilationUnit(source.toString()));
+        List<Command> parallel = result.getCommandStream().getCommands();
+        assertEquals(getOutput(compileSource(source.toString())), getOutput(result));
+        assertEquals(sequential.size(), parallel.size());
+        for (int i = 0; i < sequential.size(); i++) {
+            assertEquals(sequential.get(i).getClass(), parallel.get(i).getClass());
+            if (sequential.get(i) instanceof OutText) {
+                assertEquals(((OutText) sequential.get(i)).getPoolId(), ((OutText) parallel.get(i)).getPoolId());
+            }
+        }
+    }
+
+    @Test
+    public void testConcurrentCompilationsAreShared() throws Exception {
+        final String source = "<p data-sly-test=\"${show}\">${'text'}</p>";
+        final CountDownLatch compiling = new CountDownLatch(1);
+        final CountDownLatch joined = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        // the compile-time escaper holds the shared compilation until the second caller has joined it
+        final SightlyCompiler sharingCompiler = SightlyCompiler.withOptions(
+                SightlyCompilerOptions.DEFAULT.withCompileTimeEscaper((text, context, hint) -> {
+                    compiling.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return text;
+                }));
+        Field compilations = SightlyCompiler.class.getDeclaredField("compilations");
+        compilations.setAccessible(true);
+        compilations.set(sharingCompiler, new SingleFlight<>(key -> joined.countDown()));
+        final RuntimeException backendFailure = new IllegalStateException("backend failure");
+        final Throwable[] failures = new Throwable[1];
+        final CompilationResult[] results = new CompilationResult[1];
+        final InterpretingBackendCompiler waitingBackendCompiler = new InterpretingBackendCompiler();
+        Thread first = new Thread(() -> {
+            try {
+                sharingCompiler.compile(compilationUnit(source), stream -> {
+                    throw backendFailure;
+                });
+            } catch (RuntimeException e) {
+                failures[0] = e;
+            }
+        });
+        Thread second =
+                new Thread(() -> results[0] = sharingCompiler.compile(compilationUnit(source), waitingBackendCompiler));
+        first.start();
+        assertTrue(compiling.await(10, TimeUnit.SECONDS));
+        second.start();
+        assertTrue(joined.await(10, TimeUnit.SECONDS));
+        release.countDown();
+        first.join();
+        second.join();
+        // the failing backend compiler of the first caller doesn't affect the second one
+        assertSame(backendFailure, failures[0]);
+        assertNotNull(results[0]);
+        assertEquals(0, results[0].getErrors().size());
+        assertNotNull(waitingBackendCompiler.getScript());
+        assertNotSame(results[0], sharingCompiler.compile(compilationUnit(source)));
+    }
+
+    @Test
+    public void testFailedCompilationStreams() {
+        String source = "<p>${a}</p><p>${a ||}</p>";
+        for (SightlyCompiler failingCompiler : Arrays.asList(
+                compiler, SightlyCompiler.withOptions(SightlyCompilerOptions.DEFAULT.withPipelinedCompilation(true)))) {
+            RecordingHandler backendHandler = new RecordingHandler();
+            CompilationResult result =
+                    failingCompiler.compile(compilationUnit(source), stream -> stream.addHandler(backendHandler));
+            assertEquals(1, result.getErrors().size());
+            // the backend compiler gets the commands produced before the failure, and the failure
+            assertFalse(backendHandler.commands.isEmpty());
+            assertNotNull(backendHandler.error);
+            // the command stream of the result is terminated, so the handlers added later are not retained
+            RecordingHandler lateHandler = new RecordingHandler();
+            result.getCommandStream().addHandler(lateHandler);
+            assertEquals(backendHandler.commands, lateHandler.commands);
+            assertEquals(backendHandler.error, lateHandler.error);
+        }
+    }
+
+    private static final class RecordingHandler implements CommandHandler {
+
+        private final List<Command> commands = new ArrayList<>();
+        private String error;
+
+        @Override
+        public void onEmit(Command command) {
+            commands.add(command);
+        }
+
+        @Override
+        public void onError(String errorMessage) {
+            error = errorMessage;
+        }
+
+        @Override
+        public void onDone() {}
+    }
+
+    @Test
+    public void testCompilationBudget() {
+        String nested = "<div><div><div><p>${a}</p></div></div></div>";
+        assertEquals(
+                0,
+                budgeted(CompilationBudget.UNLIMITED.withMaxNestingDepth(4))
+                        .compile(compilationUnit(nested))
+                        .getErrors()
+                        .size());
+        assertBudgetError(
+                budgeted(CompilationBudget.UNLIMITED.withMaxNestingDepth(3)),
+                nested,
+                "nested deeper than the limit of 3 elements");
+        assertBudgetError(
+                budgeted(CompilationBudget.UNLIMITED.withMaxExpressionSize(4)),
+                "<p title=\"${a.b.c || d}\">${a}</p>",
+                "exceeding the limit of 4 nodes");
+        assertBudgetError(
+                budgeted(CompilationBudget.UNLIMITED.withMaxCommands(5)), nested, "more than the limit of 5 commands");
+        assertBudgetError(
+                budgeted(CompilationBudget.UNLIMITED.withTimeout(1, TimeUnit.NANOSECONDS)), nested, "time limit");
+        CancellationToken cancellationToken = new CancellationToken();
+        cancellationToken.cancel();
+        CompilationResult cancelled = compiler.compile(
+                compilationUnit(nested), null, Collections.<String, Object>emptyMap(), cancellationToken);
+        assertEquals(1, cancelled.getErrors().size());
+        assertTrue(cancelled.getErrors().get(0).getMessage().contains("cancelled"));
+        cancelled = SightlyCompiler.withOptions(SightlyCompilerOptions.DEFAULT.withPipelinedCompilation(true))
+                .compile(
+                        compilationUnit("text " + nested),
+                        null,
+                        Collections.<String, Object>emptyMap(),
+                        cancellationToken);
+        assertEquals(1, cancelled.getErrors().size());
+    }
+
+    private void assertBudgetError(SightlyCompiler budgetedCompiler, String source, String message) {
+        CompilationResult result = budgetedCompiler.compile(compilationUnit(source));
+        assertEquals(1, result.getErrors().size());
+        CompilerMessage error = result.getErrors().get(0);
+        assertTrue(error.getMessage(), error.getMessage().contains(message));
+    }
+
+    private SightlyCompiler budgeted(CompilationBudget budget) {
+        return SightlyCompiler.withOptions(SightlyCompilerOptions.DEFAULT.withCompilationBudget(budget));
+    }
+
+    @Test
+    public void testWhitespaceMinification() {
+        SightlyCompiler minifyingCompiler =
+                SightlyCompiler.withOptions(SightlyCompilerOptions.DEFAULT.withWhitespaceMinification(true));
+        String source = "<div   class=\"a   b\">\n    <p>  ${a}  </p>\n  <pre> x\n  y </pre>  <!--  c  -->\n"
+                + "<script>  var s = '  ';  </script> <textarea>  ${b}  </textarea>  <span>  d  </span></div>";
+        String output = getOutput(minifyingCompiler.compile(compilationUnit(source)));
+        assertTrue(
+                output,
+                output.matches(
+                        "<div class=\"a   b\">\n<p>\\$\\{var_\\w+}</p>\n<pre> x\n  y </pre> <!--  c  -->\n"
+                                + "<script>  var s = '  ';  </script> <textarea>\\$\\{var_\\w+}</textarea> <span> d </span></div>"));
+        assertTrue(getOutput(compileSource(source)).contains("</p>\n  <pre>"));
+
+        // the raw text elements keep their content when their start tag has dynamic attributes
+        String script = getOutput(
+                minifyingCompiler.compile(compilationUnit("<script type=\"${t}\">var s = \"a    b\";</script>")));
+        assertTrue(script, script.endsWith(">var s = \"a    b\";</script>"));
+        String pre = getOutput(minifyingCompiler.compile(compilationUnit("<pre class=\"${x}\">  a\n   b  </pre>")));
+        assertTrue(pre, pre.endsWith(">  a\n   b  </pre>"));
+        String textarea = getOutput(minifyingCompiler.compile(
+                compilationUnit("<textarea data-sly-attribute.name=\"${n}\">  x   y</textarea>")));
+        assertTrue(textarea, textarea.endsWith(">  x   y</textarea>"));
+
+        // the options combine
+        SightlyCompiler combinedCompiler = SightlyCompiler.withOptions(SightlyCompilerOptions.DEFAULT
+                .withWhitespaceMinification(true)
+                .withPipelinedCompilation(true)
+                .withParallelTemplateOptimization(true)
+                .withCompilationBudget(CompilationBudget.UNLIMITED.withMaxNestingDepth(8)));
+        assertEquals(output, getOutput(combinedCompiler.compile(compilationUnit(source))));
+    }
+
+    @Test
+    public void testCompileTimeFunctions() {
+        assertConstant("1 of 2", getEscapedExpression("${'{0} of {1}' @ format=[1, 2]}"));
+        assertConstant("a-", getEscapedExpression("${'{0}-{1}' @ format='a'}"));
+        assertConstant("1, 2, 3", getEscapedExpression("${[1, 2, 3] @ join=', '}"));
+        assertConstant("/content/page.html", getEscapedExpression("${'/content/page' @ extension='html'}"));
+        assertConstant(
+                "/content/page.a.b.html",
+                getEscapedExpression("${'/content/page' @ selectors='a.b', extension='html'}"));
+        assertRuntimeCall(RuntimeCall.FORMAT, getEscapedExpression("${'#.##' @ format=1.5, type='number'}"));
+        assertRuntimeCall(RuntimeCall.FORMAT, getEscapedExpression("${'{0}' @ format=[properties.a]}"));
+        assertRuntimeCall(RuntimeCall.JOIN, getEscapedExpression("${properties.a @ join=', '}"));
+        assertRuntimeCall(
+                RuntimeCall.URI_MANIPULATION, getEscapedExpression("${'/content/page.html' @ extension='json'}"));
+        assertRuntimeCall(
+                RuntimeCall.URI_MANIPULATION,
+                getEscapedExpression("${'/content/page' @ addSelectors='a', extension='html'}"));
+    }
+
+    private ExpressionNode getEscapedExpression(String source) {
+        CompilationResult compilationResult = compileSource(source);
+        assertEquals(0, compilationResult.getErrors().size());
+        for (Command command : compilationResult.getCommandStream().getCommands()) {
+            if (command instanceof VariableBinding.Start) {
+                ExpressionNode node = ((VariableBinding.Start) command).getExpression();
+                if (node instanceof RuntimeCall && RuntimeCall.XSS.equals(((RuntimeCall) node).getFunctionName())) {
+                    return ((RuntimeCall) node).getArguments().get(0);
+                }
+            }
+        }
+        throw new AssertionError("No escaped expression found in " + source);
+    }
+
+    private void assertConstant(String expected, ExpressionNode node) {
+        assertTrue(String.valueOf(node), node instanceof StringConstant);
+        assertEquals(expected, ((StringConstant) node).getText());
+    }
+
+    private void assertRuntimeCall(String functionName, ExpressionNode node) {
+        assertTrue(String.valueOf(node), node instanceof RuntimeCall);
+        assertEquals(functionName, ((RuntimeCall) node).getFunctionName());
+    }
+
+    private String render(String source, Map<String, Object> bindings) throws IOException {
+        InterpretingBackendCompiler backendCompiler = new InterpretingBackendCompiler();
+        assertEquals(
+                0,
+                compiler.compile(compilationUnit(source), backendCompiler)
+                        .getErrors()
+                        .size());
+        StringWriter writer = new StringWriter();
+        backendCompiler.getScript().render(bindings, writer, new InterpreterRuntime() {
+            @Override
+            public Object call(String functionName, Object... arguments) {
+                return arguments[0];
+            }
+
+            @Override
+            public void callTemplate(Object template, Map<String, Object> arguments, Writer writer) {}
+        });
+        return writer.toString();
+    }
+
+    private String getOutput(CompilationResult compilationResult) {
+        assertEquals(0, compilationResult.getErrors().size());
+        StringBuilder output = new StringBuilder();
+        for (Command command : compilationResult.getCommandStream().getCommands()) {
+            if (command instanceof OutText) {
+                output.append(((OutText) command).getText());
+            } else if (command instanceof OutputAttribute) {
+                OutputAttribute outputAttribute = (OutputAttribute) command;
+                output.append(' ')
+                        .append(outputAttribute.getName())
+                        .append('=')
+                        .append(outputAttribute.getQuoteChar())
+                        .append("${")
+                        .append(outputAttribute.getEscapedValueVariable())
+                        .append('}')
+                        .append(outputAttribute.getQuoteChar());
+            } else if (command instanceof OutputVariable) {
+                output.append("${")
+                        .append(((OutputVariable) command).getVariableName())
+                        .append("}");
+            }
+        }
+        return output.toString();
+    }
+
     private CompilationResult compileFile(final String file) {
         InputStream stream = this.getClass().getResourceAsStream(file);
         final Reader reader = new InputStreamReader(stream);
@@ -256,7 +1172,11 @@ public class SightlyCompilerTest {
     }
 
     private CompilationResult compileSource(final String source) {
-        CompilationUnit compilationUnit = new CompilationUnit() {
+        return compiler.compile(compilationUnit(source));
+    }
+
+    private CompilationUnit compilationUnit(final String source) {
+        return new CompilationUnit() {
             @Override
             public String getScriptName() {
                 return "NO_NAME";
@@ -267,6 +1187,5 @@ public class SightlyCompilerTest {
                 return new StringReader(source);
             }
         };
-        return compiler.compile(compilationUnit);
     }
 }
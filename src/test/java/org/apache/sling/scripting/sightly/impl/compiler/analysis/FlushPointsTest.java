@@ -0,0 +1,105 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.impl.compiler.analysis;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.sling.scripting.sightly.compiler.commands.Command;
+import org.apache.sling.scripting.sightly.compiler.commands.CommandStream;
+import org.apache.sling.scripting.sightly.compiler.commands.Conditional;
+import org.apache.sling.scripting.sightly.compiler.commands.Flush;
+import org.apache.sling.scripting.sightly.compiler.commands.Loop;
+import org.apache.sling.scripting.sightly.compiler.commands.OutText;
+import org.apache.sling.scripting.sightly.compiler.commands.OutputVariable;
+import org.apache.sling.scripting.sightly.compiler.commands.Procedure;
+import org.apache.sling.scripting.sightly.impl.compiler.PushStream;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class FlushPointsTest {
+
+    private static final int THRESHOLD = 10;
+
+    @Test
+    public void testHeadEnd() {
+        Command head = new OutText("<title>a</title></head>");
+        Command upperCaseHead = new OutText("</HEAD><body>");
+        assertEquals(Arrays.asList(head, Flush.INSTANCE), flush(head));
+        assertEquals(Arrays.asList(upperCaseHead, Flush.INSTANCE), flush(upperCaseHead));
+        Command text = new OutText("<head>");
+        assertEquals(Collections.singletonList(text), flush(text));
+    }
+
+    @Test
+    public void testThreshold() {
+        Command first = new OutText("12345");
+        Command variable = new OutputVariable("v");
+        Command second = new OutText("6789");
+        Command third = new OutText("0");
+        Command fourth = new OutText("123456789");
+        // only the static text counts; the count starts again after each flush
+        assertEquals(
+                Arrays.asList(first, variable, second, third, Flush.INSTANCE, fourth),
+                flush(first, variable, second, third, fourth));
+        Command large = new OutText("12345678901234567890");
+        assertEquals(Arrays.asList(large, Flush.INSTANCE, large, Flush.INSTANCE), flush(large, large));
+    }
+
+    @Test
+    public void testExistingFlush() {
+        Command first = new OutText("12345");
+        Command second = new OutText("67890");
+        assertEquals(Arrays.asList(first, Flush.INSTANCE, second), flush(first, Flush.INSTANCE, second));
+    }
+
+    @Test
+    public void testNestedText() {
+        Command head = new OutText("</head>");
+        Command large = new OutText("12345678901234567890");
+        for (Command[] region : new Command[][] {
+            {new Conditional.Start("c", true), Conditional.END},
+            {new Loop.Start("list", "item", null), Loop.END},
+            {new Procedure.Start("t", Collections.<String>emptySet()), Procedure.END}
+        }) {
+            // the nested texts are neither flushed nor counted, while the text after the region is
+            assertEquals(
+                    Arrays.asList(region[0], head, large, region[1], large, Flush.INSTANCE),
+                    flush(region[0], head, large, region[1], large));
+        }
+        Command conditionalStart = new Conditional.Start("c", true);
+        Command nested = new OutText("12345678");
+        Command text = new OutText("12");
+        assertEquals(
+                Arrays.asList(conditionalStart, nested, Conditional.END, text),
+                flush(conditionalStart, nested, Conditional.END, text));
+    }
+
+    private static List<Command> flush(Command... commands) {
+        PushStream stream = new PushStream();
+        CommandStream outStream = FlushPoints.transformer(THRESHOLD).transform(stream);
+        for (Command command : commands) {
+            stream.write(command);
+        }
+        stream.close();
+        return outStream.getCommands();
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.impl.compiler.analysis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.sling.scripting.sightly.compiler.commands.Command;
+import org.apache.sling.scripting.sightly.compiler.commands.CommandHandler;
+import org.apache.sling.scripting.sightly.compiler.commands.CommandStream;
+import org.apache.sling.scripting.sightly.compiler.commands.Conditional;
+import org.apache.sling.scripting.sightly.compiler.commands.OutText;
+import org.apache.sling.scripting.sightly.compiler.commands.OutputVariable;
+import org.apache.sling.scripting.sightly.compiler.commands.Procedure;
+import org.apache.sling.scripting.sightly.compiler.commands.Segment;
+import org.apache.sling.scripting.sightly.compiler.commands.VariableBinding;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.Identifier;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.StringConstant;
+import org.apache.sling.scripting.sightly.impl.compiler.PushStream;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SegmentationTest {
+
+    // an OutText is estimated to 6 bytecodes and an OutputVariable to 10
+    private static final int BUDGET = 100;
+
+    @Test
+    public void testUnderBudget() {
+        List<Command> input = texts(16);
+        assertEquals(input, segment(input));
+    }
+
+    @Test
+    public void testOverBudget() {
+        List<Command> input = texts(40);
+        List<Command> output = segment(input);
+        assertEquals(input, withoutSegments(output));
+        List<List<Command>> segments = segments(output);
+        // the segments are filled up to the budget
+        assertEquals(3, segments.size());
+        assertEquals(16, segments.get(0).size() - 2);
+        assertEquals(16, segments.get(1).size() - 2);
+        assertEquals(8, segments.get(2).size() - 2);
+        assertEquals(Collections.emptySet(), liveVariables(segments.get(0)));
+    }
+
+    @Test
+    public void testSmallRemainder() {
+        // a run under a twentieth of the budget is not worth a segment
+        List<Command> output = segment(texts(33 + 1), 2 * BUDGET);
+        assertEquals(1, segments(output).size());
+        assertTrue(output.get(output.size() - 1) instanceof OutText);
+    }
+
+    @Test
+    public void testLiveVariables() {
+        List<Command> input = new ArrayList<>();
+        input.add(new VariableBinding.Start("item", new Identifier("items")));
+        input.add(new OutputVariable("other"));
+        input.add(new OutputVariable("ITEM"));
+        for (int i = 0; i < 20; i++) {
+            input.add(new OutputVariable("item"));
+        }
+        input.add(VariableBinding.END);
+        List<Command> output = segment(input);
+        assertEquals(input, withoutSegments(output));
+        List<List<Command>> segments = segments(output);
+        assertEquals(3, segments.size());
+        // the variables are matched case-insensitively, while the unbound ones are left out
+        for (List<Command> segment : segments) {
+            assertEquals(Collections.singleton("item"), liveVariables(segment));
+        }
+        // the binding which exceeds the budget on its own is segmented inside
+        assertTrue(output.get(0) instanceof VariableBinding.Start);
+        assertSame(VariableBinding.END, output.get(output.size() - 1));
+    }
+
+    @Test
+    public void testGlobals() {
+        Command global = new VariableBinding.Global("g", new StringConstant("g"));
+        Command nestedGlobal = new VariableBinding.Global("h", new StringConstant("h"));
+        List<Command> input = new ArrayList<>();
+        input.add(global);
+        input.add(new Conditional.Start("c", true));
+        input.add(nestedGlobal);
+        input.addAll(outputs("g", 10));
+        input.add(Conditional.END);
+        input.addAll(outputs("h", 10));
+        List<Command> output = segment(input);
+        assertEquals(input, withoutSegments(output));
+        List<List<Command>> segments = segments(output);
+        assertEquals(2, segments.size());
+        // the regions assigning globals are not segmented, while the assignments before a segment are visible in it
+        for (List<Command> segment : segments) {
+            assertFalse(segment.contains(global));
+            assertFalse(segment.contains(nestedGlobal));
+            assertFalse(segment.get(1) instanceof Conditional.Start);
+        }
+        assertEquals(Collections.singleton("g"), liveVariables(segments.get(0)));
+        assertEquals(Collections.singleton("h"), liveVariables(segments.get(1)));
+    }
+
+    @Test
+    public void testProcedures() {
+        List<Command> input = new ArrayList<>();
+        input.add(new VariableBinding.Start("outer", new Identifier("outer")));
+        input.add(new OutputVariable("outer"));
+        input.add(VariableBinding.END);
+        input.add(new Procedure.Start("t", new HashSet<>(Arrays.asList("p"))));
+        input.addAll(outputs("p", 10));
+        input.addAll(outputs("outer", 10));
+        input.add(Procedure.END);
+        List<Command> output = segment(input);
+        assertEquals(input, withoutSegments(output));
+        // the procedures are separate methods, which don't see the variables of the stream defining them
+        List<List<Command>> segments = segments(output);
+        assertEquals(2, segments.size());
+        assertEquals(Collections.singleton("p"), liveVariables(segments.get(0)));
+        assertEquals(Collections.emptySet(), liveVariables(segments.get(1)));
+        assertEquals(input.subList(0, 4), output.subList(0, 4));
+    }
+
+    @Test
+    public void testUnbalancedStream() {
+        List<Command> input = new ArrayList<>(texts(40));
+        input.add(0, new Conditional.Start("c", true));
+        assertEquals(input, segment(input));
+        input.set(0, Conditional.END);
+        assertEquals(input, segment(input));
+    }
+
+    @Test
+    public void testError() {
+        List<Command> input = texts(40);
+        PushStream stream = new PushStream();
+        CommandStream outStream = Segmentation.transformer(BUDGET).transform(stream);
+        final String[] errorMessage = new String[1];
+        final List<Command> output = new ArrayList<>();
+        outStream.addHandler(new CommandHandler() {
+            @Override
+            public void onEmit(Command command) {
+                output.add(command);
+            }
+
+            @Override
+            public void onError(String message) {
+                errorMessage[0] = message;
+            }
+
+            @Override
+            public void onDone() {}
+        });
+        for (Command command : input) {
+            stream.write(command);
+        }
+        stream.signalError("failure");
+        assertEquals(input, output);
+        assertEquals("failure", errorMessage[0]);
+    }
+
+    private static List<Command> segment(List<Command> input) {
+        return segment(input, BUDGET);
+    }
+
+    private static List<Command> segment(List<Command> input, int budget) {
+        PushStream stream = new PushStream();
+        CommandStream outStream = Segmentation.transformer(budget).transform(stream);
+        for (Command command : input) {
+            stream.write(command);
+        }
+        stream.close();
+        return outStream.getCommands();
+    }
+
+    private static List<Command> texts(int count) {
+        List<Command> texts = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            texts.add(new OutText("text" + i));
+        }
+        return texts;
+    }
+
+    private static List<Command> outputs(String variable, int count) {
+        List<Command> outputs = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            outputs.add(new OutputVariable(variable));
+        }
+        return outputs;
+    }
+
+    private static List<Command> withoutSegments(List<Command> commands) {
+        List<Command> result = new ArrayList<>();
+        for (Command command : commands) {
+            if (!(command instanceof Segment.Start) && !(command instanceof Segment.End)) {
+                result.add(command);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the segments of a stream, including their start and end commands; the segments must not be nested.
+     */
+    private static List<List<Command>> segments(List<Command> commands) {
+        List<List<Command>> segments = new ArrayList<>();
+        List<Command> segment = null;
+        for (Command command : commands) {
+            if (command instanceof Segment.Start) {
+                assertEquals(null, segment);
+                segment = new ArrayList<>();
+            }
+            if (segment != null) {
+                segment.add(command);
+            }
+            if (command instanceof Segment.End) {
+                segments.add(segment);
+                segment = null;
+            }
+        }
+        assertEquals(null, segment);
+        return segments;
+    }
+
+    private static Set<String> liveVariables(List<Command> segment) {
+        return ((Segment.Start) segment.get(0)).getLiveVariables();
+    }
+}
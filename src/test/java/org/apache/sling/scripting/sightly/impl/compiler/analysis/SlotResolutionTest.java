@@ -0,0 +1,197 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.impl.compiler.analysis;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.apache.sling.scripting.sightly.compiler.commands.Command;
+import org.apache.sling.scripting.sightly.compiler.commands.CommandStream;
+import org.apache.sling.scripting.sightly.compiler.commands.Conditional;
+import org.apache.sling.scripting.sightly.compiler.commands.Loop;
+import org.apache.sling.scripting.sightly.compiler.commands.OutputAttribute;
+import org.apache.sling.scripting.sightly.compiler.commands.OutputVariable;
+import org.apache.sling.scripting.sightly.compiler.commands.Procedure;
+import org.apache.sling.scripting.sightly.compiler.commands.VariableBinding;
+import org.apache.sling.scripting.sightly.compiler.expression.ExpressionNode;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.BinaryOperation;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.BinaryOperator;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.Identifier;
+import org.apache.sling.scripting.sightly.impl.compiler.PushStream;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class SlotResolutionTest {
+
+    @Test
+    public void testDeclarationOrder() {
+        List<Command> output = resolve(
+                new VariableBinding.Start("a", new Identifier("x")),
+                new VariableBinding.Start("b", new Identifier("x")),
+                VariableBinding.END,
+                // the slot of a variable out of scope is reused
+                new VariableBinding.Start("c", new Identifier("x")),
+                new OutputVariable("A"),
+                new OutputVariable("c"),
+                new OutputVariable("b"),
+                VariableBinding.END,
+                VariableBinding.END);
+        assertEquals(0, bindingSlot(output, 0));
+        assertEquals(1, bindingSlot(output, 1));
+        assertEquals(1, bindingSlot(output, 3));
+        // the names are resolved case-insensitively, while the variables out of scope have no slot
+        assertEquals(0, ((OutputVariable) output.get(4)).getSlot());
+        assertEquals(1, ((OutputVariable) output.get(5)).getSlot());
+        assertEquals(-1, ((OutputVariable) output.get(6)).getSlot());
+    }
+
+    @Test
+    public void testShadowing() {
+        List<Command> output = resolve(
+                new VariableBinding.Start("a", new Identifier("x")),
+                new VariableBinding.Start("a", new Identifier("a")),
+                new OutputVariable("a"),
+                VariableBinding.END,
+                new OutputVariable("a"),
+                VariableBinding.END);
+        // the expression of a binding is resolved before its variable is declared
+        assertEquals(0, ((Identifier) ((VariableBinding.Start) output.get(1)).getExpression()).getSlot());
+        assertEquals(1, ((OutputVariable) output.get(2)).getSlot());
+        assertEquals(0, ((OutputVariable) output.get(4)).getSlot());
+    }
+
+    @Test
+    public void testIdentifiers() {
+        Identifier unbound = new Identifier("unbound");
+        Identifier resolved = new Identifier("a", 0);
+        List<Command> output = resolve(
+                new VariableBinding.Start("a", new Identifier("x")),
+                new VariableBinding.Start("b", new BinaryOperation(BinaryOperator.AND, new Identifier("A"), unbound)),
+                new VariableBinding.Start("c", resolved),
+                new VariableBinding.Global("g", new Identifier("b")),
+                VariableBinding.END,
+                VariableBinding.END,
+                VariableBinding.END);
+        BinaryOperation operation = (BinaryOperation) ((VariableBinding.Start) output.get(1)).getExpression();
+        assertEquals(0, ((Identifier) operation.getLeftOperand()).getSlot());
+        // the identifiers which don't reference a local variable or which are already resolved are kept
+        assertSame(unbound, operation.getRightOperand());
+        assertEquals(-1, unbound.getSlot());
+        assertSame(resolved, ((VariableBinding.Start) output.get(2)).getExpression());
+        ExpressionNode global = ((VariableBinding.Global) output.get(3)).getExpression();
+        assertEquals(1, ((Identifier) global).getSlot());
+    }
+
+    @Test
+    public void testReferences() {
+        List<Command> output = resolve(
+                new VariableBinding.Start("a", new Identifier("x")),
+                new VariableBinding.Start("b", new Identifier("x")),
+                new Conditional.Start("B", true),
+                new OutputAttribute("title", "a", "unbound", '"'),
+                new Procedure.Call("b", "a"),
+                new Procedure.Call("unbound", "b"),
+                Conditional.END,
+                VariableBinding.END,
+                VariableBinding.END);
+        assertEquals(1, ((Conditional.Start) output.get(2)).getSlot());
+        OutputAttribute outputAttribute = (OutputAttribute) output.get(3);
+        assertEquals(0, outputAttribute.getValueSlot());
+        assertEquals(-1, outputAttribute.getEscapedValueSlot());
+        Procedure.Call call = (Procedure.Call) output.get(4);
+        assertEquals(1, call.getTemplateSlot());
+        assertEquals(0, call.getArgumentsSlot());
+        assertEquals(-1, ((Procedure.Call) output.get(5)).getTemplateSlot());
+        assertEquals(1, ((Procedure.Call) output.get(5)).getArgumentsSlot());
+    }
+
+    @Test
+    public void testLoops() {
+        List<Command> output = resolve(
+                new VariableBinding.Start("list", new Identifier("items")),
+                new VariableBinding.Start("step", new Identifier("size")),
+                new Loop.Start("list", "item", "index", null, "STEP", "end"),
+                new OutputVariable("item"),
+                new OutputVariable("Index"),
+                Loop.END,
+                new VariableBinding.Start("after", new Identifier("x")),
+                VariableBinding.END,
+                VariableBinding.END,
+                VariableBinding.END);
+        Loop.Start loopStart = (Loop.Start) output.get(2);
+        assertEquals(0, loopStart.getListSlot());
+        assertEquals(2, loopStart.getItemSlot());
+        assertEquals(3, loopStart.getIndexSlot());
+        // the bounds of a loop are annotated too, unless they are global variables
+        assertEquals(-1, loopStart.getBeginSlot());
+        assertEquals(1, loopStart.getStepSlot());
+        assertEquals(-1, loopStart.getEndSlot());
+        assertEquals(2, ((OutputVariable) output.get(3)).getSlot());
+        assertEquals(3, ((OutputVariable) output.get(4)).getSlot());
+        // the slots of the item and index variables are released at the end of the loop
+        assertEquals(2, bindingSlot(output, 6));
+    }
+
+    @Test
+    public void testProcedures() {
+        List<Command> output = resolve(
+                new VariableBinding.Start("outer", new Identifier("x")),
+                new Procedure.Start("t", new HashSet<>(Arrays.asList("b", "a"))),
+                new VariableBinding.Start("local", new Identifier("outer")),
+                new OutputVariable("b"),
+                VariableBinding.END,
+                Procedure.END,
+                new VariableBinding.Start("next", new Identifier("outer")),
+                VariableBinding.END,
+                VariableBinding.END);
+        // the parameters take the first slots of the procedure's frame, in alphabetical order
+        Procedure.Start procedureStart = (Procedure.Start) output.get(1);
+        assertEquals(
+                Arrays.asList("a", "b"),
+                Arrays.asList(procedureStart.getParameterSlots().keySet().toArray()));
+        assertEquals(Integer.valueOf(0), procedureStart.getParameterSlots().get("a"));
+        assertEquals(Integer.valueOf(1), procedureStart.getParameterSlots().get("b"));
+        // the procedures don't see the variables of the frame defining them
+        VariableBinding.Start local = (VariableBinding.Start) output.get(2);
+        assertEquals(2, local.getSlot());
+        assertEquals(-1, ((Identifier) local.getExpression()).getSlot());
+        assertEquals(1, ((OutputVariable) output.get(3)).getSlot());
+        // the outer frame is restored at the end of the procedure
+        VariableBinding.Start next = (VariableBinding.Start) output.get(6);
+        assertEquals(1, next.getSlot());
+        assertEquals(0, ((Identifier) next.getExpression()).getSlot());
+    }
+
+    private static int bindingSlot(List<Command> commands, int index) {
+        return ((VariableBinding.Start) commands.get(index)).getSlot();
+    }
+
+    private static List<Command> resolve(Command... commands) {
+        PushStream stream = new PushStream();
+        CommandStream outStream = SlotResolution.TRANSFORMER.transform(stream);
+        for (Command command : commands) {
+            stream.write(command);
+        }
+        stream.close();
+        return outStream.getCommands();
+    }
+}
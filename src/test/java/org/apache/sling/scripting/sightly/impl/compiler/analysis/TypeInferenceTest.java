@@ -0,0 +1,174 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.impl.compiler.analysis;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.sling.scripting.sightly.compiler.commands.Command;
+import org.apache.sling.scripting.sightly.compiler.commands.CommandStream;
+import org.apache.sling.scripting.sightly.compiler.commands.Loop;
+import org.apache.sling.scripting.sightly.compiler.commands.OutputVariable;
+import org.apache.sling.scripting.sightly.compiler.commands.VariableBinding;
+import org.apache.sling.scripting.sightly.compiler.expression.ExpressionNode;
+import org.apache.sling.scripting.sightly.compiler.expression.ExpressionType;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.ArrayLiteral;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.BinaryOperation;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.BinaryOperator;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.BooleanConstant;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.Concatenation;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.Identifier;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.MapLiteral;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.NullLiteral;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.NumericConstant;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.PropertyAccess;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.RuntimeCall;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.StringConstant;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.TernaryOperator;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.UnaryOperation;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.UnaryOperator;
+import org.apache.sling.scripting.sightly.impl.compiler.PushStream;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class TypeInferenceTest {
+
+    private static final ExpressionNode STRING = new StringConstant("a");
+    private static final ExpressionNode NUMBER = NumericConstant.ONE;
+    private static final ExpressionNode BOOLEAN = BooleanConstant.TRUE;
+
+    @Test
+    public void testLiterals() {
+        assertEquals(ExpressionType.STRING, typeOf(STRING));
+        assertEquals(ExpressionType.NUMBER, typeOf(NUMBER));
+        assertEquals(ExpressionType.BOOLEAN, typeOf(BOOLEAN));
+        assertEquals(ExpressionType.COLLECTION, typeOf(new ArrayLiteral(Collections.<ExpressionNode>emptyList())));
+        assertEquals(ExpressionType.STRING, typeOf(new Concatenation(Arrays.asList(NUMBER, BOOLEAN))));
+        assertEquals(ExpressionType.UNKNOWN, typeOf(new MapLiteral(Collections.<String, ExpressionNode>emptyMap())));
+        assertEquals(ExpressionType.UNKNOWN, typeOf(NullLiteral.INSTANCE));
+        assertEquals(ExpressionType.UNKNOWN, typeOf(new PropertyAccess(STRING, "length")));
+        // the runtime functions can return any value
+        assertEquals(ExpressionType.UNKNOWN, typeOf(new RuntimeCall(RuntimeCall.XSS, STRING)));
+    }
+
+    @Test
+    public void testOperators() {
+        assertEquals(ExpressionType.BOOLEAN, typeOf(binary(BinaryOperator.AND, BOOLEAN, BOOLEAN)));
+        assertEquals(ExpressionType.STRING, typeOf(binary(BinaryOperator.OR, STRING, STRING)));
+        // the logical operators evaluate to one of their operands
+        assertEquals(ExpressionType.UNKNOWN, typeOf(binary(BinaryOperator.AND, BOOLEAN, STRING)));
+        assertEquals(ExpressionType.UNKNOWN, typeOf(binary(BinaryOperator.OR, NUMBER, STRING)));
+        assertEquals(ExpressionType.STRING, typeOf(binary(BinaryOperator.CONCATENATE, NUMBER, NUMBER)));
+        for (BinaryOperator operator : new BinaryOperator[] {
+            BinaryOperator.ADD,
+            BinaryOperator.SUB,
+            BinaryOperator.MUL,
+            BinaryOperator.DIV,
+            BinaryOperator.I_DIV,
+            BinaryOperator.REM
+        }) {
+            assertEquals(operator.name(), ExpressionType.NUMBER, typeOf(binary(operator, STRING, NUMBER)));
+        }
+        for (BinaryOperator operator :
+                new BinaryOperator[] {BinaryOperator.LT, BinaryOperator.EQ, BinaryOperator.STRICT_NEQ, BinaryOperator.IN
+                }) {
+            assertEquals(operator.name(), ExpressionType.BOOLEAN, typeOf(binary(operator, STRING, NUMBER)));
+        }
+        assertEquals(ExpressionType.NUMBER, typeOf(new UnaryOperation(UnaryOperator.LENGTH, STRING)));
+        assertEquals(ExpressionType.BOOLEAN, typeOf(new UnaryOperation(UnaryOperator.NOT, STRING)));
+        assertEquals(ExpressionType.BOOLEAN, typeOf(new UnaryOperation(UnaryOperator.IS_WHITESPACE, STRING)));
+        assertEquals(ExpressionType.NUMBER, typeOf(new TernaryOperator(STRING, NUMBER, NUMBER)));
+        assertEquals(ExpressionType.UNKNOWN, typeOf(new TernaryOperator(BOOLEAN, NUMBER, STRING)));
+    }
+
+    @Test
+    public void testIdentifiers() {
+        List<Command> output = infer(
+                new VariableBinding.Start("n", NUMBER),
+                new VariableBinding.Start("s", new Identifier("n")),
+                VariableBinding.END,
+                new Loop.Start("list", "n", "index"),
+                new VariableBinding.Start("item", new Identifier("n")),
+                VariableBinding.END,
+                Loop.END,
+                new VariableBinding.Start("after", new Identifier("n")),
+                VariableBinding.END,
+                VariableBinding.END,
+                new VariableBinding.Start("unbound", new Identifier("n")),
+                VariableBinding.END);
+        // the bound variables have the type of their expression, while the loop variables can have any type
+        assertEquals(ExpressionType.NUMBER, typeAt(output, 1));
+        assertEquals(ExpressionType.UNKNOWN, typeAt(output, 4));
+        assertEquals(ExpressionType.NUMBER, typeAt(output, 7));
+        assertEquals(ExpressionType.UNKNOWN, typeAt(output, 10));
+    }
+
+    @Test
+    public void testGlobals() {
+        List<Command> output = infer(
+                new VariableBinding.Global("g", STRING),
+                new VariableBinding.Start("v", new Identifier("g")),
+                VariableBinding.END);
+        assertEquals(ExpressionType.STRING, ((VariableBinding.Global) output.get(0)).getType());
+        // globals can be re-assigned anywhere, so their identifiers are never resolved to a type
+        assertEquals(ExpressionType.UNKNOWN, typeAt(output, 1));
+    }
+
+    @Test
+    public void testAnnotatedCommands() {
+        VariableBinding.Start typed = new VariableBinding.Start("t", STRING, ExpressionType.STRING, 3);
+        VariableBinding.Start untyped = new VariableBinding.Start("u", NUMBER, ExpressionType.UNKNOWN, 4);
+        OutputVariable outputVariable = new OutputVariable("t");
+        List<Command> output = infer(typed, untyped, outputVariable, VariableBinding.END, VariableBinding.END);
+        // the commands whose type is already known are kept, while the others are replaced keeping their slot
+        assertSame(typed, output.get(0));
+        VariableBinding.Start annotated = (VariableBinding.Start) output.get(1);
+        assertEquals(ExpressionType.NUMBER, annotated.getType());
+        assertEquals(4, annotated.getSlot());
+        assertEquals("u", annotated.getVariableName());
+        assertSame(NUMBER, annotated.getExpression());
+        assertSame(outputVariable, output.get(2));
+        assertEquals(5, output.size());
+    }
+
+    private static ExpressionNode binary(BinaryOperator operator, ExpressionNode left, ExpressionNode right) {
+        return new BinaryOperation(operator, left, right);
+    }
+
+    private static ExpressionType typeOf(ExpressionNode node) {
+        return typeAt(infer(new VariableBinding.Start("v", node), VariableBinding.END), 0);
+    }
+
+    private static ExpressionType typeAt(List<Command> commands, int index) {
+        return ((VariableBinding.Start) commands.get(index)).getType();
+    }
+
+    private static List<Command> infer(Command... commands) {
+        PushStream stream = new PushStream();
+        CommandStream outStream = TypeInference.TRANSFORMER.transform(stream);
+        for (Command command : commands) {
+            stream.write(command);
+        }
+        stream.close();
+        return outStream.getCommands();
+    }
+}
@@ -0,0 +1,330 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.impl.compiler.interpreter;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.sling.scripting.sightly.compiler.backend.InterpreterRuntime;
+import org.apache.sling.scripting.sightly.compiler.commands.Command;
+import org.apache.sling.scripting.sightly.compiler.commands.Conditional;
+import org.apache.sling.scripting.sightly.compiler.commands.Flush;
+import org.apache.sling.scripting.sightly.compiler.commands.Loop;
+import org.apache.sling.scripting.sightly.compiler.commands.OutText;
+import org.apache.sling.scripting.sightly.compiler.commands.OutputAttribute;
+import org.apache.sling.scripting.sightly.compiler.commands.OutputVariable;
+import org.apache.sling.scripting.sightly.compiler.commands.Procedure;
+import org.apache.sling.scripting.sightly.compiler.commands.VariableBinding;
+import org.apache.sling.scripting.sightly.compiler.expression.ExpressionNode;
+import org.apache.sling.scripting.sightly.compiler.expression.ExpressionType;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.ArrayLiteral;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.BinaryOperation;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.BinaryOperator;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.BooleanConstant;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.Concatenation;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.Identifier;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.MapLiteral;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.NullLiteral;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.NumericConstant;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.PropertyAccess;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.RuntimeCall;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.StringConstant;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.TernaryOperator;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.UnaryOperation;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.UnaryOperator;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LinkerTest {
+
+    private final List<String> calls = new ArrayList<>();
+    private final Map<String, Object> bindings = new HashMap<>();
+
+    @Test
+    public void testConditionals() throws IOException {
+        bindings.put("yes", "text");
+        bindings.put("no", "");
+        assertEquals(
+                "a c",
+                render(
+                        new Conditional.Start("yes", true),
+                        new OutText("a"),
+                        Conditional.END,
+                        new Conditional.Start("yes", false),
+                        new OutText("b"),
+                        Conditional.END,
+                        new Conditional.Start("no", false),
+                        new OutText(" c"),
+                        Conditional.END));
+    }
+
+    @Test
+    public void testLocalVariables() throws IOException {
+        bindings.put("global", "g");
+        assertEquals(
+                "a b a g",
+                render(
+                        new VariableBinding.Start("v", new StringConstant("a"), ExpressionType.STRING, 0),
+                        new OutputVariable("v", 0),
+                        new VariableBinding.Start("w", new StringConstant(" b "), ExpressionType.STRING, 1),
+                        new OutputVariable("w", 1),
+                        VariableBinding.END,
+                        new OutputVariable("v", 0),
+                        new OutText(" "),
+                        new OutputVariable("GLOBAL", -1),
+                        VariableBinding.END));
+    }
+
+    @Test
+    public void testGlobals() throws IOException {
+        // the globals are looked up case-insensitively, and can be re-assigned
+        bindings.put("Name", "bound");
+        assertEquals(
+                "bound assigned",
+                render(
+                        new OutputVariable("name", -1),
+                        new VariableBinding.Global("NAME", new StringConstant(" assigned")),
+                        new OutputVariable("name", -1)));
+    }
+
+    @Test
+    public void testLoops() throws IOException {
+        bindings.put("items", Arrays.asList("a", "b", "c", "d", "e"));
+        assertEquals("0a1b2c3d4e", renderLoop(null, null, null));
+        assertEquals("1b3d", renderLoop(1, 2, null));
+        assertEquals("0a1b", renderLoop(null, null, 1));
+        // the bounds are clamped to the list
+        assertEquals("0a1b2c3d4e", renderLoop(-2, null, 10));
+        assertEquals("", renderLoop(null, 0, null));
+        assertEquals("", renderLoop(3, null, 2));
+    }
+
+    @Test
+    public void testAttributes() throws IOException {
+        bindings.put("text", "a&b");
+        bindings.put("empty", "");
+        bindings.put("yes", true);
+        bindings.put("no", false);
+        assertEquals(
+                " title='a&b' checked",
+                render(
+                        new OutputAttribute("title", "text", "text", '\'', -1, -1),
+                        new OutputAttribute("alt", "empty", "empty", '"', -1, -1),
+                        new OutputAttribute("checked", "yes", "yes", '"', -1, -1),
+                        new OutputAttribute("hidden", "no", "no", '"', -1, -1),
+                        new OutputAttribute("missing", "text", "undefined", '"', -1, -1)));
+    }
+
+    @Test
+    public void testProcedures() throws IOException {
+        Map<String, Integer> parameterSlots = new LinkedHashMap<>();
+        parameterSlots.put("a", 0);
+        bindings.put("external", "external");
+        bindings.put("T", "shadowed by the template");
+        Map<String, ExpressionNode> arguments = new HashMap<>();
+        arguments.put("a", new StringConstant("x"));
+        StringWriter writer = new StringWriter();
+        Program program = Linker.link(Arrays.<Command>asList(
+                new Procedure.Start("t", Collections.singleton("a"), parameterSlots),
+                new OutText("["),
+                new OutputVariable("a", 0),
+                new OutputVariable("global", -1),
+                new OutText("]"),
+                Procedure.END,
+                new VariableBinding.Start("args", new MapLiteral(arguments), ExpressionType.UNKNOWN, 0),
+                new Procedure.Call("t", "args", -1, 0),
+                new Procedure.Call("external", "args", -1, 0),
+                new Procedure.Call("t", "global", -1, -1),
+                VariableBinding.END));
+        bindings.put("global", "g");
+        program.render(bindings, writer, runtime());
+        // the arguments which are not a map are ignored
+        assertEquals("[xg]external(x)[g]", writer.toString());
+        assertEquals(Collections.singleton("t"), program.getTemplates().keySet());
+    }
+
+    @Test
+    public void testExpressions() throws IOException {
+        bindings.put("list", Arrays.asList("a", "b"));
+        assertEquals("b", evaluate(binary(BinaryOperator.AND, new StringConstant("a"), new StringConstant("b"))));
+        assertEquals("", evaluate(binary(BinaryOperator.AND, new StringConstant(""), new StringConstant("b"))));
+        assertEquals("a", evaluate(binary(BinaryOperator.OR, new StringConstant("a"), new StringConstant("b"))));
+        assertEquals("1a", evaluate(binary(BinaryOperator.CONCATENATE, NumericConstant.ONE, new StringConstant("a"))));
+        assertEquals("3", evaluate(binary(BinaryOperator.ADD, NumericConstant.ONE, NumericConstant.TWO)));
+        assertEquals("0.5", evaluate(binary(BinaryOperator.DIV, NumericConstant.ONE, NumericConstant.TWO)));
+        assertEquals("0", evaluate(binary(BinaryOperator.I_DIV, NumericConstant.ONE, NumericConstant.TWO)));
+        assertEquals("1", evaluate(binary(BinaryOperator.REM, NumericConstant.ONE, NumericConstant.TWO)));
+        assertEquals("true", evaluate(binary(BinaryOperator.IN, new StringConstant("b"), new StringConstant("abc"))));
+        assertEquals("true", evaluate(binary(BinaryOperator.IN, new StringConstant("b"), new Identifier("list"))));
+        assertEquals("false", evaluate(binary(BinaryOperator.IN, new StringConstant("c"), new Identifier("list"))));
+        assertEquals("true", evaluate(binary(BinaryOperator.LT, NumericConstant.ONE, NumericConstant.TWO)));
+        assertEquals("false", evaluate(new UnaryOperation(UnaryOperator.NOT, BooleanConstant.TRUE)));
+        assertEquals("true", evaluate(new UnaryOperation(UnaryOperator.IS_WHITESPACE, new StringConstant(" "))));
+        assertEquals("2", evaluate(new UnaryOperation(UnaryOperator.LENGTH, new Identifier("list"))));
+        assertEquals(
+                "then",
+                evaluate(new TernaryOperator(
+                        new Identifier("list"), new StringConstant("then"), new StringConstant("else"))));
+        assertEquals(
+                "a,b",
+                evaluate(new ArrayLiteral(
+                        Arrays.<ExpressionNode>asList(new StringConstant("a"), new StringConstant("b")))));
+        assertEquals(
+                "1true",
+                evaluate(new Concatenation(Arrays.<ExpressionNode>asList(NumericConstant.ONE, BooleanConstant.TRUE))));
+        assertEquals("", evaluate(NullLiteral.INSTANCE));
+        assertEquals("b", evaluate(new PropertyAccess(new Identifier("list"), NumericConstant.ONE)));
+    }
+
+    @Test
+    public void testRuntimeCalls() throws IOException {
+        assertEquals("xss(a)", evaluate(new RuntimeCall(RuntimeCall.XSS, new StringConstant("a"))));
+        assertEquals(Collections.singletonList(RuntimeCall.XSS), calls);
+    }
+
+    @Test
+    public void testFormat() throws IOException {
+        bindings.put("items", Arrays.asList(1, 2));
+        assertEquals("1 of 2", evaluate(format("{0} of {1}{2}", new Identifier("items"), null)));
+        // a single argument doesn't have to be a collection
+        assertEquals("[a]", evaluate(format("[{0}]", new StringConstant("a"), null)));
+        assertTrue(calls.isEmpty());
+        // the patterns which can't be tokenized at compile time are formatted by the runtime
+        assertEquals("format({0}, {format=a, type=date})", evaluate(format("{0}", new StringConstant("a"), "date")));
+        assertEquals(Collections.singletonList(RuntimeCall.FORMAT), calls);
+    }
+
+    @Test
+    public void testFlush() throws IOException {
+        final List<String> flushed = new ArrayList<>();
+        StringWriter writer = new StringWriter() {
+            @Override
+            public void flush() {
+                flushed.add(toString());
+            }
+        };
+        Linker.link(Arrays.<Command>asList(new OutText("a"), Flush.INSTANCE, new OutText("b")))
+                .render(bindings, writer, runtime());
+        assertEquals(Collections.singletonList("a"), flushed);
+        assertEquals("ab", writer.toString());
+    }
+
+    @Test
+    public void testLinkErrors() {
+        assertLinkError("not resolved to a slot", new VariableBinding.Start("v", NullLiteral.INSTANCE));
+        assertLinkError("Unclosed conditional", new Conditional.Start("c", true));
+        assertLinkError("Block end without a block start", Conditional.END);
+        assertLinkError("Variable binding end without a variable binding start", VariableBinding.END);
+        assertLinkError("Procedure end without a procedure start", Procedure.END);
+        assertLinkError(
+                "Unclosed procedure t",
+                new Procedure.Start("t", Collections.<String>emptySet(), Collections.<String, Integer>emptyMap()));
+        assertLinkError(
+                "Parameter a of procedure t was not resolved to a slot",
+                new Procedure.Start("t", Collections.singleton("a"), Collections.<String, Integer>emptyMap()));
+    }
+
+    private String renderLoop(Integer begin, Integer step, Integer end) throws IOException {
+        bindings.put("begin", begin);
+        bindings.put("step", step);
+        bindings.put("end", end);
+        return render(
+                new Loop.Start(
+                        "items",
+                        "item",
+                        "index",
+                        begin == null ? null : "begin",
+                        step == null ? null : "step",
+                        end == null ? null : "end",
+                        -1,
+                        0,
+                        1,
+                        -1,
+                        -1,
+                        -1),
+                new OutputVariable("index", 1),
+                new OutputVariable("item", 0),
+                Loop.END);
+    }
+
+    private String evaluate(ExpressionNode node) throws IOException {
+        return render(
+                new VariableBinding.Start("v", node, ExpressionType.UNKNOWN, 0),
+                new OutputVariable("v", 0),
+                VariableBinding.END);
+    }
+
+    private String render(Command... commands) throws IOException {
+        StringWriter writer = new StringWriter();
+        Linker.link(Arrays.asList(commands)).render(bindings, writer, runtime());
+        return writer.toString();
+    }
+
+    private InterpreterRuntime runtime() {
+        return new InterpreterRuntime() {
+            @Override
+            public Object call(String functionName, Object... arguments) {
+                calls.add(functionName);
+                List<String> values = new ArrayList<>();
+                for (Object argument : arguments) {
+                    values.add(String.valueOf(argument));
+                }
+                return functionName + "(" + String.join(", ", values) + ")";
+            }
+
+            @Override
+            public void callTemplate(Object template, Map<String, Object> arguments, Writer writer) throws IOException {
+                writer.write(template + "(" + arguments.get("a") + ")");
+            }
+        };
+    }
+
+    private static ExpressionNode binary(BinaryOperator operator, ExpressionNode left, ExpressionNode right) {
+        return new BinaryOperation(operator, left, right);
+    }
+
+    private static ExpressionNode format(String pattern, ExpressionNode arguments, String type) {
+        Map<String, ExpressionNode> options = new LinkedHashMap<>();
+        options.put("format", arguments);
+        if (type != null) {
+            options.put("type", new StringConstant(type));
+        }
+        return new RuntimeCall(RuntimeCall.FORMAT, new StringConstant(pattern), new MapLiteral(options));
+    }
+
+    private static void assertLinkError(String message, Command... commands) {
+        try {
+            Linker.link(Arrays.asList(commands));
+            fail("Expected a link error: " + message);
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(message));
+        }
+    }
+}
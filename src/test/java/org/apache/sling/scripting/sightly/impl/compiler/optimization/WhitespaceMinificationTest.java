@@ -0,0 +1,122 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.impl.compiler.optimization;
+
+import java.util.Collections;
+
+import org.apache.sling.scripting.sightly.compiler.commands.Command;
+import org.apache.sling.scripting.sightly.compiler.commands.CommandStream;
+import org.apache.sling.scripting.sightly.compiler.commands.OutText;
+import org.apache.sling.scripting.sightly.compiler.commands.OutputVariable;
+import org.apache.sling.scripting.sightly.compiler.commands.Procedure;
+import org.apache.sling.scripting.sightly.impl.compiler.PushStream;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class WhitespaceMinificationTest {
+
+    @Test
+    public void testText() {
+        assertEquals("<p> a b </p>", minify(text("<p>  a \t b  </p>")));
+        assertEquals("<p>\na\n</p>", minify(text("<p>  \n  a  \n\n</p>")));
+        assertEquals("<p>${a} ${b}</p>", minify(text("<p>"), output("a"), text("   "), output("b"), text("</p>")));
+    }
+
+    @Test
+    public void testTags() {
+        assertEquals("<div class=\"a   b\"\nid='c  d' >", minify(text("<div    class=\"a   b\"\n   id='c  d'  >")));
+        assertEquals("<!--  a   b  --> c", minify(text("<!--  a   b  -->   c")));
+        assertEquals("<!DOCTYPE html>\n<p>", minify(text("<!DOCTYPE   html>\n\n<p>")));
+        assertEquals("a < b", minify(text("a   <   b")));
+    }
+
+    @Test
+    public void testRawTextElements() {
+        assertEquals("<pre>  a\n   b  </pre> c", minify(text("<pre>  a\n   b  </pre>   c")));
+        assertEquals("<PRE>  a  </Pre> c", minify(text("<PRE>  a  </Pre>   c")));
+        assertEquals("<textarea>  x   y</textarea>", minify(text("<textarea>  x   y</textarea>")));
+        assertEquals("<style>  a  </style>", minify(text("<style>  a  </style>")));
+        // the content ends only with the end tag of the same element
+        assertEquals(
+                "<script>  '</p>  </scripts>'  </script> a",
+                minify(text("<script>  '</p>  </scripts>'  </script>   a")));
+        // the start tag is split across the static texts
+        assertEquals("<pre>  a  </pre>", minify(text("<pr"), text("e>  a  </pre>")));
+    }
+
+    @Test
+    public void testRawTextElementsWithDynamicAttributes() {
+        assertEquals(
+                "<script type=\"${t}\">var s = \"a    b\";</script>",
+                minify(text("<script type=\""), output("t"), text("\">var s = \"a    b\";</script>")));
+        assertEquals("<pre${x}>  a\n   b  </pre> c", minify(text("<pre"), output("x"), text(">  a\n   b  </pre>   c")));
+        assertEquals(
+                "<textarea${n}>  x   y</textarea> z",
+                minify(text("<textarea"), output("n"), text(">  x   y</textarea>   z")));
+        assertEquals("<p${x}> a </p>", minify(text("<p"), output("x"), text(">   a   </p>")));
+    }
+
+    @Test
+    public void testDynamicElements() {
+        assertEquals(
+                "<${e}>  a  </${e}> b", minify(text("<"), output("e"), text(">  a  </"), output("e"), text(">   b")));
+    }
+
+    @Test
+    public void testProcedures() {
+        PushStream stream = new PushStream();
+        CommandStream minified = WhitespaceMinification.TRANSFORMER.transform(stream);
+        stream.write(new Procedure.Start("t", Collections.<String>emptySet()));
+        stream.write(new OutText("<p>   a   </p>"));
+        stream.write(Procedure.END);
+        stream.write(new OutText("<p>   a   </p>"));
+        stream.close();
+        assertEquals("<p>   a   </p>", ((OutText) minified.getCommands().get(1)).getText());
+        assertEquals("<p> a </p>", ((OutText) minified.getCommands().get(3)).getText());
+    }
+
+    private static Command text(String text) {
+        return new OutText(text);
+    }
+
+    private static Command output(String variable) {
+        return new OutputVariable(variable);
+    }
+
+    private static String minify(Command... commands) {
+        PushStream stream = new PushStream();
+        CommandStream minified = WhitespaceMinification.TRANSFORMER.transform(stream);
+        for (Command command : commands) {
+            stream.write(command);
+        }
+        stream.close();
+        StringBuilder output = new StringBuilder();
+        for (Command command : minified.getCommands()) {
+            if (command instanceof OutText) {
+                output.append(((OutText) command).getText());
+            } else if (command instanceof OutputVariable) {
+                output.append("${")
+                        .append(((OutputVariable) command).getVariableName())
+                        .append('}');
+            }
+        }
+        return output.toString();
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.impl.compiler.util;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.sling.scripting.sightly.compiler.SightlyCompilerException;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SingleFlightTest {
+
+    @Test
+    public void testSequentialExecutions() {
+        SingleFlight<String, Integer> singleFlight = new SingleFlight<>();
+        AtomicInteger computations = new AtomicInteger();
+        SingleFlight.Outcome<Integer> first = singleFlight.execute("key", computations::incrementAndGet);
+        SingleFlight.Outcome<Integer> second = singleFlight.execute("key", computations::incrementAndGet);
+        // the completed computations are not cached
+        assertEquals(Integer.valueOf(1), first.getResult());
+        assertEquals(Integer.valueOf(2), second.getResult());
+        assertFalse(first.isShared());
+        assertFalse(second.isShared());
+    }
+
+    @Test
+    public void testSharedResult() throws Exception {
+        final CountDownLatch joined = new CountDownLatch(1);
+        final List<String> joinedKeys = new CopyOnWriteArrayList<>();
+        final SingleFlight<String, Object> singleFlight = new SingleFlight<>(key -> {
+            joinedKeys.add(key);
+            joined.countDown();
+        });
+        final Object result = new Object();
+        final AtomicReference<SingleFlight.Outcome<Object>> joiner = new AtomicReference<>();
+        final Thread[] thread = new Thread[1];
+        SingleFlight.Outcome<Object> outcome = singleFlight.execute("key", () -> {
+            thread[0] = new Thread(() -> joiner.set(singleFlight.execute("key", () -> {
+                throw new AssertionError("The running computation should have been joined");
+            })));
+            thread[0].start();
+            await(joined);
+            return result;
+        });
+        join(thread[0]);
+        assertSame(result, outcome.getResult());
+        assertFalse(outcome.isShared());
+        assertSame(result, joiner.get().getResult());
+        assertTrue(joiner.get().isShared());
+        assertEquals(1, joinedKeys.size());
+        assertEquals("key", joinedKeys.get(0));
+    }
+
+    @Test
+    public void testDifferentKeys() {
+        final SingleFlight<String, String> singleFlight = new SingleFlight<>(key -> {
+            throw new AssertionError("The computations of different keys should not be joined");
+        });
+        // a computation can run another one for a different key while it's still pending
+        SingleFlight.Outcome<String> outcome = singleFlight.execute(
+                "outer", () -> singleFlight.execute("inner", () -> "inner").getResult() + " in outer");
+        assertEquals("inner in outer", outcome.getResult());
+        assertFalse(outcome.isShared());
+    }
+
+    @Test
+    public void testSharedFailure() throws Exception {
+        assertSharedFailure(new IllegalStateException("failure"));
+        assertSharedFailure(new LinkageError("failure"));
+    }
+
+    @Test
+    public void testInterruptedWait() throws Exception {
+        final CountDownLatch joined = new CountDownLatch(1);
+        final SingleFlight<String, String> singleFlight = new SingleFlight<>(key -> joined.countDown());
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final AtomicReference<Boolean> interrupted = new AtomicReference<>();
+        SingleFlight.Outcome<String> outcome = singleFlight.execute("key", () -> {
+            Thread thread = new Thread(() -> {
+                Thread.currentThread().interrupt();
+                try {
+                    singleFlight.execute("key", () -> "joiner");
+                } catch (RuntimeException e) {
+                    failure.set(e);
+                }
+                interrupted.set(Thread.currentThread().isInterrupted());
+            });
+            thread.start();
+            await(joined);
+            join(thread);
+            return "result";
+        });
+        // the interrupted caller gives up without affecting the running computation
+        assertEquals("result", outcome.getResult());
+        assertTrue(failure.get() instanceof SightlyCompilerException);
+        assertTrue(failure.get().getCause() instanceof InterruptedException);
+        assertTrue(interrupted.get());
+    }
+
+    private static void assertSharedFailure(final Throwable cause) throws Exception {
+        final CountDownLatch joined = new CountDownLatch(1);
+        final SingleFlight<String, String> singleFlight = new SingleFlight<>(key -> joined.countDown());
+        final AtomicReference<Throwable> joinerFailure = new AtomicReference<>();
+        final Thread[] joiner = new Thread[1];
+        try {
+            singleFlight.execute("key", () -> {
+                joiner[0] = new Thread(() -> {
+                    try {
+                        singleFlight.execute("key", () -> "joiner");
+                    } catch (RuntimeException | Error e) {
+                        joinerFailure.set(e);
+                    }
+                });
+                joiner[0].start();
+                await(joined);
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw (RuntimeException) cause;
+            });
+            fail("Expected the failure of the computation");
+        } catch (RuntimeException | Error e) {
+            assertSame(cause, e);
+        }
+        join(joiner[0]);
+        assertSame(cause, joinerFailure.get());
+        // the failed computation is not cached either
+        assertEquals("retry", singleFlight.execute("key", () -> "retry").getResult());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void join(Thread thread) {
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.impl.compiler.util.stream;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CommandRingTest {
+
+    @Test
+    public void testCapacity() {
+        for (int capacity : new int[] {0, -2, 3, 1000}) {
+            try {
+                new CommandRing(capacity);
+                fail("Expected an IllegalArgumentException for the capacity " + capacity);
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage().contains(String.valueOf(capacity)));
+            }
+        }
+        CommandRing ring = new CommandRing(1);
+        ring.put("element");
+        assertEquals("element", ring.take());
+    }
+
+    @Test
+    public void testOrderAcrossWraps() {
+        CommandRing ring = new CommandRing(4);
+        int next = 0;
+        for (int round = 0; round < 10; round++) {
+            ring.put(round * 3);
+            ring.put(round * 3 + 1);
+            ring.put(round * 3 + 2);
+            for (int i = 0; i < 3; i++) {
+                assertEquals(next++, ring.take());
+            }
+        }
+    }
+
+    @Test
+    public void testBlockingProducer() throws Exception {
+        final CommandRing ring = new CommandRing(2);
+        final AtomicInteger produced = new AtomicInteger();
+        Thread producer = new Thread(() -> {
+            for (int i = 0; i < 1000; i++) {
+                ring.put(i);
+                produced.incrementAndGet();
+            }
+        });
+        producer.start();
+        // the producer waits for a free slot once the ring is full
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (produced.get() < 2 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        Thread.sleep(50);
+        assertEquals(2, produced.get());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, ring.take());
+        }
+        producer.join(TimeUnit.SECONDS.toMillis(10));
+        assertFalse(producer.isAlive());
+    }
+
+    @Test
+    public void testBlockingConsumer() throws Exception {
+        final CommandRing ring = new CommandRing(2);
+        final Object[] taken = new Object[1];
+        Thread consumer = new Thread(() -> taken[0] = ring.take());
+        consumer.start();
+        Thread.sleep(50);
+        // the consumer waits until an element is available
+        assertTrue(consumer.isAlive());
+        ring.put("element");
+        consumer.join(TimeUnit.SECONDS.toMillis(10));
+        assertFalse(consumer.isAlive());
+        assertEquals("element", taken[0]);
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.impl.compiler.util.stream;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+
+import org.apache.sling.scripting.sightly.compiler.commands.Command;
+import org.apache.sling.scripting.sightly.compiler.commands.CommandHandler;
+import org.apache.sling.scripting.sightly.compiler.commands.CommandStream;
+import org.apache.sling.scripting.sightly.compiler.commands.Conditional;
+import org.apache.sling.scripting.sightly.compiler.commands.OutText;
+import org.apache.sling.scripting.sightly.compiler.commands.Procedure;
+import org.apache.sling.scripting.sightly.compiler.commands.VariableBinding;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.NullLiteral;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.StringConstant;
+import org.apache.sling.scripting.sightly.impl.compiler.PushStream;
+import org.apache.sling.scripting.sightly.impl.compiler.optimization.StreamTransformer;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ParallelProceduresTest {
+
+    private final ForkJoinPool pool = new ForkJoinPool(4);
+    private final RecordingOptimizer optimizer = new RecordingOptimizer();
+
+    @After
+    public void tearDown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void testWithoutProcedures() {
+        List<Command> input = Arrays.<Command>asList(
+                new OutText("a"), new Conditional.Start("c", true), new OutText("b"), Conditional.END);
+        Recorder output = transform(input, null);
+        assertEquals(input, output.commands);
+        assertTrue(output.done);
+        assertEquals(Collections.singletonList(input), optimizer.inputs);
+    }
+
+    @Test
+    public void testProcedures() {
+        Command first = new OutText("first");
+        Command second = new OutText("second");
+        Command text = new OutText("text");
+        Procedure.Start firstStart = new Procedure.Start("t1", Collections.<String>emptySet());
+        Procedure.Start secondStart = new Procedure.Start("t2", Collections.<String>emptySet());
+        List<Command> input = Arrays.<Command>asList(
+                firstStart, first, Procedure.END, text, secondStart, second, Procedure.END, new OutText("end"));
+        Recorder output = transform(input, null);
+        // the procedures are stitched back in their original order
+        assertEquals(input, output.commands);
+        assertTrue(output.done);
+        assertEquals(3, optimizer.inputs.size());
+        assertTrue(optimizer.inputs.contains(Arrays.asList(firstStart, first, Procedure.END)));
+        assertTrue(optimizer.inputs.contains(Arrays.asList(secondStart, second, Procedure.END)));
+        // the rest of the stream is optimised with empty placeholders
+        assertTrue(optimizer.inputs.contains(
+                Arrays.asList(firstStart, Procedure.END, text, secondStart, Procedure.END, input.get(7))));
+    }
+
+    @Test
+    public void testGlobals() {
+        Procedure.Start start = new Procedure.Start("t", Collections.<String>emptySet());
+        Command before = new VariableBinding.Global("before", new StringConstant("b"));
+        Command inside = new VariableBinding.Global("inside", new StringConstant("i"));
+        Command after = new VariableBinding.Global("after", new StringConstant("a"));
+        Command text = new OutText("text");
+        List<Command> input = Arrays.<Command>asList(before, start, inside, text, Procedure.END, after);
+        Recorder output = transform(input, null);
+        // the surrounding assignments are discarded from the optimised procedure
+        assertEquals(input, output.commands);
+
+        List<Command> procedure = null;
+        List<Command> main = null;
+        for (List<Command> optimized : optimizer.inputs) {
+            if (optimized.contains(text)) {
+                procedure = optimized;
+            } else {
+                main = optimized;
+            }
+        }
+        // the procedure is surrounded by the assignments found before and after it, with their values left out
+        assertEquals(6, procedure.size());
+        assertGlobal("before", procedure.get(0));
+        assertEquals(Arrays.asList(start, inside, text, Procedure.END), procedure.subList(1, 5));
+        assertGlobal("after", procedure.get(5));
+        // the placeholder keeps the assignments of the procedure
+        assertEquals(5, main.size());
+        assertEquals(Arrays.asList(before, start), main.subList(0, 2));
+        assertGlobal("inside", main.get(2));
+        assertEquals(Arrays.asList(Procedure.END, after), main.subList(3, 5));
+    }
+
+    @Test
+    public void testNestedProcedures() {
+        // only the procedures at the top level of the stream are split
+        List<Command> input = Arrays.<Command>asList(
+                new Conditional.Start("c", true),
+                new Procedure.Start("t", Collections.<String>emptySet()),
+                new OutText("text"),
+                Procedure.END,
+                Conditional.END);
+        Recorder output = transform(input, null);
+        assertEquals(input, output.commands);
+        assertEquals(Collections.singletonList(input), optimizer.inputs);
+    }
+
+    @Test
+    public void testUnbalancedStream() {
+        List<Command> input = Arrays.<Command>asList(
+                new OutText("text"), new Procedure.Start("t", Collections.<String>emptySet()), new OutText("text"));
+        Recorder output = transform(input, null);
+        assertEquals(input, output.commands);
+        assertTrue(output.done);
+        assertEquals(Collections.singletonList(input), optimizer.inputs);
+    }
+
+    @Test
+    public void testInputError() {
+        List<Command> input = Arrays.<Command>asList(
+                new Procedure.Start("t", Collections.<String>emptySet()), new OutText("text"), Procedure.END);
+        Recorder output = transform(input, "failure");
+        assertEquals(input, output.commands);
+        assertEquals("failure", output.errorMessage);
+        assertEquals(Collections.singletonList(input), optimizer.inputs);
+        assertEquals("failure", optimizer.errorMessages.get(0));
+    }
+
+    @Test
+    public void testProcedureError() {
+        optimizer.failOn = "fail";
+        Command failing = new OutText("fail");
+        List<Command> input = Arrays.<Command>asList(
+                new Procedure.Start("t", Collections.<String>emptySet()), failing, Procedure.END, new OutText("text"));
+        Recorder output = transform(input, null);
+        // the error of a procedure is signalled once the whole stream is emitted
+        assertEquals(input, output.commands);
+        assertEquals("fail", output.errorMessage);
+    }
+
+    private Recorder transform(List<Command> input, String errorMessage) {
+        PushStream stream = new PushStream();
+        Recorder recorder = new Recorder();
+        ParallelProcedures.transformer(optimizer, pool).transform(stream).addHandler(recorder);
+        for (Command command : input) {
+            stream.write(command);
+        }
+        if (errorMessage != null) {
+            stream.signalError(errorMessage);
+        } else {
+            stream.close();
+        }
+        return recorder;
+    }
+
+    private static void assertGlobal(String name, Command command) {
+        VariableBinding.Global global = (VariableBinding.Global) command;
+        assertEquals(name, global.getVariableName());
+        assertSame(NullLiteral.INSTANCE, global.getExpression());
+    }
+
+    /**
+     * Passes the commands through, while recording the streams it optimises; signals an error after the text {@code failOn}.
+     */
+    private static final class RecordingOptimizer implements StreamTransformer {
+
+        private final List<List<Command>> inputs = new CopyOnWriteArrayList<>();
+        private final List<String> errorMessages = new CopyOnWriteArrayList<>();
+        private volatile String failOn;
+
+        @Override
+        public CommandStream transform(CommandStream inStream) {
+            final PushStream outStream = new PushStream();
+            final List<Command> input = new ArrayList<>();
+            inStream.addHandler(new CommandHandler() {
+                private boolean failed;
+
+                @Override
+                public void onEmit(Command command) {
+                    input.add(command);
+                    outStream.write(command);
+                    if (command instanceof OutText
+                            && ((OutText) command).getText().equals(failOn)) {
+                        failed = true;
+                    }
+                }
+
+                @Override
+                public void onError(String errorMessage) {
+                    inputs.add(input);
+                    errorMessages.add(errorMessage);
+                    outStream.signalError(errorMessage);
+                }
+
+                @Override
+                public void onDone() {
+                    inputs.add(input);
+                    if (failed) {
+                        outStream.signalError(failOn);
+                    } else {
+                        outStream.close();
+                    }
+                }
+            });
+            return outStream;
+        }
+    }
+
+    private static final class Recorder implements CommandHandler {
+
+        private final List<Command> commands = new ArrayList<>();
+        private String errorMessage;
+        private boolean done;
+
+        @Override
+        public void onEmit(Command command) {
+            commands.add(command);
+        }
+
+        @Override
+        public void onError(String errorMessage) {
+            this.errorMessage = errorMessage;
+        }
+
+        @Override
+        public void onDone() {
+            done = true;
+        }
+    }
+}
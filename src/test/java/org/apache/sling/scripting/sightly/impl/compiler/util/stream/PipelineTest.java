@@ -0,0 +1,269 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.impl.compiler.util.stream;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+
+import org.apache.sling.scripting.sightly.compiler.SightlyCompilerException;
+import org.apache.sling.scripting.sightly.compiler.commands.Command;
+import org.apache.sling.scripting.sightly.compiler.commands.CommandHandler;
+import org.apache.sling.scripting.sightly.compiler.commands.CommandStream;
+import org.apache.sling.scripting.sightly.compiler.commands.OutText;
+import org.apache.sling.scripting.sightly.impl.compiler.PushStream;
+import org.apache.sling.scripting.sightly.impl.compiler.optimization.StreamTransformer;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PipelineTest {
+
+    private final ExecutorService executor = Pipeline.newExecutor();
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testSequence() {
+        Pipeline pipeline = new Pipeline(executor);
+        PushStream stream = new PushStream();
+        // more commands than a ring can hold, so that the stages wait for each other
+        List<StreamTransformer> transformers = Arrays.asList(map(text -> text + "a"), map(text -> text + "b"));
+        RecordingHandler handler = new RecordingHandler();
+        pipeline.sequence(transformers).transform(stream).addHandler(handler);
+        pipeline.start();
+        for (int i = 0; i < 5000; i++) {
+            stream.write(new OutText(String.valueOf(i)));
+        }
+        stream.close();
+        pipeline.await();
+        assertTrue(handler.done);
+        assertNull(handler.errorMessage);
+        assertEquals(5000, handler.texts.size());
+        for (int i = 0; i < 5000; i++) {
+            assertEquals(i + "ab", handler.texts.get(i));
+        }
+        // the consumers are notified on the thread of the last boundary
+        assertNotEquals(Thread.currentThread(), handler.thread);
+    }
+
+    @Test
+    public void testEmptySequence() {
+        Pipeline pipeline = new Pipeline(executor);
+        PushStream stream = new PushStream();
+        RecordingHandler handler = new RecordingHandler();
+        pipeline.sequence(Collections.<StreamTransformer>emptyList())
+                .transform(stream)
+                .addHandler(handler);
+        pipeline.start();
+        stream.write(new OutText("text"));
+        stream.close();
+        pipeline.await();
+        assertEquals(Collections.singletonList("text"), handler.texts);
+        assertTrue(handler.done);
+    }
+
+    @Test
+    public void testAbort() {
+        Pipeline pipeline = new Pipeline(executor);
+        PushStream stream = new PushStream();
+        RecordingHandler handler = new RecordingHandler();
+        pipeline.sequence(Collections.singletonList(map(text -> text)))
+                .transform(stream)
+                .addHandler(handler);
+        pipeline.start();
+        stream.write(new OutText("text"));
+        pipeline.abort("aborted");
+        pipeline.await();
+        assertEquals(Collections.singletonList("text"), handler.texts);
+        assertEquals("aborted", handler.errorMessage);
+        assertFalse(handler.done);
+    }
+
+    @Test
+    public void testAbortAfterEnd() {
+        Pipeline pipeline = new Pipeline(executor);
+        PushStream stream = new PushStream();
+        RecordingHandler handler = new RecordingHandler();
+        pipeline.sequence(Collections.singletonList(map(text -> text)))
+                .transform(stream)
+                .addHandler(handler);
+        pipeline.start();
+        stream.close();
+        // the stages which already received the end of their input are not aborted
+        pipeline.abort("aborted");
+        pipeline.await();
+        assertTrue(handler.done);
+        assertNull(handler.errorMessage);
+    }
+
+    @Test
+    public void testFailingStage() {
+        final IllegalStateException stageFailure = new IllegalStateException("stage failure");
+        Pipeline pipeline = new Pipeline(executor);
+        PushStream stream = new PushStream();
+        RecordingHandler handler = new RecordingHandler();
+        pipeline.sequence(Arrays.asList(
+                        map(text -> {
+                            if ("fail".equals(text)) {
+                                throw stageFailure;
+                            }
+                            return text;
+                        }),
+                        map(text -> text)))
+                .transform(stream)
+                .addHandler(handler);
+        pipeline.start();
+        stream.write(new OutText("text"));
+        stream.write(new OutText("fail"));
+        stream.write(new OutText("ignored"));
+        stream.close();
+        try {
+            pipeline.await();
+            fail("Expected the failure of the stage to be rethrown.");
+        } catch (IllegalStateException e) {
+            assertSame(stageFailure, e);
+        }
+        // the failing stage stops processing its input and signals the error to the following stages
+        assertEquals(Collections.singletonList("text"), handler.texts);
+        assertEquals(String.valueOf(stageFailure), handler.errorMessage);
+        assertFalse(handler.done);
+    }
+
+    @Test
+    public void testRejectedBoundary() {
+        final ExecutorService limitedExecutor = Pipeline.newExecutor();
+        final int[] executions = new int[1];
+        try {
+            // the executor runs the first boundary only
+            Pipeline pipeline = new Pipeline(command -> {
+                if (executions[0]++ > 0) {
+                    throw new RejectedExecutionException("rejected");
+                }
+                limitedExecutor.execute(command);
+            });
+            PushStream stream = new PushStream();
+            pipeline.sequence(Collections.singletonList(map(text -> text))).transform(stream);
+            try {
+                pipeline.start();
+                fail("Expected the rejected boundary to fail the start of the pipeline.");
+            } catch (SightlyCompilerException e) {
+                assertTrue(e.getCause() instanceof RejectedExecutionException);
+            }
+            pipeline.abort("aborted");
+            try {
+                pipeline.await();
+                fail("Expected the rejection to be rethrown.");
+            } catch (RejectedExecutionException e) {
+                assertEquals("rejected", e.getMessage());
+            }
+        } finally {
+            limitedExecutor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testAwaitWithoutStart() {
+        Pipeline pipeline = new Pipeline(executor);
+        pipeline.sequence(Collections.<StreamTransformer>emptyList()).transform(new PushStream());
+        pipeline.await();
+    }
+
+    @Test
+    public void testInterruptedAwait() {
+        Pipeline pipeline = new Pipeline(executor);
+        PushStream stream = new PushStream();
+        pipeline.sequence(Collections.<StreamTransformer>emptyList()).transform(stream);
+        pipeline.start();
+        Thread.currentThread().interrupt();
+        try {
+            pipeline.await();
+            fail("Expected the interrupted wait to fail.");
+        } catch (SightlyCompilerException e) {
+            assertTrue(e.getCause() instanceof InterruptedException);
+            assertTrue(Thread.interrupted());
+        } finally {
+            stream.close();
+        }
+    }
+
+    private static StreamTransformer map(final Function<String, String> function) {
+        return new StreamTransformer() {
+            @Override
+            public CommandStream transform(CommandStream inStream) {
+                final PushStream outStream = new PushStream();
+                inStream.addHandler(new CommandHandler() {
+                    @Override
+                    public void onEmit(Command command) {
+                        outStream.write(new OutText(function.apply(((OutText) command).getText())));
+                    }
+
+                    @Override
+                    public void onError(String errorMessage) {
+                        outStream.signalError(errorMessage);
+                    }
+
+                    @Override
+                    public void onDone() {
+                        outStream.close();
+                    }
+                });
+                return outStream;
+            }
+        };
+    }
+
+    private static final class RecordingHandler implements CommandHandler {
+
+        private final List<String> texts = new ArrayList<>();
+        private String errorMessage;
+        private boolean done;
+        private Thread thread;
+
+        @Override
+        public void onEmit(Command command) {
+            texts.add(((OutText) command).getText());
+        }
+
+        @Override
+        public void onError(String errorMessage) {
+            this.errorMessage = errorMessage;
+        }
+
+        @Override
+        public void onDone() {
+            done = true;
+            thread = Thread.currentThread();
+        }
+    }
+}
@@ -19,6 +19,7 @@
 package org.apache.sling.scripting.sightly.impl.frontend;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -28,6 +29,8 @@ import org.apache.sling.scripting.sightly.compiler.expression.Expression;
 import org.apache.sling.scripting.sightly.compiler.expression.ExpressionNode;
 import org.apache.sling.scripting.sightly.compiler.expression.MarkupContext;
 import org.apache.sling.scripting.sightly.compiler.expression.nodes.ArrayLiteral;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.FormatToken;
+import org.apache.sling.scripting.sightly.compiler.expression.nodes.Identifier;
 import org.apache.sling.scripting.sightly.compiler.expression.nodes.MapLiteral;
 import org.apache.sling.scripting.sightly.compiler.expression.nodes.NullLiteral;
 import org.apache.sling.scripting.sightly.compiler.expression.nodes.NumericConstant;
@@ -47,6 +50,7 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
 public class ExpressionWrapperTest {
 
@@ -94,6 +98,30 @@ public class ExpressionWrapperTest {
         assertEquals(RuntimeCall.FORMAT, format.getFunctionName());
     }
 
+    @Test
+    public void testFormatPatternTokens() {
+        Interpolation interpolation = new Interpolation();
+        Map<String, ExpressionNode> options = new HashMap<>();
+        options.put(FormatFilter.FORMAT_OPTION, new Identifier("names"));
+        interpolation.addExpression(new Expression(new StringConstant("Hello {0} and {1}!"), options));
+        ExpressionWrapper wrapper = new ExpressionWrapper(new PushStream(), filters, Collections.emptySet());
+        Expression result = wrapper.transform(interpolation, MarkupContext.TEXT, ExpressionContext.TEXT);
+        RuntimeCall format = (RuntimeCall) runOptionsAndXSSAssertions(result, 0).get(0);
+        // the tokens are compile-time metadata, the runtime options are unchanged
+        MapLiteral formatOptions = (MapLiteral) format.getArguments().get(1);
+        assertEquals(1, formatOptions.getMap().size());
+        assertEquals(
+                Arrays.asList(
+                        FormatToken.text("Hello "),
+                        FormatToken.argument(0),
+                        FormatToken.text(" and "),
+                        FormatToken.argument(1),
+                        FormatToken.text("!")),
+                format.getFormatTokens());
+        assertNull(new RuntimeCall(RuntimeCall.FORMAT, new Identifier("pattern"), new MapLiteral(options))
+                .getFormatTokens());
+    }
+
     @Test
     public void testJoinOptionsRemoval() {
         Interpolation interpolation = new Interpolation();
@@ -192,6 +192,40 @@ public class ObjectModelTest {
         assertNull("Expected null result for inexistent method.", ObjectModel.resolveProperty(johnDoe, "nomethod"));
     }
 
+    @Test
+    public void testRepeatedPropertyResolution() {
+        Person johnDoe = AdultFactory.createAdult("John", "Doe");
+        Person janeRoe = AdultFactory.createAdult("Jane", "Roe");
+        for (int i = 0; i < 3; i++) {
+            assertEquals("Doe", ObjectModel.resolveProperty(johnDoe, "lastName"));
+            assertEquals("Roe", ObjectModel.resolveProperty(janeRoe, "lastName"));
+            assertEquals(1l, ObjectModel.resolveProperty(janeRoe, "CONSTANT"));
+            assertNull(ObjectModel.resolveProperty(johnDoe, "TODAY"));
+            assertNull(ObjectModel.resolveProperty(johnDoe, "fullName"));
+            assertNull(ObjectModel.resolveProperty(johnDoe, "nomethod"));
+        }
+        assertEquals(3, ObjectModel.resolveProperty("foo", "length"));
+        assertEquals(0, ObjectModel.resolveProperty(new StringBuilder(), "length"));
+    }
+
+    @Test
+    public void testPrimitiveAndStaticAccessors() {
+        Pojo pojo = new Pojo();
+        assertEquals(42, ObjectModel.resolveProperty(pojo, "answer"));
+        assertEquals("static", ObjectModel.resolveProperty(pojo, "STATIC_FIELD"));
+        assertEquals(true, ObjectModel.resolveProperty(pojo, "enabled"));
+        assertEquals('c', ObjectModel.resolveProperty(pojo, "letter"));
+        assertEquals("kind", ObjectModel.resolveProperty(pojo, "kind"));
+        assertNull(ObjectModel.resolveProperty(pojo, "failing"));
+        // the errors are not swallowed
+        try {
+            ObjectModel.resolveProperty(pojo, "broken");
+            fail("Expected the error of the accessor to be rethrown");
+        } catch (LinkageError e) {
+            assertEquals("broken", e.getMessage());
+        }
+    }
+
     @Test
     public void testGetIndex() {
         assertNull(ObjectModel.getIndex(null, 0));
@@ -226,6 +260,33 @@ public class ObjectModelTest {
         assertNull(ObjectModel.invokeBeanMethod(this, ""));
     }
 
+    public static class Pojo {
+
+        public static final String STATIC_FIELD = "static";
+
+        public int answer = 42;
+
+        public static String getKind() {
+            return "kind";
+        }
+
+        public boolean isEnabled() {
+            return true;
+        }
+
+        public char getLetter() {
+            return 'c';
+        }
+
+        public String getFailing() {
+            throw new IllegalStateException();
+        }
+
+        public String getBroken() {
+            throw new LinkageError("broken");
+        }
+    }
+
     private class Bag<T> implements Iterable<T> {
 
         private T[] backingArray;